@@ -20,9 +20,9 @@
 package org.openremote.agent.protocol;
 
 import org.apache.camel.ProducerTemplate;
-import org.apache.camel.builder.RouteBuilder;
 import org.openremote.container.concurrent.GlobalLock;
 import org.openremote.container.message.MessageBrokerContext;
+import org.openremote.container.concurrent.QueueBackpressure;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.timer.TimerService;
 import org.openremote.model.Container;
@@ -39,30 +39,35 @@ import org.openremote.model.syslog.SyslogCategory;
 import org.openremote.model.util.Pair;
 import org.openremote.model.value.MetaItemType;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
+import static java.util.logging.Level.FINEST;
 import static org.openremote.model.protocol.ProtocolUtil.hasDynamicWriteValue;
 import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
 
 /**
  * Thread-safe base implementation for protocols.
  * <p>
- * Subclasses should use the {@link GlobalLock#withLock} and {@link GlobalLock#withLockReturning} methods
- * to guard critical sections when modifying shared state:
+ * Subclasses should use the {@link #withLock} and {@link #withLockReturning} methods to guard critical sections when
+ * modifying shared state, the lock is held per protocol instance so instances of different agents don't block each
+ * other:
  * <blockquote><pre>{@code
  * withLock(getProtocolName(), () -> {
  *     // Critical section
  * });
  * }</pre></blockquote>
  * <blockquote><pre>{@code
- * return withLockReturning(() -> {
+ * return withLockReturning(getProtocolName(), () -> {
  *     // Critical section
  *     return ...;
  * });
@@ -70,15 +75,20 @@ import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
  * <p>
  * All <code>abstract</code> methods are always called within lock scope. An implementation can rely on this lock
  * and safely modify internal, protocol-specific shared state. However, if a protocol implementation schedules
- * an asynchronous task, this task must obtain the lock to call any protocol operations.
+ * an asynchronous task, this task must obtain the lock to call any protocol operations. The agent service calls
+ * protocol operations while holding the {@link GlobalLock}, so code holding the lock of the instance must not wait
+ * for the {@link GlobalLock}.
  */
 public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends AgentLink<?>> implements Protocol<T> {
 
     private static final Logger LOG = SyslogCategory.getLogger(PROTOCOL, AbstractProtocol.class);
     protected final Map<AttributeRef, Attribute<?>> linkedAttributes = new HashMap<>();
     protected final Set<AttributeRef> dynamicAttributes = new HashSet<>();
+    // Guards the state of this instance, see withLock
+    protected final ReentrantLock lock = new ReentrantLock();
     protected MessageBrokerContext messageBrokerContext;
     protected ProducerTemplate producerTemplate;
+    protected QueueBackpressure sensorQueueBackpressure;
     protected TimerService timerService;
     protected ScheduledExecutorService executorService;
     protected ProtocolAssetService assetService;
@@ -96,40 +106,18 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
         assetService = container.getService(ProtocolAssetService.class);
         predictedAssetService = container.getService(ProtocolPredictedAssetService.class);
         messageBrokerContext = container.getService(MessageBrokerService.class).getContext();
+        this.producerTemplate = container.getService(MessageBrokerService.class).getProducerTemplate();
+        this.sensorQueueBackpressure = container.getService(MessageBrokerService.class).getQueueBackpressure(SENSOR_QUEUE);
 
+        // Guarded by the lock of this instance only, so that instances of different agents can start (and connect)
+        // concurrently
         withLock(getProtocolName() + "::start", () -> {
             try {
-                messageBrokerContext.addRoutes(new RouteBuilder() {
-                    @Override
-                    public void configure() throws Exception {
-                        from(ACTUATOR_TOPIC)
-                            .routeId("Actuator-" + getProtocolName() + getAgent().getId())
-                            .process(exchange -> {
-                                Protocol<?> protocolInstance = exchange.getIn().getHeader(ACTUATOR_TOPIC_TARGET_PROTOCOL, Protocol.class);
-                                if (protocolInstance != AbstractProtocol.this) {
-                                    return;
-                                }
-
-                                AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
-                                Attribute<?> linkedAttribute = getLinkedAttributes().get(event.getAttributeRef());
-
-                                if (linkedAttribute == null) {
-                                    LOG.info("Attempt to write to attribute that is not actually linked to this protocol '" + AbstractProtocol.this + "': " + linkedAttribute);
-                                    return;
-                                }
-
-                                processLinkedAttributeWrite(event);
-                            });
-                    }
-                });
-
                 doStart(container);
-
             } catch (Exception ex) {
                 throw new RuntimeException(ex);
             }
         });
-        this.producerTemplate = container.getService(MessageBrokerService.class).getProducerTemplate();
     }
 
     @Override
@@ -137,9 +125,6 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
         withLock(getProtocolName() + "::stop", () -> {
             linkedAttributes.clear();
             try {
-                messageBrokerContext.stopRoute("Actuator-" + getProtocolName(), 1, TimeUnit.MILLISECONDS);
-                messageBrokerContext.removeRoute("Actuator-" + getProtocolName());
-
                 doStop(container);
 
             } catch (Exception ex) {
@@ -182,6 +167,26 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
         });
     }
 
+    @Override
+    final public void linkAttributes(Map<String, ? extends Collection<Attribute<?>>> assetAttributes) {
+        withLock(getProtocolName() + "::linkAttributes", () ->
+            assetAttributes.forEach((assetId, attributes) -> {
+                LOG.fine("Linking asset '" + assetId + "' attributes to protocol: attributes=" + attributes.size() + ", protocol=" + this);
+
+                attributes.forEach(attribute -> {
+                    AttributeRef attributeRef = new AttributeRef(assetId, attribute.getName());
+                    if (linkedAttributes.containsKey(attributeRef)) {
+                        return;
+                    }
+                    try {
+                        linkAttribute(assetId, attribute);
+                    } catch (Exception ex) {
+                        LOG.log(Level.SEVERE, "Failed to link attribute '" + attributeRef + "' to protocol: " + this, ex);
+                    }
+                });
+            }));
+    }
+
     @Override
     final public void unlinkAttribute(String assetId, Attribute<?> attribute) throws Exception {
         withLock(getProtocolName() + "::unlinkAttributes", () -> {
@@ -203,7 +208,8 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
         return linkedAttributes;
     }
 
-    final protected void processLinkedAttributeWrite(AttributeEvent event) {
+    @Override
+    final public void processLinkedAttributeWrite(AttributeEvent event) {
         LOG.finest("Processing linked attribute write on protocol '" + this + "': " + event);
         withLock(getProtocolName() + "::processLinkedAttributeWrite", () -> {
 
@@ -250,14 +256,17 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
      * publish new sensor values, which performs additional verification and uses a different messaging queue.
      */
     final protected void sendAttributeEvent(AttributeEvent event) {
-        withLock(getProtocolName() + "::sendAttributeEvent", () -> {
-            // Don't allow updating linked attributes with this mechanism as it could cause an infinite loop
-            if (linkedAttributes.containsKey(event.getAttributeRef())) {
-                LOG.warning("Cannot update an attribute linked to the same protocol; use updateLinkedAttribute for that: " + event);
-                return;
-            }
-            assetService.sendAttributeEvent(event);
-        });
+        // Don't allow updating linked attributes with this mechanism as it could cause an infinite loop
+        boolean linked = Boolean.TRUE.equals(withLockReturning(getProtocolName() + "::sendAttributeEvent", () ->
+            linkedAttributes.containsKey(event.getAttributeRef())));
+
+        if (linked) {
+            LOG.warning("Cannot update an attribute linked to the same protocol; use updateLinkedAttribute for that: " + event);
+            return;
+        }
+
+        // Not guarded by the global lock so that the asset queue can apply backpressure
+        assetService.sendAttributeEvent(event);
     }
 
     /**
@@ -281,6 +290,9 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
 
         AttributeEvent attributeEvent = new AttributeEvent(new AttributeState(state.getRef(), ignoreAndConverted.value), timestamp);
         LOG.finer("Sending linked attribute update on sensor queue: " + attributeEvent);
+        if (sensorQueueBackpressure != null) {
+            sensorQueueBackpressure.await();
+        }
         producerTemplate.sendBodyAndHeader(SENSOR_QUEUE, attributeEvent, Protocol.SENSOR_QUEUE_SOURCE_PROTOCOL, getProtocolName());
     }
 
@@ -305,6 +317,47 @@ public abstract class AbstractProtocol<T extends Agent<T, ?, U>, U extends Agent
         updateLinkedAttribute(state, timerService.getCurrentTimeMillis());
     }
 
+    /**
+     * Obtain the lock of this protocol instance within {@link GlobalLock#getLockTimeoutMillis()} or throw
+     * {@link IllegalStateException}.
+     *
+     * @param info     An informal text that is printed in log messages.
+     * @param runnable The guarded code to execute while holding the lock.
+     */
+    protected void withLock(String info, Runnable runnable) {
+        withLockReturning(info, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Obtain the lock of this protocol instance within {@link GlobalLock#getLockTimeoutMillis()} or throw
+     * {@link IllegalStateException}.
+     *
+     * @param info     An informal text that is printed in log messages.
+     * @param supplier The guarded code to execute while holding the lock.
+     * @return The result of the supplier, or <code>null</code> if interrupted while waiting for the lock.
+     */
+    protected <R> R withLockReturning(String info, Supplier<R> supplier) {
+        try {
+            if (!lock.tryLock(GlobalLock.getLockTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException(
+                    "Could not acquire lock of protocol '" + this + "' after waiting " + GlobalLock.getLockTimeoutMillis() + "ms: " + Thread.currentThread().getName() + " executing " + info
+                );
+            }
+        } catch (InterruptedException ex) {
+            LOG.log(FINEST, "Interrupted while waiting for lock: " + info);
+            return null;
+        }
+
+        try {
+            return supplier.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * Start this protocol instance
      */
@@ -5,7 +5,6 @@ import org.openremote.model.attribute.AttributeRef;
 import java.util.*;
 import java.util.stream.Collectors;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
 
 /**
  * Controller class represent a Controller defined in a Manager Agent and store all sensors and commands linked to that Controller agent
@@ -53,11 +52,12 @@ public class Controller {
         return this.controllerConfigName;
     }
 
+    /**
+     * Called within the lock of the {@link ControllerProtocol} instance like all other modifications.
+     */
     public void removeAttributeRef(AttributeRef attributeRef) {
-        withLock(ControllerProtocol.PROTOCOL_DISPLAY_NAME + ":Controller::removeAttributeRef", () -> {
-            this.commandsList.remove(attributeRef);
-            this.sensorsList.remove(attributeRef);
-        });
+        this.commandsList.remove(attributeRef);
+        this.sensorsList.remove(attributeRef);
     }
 
     /**
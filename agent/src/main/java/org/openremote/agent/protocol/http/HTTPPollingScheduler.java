@@ -0,0 +1,324 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.agent.protocol.http;
+
+import org.openremote.agent.protocol.http.HTTPProtocol.HttpClientRequest;
+import org.openremote.agent.protocol.http.HTTPProtocol.PagingResponse;
+import org.openremote.model.syslog.SyslogCategory;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
+
+/**
+ * Executes the polling requests of all {@link HTTPProtocol} instances. Identical requests (same client configuration,
+ * method, URI, headers and body) of any attributes and agents share a single poll, each response is read once and
+ * passed to every subscriber of the poll; a poll runs at the shortest polling interval of its subscribers.
+ * <p>
+ * The first execution of a poll is delayed by a small random jitter of at most {@link #MAX_INITIAL_DELAY_MILLIS} and
+ * every following execution by a small random jitter, so that polls created at the same time don't hit servers at the
+ * same time. The <code>ETag</code>
+ * and <code>Last-Modified</code> headers of responses are sent back as conditional request headers, while the server
+ * responds with <code>304 Not Modified</code> the interval of the poll is doubled up to {@link #MAX_BACKOFF_FACTOR}
+ * times the subscribed interval, and reset when the response changes.
+ */
+public class HTTPPollingScheduler {
+
+    /**
+     * A subscription of a consumer to a poll, the consumer receives every successful response and the last response
+     * of the poll when subscribing to an existing poll.
+     */
+    public class Subscription {
+        protected final Poll poll;
+        protected final int pollingMillis;
+        protected final Consumer<Response> consumer;
+
+        protected Subscription(Poll poll, int pollingMillis, Consumer<Response> consumer) {
+            this.poll = poll;
+            this.pollingMillis = pollingMillis;
+            this.consumer = consumer;
+        }
+
+        public void cancel() {
+            unsubscribe(this);
+        }
+    }
+
+    protected static class Poll {
+        protected final String key;
+        protected final HttpClientRequest request;
+        protected final String body;
+        protected final ScheduledExecutorService executorService;
+        protected final Set<Subscription> subscriptions = new LinkedHashSet<>();
+        protected ScheduledFuture<?> future;
+        protected String entityTag;
+        protected String lastModified;
+        protected int notModifiedCount;
+        protected Response lastResponse;
+
+        protected Poll(String key, HttpClientRequest request, String body, ScheduledExecutorService executorService) {
+            this.key = key;
+            this.request = request;
+            this.body = body;
+            this.executorService = executorService;
+        }
+
+        protected int getPollingMillis() {
+            return subscriptions.stream().mapToInt(subscription -> subscription.pollingMillis).min().orElse(0);
+        }
+
+        @Override
+        public String toString() {
+            return request.method + " " + request;
+        }
+    }
+
+    private static final Logger LOG = SyslogCategory.getLogger(PROTOCOL, HTTPPollingScheduler.class);
+    public static int MAX_BACKOFF_FACTOR = 4;
+    public static double JITTER_FACTOR = 0.1d;
+    public static long MAX_INITIAL_DELAY_MILLIS = 5000;
+    protected final Map<String, Poll> polls = new HashMap<>();
+
+    /**
+     * Subscribe to the poll of the request, the poll is created if no identical request is polled yet.
+     *
+     * @param clientKey Identifies the configuration of the client of the request (base URI, authentication, injected
+     *                  headers and query parameters etc.); requests of different clients are never shared.
+     */
+    public Subscription subscribe(String clientKey,
+                                  HttpClientRequest request,
+                                  String body,
+                                  int pollingMillis,
+                                  ScheduledExecutorService executorService,
+                                  Consumer<Response> consumer) {
+
+        String key = getRequestKey(clientKey, request, body);
+        Subscription subscription;
+        Response lastResponse;
+
+        synchronized (polls) {
+            Poll poll = polls.get(key);
+            boolean created = poll == null;
+
+            if (created) {
+                poll = new Poll(key, request, body, executorService);
+                polls.put(key, poll);
+            }
+
+            synchronized (poll) {
+                subscription = new Subscription(poll, pollingMillis, consumer);
+                poll.subscriptions.add(subscription);
+                lastResponse = poll.lastResponse;
+
+                if (created) {
+                    LOG.fine("Scheduling polling request '" + poll + "' to execute every " + pollingMillis + " ms");
+                    schedule(poll, getInitialDelayMillis(pollingMillis));
+                } else {
+                    LOG.fine("Sharing polling request '" + poll + "' with " + poll.subscriptions.size() + " subscribers");
+                }
+            }
+        }
+
+        if (lastResponse != null) {
+            executorService.execute(() -> notifySubscription(subscription, lastResponse));
+        }
+
+        return subscription;
+    }
+
+    protected void unsubscribe(Subscription subscription) {
+        Poll poll = subscription.poll;
+
+        synchronized (polls) {
+            synchronized (poll) {
+                if (!poll.subscriptions.remove(subscription) || !poll.subscriptions.isEmpty()) {
+                    return;
+                }
+
+                LOG.fine("Cancelling polling request without subscribers '" + poll + "'");
+                polls.remove(poll.key, poll);
+
+                if (poll.future != null) {
+                    poll.future.cancel(false);
+                    poll.future = null;
+                }
+            }
+        }
+    }
+
+    public int getPollCount() {
+        synchronized (polls) {
+            return polls.size();
+        }
+    }
+
+    protected void schedule(Poll poll, long delayMillis) {
+        poll.future = poll.executorService.schedule(() -> executePoll(poll), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    protected void executePoll(Poll poll) {
+        List<Subscription> subscriptions;
+        String entityTag;
+        String lastModified;
+
+        synchronized (poll) {
+            if (poll.subscriptions.isEmpty()) {
+                return;
+            }
+            entityTag = poll.entityTag;
+            lastModified = poll.lastModified;
+        }
+
+        Response response = executePollingRequest(poll.request, poll.body, entityTag, lastModified);
+
+        synchronized (poll) {
+            if (response != null && response.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode()) {
+                poll.notModifiedCount++;
+                response = null;
+            } else if (response != null) {
+                poll.notModifiedCount = 0;
+                if (response.getStatusInfo().getFamily() == Response.Status.Family.SUCCESSFUL) {
+                    poll.entityTag = response.getHeaderString(HttpHeaders.ETAG);
+                    poll.lastModified = response.getHeaderString(HttpHeaders.LAST_MODIFIED);
+                    poll.lastResponse = response;
+                }
+            }
+
+            subscriptions = new ArrayList<>(poll.subscriptions);
+
+            if (!subscriptions.isEmpty()) {
+                schedule(poll, getNextDelayMillis(poll));
+            }
+        }
+
+        if (response != null) {
+            for (Subscription subscription : subscriptions) {
+                notifySubscription(subscription, response);
+            }
+        }
+    }
+
+    protected long getInitialDelayMillis(long pollingMillis) {
+        long maxDelayMillis = Math.min((long) (pollingMillis * JITTER_FACTOR), MAX_INITIAL_DELAY_MILLIS);
+        return ThreadLocalRandom.current().nextLong(Math.max(1, maxDelayMillis));
+    }
+
+    protected long getNextDelayMillis(Poll poll) {
+        long pollingMillis = poll.getPollingMillis();
+        long backoffFactor = Math.min(1L << Math.min(poll.notModifiedCount, 30), MAX_BACKOFF_FACTOR);
+        long delayMillis = pollingMillis * backoffFactor;
+        long jitterMillis = (long) (pollingMillis * JITTER_FACTOR);
+
+        if (jitterMillis > 0) {
+            delayMillis += ThreadLocalRandom.current().nextLong(-jitterMillis, jitterMillis + 1);
+        }
+        return Math.max(1, delayMillis);
+    }
+
+    protected void notifySubscription(Subscription subscription, Response response) {
+        try {
+            subscription.consumer.accept(response);
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Exception thrown whilst processing polling response: " + subscription.poll, e);
+        }
+    }
+
+    /**
+     * Execute the request and read the whole response, the returned response can be read by any number of consumers.
+     */
+    protected Response executePollingRequest(HttpClientRequest clientRequest, String body, String entityTag, String lastModified) {
+        Response originalResponse = null, lastResponse = null;
+
+        try {
+            Invocation.Builder requestBuilder = clientRequest.getRequestBuilder(body);
+
+            if (!clientRequest.pagingEnabled) {
+                if (entityTag != null) {
+                    requestBuilder.header(HttpHeaders.IF_NONE_MATCH, entityTag);
+                }
+                if (lastModified != null) {
+                    requestBuilder.header(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+                }
+            }
+
+            originalResponse = clientRequest.buildInvocation(requestBuilder, body).invoke();
+
+            if (clientRequest.pagingEnabled) {
+                List<String> entities = new ArrayList<>();
+                lastResponse = originalResponse;
+                entities.add(lastResponse.readEntity(String.class));
+                while ((lastResponse = executePagingRequest(clientRequest, lastResponse)) != null) {
+                    entities.add(lastResponse.readEntity(String.class));
+                    lastResponse.close();
+                }
+                return PagingResponse.fromResponse(originalResponse).entity(entities).build();
+            }
+
+            String entity = originalResponse.hasEntity() ? originalResponse.readEntity(String.class) : null;
+            return PagingResponse.fromResponse(originalResponse).entity(entity).build();
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Exception thrown whilst doing polling request [" + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()) + "]: " + clientRequest);
+            return null;
+        } finally {
+            if (originalResponse != null) {
+                originalResponse.close();
+            }
+            if (lastResponse != null) {
+                lastResponse.close();
+            }
+        }
+    }
+
+    protected Response executePagingRequest(HttpClientRequest clientRequest, Response response) {
+        if (response.hasLink("next")) {
+            URI nextUrl = response.getLink("next").getUri();
+            return clientRequest.client.register(new PaginationFilter(nextUrl)).request().build(clientRequest.method).invoke();
+        }
+        return null;
+    }
+
+    protected static String getRequestKey(String clientKey, HttpClientRequest request, String body) {
+        return clientKey
+            + "|" + (request.method != null ? request.method : HttpMethod.GET)
+            + "|" + request.path
+            + "|" + request.queryParameters
+            + "|" + request.headers
+            + "|" + request.contentType
+            + "|" + request.pagingEnabled
+            + "|" + body;
+    }
+}
@@ -53,13 +53,10 @@ import java.lang.reflect.Type;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
 import static org.openremote.container.web.QueryParameterInjectorFilter.QUERY_PARAMETERS_PROPERTY;
 import static org.openremote.container.web.WebTargetBuilder.createClient;
 import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
@@ -76,6 +73,11 @@ import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
  * <p>
  * <b>NOTE: if an exception is thrown during the request that means no response is returned then this is treated as if
  * a 500 response has been received</b>
+ * <h1>Polling</h1>
+ * Polling requests are executed by the {@link HTTPPollingScheduler} shared by all instances, identical polling requests
+ * of agents with the same client configuration are only executed once per interval and the response is passed to all
+ * linked attributes; conditional requests are used when the server provides an <code>ETag</code> or
+ * <code>Last-Modified</code> header.
  * <h1>Dynamic value injection</h1>
  * This allows the {@link HTTPAgent#META_REQUEST_PATH} and/or {@link Agent#META_WRITE_VALUE} to contain the linked
  * {@link Attribute} value when sending requests. To dynamically inject the attribute value use
@@ -275,9 +277,12 @@ public class HTTPProtocol extends AbstractProtocol<HTTPAgent, HTTPAgentLink> {
     protected static final Logger LOG = SyslogCategory.getLogger(PROTOCOL, HTTPProtocol.class);
     public static int MIN_POLLING_MILLIS = 5000;
 
+    protected static final HTTPPollingScheduler pollingScheduler = new HTTPPollingScheduler();
+
     protected ResteasyWebTarget webTarget;
+    protected String clientKey;
     protected final Map<AttributeRef, HttpClientRequest> requestMap = new HashMap<>();
-    protected final Map<AttributeRef, ScheduledFuture<?>> pollingMap = new HashMap<>();
+    protected final Map<AttributeRef, HTTPPollingScheduler.Subscription> pollingMap = new HashMap<>();
     protected final Map<AttributeRef, Set<AttributeRef>> pollingLinkedAttributeMap = new HashMap<>();
     protected static ResteasyClient client;
 
@@ -291,7 +296,7 @@ public class HTTPProtocol extends AbstractProtocol<HTTPAgent, HTTPAgentLink> {
 
     @Override
     protected void doStop(Container container) {
-        pollingMap.forEach((attributeRef, scheduledFuture) -> scheduledFuture.cancel(true));
+        pollingMap.forEach((attributeRef, subscription) -> subscription.cancel());
         pollingMap.clear();
         requestMap.clear();
     }
@@ -350,6 +355,17 @@ public class HTTPProtocol extends AbstractProtocol<HTTPAgent, HTTPAgentLink> {
         LOG.fine("Creating web target client '" + baseUri + "'");
         webTarget = webTargetBuilder.build();
 
+        // Polling requests are only shared between agents with the same client configuration
+        clientKey = ValueUtil.asJSON(Arrays.asList(
+            baseUri,
+            oAuthGrant.orElse(null),
+            usernameAndPassword.orElse(null),
+            followRedirects,
+            headers.orElse(null),
+            queryParams.orElse(null),
+            readTimeout
+        )).orElse(agent.getId());
+
         setConnectionStatus(ConnectionStatus.CONNECTED);
     }
 
@@ -483,61 +499,20 @@ public class HTTPProtocol extends AbstractProtocol<HTTPAgent, HTTPAgentLink> {
                 contentType);
     }
 
-    protected ScheduledFuture<?> schedulePollingRequest(AttributeRef attributeRef,
-                                                     HttpClientRequest clientRequest,
-                                                     String body,
-                                                     int pollingMillis) {
-
-        LOG.fine("Scheduling polling request '" + clientRequest + "' to execute every " + pollingMillis + " ms for attribute: " + attributeRef);
-
-        return executorService.scheduleWithFixedDelay(() ->
-                executePollingRequest(clientRequest, body, response -> {
-                    try {
-                        onPollingResponse(
-                            clientRequest,
-                            response,
-                            attributeRef);
-                    } catch (Exception e) {
-                        LOG.log(Level.WARNING, prefixLogMessage("Exception thrown whilst processing polling response [" + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()) + "]: " + clientRequest.requestTarget.getUriBuilder().build().toString()));
-                    }
-                }), 0, pollingMillis, TimeUnit.MILLISECONDS);
-    }
-
-    protected void executePollingRequest(HttpClientRequest clientRequest, String body, Consumer<Response> responseConsumer) {
-        Response originalResponse = null, lastResponse = null;
-        List<String> entities = new ArrayList<>();
-
-        try {
-            originalResponse = clientRequest.invoke(body);
-            if (clientRequest.pagingEnabled) {
-                lastResponse = originalResponse;
-                entities.add(lastResponse.readEntity(String.class));
-                while ((lastResponse = executePagingRequest(clientRequest, lastResponse)) != null) {
-                    entities.add(lastResponse.readEntity(String.class));
-                    lastResponse.close();
-                }
-                originalResponse = PagingResponse.fromResponse(originalResponse).entity(entities).build();
-            }
+    protected HTTPPollingScheduler.Subscription schedulePollingRequest(AttributeRef attributeRef,
+                                                                      HttpClientRequest clientRequest,
+                                                                      String body,
+                                                                      int pollingMillis) {
 
-            responseConsumer.accept(originalResponse);
-        } catch (Exception e) {
-            LOG.log(Level.WARNING, prefixLogMessage("Exception thrown whilst doing polling request [" + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()) + "]: " + clientRequest.requestTarget.getUriBuilder().build().toString()));
-        } finally {
-            if (originalResponse != null) {
-                originalResponse.close();
-            }
-            if (lastResponse != null) {
-                lastResponse.close();
-            }
-        }
-    }
+        LOG.fine("Subscribing to polling request '" + clientRequest + "' to execute every " + pollingMillis + " ms for attribute: " + attributeRef);
 
-    protected Response executePagingRequest(HttpClientRequest clientRequest, Response response) {
-        if (response.hasLink("next")) {
-            URI nextUrl = response.getLink("next").getUri();
-            return clientRequest.client.register(new PaginationFilter(nextUrl)).request().build(clientRequest.method).invoke();
-        }
-        return null;
+        return pollingScheduler.subscribe(
+            clientKey,
+            clientRequest,
+            body,
+            pollingMillis,
+            executorService,
+            response -> onPollingResponse(clientRequest, response, attributeRef));
     }
 
     protected void executeAttributeWriteRequest(HttpClientRequest clientRequest,
@@ -570,10 +545,10 @@ public class HTTPProtocol extends AbstractProtocol<HTTPAgent, HTTPAgentLink> {
                 value = response.readEntity(String.class);
             } catch (Exception e) {
                 LOG.log(Level.WARNING, "Error occurred whilst trying to read response body", e);
-                response.close();
+                return;
             }
         } else {
-            LOG.fine(prefixLogMessage("Request returned an un-successful response code (" + responseCode + "):" + request.requestTarget.getUriBuilder().build().toString()));
+            LOG.fine(prefixLogMessage("Request returned an un-successful response code (" + responseCode + "):" + request));
             return;
         }
 
@@ -601,9 +576,9 @@ public class HTTPProtocol extends AbstractProtocol<HTTPAgent, HTTPAgentLink> {
 
     protected void cancelPolling(AttributeRef attributeRef) {
         withLock(getProtocolName() + "::cancelPolling", () -> {
-            ScheduledFuture<?> pollTask = pollingMap.remove(attributeRef);
-            if (pollTask != null) {
-                pollTask.cancel(false);
+            HTTPPollingScheduler.Subscription subscription = pollingMap.remove(attributeRef);
+            if (subscription != null) {
+                subscription.cancel();
             }
         });
     }
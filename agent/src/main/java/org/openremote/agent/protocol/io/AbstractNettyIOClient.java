@@ -21,6 +21,7 @@ package org.openremote.agent.protocol.io;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
 import org.openremote.agent.protocol.udp.UDPIOClient;
 import org.openremote.agent.protocol.websocket.WebsocketIOClient;
@@ -71,6 +72,9 @@ import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
  * <p>
  * <b>NOTE: Care must be taken when working with Netty {@link ByteBuf} as Netty uses reference counting to manage their
  * lifecycle. Refer to the Netty documentation for more information.</b>
+ * <p>
+ * Unless {@link #getWorkerGroup} is overridden, clients use the event loop group shared by all clients (see
+ * {@link NettyEventLoops}) and pooled buffers; the traffic of the client is counted by its {@link ChannelMetrics}.
  */
 public abstract class AbstractNettyIOClient<T, U extends SocketAddress> implements NettyIOClient<T> {
 
@@ -172,6 +176,7 @@ public abstract class AbstractNettyIOClient<T, U extends SocketAddress> implemen
     protected Retry connectRetry;
     protected boolean permanentError;
     protected Supplier<ChannelHandler[]> encoderDecoderProvider;
+    protected final ChannelMetrics channelMetrics = new ChannelMetrics();
 
     protected AbstractNettyIOClient() {
         this.executorService = Container.EXECUTOR_SERVICE;
@@ -184,12 +189,19 @@ public abstract class AbstractNettyIOClient<T, U extends SocketAddress> implemen
 
     protected abstract Class<? extends Channel> getChannelClass();
 
-    protected abstract EventLoopGroup getWorkerGroup();
+    /**
+     * Get the event loop group to run the channel on, the shared group is never shut down by the client and any other
+     * group is shut down when the client disconnects.
+     */
+    protected EventLoopGroup getWorkerGroup() {
+        return NettyEventLoops.getEventLoopGroup();
+    }
 
     protected abstract ChannelFuture startChannel();
 
     protected void configureChannel() {
         bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 2000);
+        bootstrap.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
     }
 
     @Override
@@ -209,6 +221,8 @@ public abstract class AbstractNettyIOClient<T, U extends SocketAddress> implemen
             onConnectionStatusChanged(ConnectionStatus.CONNECTING);
         }
 
+        NettyEventLoops.register(this);
+
         scheduleDoConnect();
     }
 
@@ -241,8 +255,7 @@ public abstract class AbstractNettyIOClient<T, U extends SocketAddress> implemen
 
         LOG.info("Establishing connection: " + getClientUri());
 
-        if (workerGroup == null) {
-            // TODO: In Netty 5 you can pass in an executor service; can only pass in thread factory for now
+        if (workerGroup == null || workerGroup.isShuttingDown()) {
             workerGroup = getWorkerGroup();
         }
 
@@ -321,6 +334,7 @@ public abstract class AbstractNettyIOClient<T, U extends SocketAddress> implemen
         }
 
         doDisconnect();
+        NettyEventLoops.unregister(this);
     }
 
     protected void doDisconnect() {
@@ -338,7 +352,9 @@ public abstract class AbstractNettyIOClient<T, U extends SocketAddress> implemen
             }
         } finally {
             if (workerGroup != null) {
-                workerGroup.shutdownGracefully();
+                if (!NettyEventLoops.isShared(workerGroup)) {
+                    workerGroup.shutdownGracefully();
+                }
                 workerGroup = null;
             }
         }
@@ -364,6 +380,10 @@ public abstract class AbstractNettyIOClient<T, U extends SocketAddress> implemen
         return connectionStatus;
     }
 
+    public ChannelMetrics getChannelMetrics() {
+        return channelMetrics;
+    }
+
     @Override
     public void addConnectionStatusConsumer(Consumer<ConnectionStatus> connectionStatusConsumer) {
         synchronized (connectionStatusConsumers) {
@@ -416,6 +436,7 @@ public abstract class AbstractNettyIOClient<T, U extends SocketAddress> implemen
     protected void initChannel(Channel channel) {
         // Below is un-necessary as channel listener handles this
         addEncodersDecoders(channel);
+        channel.pipeline().addFirst(channelMetrics);
     }
 
     protected void addEncodersDecoders(Channel channel) {
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.agent.protocol.io;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the traffic of the channels of an {@link IOClient}, it must be the first handler of the pipeline so that it
+ * sees the raw bytes read from and written to the channel. The counters are kept across reconnects.
+ */
+@ChannelHandler.Sharable
+public class ChannelMetrics extends ChannelDuplexHandler {
+
+    protected final LongAdder connects = new LongAdder();
+    protected final LongAdder messagesRead = new LongAdder();
+    protected final LongAdder bytesRead = new LongAdder();
+    protected final LongAdder messagesWritten = new LongAdder();
+    protected final LongAdder bytesWritten = new LongAdder();
+    protected final LongAdder exceptions = new LongAdder();
+    protected volatile long lastReadMillis;
+    protected volatile long lastWriteMillis;
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        connects.increment();
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        messagesRead.increment();
+        bytesRead.add(getSize(msg));
+        lastReadMillis = System.currentTimeMillis();
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        messagesWritten.increment();
+        bytesWritten.add(getSize(msg));
+        lastWriteMillis = System.currentTimeMillis();
+        super.write(ctx, msg, promise);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        exceptions.increment();
+        super.exceptionCaught(ctx, cause);
+    }
+
+    public long getConnects() {
+        return connects.sum();
+    }
+
+    public long getMessagesRead() {
+        return messagesRead.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getMessagesWritten() {
+        return messagesWritten.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    public long getExceptions() {
+        return exceptions.sum();
+    }
+
+    public long getLastReadMillis() {
+        return lastReadMillis;
+    }
+
+    public long getLastWriteMillis() {
+        return lastWriteMillis;
+    }
+
+    protected static int getSize(Object msg) {
+        if (msg instanceof ByteBuf) {
+            return ((ByteBuf) msg).readableBytes();
+        }
+        if (msg instanceof ByteBufHolder) {
+            return ((ByteBufHolder) msg).content().readableBytes();
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "connects=" + getConnects() +
+            ", messagesRead=" + getMessagesRead() +
+            ", bytesRead=" + getBytesRead() +
+            ", messagesWritten=" + getMessagesWritten() +
+            ", bytesWritten=" + getBytesWritten() +
+            ", exceptions=" + getExceptions() +
+            '}';
+    }
+}
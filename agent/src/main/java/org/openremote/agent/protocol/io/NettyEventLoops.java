@@ -0,0 +1,163 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.agent.protocol.io;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.internal.ThreadExecutorMap;
+import org.openremote.container.concurrent.ContainerThreadFactory;
+import org.openremote.container.concurrent.QueueBackpressure;
+import org.openremote.model.syslog.SyslogCategory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
+
+/**
+ * Holds the {@link EventLoopGroup} shared by all Netty based {@link IOClient}s and {@link IOServer}s, so that idle
+ * connections don't each occupy a thread. The group uses the native epoll transport when it is available (Linux) and
+ * NIO otherwise, channels must be created with the matching channel class of this holder.
+ * <p>
+ * The group is created on first use and can be shut down by the container, it is then re-created on the next use.
+ * Connected clients register themselves so that their channel metrics can be reported.
+ */
+public final class NettyEventLoops {
+
+    private static final Logger LOG = SyslogCategory.getLogger(PROTOCOL, NettyEventLoops.class);
+    // Number of threads of the shared event loop group, 0 means the number of available processors
+    public static final String IO_EVENT_LOOP_THREADS = "IO_EVENT_LOOP_THREADS";
+    public static final int IO_EVENT_LOOP_THREADS_DEFAULT = 0;
+    protected static final boolean EPOLL = isEpollAvailable();
+    protected static final Set<AbstractNettyIOClient<?, ?>> clients = ConcurrentHashMap.newKeySet();
+    protected static int threads = IO_EVENT_LOOP_THREADS_DEFAULT;
+    protected static EventLoopGroup eventLoopGroup;
+    protected static int eventLoopThreads;
+
+    static {
+        // Producers on event loop threads (e.g. protocols receiving sensor values) must not be paused by backpressure
+        QueueBackpressure.addNonBlockingThreads(NettyEventLoops::isEventLoopThread);
+    }
+
+    private NettyEventLoops() {
+    }
+
+    /**
+     * Set the number of threads of the shared group, takes effect when the group is next created.
+     */
+    public static synchronized void configure(int threads) {
+        NettyEventLoops.threads = Math.max(0, threads);
+    }
+
+    public static synchronized EventLoopGroup getEventLoopGroup() {
+        if (eventLoopGroup == null || eventLoopGroup.isShuttingDown()) {
+            eventLoopThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+            ContainerThreadFactory threadFactory = new ContainerThreadFactory("IO event loop");
+            eventLoopGroup = EPOLL
+                ? new EpollEventLoopGroup(eventLoopThreads, threadFactory)
+                : new NioEventLoopGroup(eventLoopThreads, threadFactory);
+            LOG.info("Created shared IO event loop group: transport=" + getTransportName() + ", threads=" + eventLoopThreads);
+        }
+        return eventLoopGroup;
+    }
+
+    /**
+     * @return <code>true</code> if the group is the shared group, which must not be shut down by its users.
+     */
+    public static synchronized boolean isShared(EventLoopGroup group) {
+        return group != null && group == eventLoopGroup;
+    }
+
+    public static synchronized void shutdown() {
+        if (eventLoopGroup != null) {
+            LOG.fine("Shutting down shared IO event loop group");
+            eventLoopGroup.shutdownGracefully();
+            eventLoopGroup = null;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the current thread runs a Netty event loop, of the shared group or any other group.
+     */
+    public static boolean isEventLoopThread() {
+        return ThreadExecutorMap.currentExecutor() != null;
+    }
+
+    public static boolean isEpoll() {
+        return EPOLL;
+    }
+
+    public static String getTransportName() {
+        return EPOLL ? "epoll" : "nio";
+    }
+
+    public static Class<? extends Channel> getSocketChannelClass() {
+        return EPOLL ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    public static Class<? extends ServerChannel> getServerSocketChannelClass() {
+        return EPOLL ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public static Class<? extends Channel> getDatagramChannelClass() {
+        return EPOLL ? EpollDatagramChannel.class : NioDatagramChannel.class;
+    }
+
+    public static synchronized int getThreadCount() {
+        return eventLoopGroup == null ? 0 : eventLoopThreads;
+    }
+
+    static void register(AbstractNettyIOClient<?, ?> client) {
+        clients.add(client);
+    }
+
+    static void unregister(AbstractNettyIOClient<?, ?> client) {
+        clients.remove(client);
+    }
+
+    /**
+     * @return The clients that are currently connected or connecting.
+     */
+    public static Collection<AbstractNettyIOClient<?, ?>> getClients() {
+        return Collections.unmodifiableSet(clients);
+    }
+
+    protected static boolean isEpollAvailable() {
+        try {
+            return Epoll.isAvailable();
+        } catch (Throwable t) {
+            // Native transport is not on the class path
+            return false;
+        }
+    }
+}
@@ -21,12 +21,11 @@ package org.openremote.agent.protocol.udp;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.DatagramPacket;
-import io.netty.channel.socket.nio.NioDatagramChannel;
 import io.netty.handler.codec.MessageToMessageEncoder;
 import org.openremote.agent.protocol.io.AbstractNettyIOClient;
 import org.openremote.agent.protocol.io.IOClient;
+import org.openremote.agent.protocol.io.NettyEventLoops;
 import org.openremote.model.syslog.SyslogCategory;
 
 import java.net.InetSocketAddress;
@@ -95,7 +94,7 @@ public class UDPIOClient<T> extends AbstractNettyIOClient<T, InetSocketAddress>
 
     @Override
     protected Class<? extends Channel> getChannelClass() {
-        return NioDatagramChannel.class;
+        return NettyEventLoops.getDatagramChannelClass();
     }
 
     @Override
@@ -103,10 +102,6 @@ public class UDPIOClient<T> extends AbstractNettyIOClient<T, InetSocketAddress>
         return "udp://" + (host != null ? host : "0.0.0.0") + ":" + port + " (bindPort: " + bindPort + ")";
     }
 
-    @Override
-    protected EventLoopGroup getWorkerGroup() {
-        return new NioEventLoopGroup(1);
-    }
 
     @Override
     protected void configureChannel() {
@@ -1,9 +1,9 @@
 package org.openremote.agent.protocol.velbus.device;
 
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
 import static org.openremote.agent.protocol.velbus.AbstractVelbusProtocol.LOG;
@@ -38,7 +38,7 @@ public enum VelbusDeviceType {
     VMB4AN(0x32, false, InputProcessor.class, ProgramsProcessor.class, AnalogInputProcessor.class, AnalogOutputProcessor.class),
     VMB1TS(0x0C, false, TemperatureProcessor.class, ThermostatProcessor.class);
 
-    private static final Map<Class<? extends FeatureProcessor>, FeatureProcessor> processors = new HashMap<>();
+    private static final Map<Class<? extends FeatureProcessor>, FeatureProcessor> processors = new ConcurrentHashMap<>();
     private final int code;
     private final boolean hasSubAddresses;
     private final Class<? extends FeatureProcessor>[] featureProcessors;
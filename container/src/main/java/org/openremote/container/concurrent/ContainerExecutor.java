@@ -19,13 +19,25 @@
  */
 package org.openremote.container.concurrent;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.openremote.container.concurrent.ContainerThreads.DEFAULT_REJECTED_EXECUTION_HANDLER;
 import static org.openremote.container.concurrent.ContainerThreads.logExceptionCause;
 
+/**
+ * A thread pool that logs exceptions of its tasks and counts rejected tasks; the pools that haven't terminated are
+ * available through {@link #getExecutors} for monitoring.
+ */
 public class ContainerExecutor extends ThreadPoolExecutor {
 
+    protected static final Set<ContainerExecutor> EXECUTORS = ConcurrentHashMap.newKeySet();
+    protected final String name;
+    protected final AtomicLong rejectedTaskCount = new AtomicLong();
+
     /**
      * Creates an unbounded thread pool with {@link SynchronousQueue}, this is the same as
      * {@link Executors#newCachedThreadPool}.
@@ -34,6 +46,29 @@ public class ContainerExecutor extends ThreadPoolExecutor {
         this(name, 0, Integer.MAX_VALUE, 60L, -1);
     }
 
+    /**
+     * Creates a bounded thread pool of up to <code>maximumPoolSize</code> threads, idle threads are stopped after 60
+     * seconds. Tasks submitted when all threads are busy and the queue is full are passed to the rejected handler, use
+     * {@link ContainerThreads#CALLER_RUNS_REJECTED_EXECUTION_HANDLER} to slow down the submitting threads.
+     *
+     * @param blockingQueueCapacity Set to <code>-1</code> if a {@link SynchronousQueue} should be used.
+     */
+    public ContainerExecutor(String name,
+                             int maximumPoolSize,
+                             int blockingQueueCapacity,
+                             RejectedExecutionHandler rejectedHandler) {
+        this(
+            name,
+            new ContainerThreadFactory(name),
+            rejectedHandler,
+            maximumPoolSize,
+            maximumPoolSize,
+            60L,
+            blockingQueueCapacity == -1 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(blockingQueueCapacity)
+        );
+        allowCoreThreadTimeOut(true);
+    }
+
     /**
      * @param blockingQueueCapacity Set to <code>-1</code> if a {@link SynchronousQueue} should be used.
      */
@@ -43,6 +78,7 @@ public class ContainerExecutor extends ThreadPoolExecutor {
                              long keepAliveSeconds,
                              int blockingQueueCapacity) {
         this(
+            name,
             new ContainerThreadFactory(name),
             DEFAULT_REJECTED_EXECUTION_HANDLER,
             corePoolSize,
@@ -58,7 +94,35 @@ public class ContainerExecutor extends ThreadPoolExecutor {
                              int maximumPoolSize,
                              long keepAliveSeconds,
                              BlockingQueue<Runnable> workQueue) {
+        this(null, threadFactory, rejectedHandler, corePoolSize, maximumPoolSize, keepAliveSeconds, workQueue);
+    }
+
+    public ContainerExecutor(String name,
+                             ThreadFactory threadFactory,
+                             RejectedExecutionHandler rejectedHandler,
+                             int corePoolSize,
+                             int maximumPoolSize,
+                             long keepAliveSeconds,
+                             BlockingQueue<Runnable> workQueue) {
         super(corePoolSize, maximumPoolSize, keepAliveSeconds, TimeUnit.SECONDS, workQueue, threadFactory, rejectedHandler);
+        this.name = name;
+        setRejectedExecutionHandler((runnable, executor) -> {
+            rejectedTaskCount.incrementAndGet();
+            rejectedHandler.rejectedExecution(runnable, executor);
+        });
+        EXECUTORS.add(this);
+    }
+
+    public static Collection<ContainerExecutor> getExecutors() {
+        return Collections.unmodifiableSet(EXECUTORS);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getRejectedTaskCount() {
+        return rejectedTaskCount.get();
     }
 
     @Override
@@ -66,4 +130,23 @@ public class ContainerExecutor extends ThreadPoolExecutor {
         super.afterExecute(runnable, throwable);
         logExceptionCause(runnable, throwable);
     }
-}
\ No newline at end of file
+
+    @Override
+    protected void terminated() {
+        super.terminated();
+        EXECUTORS.remove(this);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "name='" + name + '\'' +
+            ", poolSize=" + getPoolSize() +
+            ", maximumPoolSize=" + getMaximumPoolSize() +
+            ", activeCount=" + getActiveCount() +
+            ", queueSize=" + getQueue().size() +
+            ", completedTaskCount=" + getCompletedTaskCount() +
+            ", rejectedTaskCount=" + rejectedTaskCount.get() +
+            '}';
+    }
+}
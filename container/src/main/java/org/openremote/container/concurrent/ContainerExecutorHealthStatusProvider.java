@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.container.concurrent;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openremote.model.system.HealthStatusProvider;
+import org.openremote.model.util.ValueUtil;
+
+/**
+ * Reports the metrics of each {@link ContainerExecutor} by name, the index of the pool is appended to names that are
+ * not unique.
+ */
+public class ContainerExecutorHealthStatusProvider implements HealthStatusProvider {
+
+    public static final String NAME = "executors";
+    public static final String VERSION = "1.0";
+
+    @Override
+    public String getHealthStatusName() {
+        return NAME;
+    }
+
+    @Override
+    public String getHealthStatusVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public Object getHealthStatus() {
+        ObjectNode value = ValueUtil.JSON.createObjectNode();
+        int index = 0;
+
+        for (ContainerExecutor executor : ContainerExecutor.getExecutors()) {
+            ObjectNode executorValue = ValueUtil.JSON.createObjectNode();
+            executorValue.put("poolSize", executor.getPoolSize());
+            executorValue.put("maximumPoolSize", executor.getMaximumPoolSize());
+            executorValue.put("largestPoolSize", executor.getLargestPoolSize());
+            executorValue.put("activeCount", executor.getActiveCount());
+            executorValue.put("queueSize", executor.getQueue().size());
+            executorValue.put("completedTaskCount", executor.getCompletedTaskCount());
+            executorValue.put("rejectedTaskCount", executor.getRejectedTaskCount());
+            String name = executor.getName() != null ? executor.getName() : "executor";
+            value.set(value.has(name) ? name + "-" + index : name, executorValue);
+            index++;
+        }
+
+        return value;
+    }
+}
@@ -38,6 +38,18 @@ public interface ContainerThreads {
         }
     };
 
+    /**
+     * Runs a rejected task on the thread that submitted it, which slows down the submitting thread (backpressure)
+     * instead of discarding the task; tasks are discarded when the pool has been shut down.
+     */
+    RejectedExecutionHandler CALLER_RUNS_REJECTED_EXECUTION_HANDLER = new ThreadPoolExecutor.CallerRunsPolicy() {
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor threadPoolExecutor) {
+            LOG.finest("Container thread pool '" + threadPoolExecutor + "' is saturated, running task on the caller thread");
+            super.rejectedExecution(runnable, threadPoolExecutor);
+        }
+    };
+
     static Thread startWaitingThread() {
         Thread thread = new Thread("Container Waiting") {
             @Override
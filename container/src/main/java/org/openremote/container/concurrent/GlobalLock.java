@@ -123,4 +123,8 @@ public class GlobalLock {
             return null;
         }
     }
+
+    static public boolean isHeldByCurrentThread() {
+        return lock.isHeldByCurrentThread();
+    }
 }
\ No newline at end of file
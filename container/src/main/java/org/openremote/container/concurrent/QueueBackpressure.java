@@ -0,0 +1,133 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.container.concurrent;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Applies backpressure to the producers of a bounded queue: whilst the queue is filled to the high water mark a
+ * producer calling {@link #await} is paused until the queue has drained below the mark or the maximum wait has elapsed,
+ * the producer then continues regardless (and the queue might reject the message).
+ * <p>
+ * Threads holding the {@link GlobalLock} and exempt threads (e.g. the consumers of the queue, which must keep draining
+ * it) are never paused. Neither are threads that must never block, such as IO event loop threads (see
+ * {@link #addNonBlockingThreads}), producers on these threads are only counted and continue straight away.
+ */
+public class QueueBackpressure {
+
+    private static final Logger LOG = Logger.getLogger(QueueBackpressure.class.getName());
+    protected static final long PAUSE_MILLIS = 5;
+    protected static final List<BooleanSupplier> nonBlockingThreads = new CopyOnWriteArrayList<>();
+    protected final String name;
+    protected final IntSupplier queueSize;
+    protected final int highWaterMark;
+    protected final long maxWaitMillis;
+    protected final BooleanSupplier exempt;
+    protected final AtomicLong pausedCount = new AtomicLong();
+    protected final AtomicLong timeoutCount = new AtomicLong();
+    protected final AtomicLong nonBlockingCount = new AtomicLong();
+
+    public QueueBackpressure(String name, IntSupplier queueSize, int highWaterMark, long maxWaitMillis, BooleanSupplier exempt) {
+        this.name = name;
+        this.queueSize = queueSize;
+        this.highWaterMark = highWaterMark;
+        this.maxWaitMillis = maxWaitMillis;
+        this.exempt = exempt;
+    }
+
+    /**
+     * Register a check of whether the current thread must never block.
+     */
+    public static void addNonBlockingThreads(BooleanSupplier isNonBlockingThread) {
+        nonBlockingThreads.add(isNonBlockingThread);
+    }
+
+    public static boolean isNonBlockingThread() {
+        for (BooleanSupplier isNonBlockingThread : nonBlockingThreads) {
+            if (isNonBlockingThread.getAsBoolean()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void await() {
+        if (maxWaitMillis <= 0 || queueSize.getAsInt() < highWaterMark || GlobalLock.isHeldByCurrentThread() || exempt.getAsBoolean()) {
+            return;
+        }
+
+        if (isNonBlockingThread()) {
+            // Pausing would stall every channel of the thread, the queue might reject the message instead
+            nonBlockingCount.incrementAndGet();
+            return;
+        }
+
+        pausedCount.incrementAndGet();
+        long deadline = System.currentTimeMillis() + maxWaitMillis;
+
+        try {
+            while (queueSize.getAsInt() >= highWaterMark) {
+                if (System.currentTimeMillis() >= deadline) {
+                    // Don't flood the log whilst the queue stays full
+                    if (timeoutCount.getAndIncrement() % 1000 == 0) {
+                        LOG.warning("Queue is still full after pausing producer for " + maxWaitMillis + "ms: " + this);
+                    }
+                    return;
+                }
+                Thread.sleep(PAUSE_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getPausedCount() {
+        return pausedCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * @return The number of times a producer on a thread that must never block wasn't paused although the queue was
+     * filled to the high water mark.
+     */
+    public long getNonBlockingCount() {
+        return nonBlockingCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "name='" + name + '\'' +
+            ", queueSize=" + queueSize.getAsInt() +
+            ", highWaterMark=" + highWaterMark +
+            ", pausedCount=" + pausedCount.get() +
+            ", timeoutCount=" + timeoutCount.get() +
+            ", nonBlockingCount=" + nonBlockingCount.get() +
+            '}';
+    }
+}
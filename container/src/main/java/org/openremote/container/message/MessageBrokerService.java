@@ -21,6 +21,7 @@ package org.openremote.container.message;
 
 import org.apache.camel.Processor;
 import org.apache.camel.ProducerTemplate;
+import org.apache.camel.component.seda.SedaEndpoint;
 import org.apache.camel.component.snmp.SnmpComponent;
 import org.apache.camel.impl.DefaultStreamCachingStrategy;
 import org.apache.camel.spi.*;
@@ -30,27 +31,48 @@ import org.openremote.model.Container;
 import org.openremote.model.ContainerService;
 import org.openremote.container.concurrent.ContainerExecutor;
 import org.openremote.container.concurrent.ContainerScheduledExecutor;
+import org.openremote.container.concurrent.QueueBackpressure;
 import org.openremote.container.security.IdentityService;
 import org.openremote.container.web.DefaultWebsocketComponent;
 import org.openremote.container.web.WebService;
 import org.openremote.container.web.socket.WebsocketComponent;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
+import static org.openremote.container.concurrent.ContainerThreads.CALLER_RUNS_REJECTED_EXECUTION_HANDLER;
+import static org.openremote.container.util.MapAccess.getBoolean;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.container.util.MapAccess.getString;
 
 public class MessageBrokerService implements ContainerService {
 
     public static final String MESSAGE_SESSION_ALLOWED_ORIGIN = "MESSAGE_SESSION_ALLOWED_ORIGIN";
     public static final String MESSAGE_SESSION_ALLOWED_ORIGIN_DEFAULT = null;
+    public static final String MESSAGE_SESSION_COMPRESSION = "MESSAGE_SESSION_COMPRESSION";
+    public static final boolean MESSAGE_SESSION_COMPRESSION_DEFAULT = false;
+    // Maximum threads and queue size of the pool used by Camel for parallel processing (e.g. multicast to the
+    // consumers of topics), tasks are run on the submitting thread when the pool is saturated
+    public static final String MESSAGE_POOL_THREADS_MAX = "MESSAGE_POOL_THREADS_MAX";
+    public static final int MESSAGE_POOL_THREADS_MAX_DEFAULT = Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+    public static final String MESSAGE_POOL_QUEUE_SIZE = "MESSAGE_POOL_QUEUE_SIZE";
+    public static final int MESSAGE_POOL_QUEUE_SIZE_DEFAULT = 0;
+    // Maximum time producers are paused whilst a queue is nearly full, see getQueueBackpressure
+    public static final String MESSAGE_QUEUE_BACKPRESSURE_MAX_WAIT_MILLIS = "MESSAGE_QUEUE_BACKPRESSURE_MAX_WAIT_MILLIS";
+    public static final int MESSAGE_QUEUE_BACKPRESSURE_MAX_WAIT_MILLIS_DEFAULT = 500;
+    protected static final String MESSAGING_THREAD_NAME_PREFIX = "Messaging";
+    protected static final double QUEUE_HIGH_WATER_MARK = 0.8;
     private static final Logger LOG = Logger.getLogger(MessageBrokerService.class.getName());
     public static final int PRIORITY = ContainerService.HIGH_PRIORITY;
 
     protected ProducerTemplate producerTemplate;
     protected MessageBrokerContext context;
+    protected final Map<String, QueueBackpressure> queueBackpressureMap = new ConcurrentHashMap<>();
+    protected int backpressureMaxWaitMillis;
 
     @Override
     public int getPriority() {
@@ -62,21 +84,30 @@ public class MessageBrokerService implements ContainerService {
     public void init(Container container) throws Exception {
 
         context = new MessageBrokerContext();
+        backpressureMaxWaitMillis = getInteger(container.getConfig(), MESSAGE_QUEUE_BACKPRESSURE_MAX_WAIT_MILLIS, MESSAGE_QUEUE_BACKPRESSURE_MAX_WAIT_MILLIS_DEFAULT);
+        int poolThreadsMax = getInteger(container.getConfig(), MESSAGE_POOL_THREADS_MAX, MESSAGE_POOL_THREADS_MAX_DEFAULT);
+        int poolQueueSize = getInteger(container.getConfig(), MESSAGE_POOL_QUEUE_SIZE, MESSAGE_POOL_QUEUE_SIZE_DEFAULT);
 
         final ExecutorServiceManager executorServiceManager = context.getExecutorServiceManager();
         executorServiceManager.setThreadNamePattern("#counter# #name#");
         executorServiceManager.setThreadPoolFactory(new ThreadPoolFactory() {
             @Override
             public ExecutorService newCachedThreadPool(ThreadFactory threadFactory) {
-                // This is an unlimited pool used probably only be multicast aggregation
-                return new ContainerExecutor(getExecutorName("MessagingPool", threadFactory), 1, Integer.MAX_VALUE, 10, -1);
+                // This pool is used probably only by multicast aggregation, it is bounded so bursts of messages
+                // slow down the consumers of topics instead of creating threads without limit
+                return new ContainerExecutor(
+                    getExecutorName(MESSAGING_THREAD_NAME_PREFIX + "Pool", threadFactory),
+                    poolThreadsMax,
+                    poolQueueSize > 0 ? poolQueueSize : -1,
+                    CALLER_RUNS_REJECTED_EXECUTION_HANDLER
+                );
             }
 
             @Override
             public ExecutorService newThreadPool(ThreadPoolProfile profile, ThreadFactory threadFactory) {
                 // This pool is used by SEDA consumers, so the endpoint parameters define the pool and queue sizes
                 return new ContainerExecutor(
-                    getExecutorName("Messaging", threadFactory),
+                    getExecutorName(MESSAGING_THREAD_NAME_PREFIX, threadFactory),
                     profile.getPoolSize(),
                     profile.getMaxPoolSize(),
                     profile.getKeepAliveTime(),
@@ -87,7 +118,7 @@ public class MessageBrokerService implements ContainerService {
             @Override
             public ScheduledExecutorService newScheduledThreadPool(ThreadPoolProfile profile, ThreadFactory threadFactory) {
                 return new ContainerScheduledExecutor(
-                    getExecutorName("MessagingTasks", threadFactory),
+                    getExecutorName(MESSAGING_THREAD_NAME_PREFIX + "Tasks", threadFactory),
                     profile.getPoolSize()
                 );
             }
@@ -136,7 +167,8 @@ public class MessageBrokerService implements ContainerService {
         WebsocketComponent websocketComponent = new DefaultWebsocketComponent(
             container.getService(IdentityService.class),
             container.getService(WebService.class),
-            allowedOrigin
+            allowedOrigin,
+            getBoolean(container.getConfig(), MESSAGE_SESSION_COMPRESSION, MESSAGE_SESSION_COMPRESSION_DEFAULT)
         );
 
         context.addComponent(WebsocketComponent.NAME, websocketComponent);
@@ -165,6 +197,28 @@ public class MessageBrokerService implements ContainerService {
         return producerTemplate;
     }
 
+    /**
+     * Producers sending to the given SEDA queue should call {@link QueueBackpressure#await} before sending, they are
+     * then paused whilst the queue is nearly full. Threads of the message broker are never paused, as they consume
+     * the queues.
+     */
+    public QueueBackpressure getQueueBackpressure(String sedaUri) {
+        return queueBackpressureMap.computeIfAbsent(sedaUri, uri -> {
+            SedaEndpoint endpoint = context.getEndpoint(uri, SedaEndpoint.class);
+            boolean bounded = endpoint.getSize() > 0 && endpoint.getSize() < Integer.MAX_VALUE;
+            return new QueueBackpressure(
+                uri,
+                endpoint::getCurrentQueueSize,
+                (int) (endpoint.getSize() * QUEUE_HIGH_WATER_MARK),
+                bounded ? backpressureMaxWaitMillis : 0,
+                () -> Thread.currentThread().getName().startsWith(MESSAGING_THREAD_NAME_PREFIX));
+        });
+    }
+
+    public Map<String, QueueBackpressure> getQueueBackpressures() {
+        return queueBackpressureMap;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "{" +
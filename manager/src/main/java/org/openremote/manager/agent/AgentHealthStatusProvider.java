@@ -75,6 +75,10 @@ public class AgentHealthStatusProvider implements HealthStatusProvider, Containe
         ObjectNode objectValue = ValueUtil.JSON.createObjectNode();
         objectValue.put("agents", agentService.getAgents().size());
         objectValue.put("protocols", agentService.protocolInstanceMap.size());
+        objectValue.put("ready", agentService.agentsStarted);
+        objectValue.put("startupMillis", agentService.agentStartupMillis);
+        objectValue.put("starting", agentService.startingAgentCount.get());
+        objectValue.put("startupFailures", agentService.failedAgentCount.get());
 
         for (Agent<?, ?, ?> agent : agentService.getAgents().values()) {
             ConnectionStatus status = agent.getAgentStatus().orElse(null);
@@ -21,6 +21,9 @@ package org.openremote.manager.agent;
 
 import org.apache.camel.builder.RouteBuilder;
 import org.openremote.agent.protocol.ProtocolAssetService;
+import org.openremote.agent.protocol.io.NettyEventLoops;
+import org.openremote.container.concurrent.ContainerExecutor;
+import org.openremote.container.concurrent.ContainerThreadFactory;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.persistence.PersistenceEvent;
 import org.openremote.container.timer.TimerService;
@@ -50,13 +53,20 @@ import org.openremote.model.query.filter.AttributePredicate;
 import org.openremote.model.query.filter.NameValuePredicate;
 import org.openremote.model.query.filter.PathPredicate;
 import org.openremote.model.query.filter.StringPredicate;
+import org.openremote.model.query.filter.ValuePredicate;
 import org.openremote.model.util.Pair;
 import org.openremote.model.util.TextUtil;
 
 import javax.persistence.EntityManager;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.logging.Level;
@@ -70,9 +80,10 @@ import static org.openremote.container.concurrent.GlobalLock.withLock;
 import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
 import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
 import static org.openremote.container.persistence.PersistenceEvent.isPersistenceEventForEntityType;
+import static org.openremote.container.util.MapAccess.getBoolean;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.manager.asset.AssetProcessingService.ASSET_QUEUE;
 import static org.openremote.manager.gateway.GatewayService.isNotForGateway;
-import static org.openremote.model.asset.agent.Protocol.ACTUATOR_TOPIC;
 import static org.openremote.model.asset.agent.Protocol.SENSOR_QUEUE;
 import static org.openremote.model.attribute.Attribute.getAddedOrModifiedAttributes;
 import static org.openremote.model.attribute.AttributeEvent.HEADER_SOURCE;
@@ -82,12 +93,36 @@ import static org.openremote.model.value.MetaItemType.AGENT_LINK;
 /**
  * Handles life cycle and communication with {@link Protocol}s.
  * <p>
- * Finds all {@link Agent} assets and manages their {@link Protocol} instances.
+ * Finds all {@link Agent} assets and manages their {@link Protocol} instances. Writes to linked attributes are passed
+ * to a {@link ProtocolInbox} of the linked agent's protocol instance, the inboxes of all instances share one bounded
+ * executor of {@link #PROTOCOL_WRITE_THREADS} threads.
+ * <p>
+ * When the service starts the agents are started in stages: the linked attributes of all agents are loaded with a
+ * single query, then up to {@link #AGENT_STARTUP_THREADS} protocol instances are started concurrently and each has its
+ * attributes linked in bulk. Asset persistence events received meanwhile are processed once all agents have started.
  */
 public class AgentService extends RouteBuilder implements ContainerService, AssetUpdateProcessor, ProtocolAssetService {
 
     private static final Logger LOG = Logger.getLogger(AgentService.class.getName());
     public static final int PRIORITY = DEFAULT_PRIORITY + 100; // Start quite late to ensure asset model etc. are initialised
+    // Maximum number of pending attribute writes of a protocol instance, further writes are discarded
+    public static final String PROTOCOL_WRITE_QUEUE_SIZE = "PROTOCOL_WRITE_QUEUE_SIZE";
+    public static final int PROTOCOL_WRITE_QUEUE_SIZE_DEFAULT = 1000;
+    // Maximum number of attribute writes of a protocol instance processed concurrently
+    public static final String PROTOCOL_WRITE_CONCURRENCY = "PROTOCOL_WRITE_CONCURRENCY";
+    public static final int PROTOCOL_WRITE_CONCURRENCY_DEFAULT = 1;
+    // Replace a pending write of an attribute with a newer write of the same attribute
+    public static final String PROTOCOL_WRITE_COALESCE = "PROTOCOL_WRITE_COALESCE";
+    public static final boolean PROTOCOL_WRITE_COALESCE_DEFAULT = false;
+    // Number of threads shared by the inboxes of all protocol instances to process attribute writes
+    public static final String PROTOCOL_WRITE_THREADS = "PROTOCOL_WRITE_THREADS";
+    public static final int PROTOCOL_WRITE_THREADS_DEFAULT = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    // Maximum number of protocol instances waiting for a write thread, writes to further instances are discarded
+    public static final String PROTOCOL_WRITE_THREADS_QUEUE_SIZE = "PROTOCOL_WRITE_THREADS_QUEUE_SIZE";
+    public static final int PROTOCOL_WRITE_THREADS_QUEUE_SIZE_DEFAULT = 10000;
+    // Maximum number of agents started concurrently when the service starts
+    public static final String AGENT_STARTUP_THREADS = "AGENT_STARTUP_THREADS";
+    public static final int AGENT_STARTUP_THREADS_DEFAULT = Math.max(2, Runtime.getRuntime().availableProcessors());
     protected TimerService timerService;
     protected ManagerIdentityService identityService;
     protected AssetProcessingService assetProcessingService;
@@ -96,9 +131,24 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     protected ClientEventService clientEventService;
     protected GatewayService gatewayService;
     protected ScheduledExecutorService executorService;
-    protected Map<String, Agent<?, ?, ?>> agentMap;
+    // Read by the asset processing partitions without the global lock, so both maps are concurrent
+    protected volatile Map<String, Agent<?, ?, ?>> agentMap;
     protected final Map<String, Future<Void>> agentDiscoveryImportFutureMap = new HashMap<>();
-    protected final Map<String, Protocol<?>> protocolInstanceMap = new HashMap<>();
+    protected final Map<String, Protocol<?>> protocolInstanceMap = new ConcurrentHashMap<>();
+    protected final Map<String, ProtocolInbox> protocolInboxMap = new ConcurrentHashMap<>();
+    protected ContainerExecutor protocolWriteExecutor;
+    protected int protocolWriteQueueSize;
+    protected int protocolWriteConcurrency;
+    protected boolean protocolWriteCoalesce;
+    protected int protocolWriteThreads;
+    protected int protocolWriteThreadsQueueSize;
+    protected int agentStartupThreads;
+    // Persistence events received while agents are starting, guarded by the global lock
+    protected List<PersistenceEvent<Asset<?>>> startupPersistenceEvents;
+    protected final AtomicInteger startingAgentCount = new AtomicInteger();
+    protected final AtomicInteger failedAgentCount = new AtomicInteger();
+    protected volatile boolean agentsStarted;
+    protected volatile long agentStartupMillis;
     protected final Map<String, List<Consumer<PersistenceEvent<Asset<?>>>>> childAssetSubscriptions = new HashMap<>();
     protected boolean initDone;
     protected Container container;
@@ -119,6 +169,13 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
         clientEventService = container.getService(ClientEventService.class);
         gatewayService = container.getService(GatewayService.class);
         executorService = container.getExecutorService();
+        protocolWriteQueueSize = Math.max(1, getInteger(container.getConfig(), PROTOCOL_WRITE_QUEUE_SIZE, PROTOCOL_WRITE_QUEUE_SIZE_DEFAULT));
+        protocolWriteConcurrency = Math.max(1, getInteger(container.getConfig(), PROTOCOL_WRITE_CONCURRENCY, PROTOCOL_WRITE_CONCURRENCY_DEFAULT));
+        protocolWriteCoalesce = getBoolean(container.getConfig(), PROTOCOL_WRITE_COALESCE, PROTOCOL_WRITE_COALESCE_DEFAULT);
+        protocolWriteThreads = Math.max(1, getInteger(container.getConfig(), PROTOCOL_WRITE_THREADS, PROTOCOL_WRITE_THREADS_DEFAULT));
+        protocolWriteThreadsQueueSize = Math.max(1, getInteger(container.getConfig(), PROTOCOL_WRITE_THREADS_QUEUE_SIZE, PROTOCOL_WRITE_THREADS_QUEUE_SIZE_DEFAULT));
+        agentStartupThreads = Math.max(1, getInteger(container.getConfig(), AGENT_STARTUP_THREADS, AGENT_STARTUP_THREADS_DEFAULT));
+        NettyEventLoops.configure(getInteger(container.getConfig(), NettyEventLoops.IO_EVENT_LOOP_THREADS, NettyEventLoops.IO_EVENT_LOOP_THREADS_DEFAULT));
 
         if (initDone) {
             return;
@@ -138,6 +195,12 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
 
     @Override
     public void start(Container container) throws Exception {
+        // Bounded so that slow protocols can't pile up threads, inboxes discard writes they can't schedule
+        protocolWriteExecutor = new ContainerExecutor(
+            "Protocol writes",
+            protocolWriteThreads,
+            protocolWriteThreadsQueueSize,
+            new ThreadPoolExecutor.AbortPolicy());
         container.getService(MessageBrokerService.class).getContext().addRoutes(this);
 
         // Load all enabled agents and instantiate a protocol instance for each
@@ -145,7 +208,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
         Collection<Agent<?, ?, ?>> agents = getAgents().values();
         LOG.fine("Found agent count = " + agents.size());
 
-        agents.stream().forEach(this::doAgentInit);
+        startAgents(agents);
     }
 
     @Override
@@ -154,6 +217,15 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
         agents.forEach(agent -> this.stopAgent(agent.getId()));
         agentMap.clear();
         protocolInstanceMap.clear();
+        protocolInboxMap.values().forEach(ProtocolInbox::close);
+        protocolInboxMap.clear();
+
+        if (protocolWriteExecutor != null) {
+            protocolWriteExecutor.shutdownNow();
+        }
+
+        // Protocols have been stopped, remaining users of the shared group re-create it on next use
+        NettyEventLoops.shutdown();
     }
 
     @SuppressWarnings("unchecked")
@@ -166,12 +238,14 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
             .process(exchange -> {
                 PersistenceEvent<Asset<?>> persistenceEvent = (PersistenceEvent<Asset<?>>)exchange.getIn().getBody(PersistenceEvent.class);
 
-                if (isPersistenceEventForEntityType(Agent.class).matches(exchange)) {
-                    PersistenceEvent<Agent<?, ?, ?>> agentEvent = (PersistenceEvent<Agent<?,?,?>>)(PersistenceEvent<?>)persistenceEvent;
-                    processAgentChange(agentEvent);
-                } else {
-                    processAssetChange(persistenceEvent);
-                }
+                withLock(getClass().getSimpleName() + "::processPersistenceEvent", () -> {
+                    if (startupPersistenceEvents != null) {
+                        LOG.finer("Agents are starting, deferring persistence event: " + persistenceEvent);
+                        startupPersistenceEvents.add(persistenceEvent);
+                        return;
+                    }
+                    processPersistenceEvent(persistenceEvent);
+                });
             });
 
         // A protocol wants to write a new sensor value
@@ -382,6 +456,84 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
         }
     }
 
+    @SuppressWarnings("unchecked")
+    protected void processPersistenceEvent(PersistenceEvent<Asset<?>> persistenceEvent) {
+        if (persistenceEvent.getEntity() instanceof Agent) {
+            processAgentChange((PersistenceEvent<Agent<?,?,?>>)(PersistenceEvent<?>)persistenceEvent);
+        } else {
+            processAssetChange(persistenceEvent);
+        }
+    }
+
+    /**
+     * Start the agents in parallel on at most {@link #agentStartupThreads} threads and wait for them to be started,
+     * persistence events received meanwhile are processed afterwards.
+     */
+    protected void startAgents(Collection<Agent<?,?,?>> agents) {
+        long startMillis = System.currentTimeMillis();
+        List<Agent<?,?,?>> enabledAgents = new ArrayList<>();
+
+        agents.forEach(agent -> {
+            if (agent.isDisabled().orElse(false)) {
+                LOG.fine("Agent is disabled so not starting: " + agent);
+                sendAttributeEvent(new AttributeEvent(agent.getId(), Agent.STATUS.getName(), ConnectionStatus.DISABLED));
+            } else {
+                enabledAgents.add(agent);
+            }
+        });
+
+        withLock(getClass().getSimpleName() + "::startAgents", () -> startupPersistenceEvents = new ArrayList<>());
+        startingAgentCount.set(enabledAgents.size());
+        ExecutorService startupExecutor = null;
+
+        try {
+            Map<String, Map<String, List<Attribute<?>>>> agentAssetAttributes = findLinkedAttributes(null);
+            startupExecutor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(agentStartupThreads, enabledAgents.size())),
+                new ContainerThreadFactory("Agent startup"));
+
+            List<Future<?>> startFutures = new ArrayList<>(enabledAgents.size());
+            for (Agent<?,?,?> agent : enabledAgents) {
+                Map<String, List<Attribute<?>>> assetAttributes = agentAssetAttributes.getOrDefault(agent.getId(), Collections.emptyMap());
+                startFutures.add(startupExecutor.submit(() -> {
+                    try {
+                        startAgent(agent, assetAttributes);
+                    } finally {
+                        startingAgentCount.decrementAndGet();
+                    }
+                }));
+            }
+
+            for (Future<?> startFuture : startFutures) {
+                try {
+                    startFuture.get();
+                } catch (ExecutionException e) {
+                    LOG.log(Level.SEVERE, "Failed to start agent", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOG.log(Level.SEVERE, "Failed to start agents", e);
+        } finally {
+            if (startupExecutor != null) {
+                startupExecutor.shutdown();
+            }
+            startingAgentCount.set(0);
+
+            withLock(getClass().getSimpleName() + "::startAgents", () -> {
+                List<PersistenceEvent<Asset<?>>> persistenceEvents = startupPersistenceEvents;
+                startupPersistenceEvents = null;
+                LOG.fine("Processing persistence events deferred during agent startup: " + persistenceEvents.size());
+                persistenceEvents.forEach(this::processPersistenceEvent);
+            });
+
+            agentStartupMillis = System.currentTimeMillis() - startMillis;
+            agentsStarted = true;
+            LOG.info("Started " + enabledAgents.size() + " agent(s) in " + agentStartupMillis + "ms, failed agent count = " + failedAgentCount.get());
+        }
+    }
+
     protected void doAgentInit(Agent<?,?,?> agent) {
         boolean isDisabled = agent.isDisabled().orElse(false);
         if (isDisabled) {
@@ -393,46 +545,79 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
     }
 
     protected void startAgent(Agent<?,?,?> agent) {
-        withLock(getClass().getSimpleName() + "::startAgent", () -> {
-            try {
-                Protocol<?> protocol = agent.getProtocolInstance();
-                protocolInstanceMap.put(agent.getId(), protocol);
-
-                LOG.fine("Starting protocol instance: " + protocol);
-                protocol.start(container);
-                LOG.fine("Started protocol instance:" + protocol);
-
-                LOG.finer("Linking attributes to protocol instance: " + protocol);
-
-                // Get all assets that have attributes with agent link meta for this agent
-                List<Asset<?>> assets = assetStorageService.findAll(
-                    new AssetQuery()
-                        .attributes(
-                            new AttributePredicate().meta(
-                                new NameValuePredicate(AGENT_LINK, new StringPredicate(agent.getId()), false, new NameValuePredicate.Path("id"))
-                            )
-                        )
-                );
-
-                LOG.finer("Found '" + assets.size() + "' asset(s) with attributes linked to this protocol instance: " + protocol);
-
-                assets.forEach(
-                    asset ->
-                        getGroupedAgentLinkAttributes(
-                            asset.getAttributes().stream(),
-                            assetAttribute -> assetAttribute.getMetaValue(AGENT_LINK)
-                                .map(agentLink -> agentLink.getId().equals(agent.getId()))
-                                .orElse(false)
-                        ).forEach((agnt, attributes) -> linkAttributes(agnt, asset.getId(), attributes))
-                );
+        withLock(getClass().getSimpleName() + "::startAgent", () ->
+            startAgent(agent, findLinkedAttributes(agent.getId()).getOrDefault(agent.getId(), Collections.emptyMap()))
+        );
+    }
 
+    /**
+     * Start the protocol instance of the agent and link the attributes (grouped by asset ID) to it; the global lock
+     * is only held while registering the instance and linking the attributes, unless the caller holds it.
+     */
+    protected void startAgent(Agent<?,?,?> agent, Map<String, List<Attribute<?>>> assetAttributes) {
+        Protocol<?> protocol = null;
+
+        try {
+            protocol = agent.getProtocolInstance();
+            Protocol<?> protocolInstance = protocol;
+
+            withLock(getClass().getSimpleName() + "::startAgent", () -> {
+                protocolInstanceMap.put(agent.getId(), protocolInstance);
+                protocolInboxMap.put(agent.getId(), new ProtocolInbox(
+                    protocolInstance,
+                    protocolWriteExecutor,
+                    protocolWriteQueueSize,
+                    protocolWriteConcurrency,
+                    protocolWriteCoalesce));
+            });
 
-            } catch (Exception e) {
-                protocolInstanceMap.remove(agent.getId());
-                LOG.log(Level.SEVERE, "Failed to start protocol instance for agent: " + agent, e);
-                sendAttributeEvent(new AttributeEvent(agent.getId(), Agent.STATUS.getName(), ConnectionStatus.ERROR));
-            }
-        });
+            LOG.fine("Starting protocol instance: " + protocol);
+            protocol.start(container);
+            LOG.fine("Started protocol instance:" + protocol);
+
+            LOG.finer("Found '" + assetAttributes.size() + "' asset(s) with attributes linked to this protocol instance: " + protocol);
+
+            withLock(getClass().getSimpleName() + "::linkAttributes", () -> protocolInstance.linkAttributes(assetAttributes));
+
+        } catch (Exception e) {
+            Protocol<?> failedProtocol = protocol;
+            withLock(getClass().getSimpleName() + "::startAgent", () -> {
+                if (failedProtocol == null || protocolInstanceMap.get(agent.getId()) == failedProtocol) {
+                    protocolInstanceMap.remove(agent.getId());
+                    closeProtocolInbox(agent.getId());
+                }
+            });
+            failedAgentCount.incrementAndGet();
+            LOG.log(Level.SEVERE, "Failed to start protocol instance for agent: " + agent, e);
+            sendAttributeEvent(new AttributeEvent(agent.getId(), Agent.STATUS.getName(), ConnectionStatus.ERROR));
+        }
+    }
+
+    /**
+     * Get the attributes linked to the agent (or all agents if <code>null</code>) grouped by agent ID and asset ID.
+     */
+    protected Map<String, Map<String, List<Attribute<?>>>> findLinkedAttributes(String agentId) {
+        AttributePredicate attributePredicate = new AttributePredicate().meta(
+            agentId != null
+                ? new NameValuePredicate(AGENT_LINK, new StringPredicate(agentId), false, new NameValuePredicate.Path("id"))
+                : new NameValuePredicate(AGENT_LINK, (ValuePredicate) null)
+        );
+
+        List<Asset<?>> assets = assetStorageService.findAll(new AssetQuery().attributes(attributePredicate));
+        Map<String, Map<String, List<Attribute<?>>>> agentAssetAttributes = new HashMap<>();
+
+        assets.forEach(asset ->
+            asset.getAttributes().stream().forEach(attribute ->
+                attribute.getMetaValue(AGENT_LINK)
+                    .map(AgentLink::getId)
+                    .filter(id -> agentId == null || agentId.equals(id))
+                    .ifPresent(id ->
+                        agentAssetAttributes
+                            .computeIfAbsent(id, k -> new HashMap<>())
+                            .computeIfAbsent(asset.getId(), k -> new ArrayList<>())
+                            .add(attribute))));
+
+        return agentAssetAttributes;
     }
 
     protected void stopAgent(String agentId) {
@@ -443,6 +628,9 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
                 return;
             }
 
+            // Discard pending writes, the protocol instance is about to be unlinked and stopped
+            closeProtocolInbox(agentId);
+
             Map<String, List<Attribute<?>>> groupedAttributes = protocol.getLinkedAttributes().entrySet().stream().collect(
                 Collectors.groupingBy(entry -> entry.getKey().getId(), mapping(Map.Entry::getValue, toList()))
             );
@@ -462,6 +650,13 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
         });
     }
 
+    protected void closeProtocolInbox(String agentId) {
+        ProtocolInbox inbox = protocolInboxMap.remove(agentId);
+        if (inbox != null) {
+            inbox.close();
+        }
+    }
+
     protected void linkAttributes(Agent<?,?,?> agent, String assetId, Collection<Attribute<?>> attributes) {
         withLock(getClass().getSimpleName() + "::linkAttributes", () -> {
             Protocol<?> protocol = getProtocolInstance(agent.getId());
@@ -558,12 +753,13 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
                 .map(agentLink -> {
                     LOG.finer("Attribute write for agent linked attribute: agent=" + agentLink.getId() + ", asset=" + asset.getId() + ", attribute=" + attribute.getName());
 
-                    messageBrokerService.getProducerTemplate().sendBodyAndHeader(
-                        ACTUATOR_TOPIC,
-                        attributeEvent,
-                        Protocol.ACTUATOR_TOPIC_TARGET_PROTOCOL,
-                        getProtocolInstance(agentLink.getId())
-                    );
+                    ProtocolInbox inbox = protocolInboxMap.get(agentLink.getId());
+
+                    if (inbox == null) {
+                        LOG.fine("Attribute write discarded as linked agent has no running protocol instance: agent=" + agentLink.getId() + ", event=" + attributeEvent);
+                    } else if (!inbox.offer(attributeEvent)) {
+                        LOG.warning("Attribute write discarded as protocol inbox is full: " + inbox + ", event=" + attributeEvent);
+                    }
                     return true; // Processing complete, skip other processors
                 }).orElse(false) // This is a regular attribute so allow the processing to continue
         );
@@ -640,7 +836,7 @@ public class AgentService extends RouteBuilder implements ContainerService, Asse
                     )
                     .stream()
                     .filter(asset -> gatewayService.getLocallyRegisteredGatewayId(asset.getId(), null) == null)
-                    .collect(Collectors.toMap(Asset::getId, agent -> (Agent<?, ?, ?>)agent));
+                    .collect(Collectors.toMap(Asset::getId, agent -> (Agent<?, ?, ?>)agent, (a, b) -> a, ConcurrentHashMap::new));
             }
             return agentMap;
         });
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.agent;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openremote.agent.protocol.io.AbstractNettyIOClient;
+import org.openremote.agent.protocol.io.ChannelMetrics;
+import org.openremote.agent.protocol.io.NettyEventLoops;
+import org.openremote.model.system.HealthStatusProvider;
+import org.openremote.model.util.ValueUtil;
+
+/**
+ * Reports the shared IO event loop and the channel metrics of each connected Netty based IO client.
+ */
+public class IOClientHealthStatusProvider implements HealthStatusProvider {
+
+    public static final String NAME = "ioclients";
+    public static final String VERSION = "1.0";
+
+    @Override
+    public String getHealthStatusName() {
+        return NAME;
+    }
+
+    @Override
+    public String getHealthStatusVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public Object getHealthStatus() {
+        ObjectNode objectValue = ValueUtil.JSON.createObjectNode();
+        objectValue.put("transport", NettyEventLoops.getTransportName());
+        objectValue.put("eventLoopThreads", NettyEventLoops.getThreadCount());
+
+        ObjectNode clientsValue = ValueUtil.JSON.createObjectNode();
+        int clientCount = 0;
+
+        for (AbstractNettyIOClient<?, ?> client : NettyEventLoops.getClients()) {
+            ChannelMetrics metrics = client.getChannelMetrics();
+            ObjectNode clientValue = ValueUtil.JSON.createObjectNode();
+            clientValue.put("status", client.getConnectionStatus().name());
+            clientValue.put("connects", metrics.getConnects());
+            clientValue.put("messagesRead", metrics.getMessagesRead());
+            clientValue.put("bytesRead", metrics.getBytesRead());
+            clientValue.put("messagesWritten", metrics.getMessagesWritten());
+            clientValue.put("bytesWritten", metrics.getBytesWritten());
+            clientValue.put("exceptions", metrics.getExceptions());
+            clientValue.put("lastReadMillis", metrics.getLastReadMillis());
+            clientValue.put("lastWriteMillis", metrics.getLastWriteMillis());
+            clientsValue.set(client.getClientUri(), clientValue);
+            clientCount++;
+        }
+
+        objectValue.put("clients", clientCount);
+        objectValue.set("clientMetrics", clientsValue);
+        return objectValue;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.agent;
+
+import org.openremote.model.asset.agent.Protocol;
+import org.openremote.model.attribute.AttributeEvent;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded inbox of attribute writes for a single {@link Protocol} instance, writes are passed to
+ * {@link Protocol#processLinkedAttributeWrite} in order of arrival by at most the configured number of concurrent
+ * workers, which are run on the shared executor only while the inbox has pending writes.
+ * <p>
+ * If writes are coalesced a pending write of an attribute is replaced by a newer write of the same attribute, the
+ * write keeps its position in the inbox; this bounds the writes of a fast changing attribute to a slow protocol.
+ */
+public class ProtocolInbox {
+
+    private static final Logger LOG = Logger.getLogger(ProtocolInbox.class.getName());
+
+    protected final Protocol<?> protocol;
+    protected final Executor executor;
+    protected final int capacity;
+    protected final int maxConcurrency;
+    protected final boolean coalesce;
+    // Keyed by attribute reference when coalescing, otherwise by a unique key per write
+    protected final Map<Object, AttributeEvent> pending = new LinkedHashMap<>();
+    protected int activeWorkers;
+    protected boolean closed;
+
+    public ProtocolInbox(Protocol<?> protocol, Executor executor, int capacity, int maxConcurrency, boolean coalesce) {
+        this.protocol = protocol;
+        this.executor = executor;
+        this.capacity = capacity;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.coalesce = coalesce;
+    }
+
+    /**
+     * @return <code>false</code> if the inbox is full or closed, or no worker could be scheduled on the executor, and
+     * the write was discarded.
+     */
+    public boolean offer(AttributeEvent event) {
+        Object key = coalesce ? event.getAttributeRef() : new Object();
+
+        synchronized (pending) {
+            if (closed) {
+                return false;
+            }
+
+            if (!pending.containsKey(key) && pending.size() >= capacity) {
+                return false;
+            }
+
+            pending.put(key, event);
+
+            if (activeWorkers >= maxConcurrency) {
+                return true;
+            }
+            activeWorkers++;
+        }
+
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            // The write is discarded, other pending writes are still processed by the active workers
+            synchronized (pending) {
+                activeWorkers--;
+                pending.remove(key, event);
+            }
+            LOG.log(Level.WARNING, "Failed to schedule protocol writes: " + protocol, e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Discard all pending writes and reject further writes, writes that are being processed complete normally.
+     */
+    public void close() {
+        synchronized (pending) {
+            closed = true;
+            pending.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    protected void drain() {
+        AttributeEvent event;
+
+        while ((event = poll()) != null) {
+            try {
+                protocol.processLinkedAttributeWrite(event);
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, "Protocol write failed: protocol=" + protocol + ", event=" + event, e);
+            }
+        }
+    }
+
+    /**
+     * @return The next pending write, or <code>null</code> if there is none and the calling worker must stop.
+     */
+    protected AttributeEvent poll() {
+        synchronized (pending) {
+            Iterator<AttributeEvent> iterator = pending.values().iterator();
+
+            if (closed || !iterator.hasNext()) {
+                activeWorkers--;
+                return null;
+            }
+
+            AttributeEvent event = iterator.next();
+            iterator.remove();
+            return event;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "protocol=" + protocol +
+            ", pending=" + size() +
+            ", maxConcurrency=" + maxConcurrency +
+            ", coalesce=" + coalesce +
+            '}';
+    }
+}
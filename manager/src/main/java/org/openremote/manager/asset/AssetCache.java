@@ -0,0 +1,144 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.openremote.model.asset.Asset;
+import org.openremote.model.attribute.Attribute;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * A bounded LRU cache of completely loaded assets used by {@link AssetStorageService}. Cached assets are never
+ * modified: they are copied with {@link Asset#copy} when stored and when read, so every read returns an instance that
+ * the caller may modify. Attribute updates replace the cached asset with an updated copy. The weight of an entry is
+ * an estimate of its size in bytes based on its number of attributes.
+ * <p>
+ * A load racing with a modification of the same asset is not cached: modifications increment a generation counter
+ * (striped by asset ID) and a loaded asset is only stored if its generation did not change during the load.
+ */
+public class AssetCache {
+
+    protected static final int GENERATION_STRIPES = 1024;
+    protected static final int ASSET_WEIGHT_BYTES = 1024;
+    protected static final int ATTRIBUTE_WEIGHT_BYTES = 512;
+
+    protected final Cache<String, Asset<?>> cache;
+    protected final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    public AssetCache(long maximumBytes) {
+        cache = CacheBuilder.newBuilder()
+            .maximumWeight(maximumBytes)
+            .weigher((String assetId, Asset<?> asset) -> getWeight(asset))
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * @return A copy of the cached asset or the asset supplied by the loader, a copy of which is then cached.
+     */
+    public Asset<?> get(String assetId, Supplier<Asset<?>> loader) {
+        Asset<?> cachedAsset = cache.getIfPresent(assetId);
+
+        if (cachedAsset != null) {
+            return cachedAsset.copy();
+        }
+
+        long generation = generations.get(getStripe(assetId));
+        Asset<?> asset = loader.get();
+
+        if (asset != null) {
+            Asset<?> loadedAsset = asset.copy();
+            cache.asMap().compute(assetId, (id, existing) ->
+                generations.get(getStripe(assetId)) == generation ? loadedAsset : existing);
+        }
+        return asset;
+    }
+
+    /**
+     * Write the committed values and timestamps of the attributes through to the cached asset, if present.
+     */
+    public void updateAttributes(String assetId, Collection<Attribute<?>> attributes) {
+        generations.incrementAndGet(getStripe(assetId));
+        cache.asMap().computeIfPresent(assetId, (id, cachedAsset) -> {
+            Asset<?> asset = cachedAsset.copy();
+            for (Attribute<?> attribute : attributes) {
+                if (!asset.getAttributes().has(attribute.getName())) {
+                    // Out of sync with the database
+                    return null;
+                }
+                asset.getAttributes().addOrReplace(attribute.copy());
+            }
+            return asset;
+        });
+    }
+
+    /**
+     * Remove the asset and all cached descendants of the asset, as their path or parent information might have changed.
+     */
+    public void invalidate(String assetId) {
+        generations.incrementAndGet(getStripe(assetId));
+        cache.invalidate(assetId);
+        cache.asMap().entrySet().removeIf(entry -> {
+            String[] path = entry.getValue().getPath();
+            if (path != null && Arrays.asList(path).contains(assetId)) {
+                generations.incrementAndGet(getStripe(entry.getKey()));
+                return true;
+            }
+            return false;
+        });
+    }
+
+    public void invalidateAll() {
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    protected int getStripe(String assetId) {
+        return Math.floorMod(assetId.hashCode(), GENERATION_STRIPES);
+    }
+
+    protected static int getWeight(Asset<?> asset) {
+        return ASSET_WEIGHT_BYTES + (asset.getAttributes() != null ? asset.getAttributes().size() * ATTRIBUTE_WEIGHT_BYTES : 0);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "size=" + cache.size() +
+            ", stats=" + cache.stats() +
+            '}';
+    }
+}
@@ -41,20 +41,23 @@ import org.openremote.model.asset.AssetResource;
 import org.openremote.model.asset.agent.Protocol;
 import org.openremote.model.attribute.*;
 import org.openremote.model.attribute.AttributeEvent.Source;
+import org.openremote.model.datapoint.AssetDatapoint;
 import org.openremote.model.security.ClientRole;
 import org.openremote.model.util.ValueUtil;
 import org.openremote.model.value.MetaItemType;
 import org.openremote.model.value.ValueType;
 
 import javax.persistence.EntityManager;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import static org.openremote.container.concurrent.GlobalLock.withLock;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.model.attribute.AttributeWriteFailure.*;
 import static org.openremote.manager.event.ClientEventService.CLIENT_EVENT_TOPIC;
 import static org.openremote.model.attribute.AttributeEvent.HEADER_SOURCE;
@@ -93,8 +96,9 @@ import static org.openremote.model.value.MetaItemType.AGENT_LINK;
  * When the update messages' source is {@link Source#SENSOR}, the agent service ignores the message.
  * The message will also be ignored if the updated attribute is not linked to an agent.
  * <p>
- * If the updated attribute has a valid agent link, an {@link AttributeEvent} is sent on the {@link Protocol#ACTUATOR_TOPIC},
- * for execution on an actual device or service 'things'. The update is then considered complete, and no further processing
+ * If the updated attribute has a valid agent link, an {@link AttributeEvent} is passed to
+ * {@link Protocol#processLinkedAttributeWrite} of the linked agent's protocol instance (through its inbox in the agent
+ * service), for execution on an actual device or service 'things'. The update is then considered complete, and no further processing
  * is necessary. The update will not reach the rules engine or the database.
  * <p>
  * This means that a protocol implementation is responsible for producing a new {@link AttributeEvent} to
@@ -118,6 +122,21 @@ import static org.openremote.model.value.MetaItemType.AGENT_LINK;
  * {@link org.openremote.model.asset.agent.AgentLink} meta, and if so the {@link AttributeEvent}
  * is not stored in a time series DB of historical data, otherwise the value is stored. Then allows the message to
  * continue if the commit was successful.
+ * <h2>Partitioned processing</h2>
+ * <p>
+ * By default all events are processed one at a time while holding the {@link org.openremote.container.concurrent.GlobalLock}.
+ * When {@link #ASSET_PROCESSING_PARTITIONS} is greater than 1, events are hashed by asset ID onto that many ordered
+ * partition queues, each with its own consumer and transaction. The order of events for an asset is preserved while
+ * events of unrelated assets are processed concurrently without holding the global lock. The {@link RulesService}
+ * obtains the global lock whilst it updates the rules engines and the {@link AgentService} reads its agents and
+ * protocol instances from concurrent maps.
+ * <h2>Batched storage</h2>
+ * <p>
+ * When {@link #ASSET_PROCESSING_BATCH_SIZE} is greater than 1, events are collected per queue for up to
+ * {@link #ASSET_PROCESSING_BATCH_WINDOW_MILLIS} and processed in a single transaction, see {@link AttributeEventBatch}.
+ * All attribute values of an asset are stored with one update and data points are inserted with one JDBC batch;
+ * client events are published after the commit. Request/reply exchanges, such as attribute writes through the
+ * {@link AssetResource}, are always processed immediately in their own transaction.
  */
 @SuppressWarnings("unchecked")
 public class AssetProcessingService extends RouteBuilder implements ContainerService {
@@ -126,6 +145,17 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
     // TODO: Some of these options should be configurable depending on expected load etc.
     // Message topic for communicating individual asset attribute changes
     public static final String ASSET_QUEUE = "seda://AssetQueue?waitForTaskToComplete=IfReplyExpected&timeout=10000&purgeWhenStopping=true&discardIfNoConsumers=false&size=25000";
+    // Number of ordered partitions attribute events are hashed onto by asset ID, 1 means sequential processing
+    public static final String ASSET_PROCESSING_PARTITIONS = "ASSET_PROCESSING_PARTITIONS";
+    public static final int ASSET_PROCESSING_PARTITIONS_DEFAULT = 1;
+    protected static final String ASSET_QUEUE_PARTITION = "seda://AssetQueue%d?waitForTaskToComplete=IfReplyExpected&timeout=10000&purgeWhenStopping=true&discardIfNoConsumers=false&size=25000";
+    protected static final String HEADER_ASSET_QUEUE = AssetProcessingService.class.getName() + ".AssetQueue";
+    // Maximum number of attribute events stored in one transaction, 1 stores each event in its own transaction
+    public static final String ASSET_PROCESSING_BATCH_SIZE = "ASSET_PROCESSING_BATCH_SIZE";
+    public static final int ASSET_PROCESSING_BATCH_SIZE_DEFAULT = 1;
+    // Maximum time an attribute event waits for its batch to fill up
+    public static final String ASSET_PROCESSING_BATCH_WINDOW_MILLIS = "ASSET_PROCESSING_BATCH_WINDOW_MILLIS";
+    public static final int ASSET_PROCESSING_BATCH_WINDOW_MILLIS_DEFAULT = 20;
     private static final Logger LOG = Logger.getLogger(AssetProcessingService.class.getName());
     final protected List<AssetUpdateProcessor> processors = new ArrayList<>();
     protected TimerService timerService;
@@ -139,8 +169,13 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
     protected AttributeLinkingService assetAttributeLinkingService;
     protected MessageBrokerService messageBrokerService;
     protected ClientEventService clientEventService;
+    protected int partitions;
+    protected int batchSize;
+    protected int batchWindowMillis;
+    final protected List<AttributeEventBatch> batches = new ArrayList<>();
+    protected ScheduledFuture<?> batchesFuture;
     // Used in testing to detect if initial/startup processing has completed
-    protected long lastProcessedEventTimestamp = System.currentTimeMillis();
+    protected volatile long lastProcessedEventTimestamp = System.currentTimeMillis();
 
     protected static Processor handleAssetProcessingException(Logger logger) {
         return exchange -> {
@@ -208,17 +243,41 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
         processors.add(assetDatapointService);
         processors.add(assetAttributeLinkingService);
 
+        partitions = Math.max(1, getInteger(container.getConfig(), ASSET_PROCESSING_PARTITIONS, ASSET_PROCESSING_PARTITIONS_DEFAULT));
+        if (partitions > 1) {
+            LOG.info("Processing attribute events in " + partitions + " partitions");
+        }
+
+        batchSize = getInteger(container.getConfig(), ASSET_PROCESSING_BATCH_SIZE, ASSET_PROCESSING_BATCH_SIZE_DEFAULT);
+        batchWindowMillis = Math.max(1, getInteger(container.getConfig(), ASSET_PROCESSING_BATCH_WINDOW_MILLIS, ASSET_PROCESSING_BATCH_WINDOW_MILLIS_DEFAULT));
+        if (batchSize > 1) {
+            LOG.info("Storing attribute events in batches of up to " + batchSize + " events or " + batchWindowMillis + "ms");
+            for (int i = 0; i < partitions; i++) {
+                batches.add(new AttributeEventBatch());
+            }
+        }
+
         container.getService(MessageBrokerService.class).getContext().addRoutes(this);
     }
 
     @Override
     public void start(Container container) throws Exception {
-
+        if (!batches.isEmpty()) {
+            batchesFuture = container.getExecutorService().scheduleAtFixedRate(
+                this::processDueBatches,
+                batchWindowMillis,
+                batchWindowMillis,
+                TimeUnit.MILLISECONDS
+            );
+        }
     }
 
     @Override
     public void stop(Container container) throws Exception {
-
+        if (batchesFuture != null) {
+            batchesFuture.cancel(false);
+            batchesFuture = null;
+        }
     }
 
     @Override
@@ -247,122 +306,368 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
          - See pseudocode here: http://activemq.apache.org/should-i-use-xa.html
          - Do we want JMS/AMQP/WSS or SOME_API/MQTT/WSS? ActiveMQ or Moquette?
         */
-        from(ASSET_QUEUE)
-            .routeId("AssetQueueProcessor")
-            .filter(body().isInstanceOf(AttributeEvent.class))
-            .doTry()
-            // Lock the global context, we can only process attribute events when the
-            // context isn't locked. Agent- and RulesService lock the context while protocols
-            // or rulesets are modified.
-            .process(exchange -> withLock(getClass().getSimpleName() + "::processFromAssetQueue", () -> {
-
-                AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
-                LOG.finest("Processing: " + event);
-                if (event.getAssetId() == null || event.getAssetId().isEmpty())
-                    return;
-                if (event.getAttributeName() == null || event.getAttributeName().isEmpty())
-                    return;
-                Source source = exchange.getIn().getHeader(HEADER_SOURCE, () -> null, Source.class);
-                if (source == null) {
-                    throw new AssetProcessingException(MISSING_SOURCE);
-                }
+        if (partitions > 1) {
+            // Dispatch events onto the partition queue owning the asset, a single consumer per partition keeps the
+            // order of events for an asset while events of unrelated assets are processed concurrently
+            from(ASSET_QUEUE)
+                .routeId("AssetQueueDispatcher")
+                .filter(body().isInstanceOf(AttributeEvent.class))
+                .process(exchange -> exchange.getIn().setHeader(
+                    HEADER_ASSET_QUEUE,
+                    getAssetQueue(exchange.getIn().getBody(AttributeEvent.class).getAssetId())))
+                .recipientList(header(HEADER_ASSET_QUEUE));
+
+            for (int i = 0; i < partitions; i++) {
+                // No global lock here, the rules service obtains it whilst updating the engines and the agent service
+                // state read by processors is held in concurrent maps
+                from(getAssetQueuePartition(i))
+                    .routeId("AssetQueueProcessor" + i)
+                    .filter(body().isInstanceOf(AttributeEvent.class))
+                    .doTry()
+                    .process(getAssetQueueProcessor(i))
+                    .endDoTry()
+                    .doCatch(AssetProcessingException.class)
+                    .process(handleAssetProcessingException(LOG));
+            }
+        } else {
+            from(ASSET_QUEUE)
+                .routeId("AssetQueueProcessor")
+                .filter(body().isInstanceOf(AttributeEvent.class))
+                .doTry()
+                .process(getAssetQueueProcessor(0))
+                .endDoTry()
+                .doCatch(AssetProcessingException.class)
+                .process(handleAssetProcessingException(LOG));
+        }
+    }
 
-                // Process the asset update in a database transaction, this ensures that processors
-                // will see consistent database state and we only commit if no processor failed. This
-                // still won't make this procedure consistent with the message queue from which we consume!
-                persistenceService.doTransaction(em -> {
-                    Asset<?> asset = assetStorageService.find(em, event.getAssetId(), true);
+    protected Processor getAssetQueueProcessor(int partition) {
+        Processor processor = batches.isEmpty()
+            ? this::processFromAssetQueue
+            : exchange -> batchFromAssetQueue(exchange, batches.get(partition));
 
-                    if (asset == null) {
-                        if (source == SENSOR) {
-                            // Fail silently as a protocol may have queued updates before the asset was deleted
-                            return;
-                        }
+        if (partitions > 1) {
+            return processor;
+        }
 
-                        throw new AssetProcessingException(ASSET_NOT_FOUND);
+        // Lock the global context, we can only process attribute events when the
+        // context isn't locked. Agent- and RulesService lock the context while protocols
+        // or rulesets are modified.
+        return exchange -> withLock(getClass().getSimpleName() + "::processFromAssetQueue", () -> {
+            try {
+                processor.process(exchange);
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+    }
+
+    protected void processFromAssetQueue(Exchange exchange) throws AssetProcessingException {
+        // Process the asset update in a database transaction, this ensures that processors
+        // will see consistent database state and we only commit if no processor failed. This
+        // still won't make this procedure consistent with the message queue from which we consume!
+        persistenceService.doTransaction(em -> processFromAssetQueue(em, exchange, null));
+    }
+
+    /**
+     * Collect the exchange in the batch and process the batch when it is full; a request/reply exchange is processed
+     * immediately after the events collected before it, so the order of events is preserved.
+     */
+    protected void batchFromAssetQueue(Exchange exchange, AttributeEventBatch batch) throws AssetProcessingException {
+        synchronized (batch) {
+            if (exchange.getPattern().isOutCapable()) {
+                processBatch(batch);
+                processFromAssetQueue(exchange);
+                return;
+            }
+
+            batch.add(exchange, System.currentTimeMillis());
+            if (batch.size() >= batchSize) {
+                processBatch(batch);
+            }
+        }
+    }
+
+    protected void processDueBatches() {
+        long currentMillis = System.currentTimeMillis();
+        for (AttributeEventBatch batch : batches) {
+            if (partitions > 1) {
+                processBatchIfDue(batch, currentMillis);
+            } else {
+                // Same lock order as the queue consumer: global lock first, then the batch
+                withLock(getClass().getSimpleName() + "::processDueBatches", () -> processBatchIfDue(batch, currentMillis));
+            }
+        }
+    }
+
+    protected void processBatchIfDue(AttributeEventBatch batch, long currentMillis) {
+        synchronized (batch) {
+            if (batch.isDue(currentMillis, batchWindowMillis)) {
+                processBatch(batch);
+            }
+        }
+    }
+
+    /**
+     * Processes all collected events of the batch in a single transaction. Events failing validation or processing
+     * are handled individually; the attribute values and data points of the remaining events are stored with one
+     * merged update per asset and one JDBC batch, and their client events are published once the transaction has
+     * been committed. If storing fails the transaction is rolled back and only the staged attribute values and data
+     * points are stored again, see {@link #storeStagedIndividually}; the processors are not run again as their side
+     * effects (e.g. protocol writes, events forwarded to gateways, rules facts and linked attribute events) have
+     * already happened.
+     */
+    protected void processBatch(AttributeEventBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<Exchange> exchanges = batch.drain();
+        AtomicInteger processedCount = new AtomicInteger();
+        LOG.finest("Processing batch of attribute events: " + exchanges.size());
+
+        try {
+            persistenceService.doTransaction(em -> {
+                for (Exchange exchange : exchanges) {
+                    try {
+                        processFromAssetQueue(em, exchange, batch);
+                    } catch (AssetProcessingException ex) {
+                        handleBatchedAssetProcessingException(exchange, ex);
                     }
+                    processedCount.incrementAndGet();
+                }
 
-                    Attribute<?> oldAttribute = asset.getAttribute(event.getAttributeName()).orElse(null);
-                    if (oldAttribute == null) {
-                        if (source == SENSOR) {
-                            // Fail silently as a protocol may have queued updates before the attribute was modified/deleted
-                            return;
-                        }
+                batch.getAttributes().forEach((assetId, attributes) -> storeAttributeValues(em, assetId, attributes.values()));
+
+                if (!batch.getDatapoints().isEmpty()) {
+                    assetDatapointService.upsertValues(em, batch.getDatapoints());
+                }
+            });
+
+            batch.getClientEvents().forEach(assetAndAttribute -> publishClientEvent(assetAndAttribute.key, assetAndAttribute.value));
+        } catch (Exception ex) {
+            int processed = processedCount.get();
+            LOG.log(Level.WARNING, "Failed to store batch of " + exchanges.size() + " attribute events, storing them one by one", ex);
+
+            if (processed < exchanges.size()) {
+                // Processing failed unexpectedly, the processors might have run partially so don't process it again
+                handleBatchedAssetProcessingException(exchanges.get(processed), new AssetProcessingException(PROCESSOR_FAILURE, "batch processing failed", ex));
+            }
 
-                        throw new AssetProcessingException(ATTRIBUTE_NOT_FOUND);
+            storeStagedIndividually(batch, exchanges.subList(0, processed));
+
+            if (processed + 1 < exchanges.size()) {
+                processIndividually(exchanges.subList(processed + 1, exchanges.size()));
+            }
+        } finally {
+            batch.clearStaged();
+        }
+    }
+
+    /**
+     * Stores the staged attribute values and data points of each asset in its own transaction and, when that fails,
+     * of each attribute in its own transaction, then publishes the client events of the stored attributes. The events
+     * of attributes that can't be stored are handled as failed.
+     */
+    protected void storeStagedIndividually(AttributeEventBatch batch, List<Exchange> exchanges) {
+        batch.getAttributes().forEach((assetId, attributes) -> {
+            List<AssetDatapoint> datapoints = batch.getDatapoints().stream()
+                .filter(datapoint -> assetId.equals(datapoint.getAssetId()))
+                .collect(Collectors.toList());
+            Set<String> storedAttributeNames = new HashSet<>();
+
+            if (storeStaged(assetId, attributes.values(), datapoints)) {
+                storedAttributeNames.addAll(attributes.keySet());
+            } else {
+                attributes.values().forEach(attribute -> {
+                    List<AssetDatapoint> attributeDatapoints = datapoints.stream()
+                        .filter(datapoint -> attribute.getName().equals(datapoint.getAttributeName()))
+                        .collect(Collectors.toList());
+                    if (storeStaged(assetId, Collections.singletonList(attribute), attributeDatapoints)) {
+                        storedAttributeNames.add(attribute.getName());
                     }
+                });
+            }
+
+            batch.getClientEvents().stream()
+                .filter(assetAndAttribute -> assetId.equals(assetAndAttribute.key.getId()) && storedAttributeNames.contains(assetAndAttribute.value.getName()))
+                .forEach(assetAndAttribute -> publishClientEvent(assetAndAttribute.key, assetAndAttribute.value));
+
+            exchanges.stream()
+                .filter(exchange -> exchange.getProperty(Exchange.EXCEPTION_CAUGHT) == null)
+                .filter(exchange -> {
+                    AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
+                    return assetId.equals(event.getAssetId()) && attributes.containsKey(event.getAttributeName()) && !storedAttributeNames.contains(event.getAttributeName());
+                })
+                .forEach(exchange -> handleBatchedAssetProcessingException(exchange, new AssetProcessingException(
+                    STATE_STORAGE_FAILED, "database update failed: Asset ID=" + assetId
+                )));
+        });
+    }
+
+    protected boolean storeStaged(String assetId, Collection<Attribute<?>> attributes, List<AssetDatapoint> datapoints) {
+        try {
+            persistenceService.doTransaction(em -> {
+                storeAttributeValues(em, assetId, attributes);
+                if (!datapoints.isEmpty()) {
+                    assetDatapointService.upsertValues(em, datapoints);
+                }
+            });
+            return true;
+        } catch (Exception ex) {
+            LOG.log(Level.FINE, "Failed to store attribute values: Asset ID=" + assetId, ex);
+            return false;
+        }
+    }
+
+    protected void storeAttributeValues(EntityManager em, String assetId, Collection<Attribute<?>> attributes) throws AssetProcessingException {
+        if (!assetStorageService.updateAttributeValues(em, assetId, attributes)) {
+            // Asset or attributes were removed while the batch was processed
+            throw new AssetProcessingException(
+                STATE_STORAGE_FAILED,
+                "database update failed, no rows updated: Asset ID=" + assetId + ", attributes=" + attributes.stream().map(Attribute::getName).collect(Collectors.toList())
+            );
+        }
+    }
 
-                    switch (source) {
-                        case CLIENT:
-
-                            AuthContext authContext = exchange.getIn().getHeader(Constants.AUTH_CONTEXT, AuthContext.class);
-                            if (authContext == null) {
-                                // Check attribute has public write flag
-                                if (!oldAttribute.hasMeta(MetaItemType.ACCESS_PUBLIC_WRITE)) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-                            } else {
-                                // Check realm, must be accessible
-                                if (!identityService.getIdentityProvider().isTenantActiveAndAccessible(authContext,
-                                    asset.getRealm())) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-
-                                // Regular user must have write attributes role
-                                if (!authContext.hasResourceRoleOrIsSuperUser(ClientRole.WRITE_ATTRIBUTES.getValue(),
-                                    authContext.getClientId())) {
-                                    throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                }
-
-                                // Check restricted user
-                                if (identityService.getIdentityProvider().isRestrictedUser(authContext)) {
-                                    // Must be asset linked to user
-                                    if (!assetStorageService.isUserAsset(authContext.getUserId(),
-                                        event.getAssetId())) {
-                                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                    }
-                                    // Must be writable by restricted client
-                                    if (!oldAttribute.getMetaValue(MetaItemType.ACCESS_RESTRICTED_WRITE).orElse(false)) {
-                                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
-                                    }
-                                }
-                            }
-                            break;
-
-                        case SENSOR:
-                            Optional<Protocol<?>> protocol = oldAttribute.getMetaValue(AGENT_LINK)
-                                .map(agentLink -> agentService.getProtocolInstance(agentLink.getId()));
-
-                            // Sensor event must be for an attribute linked to an agent
-                            if (!protocol.isPresent()) {
-                                throw new AssetProcessingException(INVALID_AGENT_LINK);
-                            }
-                            break;
+    /**
+     * Processes each exchange that hasn't been processed yet in its own transaction.
+     */
+    protected void processIndividually(List<Exchange> exchanges) {
+        for (Exchange exchange : exchanges) {
+            try {
+                processFromAssetQueue(exchange);
+            } catch (AssetProcessingException ex) {
+                handleBatchedAssetProcessingException(exchange, ex);
+            } catch (Exception ex) {
+                LOG.log(Level.WARNING, "Failed to process attribute event: " + exchange.getIn().getBody(), ex);
+            }
+        }
+    }
+
+    protected void handleBatchedAssetProcessingException(Exchange exchange, AssetProcessingException ex) {
+        exchange.setProperty(Exchange.EXCEPTION_CAUGHT, ex);
+        try {
+            handleAssetProcessingException(LOG).process(exchange);
+        } catch (Exception handlerEx) {
+            LOG.log(Level.WARNING, "Failed to handle asset processing exception", handlerEx);
+        }
+    }
+
+    protected void processFromAssetQueue(EntityManager em, Exchange exchange, AttributeEventBatch batch) throws AssetProcessingException {
+
+        AttributeEvent event = exchange.getIn().getBody(AttributeEvent.class);
+        LOG.finest("Processing: " + event);
+        if (event.getAssetId() == null || event.getAssetId().isEmpty())
+            return;
+        if (event.getAttributeName() == null || event.getAttributeName().isEmpty())
+            return;
+        Source source = exchange.getIn().getHeader(HEADER_SOURCE, () -> null, Source.class);
+        if (source == null) {
+            throw new AssetProcessingException(MISSING_SOURCE);
+        }
+
+        Asset<?> asset = batch != null
+            ? batch.getAsset(event.getAssetId(), assetId -> {
+                Asset<?> loadedAsset = assetStorageService.find(em, assetId, true);
+                // The batch modifies the asset while staging updates, these must not be flushed by the em
+                if (loadedAsset != null) {
+                    em.detach(loadedAsset);
+                }
+                return loadedAsset;
+            })
+            : assetStorageService.find(em, event.getAssetId(), true);
+
+        if (asset == null) {
+            if (source == SENSOR) {
+                // Fail silently as a protocol may have queued updates before the asset was deleted
+                return;
+            }
+
+            throw new AssetProcessingException(ASSET_NOT_FOUND);
+        }
+
+        Attribute<?> oldAttribute = asset.getAttribute(event.getAttributeName()).orElse(null);
+        if (oldAttribute == null) {
+            if (source == SENSOR) {
+                // Fail silently as a protocol may have queued updates before the attribute was modified/deleted
+                return;
+            }
+
+            throw new AssetProcessingException(ATTRIBUTE_NOT_FOUND);
+        }
+
+        switch (source) {
+            case CLIENT:
+
+                AuthContext authContext = exchange.getIn().getHeader(Constants.AUTH_CONTEXT, AuthContext.class);
+                if (authContext == null) {
+                    // Check attribute has public write flag
+                    if (!oldAttribute.hasMeta(MetaItemType.ACCESS_PUBLIC_WRITE)) {
+                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                    }
+                } else {
+                    // Check realm, must be accessible
+                    if (!identityService.isTenantActiveAndAccessible(authContext, asset.getRealm())) {
+                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
                     }
 
-                    // For executable attributes, non-sensor sources can set a writable attribute execute status
-                    if (oldAttribute.getType() == ValueType.EXECUTION_STATUS && source != SENSOR) {
-                        Optional<AttributeExecuteStatus> status = event.getValue()
-                            .flatMap(ValueUtil::getString)
-                            .flatMap(AttributeExecuteStatus::fromString);
+                    // Regular user must have write attributes role
+                    if (!authContext.hasResourceRoleOrIsSuperUser(ClientRole.WRITE_ATTRIBUTES.getValue(),
+                        authContext.getClientId())) {
+                        throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                    }
 
-                        if (status.isPresent() && !status.get().isWrite()) {
-                            throw new AssetProcessingException(INVALID_ATTRIBUTE_EXECUTE_STATUS);
+                    // Check restricted user
+                    if (identityService.getIdentityProvider().isRestrictedUser(authContext)) {
+                        // Must be asset linked to user
+                        if (!identityService.isUserAsset(authContext.getUserId(), event.getAssetId())) {
+                            throw new AssetProcessingException(INSUFFICIENT_ACCESS);
+                        }
+                        // Must be writable by restricted client
+                        if (!oldAttribute.getMetaValue(MetaItemType.ACCESS_RESTRICTED_WRITE).orElse(false)) {
+                            throw new AssetProcessingException(INSUFFICIENT_ACCESS);
                         }
                     }
+                }
+                break;
 
-                    // Type coercion
-                    Object value = event.getValue().map(eventValue -> {
-                        Class<?> attributeValueType = oldAttribute.getType().getType();
-                        return ValueUtil.getValueCoerced(eventValue, attributeValueType).orElseThrow(() -> {
-                            LOG.info("Failed to coerce attribute event value into the correct value type: event value type=" + eventValue.getClass() + ", attribute value type=" + attributeValueType);
-                            return new AssetProcessingException(INVALID_VALUE_FOR_WELL_KNOWN_ATTRIBUTE);
-                        });
+            case SENSOR:
+                Optional<Protocol<?>> protocol = oldAttribute.getMetaValue(AGENT_LINK)
+                    .map(agentLink -> agentService.getProtocolInstance(agentLink.getId()));
 
-                    }).orElse(null);
+                // Sensor event must be for an attribute linked to an agent
+                if (!protocol.isPresent()) {
+                    throw new AssetProcessingException(INVALID_AGENT_LINK);
+                }
+                break;
+        }
 
-                    // TODO: Use schema validation
-                    // Check if attribute is well known and the value is valid
+        // For executable attributes, non-sensor sources can set a writable attribute execute status
+        if (oldAttribute.getType() == ValueType.EXECUTION_STATUS && source != SENSOR) {
+            Optional<AttributeExecuteStatus> status = event.getValue()
+                .flatMap(ValueUtil::getString)
+                .flatMap(AttributeExecuteStatus::fromString);
+
+            if (status.isPresent() && !status.get().isWrite()) {
+                throw new AssetProcessingException(INVALID_ATTRIBUTE_EXECUTE_STATUS);
+            }
+        }
+
+        // Type coercion
+        Object value = event.getValue().map(eventValue -> {
+            Class<?> attributeValueType = oldAttribute.getType().getType();
+            return ValueUtil.getValueCoerced(eventValue, attributeValueType).orElseThrow(() -> {
+                LOG.info("Failed to coerce attribute event value into the correct value type: event value type=" + eventValue.getClass() + ", attribute value type=" + attributeValueType);
+                return new AssetProcessingException(INVALID_VALUE_FOR_WELL_KNOWN_ATTRIBUTE);
+            });
+
+        }).orElse(null);
+
+        // TODO: Use schema validation
+        // Check if attribute is well known and the value is valid
 //                    AssetModelUtil.getAssetDescriptor(asset.getType()).map(assetDescriptor -> assetDescriptor.get)
 //                    AssetModelUtil.getAttributeDescriptor(oldAttribute.name).ifPresent(wellKnownAttribute -> {
 //                        // Check if the value is valid
@@ -375,50 +680,63 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
 //                            });
 //                    });
 
-                    // Either use the timestamp of the event or set event time to processing time
-                    long processingTime = timerService.getCurrentTimeMillis();
-                    long eventTime = event.getTimestamp() > 0 ? event.getTimestamp() : processingTime;
-
-                    // Ensure timestamp of event is not in the future as that would essentially block access to
-                    // the attribute until after that time (maybe that is desirable behaviour)
-                    if (eventTime - processingTime > 0) {
-                        // TODO: Decide how to handle update events in the future - ignore or change timestamp
-                        throw new AssetProcessingException(
-                            EVENT_IN_FUTURE,
-                            "current time: " + new Date(processingTime) + "/" + processingTime
-                                + ", event time: " + new Date(eventTime) + "/" + eventTime
-                        );
-                    }
+        // Either use the timestamp of the event or set event time to processing time
+        long processingTime = timerService.getCurrentTimeMillis();
+        long eventTime = event.getTimestamp() > 0 ? event.getTimestamp() : processingTime;
 
-                    // Check the last update timestamp of the attribute, ignoring any event that is older than last update
-                    // TODO This means we drop out-of-sequence events but accept events with the same source timestamp
-                    // TODO Several attribute events can occur in the same millisecond, then order of application is undefined
-                    oldAttribute.getTimestamp().filter(t -> t >= 0 && eventTime < t).ifPresent(
-                        lastStateTime -> {
-                            throw new AssetProcessingException(
-                                EVENT_OUTDATED,
-                                "last asset state time: " + new Date(lastStateTime) + "/" + lastStateTime
-                                    + ", event time: " + new Date(eventTime) + "/" + eventTime);
-                        }
-                    );
+        // Ensure timestamp of event is not in the future as that would essentially block access to
+        // the attribute until after that time (maybe that is desirable behaviour)
+        if (eventTime - processingTime > 0) {
+            // TODO: Decide how to handle update events in the future - ignore or change timestamp
+            throw new AssetProcessingException(
+                EVENT_IN_FUTURE,
+                "current time: " + new Date(processingTime) + "/" + processingTime
+                    + ", event time: " + new Date(eventTime) + "/" + eventTime
+            );
+        }
 
-                    // Create a copy of the attribute and set the new value and timestamp
-                    @SuppressWarnings("rawtypes")
-                    Attribute updatedAttribute = ValueUtil.clone(oldAttribute);
-                    updatedAttribute.setValue(value, eventTime);
+        // Check the last update timestamp of the attribute, ignoring any event that is older than last update
+        // TODO This means we drop out-of-sequence events but accept events with the same source timestamp
+        // TODO Several attribute events can occur in the same millisecond, then order of application is undefined
+        oldAttribute.getTimestamp().filter(t -> t >= 0 && eventTime < t).ifPresent(
+            lastStateTime -> {
+                throw new AssetProcessingException(
+                    EVENT_OUTDATED,
+                    "last asset state time: " + new Date(lastStateTime) + "/" + lastStateTime
+                        + ", event time: " + new Date(eventTime) + "/" + eventTime);
+            }
+        );
 
-                    // Push through all processors
-                    boolean consumedCompletely = processAssetUpdate(em, asset, updatedAttribute, source);
+        // Create a copy of the attribute with the new value and timestamp, the meta is shared until modified
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        Attribute updatedAttribute = ((Attribute) oldAttribute).copyWithValue(value, eventTime);
 
-                    // Publish a new event for clients if no processor consumed the update completely
-                    if (!consumedCompletely) {
-                        publishClientEvent(asset, updatedAttribute);
-                    }
-                });
-            }))
-            .endDoTry()
-            .doCatch(AssetProcessingException.class)
-            .process(handleAssetProcessingException(LOG));
+        // Push through all processors
+        boolean consumedCompletely = processAssetUpdate(em, asset, updatedAttribute, source, batch);
+
+        // Publish a new event for clients if no processor consumed the update completely
+        if (!consumedCompletely) {
+            if (batch != null) {
+                batch.addClientEvent(asset, updatedAttribute);
+            } else {
+                publishClientEvent(asset, updatedAttribute);
+            }
+        }
+    }
+
+    /**
+     * @return The queue endpoint that processes events of the given asset, this is {@link #ASSET_QUEUE} unless
+     * partitioned processing is enabled with {@link #ASSET_PROCESSING_PARTITIONS}.
+     */
+    public String getAssetQueue(String assetId) {
+        if (partitions <= 1) {
+            return ASSET_QUEUE;
+        }
+        return getAssetQueuePartition(assetId == null ? 0 : Math.floorMod(assetId.hashCode(), partitions));
+    }
+
+    protected String getAssetQueuePartition(int partition) {
+        return String.format(ASSET_QUEUE_PARTITION, partition);
     }
 
     /**
@@ -433,7 +751,9 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
         if (attributeEvent.getTimestamp() <= 0) {
             attributeEvent.setTimestamp(timerService.getCurrentTimeMillis());
         }
-        messageBrokerService.getProducerTemplate().sendBodyAndHeader(ASSET_QUEUE, attributeEvent, HEADER_SOURCE, source);
+        String assetQueue = getAssetQueue(attributeEvent.getAssetId());
+        messageBrokerService.getQueueBackpressure(assetQueue).await();
+        messageBrokerService.getProducerTemplate().sendBodyAndHeader(assetQueue, attributeEvent, HEADER_SOURCE, source);
     }
 
     /**
@@ -446,6 +766,18 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
                                          Asset<?> asset,
                                          Attribute<?> attribute,
                                          Source source) throws AssetProcessingException {
+        return processAssetUpdate(em, asset, attribute, source, null);
+    }
+
+    /**
+     * When a batch is supplied the attribute value and data point are staged in the batch instead of being stored
+     * immediately, the {@link AssetDatapointService} processor is therefore skipped.
+     */
+    protected boolean processAssetUpdate(EntityManager em,
+                                         Asset<?> asset,
+                                         Attribute<?> attribute,
+                                         Source source,
+                                         AttributeEventBatch batch) throws AssetProcessingException {
 
         String attributeStr = "Asset ID=" + asset.getId() + ", Asset name=" + asset.getName() + ", " + attribute;
 
@@ -457,6 +789,9 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
 
         boolean complete = false;
         for (AssetUpdateProcessor processor : processors) {
+            if (batch != null && processor == assetDatapointService) {
+                continue;
+            }
             LOG.finest("==> Processor " + processor + " accepts: " + attributeStr);
             try {
                 complete = processor.processAssetUpdate(em, asset, attribute, source);
@@ -478,8 +813,21 @@ public class AssetProcessingService extends RouteBuilder implements ContainerSer
         }
 
         if (!complete) {
-            LOG.fine("No processor consumed the update completely, storing: " + attributeStr);
-            storeAttributeValue(em, asset, attribute);
+            if (batch != null) {
+                LOG.fine("No processor consumed the update completely, staging: " + attributeStr);
+                batch.addAttribute(asset, attribute);
+                if (AssetDatapointService.attributeIsStoreDatapoint(attribute) && attribute.getValue().isPresent()) {
+                    batch.addDatapoint(new AssetDatapoint(
+                        asset.getId(),
+                        attribute.getName(),
+                        attribute.getValue().orElse(null),
+                        attribute.getTimestamp().orElseGet(timerService::getCurrentTimeMillis)
+                    ));
+                }
+            } else {
+                LOG.fine("No processor consumed the update completely, storing: " + attributeStr);
+                storeAttributeValue(em, asset, attribute);
+            }
         }
 
         LOG.fine("<<< Processing complete: " + attributeStr);
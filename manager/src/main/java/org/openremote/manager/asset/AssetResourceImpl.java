@@ -61,14 +61,17 @@ public class AssetResourceImpl extends ManagerWebResource implements AssetResour
     protected final static Asset<?>[] EMPTY_ASSETS = new Asset<?>[0];
     protected final AssetStorageService assetStorageService;
     protected final MessageBrokerService messageBrokerService;
+    protected final AssetProcessingService assetProcessingService;
 
     public AssetResourceImpl(TimerService timerService,
                              ManagerIdentityService identityService,
                              AssetStorageService assetStorageService,
-                             MessageBrokerService messageBrokerService) {
+                             MessageBrokerService messageBrokerService,
+                             AssetProcessingService assetProcessingService) {
         super(timerService, identityService);
         this.assetStorageService = assetStorageService;
         this.messageBrokerService = messageBrokerService;
+        this.assetProcessingService = assetProcessingService;
     }
 
     @Override
@@ -351,7 +354,7 @@ public class AssetResourceImpl extends ManagerWebResource implements AssetResour
                             return false;
                         });
 
-                        MetaMap existingMetaItems = ValueUtil.clone(existingAttribute.getMeta());
+                        MetaMap existingMetaItems = ValueUtil.clone(existingAttribute.readMeta());
 
                         existingMetaItems.addOrReplace(updatedMetaItems);
 
@@ -664,7 +667,7 @@ public class AssetResourceImpl extends ManagerWebResource implements AssetResour
 
             // Process synchronously
             Object result = messageBrokerService.getProducerTemplate().requestBodyAndHeaders(
-                AssetProcessingService.ASSET_QUEUE, event, headers
+                assetProcessingService.getAssetQueue(event.getAssetId()), event, headers
             );
 
             if (result instanceof AssetProcessingException) {
@@ -59,6 +59,8 @@ import org.openremote.model.util.ValueUtil;
 import org.postgresql.util.PGobject;
 
 import javax.persistence.EntityManager;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
 import javax.persistence.NoResultException;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
@@ -82,6 +84,7 @@ import static java.util.stream.Collectors.groupingBy;
 import static org.apache.camel.builder.PredicateBuilder.or;
 import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
 import static org.openremote.container.persistence.PersistenceEvent.isPersistenceEventForEntityType;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.manager.event.ClientEventService.CLIENT_EVENT_TOPIC;
 import static org.openremote.model.attribute.Attribute.getAddedOrModifiedAttributes;
 import static org.openremote.model.query.AssetQuery.*;
@@ -127,6 +130,9 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
 
     private static final Logger LOG = Logger.getLogger(AssetStorageService.class.getName());
     public static final int PRIORITY = MED_PRIORITY;
+    // Maximum size of the in-memory asset cache, 0 disables the cache
+    public static final String ASSET_CACHE_MAX_SIZE_MB = "ASSET_CACHE_MAX_SIZE_MB";
+    public static final int ASSET_CACHE_MAX_SIZE_MB_DEFAULT = 0;
     protected static final Field assetParentNameField;
     protected static final Field assetParentTypeField;
 
@@ -196,7 +202,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                          return false;
                      if (isRestrictedUser) {
                          // Restricted users can only get events for their linked assets
-                         if (!assetStorageService.isUserAsset(auth.getUserId(), assetId))
+                         if (!identityService.isUserAsset(auth.getUserId(), assetId))
                              return false;
                          // TODO Restricted clients should only receive events for PROTECTED attributes!
                      } else {
@@ -216,6 +222,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     protected ManagerIdentityService identityService;
     protected ClientEventService clientEventService;
     protected GatewayService gatewayService;
+    protected AssetCache assetCache;
 
     /**
      * Will evaluate each {@link CalendarEventPredicate} and apply it depending on the {@link LogicGroup} type
@@ -303,6 +310,12 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         gatewayService = container.getService(GatewayService.class);
         EventSubscriptionAuthorizer assetEventAuthorizer = AssetStorageService.assetInfoAuthorizer(identityService, this);
 
+        int assetCacheMaxSizeMb = getInteger(container.getConfig(), ASSET_CACHE_MAX_SIZE_MB, ASSET_CACHE_MAX_SIZE_MB_DEFAULT);
+        if (assetCacheMaxSizeMb > 0) {
+            LOG.info("Caching assets in memory, maximum size " + assetCacheMaxSizeMb + "MB");
+            assetCache = new AssetCache(assetCacheMaxSizeMb * 1024L * 1024L);
+        }
+
         clientEventService.addSubscriptionAuthorizer((auth, subscription) -> {
              if (!subscription.isEventType(AssetEvent.class)) {
                  return false;
@@ -316,7 +329,8 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 container.getService(TimerService.class),
                 identityService,
                 this,
-                container.getService(MessageBrokerService.class)
+                container.getService(MessageBrokerService.class),
+                container.getService(AssetProcessingService.class)
             )
         );
 
@@ -347,7 +361,11 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         from(PERSISTENCE_TOPIC)
             .routeId("AssetPersistenceChanges")
             .filter(isPersistenceEventForEntityType(Asset.class))
-            .process(exchange -> publishModificationEvents(exchange.getIn().getBody(PersistenceEvent.class)));
+            .process(exchange -> {
+                PersistenceEvent<Asset<?>> persistenceEvent = exchange.getIn().getBody(PersistenceEvent.class);
+                invalidateCachedAsset(persistenceEvent.getEntity().getId());
+                publishModificationEvents(persistenceEvent);
+            });
 
         // React if a client wants to read assets and attributes
         from(CLIENT_EVENT_TOPIC)
@@ -461,7 +479,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     public Asset<?> find(String assetId) {
         if (assetId == null)
             throw new IllegalArgumentException("Can't query null asset identifier");
-        return find(new AssetQuery().ids(assetId));
+        return findCached(assetId, () -> find(new AssetQuery().ids(assetId)));
     }
 
     @SuppressWarnings("unchecked")
@@ -479,7 +497,10 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     public Asset<?> find(String assetId, boolean loadComplete) {
         if (assetId == null)
             throw new IllegalArgumentException("Can't query null asset identifier");
-        return find(new AssetQuery().select(loadComplete ? null : Select.selectExcludeAll()).ids(assetId));
+        if (loadComplete) {
+            return find(assetId);
+        }
+        return find(new AssetQuery().select(Select.selectExcludeAll()).ids(assetId));
     }
 
     @SuppressWarnings("unchecked")
@@ -505,6 +526,9 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     public Asset<?> find(String assetId, boolean loadComplete, Access access) {
         if (assetId == null)
             throw new IllegalArgumentException("Can't query null asset identifier");
+        if (loadComplete && access == PRIVATE) {
+            return find(assetId);
+        }
         return find(new AssetQuery()
             .select(loadComplete
                 ? null
@@ -757,8 +781,10 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
             if (!skipGatewayCheck && gatewayId != null) {
                 LOG.fine("Sending asset merge request to gateway: Gateway ID=" + gatewayId);
                 updatedAsset = gatewayService.mergeGatewayAsset(gatewayId, asset);
+                invalidateCachedAssetOnCompletion(em, asset.getId());
             } else {
                 updatedAsset = em.merge(asset);
+                invalidateCachedAssetOnCompletion(em, updatedAsset.getId());
                 if (existingAsset == null) {
                     if (LOG.isLoggable(Level.FINER)) {
                         LOG.finer("Asset created: " + updatedAsset.toStringAll());
@@ -846,6 +872,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                     List<String> gatewayAssetIds = gatewayIdAssetIds.getValue();
                     try {
                         boolean deleted = gatewayService.deleteGatewayAssets(gatewayId, gatewayAssetIds);
+                        gatewayAssetIds.forEach(this::invalidateCachedAsset);
                         if (!deleted) {
                             return false;
                         }
@@ -874,6 +901,7 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 assets.sort(Comparator.comparingInt((Asset<?> asset) -> asset.getPath() == null ? 0 : asset.getPath().length).reversed());
                 assets.forEach(asset -> {
                     em.remove(asset);
+                    invalidateCachedAssetOnCompletion(em, asset.getId());
                     LOG.fine("Asset deleted: " + asset);
                 });
                 em.flush();
@@ -885,6 +913,43 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         return true;
     }
 
+    /**
+     * Get the version, the sum of the attribute timestamps and the depth in the asset tree of each asset of the realm
+     * or, if a parent is specified, of each descendant of the parent. This allows detecting modified assets without
+     * loading them as attribute value updates don't increment the asset version but do increase the sum.
+     *
+     * @return Map of asset ID to <code>[version, attribute timestamp sum, depth]</code>
+     */
+    public Map<String, long[]> findAssetVersionInfo(String realm, String parentId) {
+        return persistenceService.doReturningTransaction(em -> {
+            StringBuilder sb = new StringBuilder("select A.ID, A.VERSION, " +
+                "(select coalesce(sum((AT.value ->> 'timestamp')\\:\\:bigint), 0) from jsonb_each(A.ATTRIBUTES) AT), " +
+                "array_length(get_asset_tree_path(A.ID), 1) " +
+                "from ASSET A where A.REALM = ?1");
+
+            if (parentId != null) {
+                sb.append(" and A.ID != ?2 and ?2 = any(get_asset_tree_path(A.ID))");
+            }
+
+            Query query = em.createNativeQuery(sb.toString()).setParameter(1, realm);
+            if (parentId != null) {
+                query.setParameter(2, parentId);
+            }
+
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = query.getResultList();
+            Map<String, long[]> versionInfo = new HashMap<>(rows.size());
+            for (Object[] row : rows) {
+                versionInfo.put((String) row[0], new long[] {
+                    ((Number) row[1]).longValue(),
+                    row[2] != null ? ((Number) row[2]).longValue() : 0L,
+                    row[3] != null ? ((Number) row[3]).longValue() : 0L
+                });
+            }
+            return versionInfo;
+        });
+    }
+
     public boolean isUserAsset(String assetId) {
         return isUserAsset((String) null, assetId);
     }
@@ -1059,6 +1124,10 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                 throw new IllegalArgumentException("Cannot delete one or more requested user asset link as they don't exist");
             }
         });
+
+        // Links are deleted natively so publish the events, these are used to invalidate cached authorization
+        userAssetLinks.forEach(userAssetLink ->
+            persistenceService.publishPersistenceEvent(PersistenceEvent.Cause.DELETE, userAssetLink, null, null, null));
     }
 
     /**
@@ -1136,6 +1205,9 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
     protected Asset<?> find(EntityManager em, String assetId, boolean loadComplete, Access access) {
         if (assetId == null)
             throw new IllegalArgumentException("Can't query null asset identifier");
+        if (loadComplete && access == PRIVATE) {
+            return findCached(assetId, () -> find(em, new AssetQuery().ids(assetId).access(access)));
+        }
         return find(
             em,
             new AssetQuery()
@@ -1147,6 +1219,70 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         );
     }
 
+    /**
+     * Completely loaded assets with {@link Access#PRIVATE} access are served from the {@link AssetCache} when enabled,
+     * the returned asset is then a detached copy.
+     */
+    protected Asset<?> findCached(String assetId, Supplier<Asset<?>> loader) {
+        return assetCache != null ? assetCache.get(assetId, loader) : loader.get();
+    }
+
+    protected void invalidateCachedAsset(String assetId) {
+        if (assetCache != null && assetId != null) {
+            assetCache.invalidate(assetId);
+        }
+    }
+
+    /**
+     * Invalidate the cached asset once the transaction of the {@link EntityManager} has completed, so that a load
+     * racing with the transaction can't leave stale state in the {@link AssetCache}.
+     */
+    protected void invalidateCachedAssetOnCompletion(EntityManager em, String assetId) {
+        if (assetCache == null || assetId == null) {
+            return;
+        }
+
+        em.unwrap(Session.class).getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                assetCache.invalidate(assetId);
+            }
+        });
+    }
+
+    /**
+     * Write the attributes through to the {@link AssetCache} once the transaction of the {@link EntityManager} has
+     * been committed, the cached asset is invalidated if the transaction is rolled back.
+     */
+    protected void updateCachedAttributes(EntityManager em, String assetId, Collection<Attribute<?>> attributes) {
+        if (assetCache == null) {
+            return;
+        }
+
+        em.unwrap(Session.class).getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    assetCache.updateAttributes(assetId, attributes);
+                } else {
+                    assetCache.invalidate(assetId);
+                }
+            }
+        });
+    }
+
+    public AssetCache getAssetCache() {
+        return assetCache;
+    }
+
     @SuppressWarnings("unchecked")
     protected List<Asset<?>> findAll(EntityManager em, AssetQuery query) {
 
@@ -1241,6 +1377,9 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
                     statement.setString(6, attributeName);
 
                     int updatedRows = statement.executeUpdate();
+                    if (updatedRows == 1) {
+                        updateCachedAttributes(em, asset.getId(), Collections.singletonList(attribute));
+                    }
                     if (LOG.isLoggable(Level.FINEST)) {
                         LOG.finest("Stored asset '" + asset.getId()
                             + "' attribute '" + attributeName
@@ -1256,6 +1395,74 @@ public class AssetStorageService extends RouteBuilder implements ContainerServic
         }
     }
 
+    /**
+     * Stores the values and timestamps of all the given attributes of an asset with a single merged update statement.
+     *
+     * @return <code>false</code> if the asset or any of the attributes no longer exist, nothing is updated then.
+     */
+    protected boolean updateAttributeValues(EntityManager em, String assetId, Collection<Attribute<?>> attributes) {
+
+        if (attributes.isEmpty()) {
+            return true;
+        }
+
+        try {
+            return em.unwrap(Session.class).doReturningWork(connection -> {
+                String attributesExpression = "attributes";
+                StringBuilder attributesExistClause = new StringBuilder();
+
+                for (int i = 0; i < attributes.size(); i++) {
+                    attributesExpression = "jsonb_set(jsonb_set(" + attributesExpression + ", ?, ?, true), ?, ?, true)";
+                    attributesExistClause.append(" and attributes -> ? is not null");
+                }
+
+                String sql = "update Asset" +
+                    " set attributes = " + attributesExpression +
+                    " where id = ?" + attributesExistClause;
+
+                try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                    int index = 1;
+
+                    for (Attribute<?> attribute : attributes) {
+                        String attributeName = attribute.getName();
+                        long timestamp = attribute.getTimestamp().orElseGet(timerService::getCurrentTimeMillis);
+
+                        statement.setArray(index++, connection.createArrayOf("text", new String[]{attributeName, "value"}));
+                        PGobject pgJsonValue = new PGobject();
+                        pgJsonValue.setType("jsonb");
+                        // Careful, do not set Java null here! It will erase your whole SQL column!
+                        pgJsonValue.setValue(ValueUtil.asJSON(attribute.getValue().orElse(null)).orElse(ValueUtil.NULL_LITERAL));
+                        statement.setObject(index++, pgJsonValue);
+
+                        statement.setArray(index++, connection.createArrayOf("text", new String[]{attributeName, "timestamp"}));
+                        PGobject pgJsonValueTimestamp = new PGobject();
+                        pgJsonValueTimestamp.setType("jsonb");
+                        pgJsonValueTimestamp.setValue(Long.toString(timestamp));
+                        statement.setObject(index++, pgJsonValueTimestamp);
+                    }
+
+                    statement.setString(index++, assetId);
+
+                    for (Attribute<?> attribute : attributes) {
+                        statement.setString(index++, attribute.getName());
+                    }
+
+                    int updatedRows = statement.executeUpdate();
+                    if (updatedRows == 1) {
+                        updateCachedAttributes(em, assetId, new ArrayList<>(attributes));
+                    }
+                    if (LOG.isLoggable(Level.FINEST)) {
+                        LOG.finest("Stored asset '" + assetId + "' attribute values (affected rows: " + updatedRows + "): " + attributes.size());
+                    }
+                    return updatedRows == 1;
+                }
+            });
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Failed to store attribute values", e);
+            return false;
+        }
+    }
+
     protected void publishModificationEvents(PersistenceEvent<Asset<?>> persistenceEvent) {
         Asset<?> asset = persistenceEvent.getEntity();
         switch (persistenceEvent.getCause()) {
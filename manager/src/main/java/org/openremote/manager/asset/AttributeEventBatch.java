@@ -0,0 +1,131 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.asset;
+
+import org.apache.camel.Exchange;
+import org.openremote.model.asset.Asset;
+import org.openremote.model.attribute.Attribute;
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.datapoint.AssetDatapoint;
+import org.openremote.model.util.Pair;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Collects {@link AttributeEvent} exchanges consumed from an asset queue so that {@link AssetProcessingService} can
+ * process them in a single transaction. While the batch is processed it stages the attribute values, data points and
+ * client events produced by each event; these are written with one merged update per asset and one JDBC batch and
+ * client events are only published after the transaction has been committed.
+ * <p>
+ * Instances are not thread safe, callers synchronize on the batch.
+ */
+public class AttributeEventBatch {
+
+    protected final List<Exchange> exchanges = new ArrayList<>();
+    protected long firstExchangeMillis;
+    protected final Map<String, Asset<?>> assets = new HashMap<>();
+    protected final Map<String, Map<String, Attribute<?>>> attributes = new LinkedHashMap<>();
+    protected final List<AssetDatapoint> datapoints = new ArrayList<>();
+    protected final List<Pair<Asset<?>, Attribute<?>>> clientEvents = new ArrayList<>();
+
+    public void add(Exchange exchange, long currentMillis) {
+        if (exchanges.isEmpty()) {
+            firstExchangeMillis = currentMillis;
+        }
+        exchanges.add(exchange);
+    }
+
+    public int size() {
+        return exchanges.size();
+    }
+
+    public boolean isEmpty() {
+        return exchanges.isEmpty();
+    }
+
+    public boolean isDue(long currentMillis, long windowMillis) {
+        return !exchanges.isEmpty() && currentMillis - firstExchangeMillis >= windowMillis;
+    }
+
+    /**
+     * @return The collected exchanges in order of arrival, the batch is then empty and ready to collect more.
+     */
+    public List<Exchange> drain() {
+        List<Exchange> result = new ArrayList<>(exchanges);
+        exchanges.clear();
+        return result;
+    }
+
+    /**
+     * @return The asset as already modified by previous events of this batch, or loaded with the given function.
+     */
+    public Asset<?> getAsset(String assetId, Function<String, Asset<?>> loader) {
+        return assets.computeIfAbsent(assetId, loader);
+    }
+
+    /**
+     * Stage the updated attribute for storage, the asset held by this batch is updated so that subsequent events of
+     * the same batch are validated against the new value and timestamp.
+     */
+    public void addAttribute(Asset<?> asset, Attribute<?> attribute) {
+        asset.addOrReplaceAttributes(attribute);
+        attributes.computeIfAbsent(asset.getId(), id -> new LinkedHashMap<>()).put(attribute.getName(), attribute);
+    }
+
+    public void addDatapoint(AssetDatapoint datapoint) {
+        datapoints.add(datapoint);
+    }
+
+    public void addClientEvent(Asset<?> asset, Attribute<?> attribute) {
+        clientEvents.add(new Pair<>(asset, attribute));
+    }
+
+    public Map<String, Map<String, Attribute<?>>> getAttributes() {
+        return attributes;
+    }
+
+    public List<AssetDatapoint> getDatapoints() {
+        return datapoints;
+    }
+
+    public List<Pair<Asset<?>, Attribute<?>>> getClientEvents() {
+        return clientEvents;
+    }
+
+    /**
+     * Discard all staged state, must be called when the batch transaction has completed or failed.
+     */
+    public void clearStaged() {
+        assets.clear();
+        attributes.clear();
+        datapoints.clear();
+        clientEvents.clear();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "exchanges=" + exchanges.size() +
+            ", stagedAssets=" + attributes.size() +
+            ", stagedDatapoints=" + datapoints.size() +
+            '}';
+    }
+}
@@ -12,42 +12,72 @@ import org.openremote.model.asset.Asset;
 import org.openremote.model.attribute.Attribute;
 import org.openremote.model.attribute.AttributeRef;
 import org.openremote.model.datapoint.Datapoint;
+import org.openremote.model.datapoint.DatapointDownsampling;
 import org.openremote.model.datapoint.DatapointInterval;
 import org.openremote.model.datapoint.DatapointPeriod;
 import org.openremote.model.datapoint.ValueDatapoint;
+import org.openremote.model.datapoint.ValueDatapointSeries;
+import org.openremote.model.query.AssetQuery;
 import org.openremote.model.util.Pair;
 import org.openremote.model.util.ValueUtil;
 import org.postgresql.util.PGInterval;
 import org.postgresql.util.PGobject;
 
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import static java.time.temporal.ChronoUnit.DAYS;
 
 /**
  * Base class for all classes that store and retrieve {@link org.openremote.model.datapoint.Datapoint}.
+ * <p>
+ * Datapoint tables are partitioned by day (see {@link #getPartitionedTableNames}), purging drops whole partitions
+ * where possible and deletes the remaining datapoints in chunks. Datapoints that are kept longer than the partitions are
+ * moved to a retained table first (see {@link #getRetainedTableName}).
  */
 public abstract class AbstractDatapointService<T extends Datapoint> implements ContainerService {
 
     public static final int PRIORITY = AssetStorageService.PRIORITY + 100;
+    public static final int DEFAULT_DOWNSAMPLING_POINTS = 1000;
+    // Upper limit of the target number of points, larger targets are reduced to this
+    public static final int MAX_DOWNSAMPLING_POINTS = 10000;
+    // Upper limit of the attributes of a multi-attribute query, each attribute takes two statement parameters
+    public static final int MAX_QUERY_ATTRIBUTES = 1000;
+    // Rows fetched per round trip when streaming datapoints into a downsampler
+    protected static final int DOWNSAMPLING_FETCH_SIZE = 10000;
+    // Rows deleted per transaction when purging datapoints from partitions that are not dropped
+    protected static final int PURGE_CHUNK_SIZE = 10000;
+    protected static final int PARTITIONS_AHEAD_DAYS = 2;
     protected PersistenceService persistenceService;
     protected AssetStorageService assetStorageService;
     protected TimerService timerService;
     protected ScheduledExecutorService executorService;
     protected ScheduledFuture<?> dataPointsPurgeScheduledFuture;
+    // Partitions created ahead by table and day, datapoints of these days are inserted into the partition directly
+    protected final Map<String, String> partitions = new ConcurrentHashMap<>();
 
     @Override
     public int getPriority() {
@@ -72,12 +102,10 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
     public void upsertValue(String assetId, String attributeName, Object value, LocalDateTime timestamp) throws IllegalStateException {
         persistenceService.doTransaction(em ->
                 em.unwrap(Session.class).doWork(connection -> {
-                    PreparedStatement st;
 
-                    try {
-                        st = getUpsertPreparedStatement(connection);
-                        setUpsertValues(st, assetId, attributeName, value, timestamp);
-                        st.executeUpdate();
+                    try (DatapointWriter writer = new DatapointWriter(connection)) {
+                        writer.add(assetId, attributeName, value, timestamp);
+                        writer.execute();
                     } catch (Exception e) {
                         String msg = "Failed to insert/update data point: ";
                         getLogger().log(Level.WARNING, msg, e);
@@ -91,16 +119,12 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
                 em.unwrap(Session.class).doWork(connection -> {
 
                     getLogger().finest("Storing datapoints for: id=" + assetId + ", name=" + attributeName + ", count=" + valuesAndTimestamps.size());
-                    PreparedStatement st;
-
-                    try {
-                        st = getUpsertPreparedStatement(connection);
 
+                    try (DatapointWriter writer = new DatapointWriter(connection)) {
                         for (Pair<?, LocalDateTime> valueAndTimestamp : valuesAndTimestamps) {
-                            setUpsertValues(st, assetId, attributeName, valueAndTimestamp.key, valueAndTimestamp.value);
-                            st.addBatch();
+                            writer.add(assetId, attributeName, valueAndTimestamp.key, valueAndTimestamp.value);
                         }
-                        st.executeBatch();
+                        writer.execute();
                     } catch (Exception e) {
                         String msg = "Failed to insert/update data points: " + assetId + ", name=" + attributeName + ", count=" + valuesAndTimestamps.size();
                         getLogger().log(Level.WARNING, msg, e);
@@ -109,6 +133,31 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
                 }));
     }
 
+    /**
+     * Stores the datapoints with a single JDBC batch in the transaction of the given {@link EntityManager}.
+     */
+    public void upsertValues(EntityManager em, List<? extends Datapoint> datapoints) throws IllegalStateException {
+        em.unwrap(Session.class).doWork(connection -> {
+
+            getLogger().finest("Storing datapoints batch: count=" + datapoints.size());
+
+            try (DatapointWriter writer = new DatapointWriter(connection)) {
+                for (Datapoint datapoint : datapoints) {
+                    writer.add(
+                        datapoint.getAssetId(),
+                        datapoint.getAttributeName(),
+                        datapoint.getValue(),
+                        LocalDateTime.ofInstant(Instant.ofEpochMilli(datapoint.getTimestamp()), ZoneId.systemDefault()));
+                }
+                writer.execute();
+            } catch (Exception e) {
+                String msg = "Failed to insert/update data points batch: count=" + datapoints.size();
+                getLogger().log(Level.WARNING, msg, e);
+                throw new IllegalStateException(msg, e);
+            }
+        });
+    }
+
     public List<T> getDatapoints(AttributeRef attributeRef) {
         return persistenceService.doReturningTransaction(entityManager ->
                 entityManager.createQuery(
@@ -143,7 +192,23 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
                         .setParameter("attributeName", attributeRef.getName());
             }
 
-            return query.getSingleResult();
+            long count = query.getSingleResult();
+            String numberTableName = getNumberDatapointTableName();
+
+            if (numberTableName != null) {
+                Query numberQuery = entityManager.createNativeQuery(attributeRef == null ?
+                        "select count(*) from " + numberTableName :
+                        "select count(*) from " + numberTableName + " where entity_id = :assetId and attribute_name = :attributeName");
+
+                if (attributeRef != null) {
+                    numberQuery
+                            .setParameter("assetId", attributeRef.getId())
+                            .setParameter("attributeName", attributeRef.getName());
+                }
+                count += ((Number) numberQuery.getSingleResult()).longValue();
+            }
+
+            return count;
         });
     }
 
@@ -170,177 +235,520 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
                                                   final Integer stepSize,
                                                   LocalDateTime fromTimestamp,
                                                   LocalDateTime toTimestamp) {
+        return getValueDatapoints(assetId, attribute, datapointInterval, stepSize, null, null, fromTimestamp, toTimestamp);
+    }
+
+    /**
+     * Get the datapoints of the attribute reduced with the given {@link DatapointDownsampling} mode. If a target number
+     * of points is given, or the mode is {@link DatapointDownsampling#MIN_MAX} or {@link DatapointDownsampling#LTTB},
+     * the period is divided into buckets of equal duration and datapoints are reduced while they are read, see
+     * {@link DatapointDownsampler}. Otherwise values are aggregated per calendar aligned interval by the database and
+     * an empty interval has a <code>null</code> value.
+     */
+    public ValueDatapoint<?>[] getValueDatapoints(String assetId,
+                                                  Attribute<?> attribute,
+                                                  DatapointInterval datapointInterval,
+                                                  final Integer stepSize,
+                                                  DatapointDownsampling downsampling,
+                                                  Integer points,
+                                                  LocalDateTime fromTimestamp,
+                                                  LocalDateTime toTimestamp) {
 
         AttributeRef attributeRef = new AttributeRef(assetId, attribute.getName());
 
         getLogger().finer("Getting datapoints for: " + attributeRef);
 
+        points = clampDownsamplingPoints(points);
+        Class<?> attributeType = attribute.getType().getType();
+        boolean isNumber = Number.class.isAssignableFrom(attributeType);
+        boolean isBoolean = Boolean.class.isAssignableFrom(attributeType);
+
+        if (points != null || downsampling == DatapointDownsampling.MIN_MAX || downsampling == DatapointDownsampling.LTTB) {
+            if (points == null) {
+                points = getDownsamplingPoints(datapointInterval, stepSize, fromTimestamp, toTimestamp);
+            }
+            if (!isNumber && !isBoolean && downsampling != DatapointDownsampling.FIRST) {
+                downsampling = DatapointDownsampling.LAST;
+            }
+            return getDownsampledDatapoints(attributeRef, isNumber, isBoolean, downsampling, points, fromTimestamp, toTimestamp);
+        }
+
+        List<AttributeRef> attributeRefs = Collections.singletonList(attributeRef);
+        return isNumber || isBoolean
+            ? getAggregatedDatapoints(attributeRefs, datapointInterval, stepSize, downsampling, fromTimestamp, toTimestamp).get(attributeRef)
+            : getRawDatapoints(attributeRefs, fromTimestamp, toTimestamp).get(attributeRef);
+    }
+
+    /**
+     * Get the datapoints of many attributes for the same interval and period, see
+     * {@link #getValueDatapoints(String, Attribute, DatapointInterval, Integer, DatapointDownsampling, Integer, LocalDateTime, LocalDateTime)}.
+     * The assets of the attributes are loaded with one query and attributes that don't exist are omitted from the
+     * result. The values of all numeric and boolean attributes are aggregated with one statement and the datapoints of
+     * all other attributes are read with one statement, unless datapoints are reduced while they are read which
+     * requires a statement per attribute.
+     */
+    public ValueDatapointSeries[] getValueDatapoints(AttributeRef[] attributeRefs,
+                                                     DatapointInterval datapointInterval,
+                                                     Integer stepSize,
+                                                     DatapointDownsampling downsampling,
+                                                     Integer points,
+                                                     LocalDateTime fromTimestamp,
+                                                     LocalDateTime toTimestamp) {
+
+        checkQueryAttributes(attributeRefs.length);
+        String[] assetIds = Arrays.stream(attributeRefs).map(AttributeRef::getId).distinct().toArray(String[]::new);
+        Map<String, Asset<?>> assets = assetStorageService.findAll(
+            new AssetQuery()
+                .ids(assetIds)
+                .select(AssetQuery.Select.selectExcludePathAndParentInfo())
+        ).stream().collect(Collectors.toMap(Asset::getId, asset -> asset));
+
+        List<Pair<String, Attribute<?>>> attributes = new ArrayList<>(attributeRefs.length);
+        for (AttributeRef attributeRef : attributeRefs) {
+            Asset<?> asset = assets.get(attributeRef.getId());
+            if (asset != null) {
+                asset.getAttribute(attributeRef.getName()).ifPresent(attribute ->
+                    attributes.add(new Pair<>(asset.getId(), attribute)));
+            }
+        }
+
+        return getValueDatapoints(attributes, datapointInterval, stepSize, downsampling, points, fromTimestamp, toTimestamp);
+    }
+
+    /**
+     * Get the datapoints of many attributes of already loaded assets for the same interval and period, see
+     * {@link #getValueDatapoints(AttributeRef[], DatapointInterval, Integer, DatapointDownsampling, Integer, LocalDateTime, LocalDateTime)}.
+     *
+     * @param attributes The asset IDs and attributes, the result has a series for each in the same order.
+     * @throws IllegalStateException If there are more than {@link #MAX_QUERY_ATTRIBUTES} attributes.
+     */
+    public ValueDatapointSeries[] getValueDatapoints(List<Pair<String, Attribute<?>>> attributes,
+                                                     DatapointInterval datapointInterval,
+                                                     Integer stepSize,
+                                                     DatapointDownsampling downsampling,
+                                                     Integer points,
+                                                     LocalDateTime fromTimestamp,
+                                                     LocalDateTime toTimestamp) {
+
+        checkQueryAttributes(attributes.size());
+        points = clampDownsamplingPoints(points);
+        boolean reduceWhileReading = points != null || downsampling == DatapointDownsampling.MIN_MAX || downsampling == DatapointDownsampling.LTTB;
+        List<AttributeRef> aggregatedRefs = new ArrayList<>();
+        List<AttributeRef> rawRefs = new ArrayList<>();
+        Map<AttributeRef, ValueDatapoint<?>[]> datapoints = new HashMap<>();
+
+        for (Pair<String, Attribute<?>> attribute : attributes) {
+            AttributeRef attributeRef = new AttributeRef(attribute.key, attribute.value.getName());
+            Class<?> attributeType = attribute.value.getType().getType();
+
+            if (reduceWhileReading) {
+                datapoints.put(attributeRef, getValueDatapoints(attribute.key, attribute.value, datapointInterval, stepSize, downsampling, points, fromTimestamp, toTimestamp));
+            } else if (Number.class.isAssignableFrom(attributeType) || Boolean.class.isAssignableFrom(attributeType)) {
+                aggregatedRefs.add(attributeRef);
+            } else {
+                rawRefs.add(attributeRef);
+            }
+        }
+
+        if (!aggregatedRefs.isEmpty()) {
+            datapoints.putAll(getAggregatedDatapoints(aggregatedRefs, datapointInterval, stepSize, downsampling, fromTimestamp, toTimestamp));
+        }
+        if (!rawRefs.isEmpty()) {
+            datapoints.putAll(getRawDatapoints(rawRefs, fromTimestamp, toTimestamp));
+        }
+
+        return attributes.stream()
+            .map(attribute -> new AttributeRef(attribute.key, attribute.value.getName()))
+            .map(attributeRef -> new ValueDatapointSeries(attributeRef, datapoints.get(attributeRef)))
+            .toArray(ValueDatapointSeries[]::new);
+    }
+
+    /**
+     * @throws IllegalStateException If the number of attributes exceeds {@link #MAX_QUERY_ATTRIBUTES}.
+     */
+    public static void checkQueryAttributes(int attributeCount) throws IllegalStateException {
+        if (attributeCount > MAX_QUERY_ATTRIBUTES) {
+            throw new IllegalStateException("Too many attributes: " + attributeCount + ", at most " + MAX_QUERY_ATTRIBUTES + " attributes can be queried at once");
+        }
+    }
+
+    /**
+     * Aggregates the numeric or boolean (as 1 or 0) values of the attributes per calendar aligned interval with one
+     * statement, each attribute has a datapoint for every interval of the period which has a <code>null</code> value
+     * if the interval is empty.
+     */
+    protected Map<AttributeRef, ValueDatapoint<?>[]> getAggregatedDatapoints(List<AttributeRef> attributeRefs,
+                                                                            DatapointInterval datapointInterval,
+                                                                            Integer stepSize,
+                                                                            DatapointDownsampling downsampling,
+                                                                            LocalDateTime fromTimestamp,
+                                                                            LocalDateTime toTimestamp) {
+
+        getLogger().finer("Getting aggregated datapoints for: " + attributeRefs);
+
+        final DatapointDownsampling aggregation = downsampling == null ? DatapointDownsampling.AVG : downsampling;
+
         return persistenceService.doReturningTransaction(entityManager ->
 
-                entityManager.unwrap(Session.class).doReturningWork(new AbstractReturningWork<ValueDatapoint<?>[]>() {
+                entityManager.unwrap(Session.class).doReturningWork(new AbstractReturningWork<Map<AttributeRef, ValueDatapoint<?>[]>>() {
                     @Override
-                    public ValueDatapoint<?>[] execute(Connection connection) throws SQLException {
+                    public Map<AttributeRef, ValueDatapoint<?>[]> execute(Connection connection) throws SQLException {
 
-                        Class<?> attributeType = attribute.getType().getType();
-                        boolean isNumber = Number.class.isAssignableFrom(attributeType);
-                        boolean isBoolean = Boolean.class.isAssignableFrom(attributeType);
                         StringBuilder query = new StringBuilder();
-                        boolean downsample = isNumber || isBoolean;
+                        String rollupTableName = getRollupTableName(datapointInterval);
+                        Pair<String, String> numberSource = getNumberDatapointSource(
+                            "(case when jsonb_typeof(VALUE) = 'boolean' then (case when VALUE::text::boolean is true then 1 else 0 end) else VALUE::text::numeric end)"
+                        );
+                        String attributeValues = String.join(",", Collections.nCopies(attributeRefs.size(), "(?, ?)"));
 
-                        String truncate = null;
-                        String part = null;
-                        String interval = null;
-                        String stepStr = null;
+                        String truncate;
+                        String part;
+                        String interval;
+                        String stepStr;
                         String partQuery = "date_part(?, ?)::int";
                         String partQuery2 = "date_part(?, TIMESTAMP)::int";
-                        int step = 1;
+                        int step;
+
+                        switch (datapointInterval) {
 
-                        if (downsample) {
+                            case MINUTE:
+                                // This works with minutes of the day so not constrained to step size < 60
+                                step = stepSize == null ? 1 : Math.max(1, Math.min(1440, stepSize));
+                                truncate = "day";
+                                part = "min";
+                                interval = "min";
+                                partQuery = "(date_part('hour', ?)::int * 60 + date_part(?, ?)::int)";
+                                partQuery2 = "(date_part('hour', TIMESTAMP)::int * 60 + date_part(?, TIMESTAMP)::int)";
+                                break;
+                            case HOUR:
+                                step = stepSize == null ? 1 : Math.max(1, Math.min(24, stepSize));
+                                truncate = "day";
+                                part = "hour";
+                                interval = "hour";
+                                break;
+                            case DAY:
+                                step = stepSize == null ? 1 : Math.max(1, Math.min(365, stepSize));
+                                truncate = "year";
+                                part = "doy";
+                                interval = "day";
+                                break;
+                            case WEEK:
+                                step = stepSize == null ? 1 : Math.max(1, Math.min(53, stepSize));
+                                truncate = "year";
+                                part = "week";
+                                interval = "week";
+                                break;
+                            case MONTH:
+                                step = stepSize == null ? 1 : Math.max(1, Math.min(12, stepSize));
+                                truncate = "year";
+                                part = "month";
+                                interval = "month";
+                                break;
+                            case YEAR:
+                                step = stepSize == null ? 1 : Math.max(1, stepSize);
+                                truncate = "decade";
+                                part = "year";
+                                interval = "year";
+                                break;
+                            default:
+                                throw new UnsupportedOperationException("Can't handle interval: " + datapointInterval);
+                        }
+                        stepStr = step + " " + interval;
 
-                            switch (datapointInterval) {
+                        query.append("select A.ENTITY_ID, A.ATTRIBUTE_NAME, PERIOD as X, AGG_VALUE as Y " +
+                                "from (values " + attributeValues + ") A (ENTITY_ID, ATTRIBUTE_NAME) " +
+                                "cross join generate_series(date_trunc(?, ?) + " + partQuery + " / ? * ?, date_trunc(?, ?) + " + partQuery + " / ? * ?, ?) PERIOD left join ( " +
+                                "select ENTITY_ID, ATTRIBUTE_NAME, (date_trunc(?, TIMESTAMP) + " + partQuery2 + " / ? * ?)::timestamp as TS, ");
 
-                                case MINUTE:
-                                    // This works with minutes of the day so not constrained to step size < 60
-                                    step = stepSize == null ? 1 : Math.max(1, Math.min(1440, stepSize));
-                                    truncate = "day";
-                                    part = "min";
-                                    interval = "min";
-                                    partQuery = "(date_part('hour', ?)::int * 60 + date_part(?, ?)::int)";
-                                    partQuery2 = "(date_part('hour', TIMESTAMP)::int * 60 + date_part(?, TIMESTAMP)::int)";
-                                    break;
-                                case HOUR:
-                                    step = stepSize == null ? 1 : Math.max(1, Math.min(24, stepSize));
-                                    truncate = "day";
-                                    part = "hour";
-                                    interval = "hour";
+                        if (rollupTableName != null) {
+                            // Rollup buckets never span intervals so they can be aggregated in place of the values
+                            switch (aggregation) {
+                                case MIN:
+                                    query.append(" MIN(VALUE_MIN) as AGG_VALUE ");
                                     break;
-                                case DAY:
-                                    step = stepSize == null ? 1 : Math.max(1, Math.min(365, stepSize));
-                                    truncate = "year";
-                                    part = "doy";
-                                    interval = "day";
+                                case MAX:
+                                    query.append(" MAX(VALUE_MAX) as AGG_VALUE ");
                                     break;
-                                case WEEK:
-                                    step = stepSize == null ? 1 : Math.max(1, Math.min(53, stepSize));
-                                    truncate = "year";
-                                    part = "week";
-                                    interval = "week";
+                                case FIRST:
+                                    query.append(" (array_agg(FIRST_VAL order by FIRST_TIMESTAMP asc))[1] as AGG_VALUE ");
                                     break;
-                                case MONTH:
-                                    step = stepSize == null ? 1 : Math.max(1, Math.min(12, stepSize));
-                                    truncate = "year";
-                                    part = "month";
-                                    interval = "month";
-                                    break;
-                                case YEAR:
-                                    step = stepSize == null ? 1 : Math.max(1, stepSize);
-                                    truncate = "decade";
-                                    part = "year";
-                                    interval = "year";
+                                case LAST:
+                                    query.append(" (array_agg(LAST_VAL order by LAST_TIMESTAMP desc))[1] as AGG_VALUE ");
                                     break;
                                 default:
-                                    throw new UnsupportedOperationException("Can't handle interval: " + datapointInterval);
+                                    query.append(" SUM(VALUE_SUM) / SUM(VALUE_COUNT) as AGG_VALUE ");
+                                    break;
                             }
-                            stepStr = step + " " + interval;
-
-                            // TODO: Change this to use something like this max min decimation algorithm https://knowledge.ni.com/KnowledgeArticleDetails?id=kA00Z0000019YLKSA2&l=en-GB)
-                            query.append("select PERIOD as X, AVG_VALUE as Y " +
-                                    "from generate_series(date_trunc(?, ?) + " + partQuery + " / ? * ?, date_trunc(?, ?) + " + partQuery + " / ? * ?, ?) PERIOD left join ( " +
-                                    "select (date_trunc(?, TIMESTAMP) + " + partQuery2 + " / ? * ?)::timestamp as TS, ");
+                        } else {
+                            String value = numberSource.value;
 
-                            if (isNumber) {
-                                query.append(" AVG(VALUE::text::numeric) as AVG_VALUE ");
-                            } else {
-                                query.append(" AVG(case when VALUE::text::boolean is true then 1 else 0 end) as AVG_VALUE ");
+                            switch (aggregation) {
+                                case MIN:
+                                    query.append(" MIN(" + value + ") as AGG_VALUE ");
+                                    break;
+                                case MAX:
+                                    query.append(" MAX(" + value + ") as AGG_VALUE ");
+                                    break;
+                                case FIRST:
+                                    query.append(" (array_agg(" + value + " order by TIMESTAMP asc))[1] as AGG_VALUE ");
+                                    break;
+                                case LAST:
+                                    query.append(" (array_agg(" + value + " order by TIMESTAMP desc))[1] as AGG_VALUE ");
+                                    break;
+                                default:
+                                    query.append(" AVG(" + value + ") as AGG_VALUE ");
+                                    break;
                             }
-
-                            query.append("from " + getDatapointTableName() +
-                                    " where TIMESTAMP >= date_trunc(?, ?) and TIMESTAMP < (date_trunc(?, ?) + ?) and ENTITY_ID = ? and ATTRIBUTE_NAME = ? group by TS) DP on DP.TS = PERIOD order by PERIOD asc");
-
-                        } else {
-                            query.append("select distinct TIMESTAMP AS X, value AS Y from " + getDatapointTableName() +
-                                    " where " +
-                                    "TIMESTAMP >= ?" +
-                                    "and " +
-                                    "TIMESTAMP <= ? " +
-                                    "and " +
-                                    "ENTITY_ID = ? and ATTRIBUTE_NAME = ?"
-                            );
                         }
 
+                        query.append("from " + (rollupTableName != null ? rollupTableName : numberSource.key) +
+                                " where TIMESTAMP >= date_trunc(?, ?) and TIMESTAMP < (date_trunc(?, ?) + ?) and (ENTITY_ID, ATTRIBUTE_NAME) in (values " + attributeValues + ")" +
+                                " group by ENTITY_ID, ATTRIBUTE_NAME, TS) DP on DP.ENTITY_ID = A.ENTITY_ID and DP.ATTRIBUTE_NAME = A.ATTRIBUTE_NAME and DP.TS = PERIOD" +
+                                " order by A.ENTITY_ID, A.ATTRIBUTE_NAME, PERIOD asc");
+
                         try (PreparedStatement st = connection.prepareStatement(query.toString())) {
 
-                            if (downsample) {
-                                int counter = 1;
-                                boolean isMinute = datapointInterval == DatapointInterval.MINUTE;
+                            int counter = 1;
+                            boolean isMinute = datapointInterval == DatapointInterval.MINUTE;
 
-                                st.setString(counter++, truncate);
-                                st.setObject(counter++, fromTimestamp);
-                                if (isMinute) {
-                                    st.setObject(counter++, fromTimestamp);
-                                }
-                                st.setString(counter++, part);
-                                st.setObject(counter++, fromTimestamp);
-                                st.setInt(counter++, step);
-                                st.setObject(counter++, new PGInterval(stepStr));
-                                st.setString(counter++, truncate);
-                                st.setObject(counter++, toTimestamp);
-                                if (isMinute) {
-                                    st.setObject(counter++, toTimestamp);
-                                }
-                                st.setString(counter++, part);
-                                st.setObject(counter++, toTimestamp);
-                                st.setInt(counter++, step);
-                                st.setObject(counter++, new PGInterval(stepStr));
-                                st.setObject(counter++, new PGInterval(stepStr));
-                                st.setString(counter++, truncate);
-                                st.setString(counter++, part);
-                                st.setInt(counter++, step);
-                                st.setObject(counter++, new PGInterval(stepStr));
-                                st.setString(counter++, interval);
+                            for (AttributeRef attributeRef : attributeRefs) {
+                                st.setString(counter++, attributeRef.getId());
+                                st.setString(counter++, attributeRef.getName());
+                            }
+                            st.setString(counter++, truncate);
+                            st.setObject(counter++, fromTimestamp);
+                            if (isMinute) {
                                 st.setObject(counter++, fromTimestamp);
-                                st.setString(counter++, interval);
+                            }
+                            st.setString(counter++, part);
+                            st.setObject(counter++, fromTimestamp);
+                            st.setInt(counter++, step);
+                            st.setObject(counter++, new PGInterval(stepStr));
+                            st.setString(counter++, truncate);
+                            st.setObject(counter++, toTimestamp);
+                            if (isMinute) {
                                 st.setObject(counter++, toTimestamp);
-                                st.setObject(counter++, new PGInterval(stepStr));
+                            }
+                            st.setString(counter++, part);
+                            st.setObject(counter++, toTimestamp);
+                            st.setInt(counter++, step);
+                            st.setObject(counter++, new PGInterval(stepStr));
+                            st.setObject(counter++, new PGInterval(stepStr));
+                            st.setString(counter++, truncate);
+                            st.setString(counter++, part);
+                            st.setInt(counter++, step);
+                            st.setObject(counter++, new PGInterval(stepStr));
+                            st.setString(counter++, interval);
+                            st.setObject(counter++, fromTimestamp);
+                            st.setString(counter++, interval);
+                            st.setObject(counter++, toTimestamp);
+                            st.setObject(counter++, new PGInterval(stepStr));
+                            for (AttributeRef attributeRef : attributeRefs) {
                                 st.setString(counter++, attributeRef.getId());
                                 st.setString(counter++, attributeRef.getName());
-                            } else {
-                                st.setObject(1, fromTimestamp);
-                                st.setObject(2, toTimestamp);
-                                st.setString(3, attributeRef.getId());
-                                st.setString(4, attributeRef.getName());
                             }
 
                             try (ResultSet rs = st.executeQuery()) {
-                                List<ValueDatapoint<?>> result = new ArrayList<>();
-                                while (rs.next()) {
-                                    Object value = null;
-                                    if (rs.getObject(2) != null) {
-                                        if (downsample) {
-                                            value = ValueUtil.getValueCoerced(rs.getObject(2), Double.class).orElse(null);
-                                        } else {
-                                            if (rs.getObject(2) instanceof PGobject) {
-                                                value = ValueUtil.parse(((PGobject) rs.getObject(2)).getValue()).orElse(null);
-                                            } else {
-                                                value = ValueUtil.getValueCoerced(rs.getObject(2), JsonNode.class).orElse(null);
-                                            }
-                                        }
+                                return readDatapoints(rs, attributeRefs, rawValue -> ValueUtil.getValueCoerced(rawValue, Double.class).orElse(null));
+                            }
+                        }
+                    }
+                })
+        );
+    }
+
+    /**
+     * Reads the distinct datapoints of the attributes in the period without aggregation with one statement.
+     */
+    protected Map<AttributeRef, ValueDatapoint<?>[]> getRawDatapoints(List<AttributeRef> attributeRefs,
+                                                                     LocalDateTime fromTimestamp,
+                                                                     LocalDateTime toTimestamp) {
+
+        getLogger().finer("Getting datapoints for: " + attributeRefs);
+
+        String query = "select distinct ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP AS X, VALUE AS Y from " + getDatapointTableName() +
+            " where TIMESTAMP >= ? and TIMESTAMP <= ?" +
+            " and (ENTITY_ID, ATTRIBUTE_NAME) in (values " + String.join(",", Collections.nCopies(attributeRefs.size(), "(?, ?)")) + ")" +
+            " order by ENTITY_ID, ATTRIBUTE_NAME, X";
+
+        return persistenceService.doReturningTransaction(entityManager ->
+            entityManager.unwrap(Session.class).doReturningWork(new AbstractReturningWork<Map<AttributeRef, ValueDatapoint<?>[]>>() {
+                @Override
+                public Map<AttributeRef, ValueDatapoint<?>[]> execute(Connection connection) throws SQLException {
+                    try (PreparedStatement st = connection.prepareStatement(query)) {
+                        int counter = 1;
+                        st.setObject(counter++, fromTimestamp);
+                        st.setObject(counter++, toTimestamp);
+                        for (AttributeRef attributeRef : attributeRefs) {
+                            st.setString(counter++, attributeRef.getId());
+                            st.setString(counter++, attributeRef.getName());
+                        }
+
+                        try (ResultSet rs = st.executeQuery()) {
+                            return readDatapoints(rs, attributeRefs, rawValue -> rawValue instanceof PGobject
+                                ? ValueUtil.parse(((PGobject) rawValue).getValue()).orElse(null)
+                                : ValueUtil.getValueCoerced(rawValue, JsonNode.class).orElse(null));
+                        }
+                    }
+                }
+            })
+        );
+    }
+
+    /**
+     * Reads rows of asset ID, attribute name, timestamp and value grouped by attribute, every attribute has an entry
+     * in the result.
+     */
+    protected static Map<AttributeRef, ValueDatapoint<?>[]> readDatapoints(ResultSet rs, List<AttributeRef> attributeRefs, Function<Object, Object> valueMapper) throws SQLException {
+        Map<AttributeRef, List<ValueDatapoint<?>>> datapoints = new HashMap<>(attributeRefs.size());
+        for (AttributeRef attributeRef : attributeRefs) {
+            datapoints.put(attributeRef, new ArrayList<>());
+        }
+
+        while (rs.next()) {
+            List<ValueDatapoint<?>> attributeDatapoints = datapoints.get(new AttributeRef(rs.getString(1), rs.getString(2)));
+            if (attributeDatapoints != null) {
+                Object rawValue = rs.getObject(4);
+                attributeDatapoints.add(new ValueDatapoint<>(rs.getTimestamp(3).getTime(), rawValue != null ? valueMapper.apply(rawValue) : null));
+            }
+        }
+
+        Map<AttributeRef, ValueDatapoint<?>[]> result = new HashMap<>(datapoints.size());
+        datapoints.forEach((attributeRef, attributeDatapoints) -> result.put(attributeRef, attributeDatapoints.toArray(new ValueDatapoint<?>[0])));
+        return result;
+    }
+
+    /**
+     * Streams the datapoints of the period in timestamp order into a {@link DatapointDownsampler}, rows are fetched
+     * with a cursor so the raw datapoints are never held in memory.
+     */
+    protected ValueDatapoint<?>[] getDownsampledDatapoints(AttributeRef attributeRef,
+                                                           boolean isNumber,
+                                                           boolean isBoolean,
+                                                           DatapointDownsampling downsampling,
+                                                           int points,
+                                                           LocalDateTime fromTimestamp,
+                                                           LocalDateTime toTimestamp) {
+
+        long fromMillis = fromTimestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        long toMillis = toTimestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        DatapointDownsampler downsampler = DatapointDownsampler.create(downsampling, fromMillis, toMillis, points);
+
+        Pair<String, String> source = isNumber || isBoolean
+            ? getNumberDatapointSource(isBoolean)
+            : new Pair<>(getDatapointTableName(), "VALUE");
+
+        String query = "select TIMESTAMP, " + source.value + " from " + source.key +
+            " where ENTITY_ID = ? and ATTRIBUTE_NAME = ? and TIMESTAMP >= ? and TIMESTAMP <= ? order by TIMESTAMP asc";
+
+        return persistenceService.doReturningTransaction(entityManager ->
+            entityManager.unwrap(Session.class).doReturningWork(new AbstractReturningWork<ValueDatapoint<?>[]>() {
+                @Override
+                public ValueDatapoint<?>[] execute(Connection connection) throws SQLException {
+                    try (PreparedStatement st = connection.prepareStatement(query)) {
+                        st.setFetchSize(DOWNSAMPLING_FETCH_SIZE);
+                        st.setString(1, attributeRef.getId());
+                        st.setString(2, attributeRef.getName());
+                        st.setObject(3, fromTimestamp);
+                        st.setObject(4, toTimestamp);
+
+                        try (ResultSet rs = st.executeQuery()) {
+                            while (rs.next()) {
+                                long timestamp = rs.getTimestamp(1).getTime();
+                                if (isNumber || isBoolean) {
+                                    double number = rs.getDouble(2);
+                                    if (!rs.wasNull()) {
+                                        downsampler.add(timestamp, number);
                                     }
-                                    result.add(new ValueDatapoint<>(rs.getTimestamp(1).getTime(), value));
+                                } else if (rs.getObject(2) != null) {
+                                    Object rawValue = rs.getObject(2);
+                                    downsampler.add(timestamp, rawValue instanceof PGobject
+                                        ? ValueUtil.parse(((PGobject) rawValue).getValue()).orElse(null)
+                                        : ValueUtil.getValueCoerced(rawValue, JsonNode.class).orElse(null));
                                 }
-                                return result.toArray(new ValueDatapoint<?>[0]);
                             }
                         }
                     }
-                })
+                    return downsampler.getDatapoints();
+                }
+            })
         );
     }
 
+    /**
+     * @return The target number of points limited to {@link #MAX_DOWNSAMPLING_POINTS}, or <code>null</code> if not set.
+     * @throws IllegalStateException if the target number of points is not greater than 0.
+     */
+    protected static Integer clampDownsamplingPoints(Integer points) {
+        if (points == null) {
+            return null;
+        }
+        if (points <= 0) {
+            throw new IllegalStateException("Target number of points must be greater than 0: " + points);
+        }
+        return Math.min(points, MAX_DOWNSAMPLING_POINTS);
+    }
+
+    /**
+     * @return The number of intervals of the given step size in the period limited to
+     * {@link #MAX_DOWNSAMPLING_POINTS}, used as target number of points when downsampling without an explicit target.
+     */
+    protected int getDownsamplingPoints(DatapointInterval datapointInterval, Integer stepSize, LocalDateTime fromTimestamp, LocalDateTime toTimestamp) {
+        if (datapointInterval == null) {
+            return DEFAULT_DOWNSAMPLING_POINTS;
+        }
+
+        ChronoUnit unit;
+        switch (datapointInterval) {
+            case MINUTE:
+                unit = ChronoUnit.MINUTES;
+                break;
+            case HOUR:
+                unit = ChronoUnit.HOURS;
+                break;
+            case DAY:
+                unit = ChronoUnit.DAYS;
+                break;
+            case WEEK:
+                unit = ChronoUnit.WEEKS;
+                break;
+            case MONTH:
+                unit = ChronoUnit.MONTHS;
+                break;
+            default:
+                unit = ChronoUnit.YEARS;
+                break;
+        }
+
+        long intervals = unit.between(fromTimestamp, toTimestamp) / Math.max(1, stepSize == null ? 1 : stepSize);
+        return (int) Math.max(1, Math.min(MAX_DOWNSAMPLING_POINTS, intervals));
+    }
+
     public DatapointPeriod getDatapointPeriod(String assetId, String attributeName) {
         return persistenceService.doReturningTransaction(em ->
                 em.unwrap(Session.class).doReturningWork(new AbstractReturningWork<DatapointPeriod>() {
                     @Override
                     public DatapointPeriod execute(Connection connection) throws SQLException {
+                        String numberTableName = getNumberDatapointTableName();
+
+                        if (numberTableName != null) {
+                            String query = "select min(TIMESTAMP), max(TIMESTAMP) from (" +
+                                "select TIMESTAMP from " + getDatapointTableName() + " where ENTITY_ID = ? and ATTRIBUTE_NAME = ? " +
+                                "union all select TIMESTAMP from " + numberTableName + " where ENTITY_ID = ? and ATTRIBUTE_NAME = ?) DP";
+                            try (PreparedStatement st = connection.prepareStatement(query)) {
+                                st.setString(1, assetId);
+                                st.setString(2, attributeName);
+                                st.setString(3, assetId);
+                                st.setString(4, attributeName);
+                                try (ResultSet rs = st.executeQuery()) {
+                                    if (rs.next() && rs.getTimestamp(1) != null) {
+                                        return new DatapointPeriod(assetId, attributeName, rs.getTimestamp(1).getTime(), rs.getTimestamp(2).getTime());
+                                    }
+                                    return new DatapointPeriod(assetId, attributeName, null, null);
+                                }
+                            }
+                        }
+
                         String tableName = getDatapointTableName();
                         String query = "SELECT DISTINCT periods.* FROM " +
                                 "(SELECT entity_id, attribute_name, " +
@@ -366,7 +774,11 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
     }
 
     protected PreparedStatement getUpsertPreparedStatement(Connection connection) throws SQLException {
-        return connection.prepareStatement("INSERT INTO " + getDatapointTableName() + " (entity_id, attribute_name, value, timestamp) " +
+        return getUpsertPreparedStatement(connection, getDatapointTableName());
+    }
+
+    protected PreparedStatement getUpsertPreparedStatement(Connection connection, String tableName) throws SQLException {
+        return connection.prepareStatement("INSERT INTO " + tableName + " (entity_id, attribute_name, value, timestamp) " +
                 "VALUES (?, ?, ?, ?) " +
                 "ON CONFLICT (entity_id, attribute_name, timestamp) DO UPDATE " +
                 "SET value = excluded.value");
@@ -382,16 +794,312 @@ public abstract class AbstractDatapointService<T extends Datapoint> implements C
         st.setObject(4, timestamp);
     }
 
+    /**
+     * @return The table that stores number and boolean (as 1 or 0) values as <code>double precision</code> instead of
+     * JSON, or <code>null</code> if this service stores all values in the datapoint table.
+     */
+    protected String getNumberDatapointTableName() {
+        return null;
+    }
+
+    /**
+     * @return The table expression and value column expression to read number or boolean values from, values stored
+     * as JSON (e.g. before the number table was enabled) are included.
+     */
+    protected Pair<String, String> getNumberDatapointSource(boolean isBoolean) {
+        return getNumberDatapointSource(isBoolean ? "(case when VALUE::text::boolean is true then 1 else 0 end)" : "VALUE::text::numeric");
+    }
+
+    /**
+     * @param jsonValue The expression that converts the JSON <code>VALUE</code> column to a number.
+     */
+    protected Pair<String, String> getNumberDatapointSource(String jsonValue) {
+        String numberTableName = getNumberDatapointTableName();
+
+        if (numberTableName == null) {
+            return new Pair<>(getDatapointTableName(), jsonValue);
+        }
+
+        return new Pair<>(
+            "(select TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME, VALUE::numeric as VALUE from " + numberTableName +
+                " union all select TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME, " + jsonValue + " as VALUE from " + getDatapointTableName() + ") DP_VALUES",
+            "VALUE"
+        );
+    }
+
+    /**
+     * @return The value of a number or boolean (as 1 or 0) as a double to aggregate it, otherwise <code>null</code>.
+     */
+    public static Double getNumberValue(Object value) {
+        if (value instanceof Number) {
+            double number = ((Number) value).doubleValue();
+            return Double.isNaN(number) || Double.isInfinite(number) ? null : number;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1d : 0d;
+        }
+        return null;
+    }
+
+    /**
+     * @return The value as a double if it can be stored in the number table and read back without changing its type
+     * or precision, which is only the case for finite floating point values; otherwise <code>null</code>. Booleans,
+     * integers and other numbers are stored as JSON.
+     */
+    public static Double getNumberTableValue(Object value) {
+        if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            return Double.isNaN(number) || Double.isInfinite(number) ? null : number;
+        }
+        return null;
+    }
+
+    /**
+     * @return Rollups to be updated with the datapoints stored in a transaction, or <code>null</code> if this service
+     * doesn't maintain rollups.
+     */
+    protected DatapointRollups createRollups() {
+        return null;
+    }
+
+    /**
+     * @return The rollup table to aggregate values per interval of the given type instead of the datapoint table,
+     * or <code>null</code> to aggregate the datapoints.
+     */
+    protected String getRollupTableName(DatapointInterval datapointInterval) {
+        return null;
+    }
+
+    /**
+     * Writes the datapoints of a transaction with JDBC batches, floating point values are written to the number table
+     * if this service has one and all other values are written to the datapoint table as JSON.
+     */
+    protected class DatapointWriter implements AutoCloseable {
+
+        protected final Connection connection;
+        protected final String numberTableName = getNumberDatapointTableName();
+        protected final DatapointRollups rollups = createRollups();
+        protected final Map<String, PreparedStatement> jsonStatements = new HashMap<>();
+        protected final Map<String, PreparedStatement> numberStatements = new HashMap<>();
+
+        public DatapointWriter(Connection connection) {
+            this.connection = connection;
+        }
+
+        public void add(String assetId, String attributeName, Object value, LocalDateTime timestamp) throws Exception {
+            Double number = numberTableName != null ? getNumberTableValue(value) : null;
+
+            if (number != null) {
+                String tableName = getInsertTableName(numberTableName, timestamp);
+                PreparedStatement numberStatement = numberStatements.get(tableName);
+                if (numberStatement == null) {
+                    numberStatement = connection.prepareStatement("INSERT INTO " + tableName + " (entity_id, attribute_name, value, timestamp) " +
+                        "VALUES (?, ?, ?, ?) " +
+                        "ON CONFLICT (entity_id, attribute_name, timestamp) DO UPDATE " +
+                        "SET value = excluded.value");
+                    numberStatements.put(tableName, numberStatement);
+                }
+                numberStatement.setString(1, assetId);
+                numberStatement.setString(2, attributeName);
+                numberStatement.setDouble(3, number);
+                numberStatement.setObject(4, timestamp);
+                numberStatement.addBatch();
+            } else {
+                String tableName = getInsertTableName(getDatapointTableName(), timestamp);
+                PreparedStatement jsonStatement = jsonStatements.get(tableName);
+                if (jsonStatement == null) {
+                    jsonStatement = getUpsertPreparedStatement(connection, tableName);
+                    jsonStatements.put(tableName, jsonStatement);
+                }
+                setUpsertValues(jsonStatement, assetId, attributeName, value, timestamp);
+                jsonStatement.addBatch();
+            }
+
+            if (rollups != null) {
+                rollups.add(assetId, attributeName, value, timestamp);
+            }
+        }
+
+        public void execute() throws SQLException {
+            for (PreparedStatement jsonStatement : jsonStatements.values()) {
+                jsonStatement.executeBatch();
+            }
+            for (PreparedStatement numberStatement : numberStatements.values()) {
+                numberStatement.executeBatch();
+            }
+            if (rollups != null) {
+                rollups.store(connection);
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            for (PreparedStatement jsonStatement : jsonStatements.values()) {
+                jsonStatement.close();
+            }
+            for (PreparedStatement numberStatement : numberStatements.values()) {
+                numberStatement.close();
+            }
+        }
+    }
+
     protected abstract Class<T> getDatapointClass();
 
     protected abstract String getDatapointTableName();
 
     protected abstract Logger getLogger();
 
-    protected void doPurge(String whereClause, LocalDateTime dateTime) {
-        persistenceService.doTransaction(em -> em.createQuery(
-                "delete from " + getDatapointClass().getSimpleName() + " dp " + whereClause
-        ).setParameter("dt", dateTime).executeUpdate());
+    /**
+     * @return The tables of this service that are partitioned by time, see {@link #createPartitions}.
+     */
+    protected List<String> getPartitionedTableNames() {
+        return Collections.singletonList(getDatapointTableName());
+    }
+
+    /**
+     * @return The child table of the partitioned table that holds datapoints which are kept longer than the partitions
+     * (see {@link #retainDatapoints}), or <code>null</code> if the table doesn't have one.
+     */
+    protected String getRetainedTableName(String tableName) {
+        return null;
+    }
+
+    /**
+     * Create the daily partitions of the partitioned tables from yesterday until {@link #PARTITIONS_AHEAD_DAYS} days
+     * ahead. Datapoints of these days are inserted into their partition directly (see {@link #getInsertTableName});
+     * datapoints of other days are inserted into the partitioned table, where the insert trigger routes them to their
+     * partition and creates it if needed.
+     */
+    protected void createPartitions() {
+        LocalDateTime day = LocalDateTime.ofInstant(timerService.getNow().truncatedTo(DAYS), ZoneId.systemDefault());
+
+        for (String tableName : getPartitionedTableNames()) {
+            for (int i = -1; i <= PARTITIONS_AHEAD_DAYS; i++) {
+                LocalDateTime partitionDay = day.plusDays(i);
+                Object partition = persistenceService.doReturningTransaction(em -> em.createNativeQuery(
+                    "select GET_DATAPOINT_PARTITION(:table, :dt)"
+                ).setParameter("table", tableName).setParameter("dt", partitionDay).getSingleResult());
+                partitions.put(getPartitionKey(tableName, partitionDay.toLocalDate()), partition.toString());
+            }
+        }
+    }
+
+    /**
+     * @return The partition of the table for the day of the timestamp if it has been created ahead, otherwise the
+     * table itself.
+     */
+    protected String getInsertTableName(String tableName, LocalDateTime timestamp) {
+        return partitions.getOrDefault(getPartitionKey(tableName, timestamp.toLocalDate()), tableName);
+    }
+
+    protected static String getPartitionKey(String tableName, LocalDate day) {
+        return tableName + "@" + day;
+    }
+
+    /**
+     * @return The partitions of the table that hold datapoints older than the given date.
+     */
+    @SuppressWarnings("unchecked")
+    protected List<String> getPartitionsBefore(String tableName, LocalDateTime dateTime) {
+        return persistenceService.doReturningTransaction(em -> em.createNativeQuery(
+            "select PARTITION_TABLE from DATAPOINT_PARTITION where PARENT_TABLE = :table and (START_TIMESTAMP is null or START_TIMESTAMP < :dt)"
+        ).setParameter("table", tableName).setParameter("dt", dateTime).getResultList());
+    }
+
+    /**
+     * Move the datapoints older than the given date that match the where clause out of the partitions into the
+     * retained table of each partitioned table, so that they are kept when the partitions are purged.
+     *
+     * @param whereClause Native conditions appended to the timestamp condition that select the datapoints to retain.
+     */
+    protected void retainDatapoints(String whereClause, LocalDateTime dateTime) {
+        for (String tableName : getPartitionedTableNames()) {
+            String retainedTableName = getRetainedTableName(tableName);
+
+            if (retainedTableName == null) {
+                continue;
+            }
+
+            for (String partition : getPartitionsBefore(tableName, dateTime)) {
+                persistenceService.doTransaction(em -> {
+                    int retained = em.createNativeQuery(
+                        "insert into " + retainedTableName + " (timestamp, entity_id, attribute_name, value) " +
+                            "select timestamp, entity_id, attribute_name, value from only " + partition +
+                            " where timestamp < :dt" + whereClause +
+                            " on conflict (timestamp, entity_id, attribute_name) do update set value = excluded.value"
+                    ).setParameter("dt", dateTime).executeUpdate();
+                    em.createNativeQuery("delete from only " + partition + " where timestamp < :dt" + whereClause)
+                        .setParameter("dt", dateTime).executeUpdate();
+                    getLogger().fine("Moved " + retained + " datapoints from partition " + partition + " to " + retainedTableName);
+                });
+            }
+        }
+    }
+
+    /**
+     * Purge the datapoints older than the given date from the partitions: partitions that only hold older datapoints
+     * are dropped and the older datapoints of a partition that also holds newer datapoints are deleted in chunks.
+     * Datapoints in a retained table are not purged.
+     */
+    protected void purgePartitions(LocalDateTime dateTime) {
+        dropPartitions(dateTime);
+
+        for (String tableName : getPartitionedTableNames()) {
+            for (String partition : getPartitionsBefore(tableName, dateTime)) {
+                deleteChunked(partition, "", dateTime);
+            }
+        }
+    }
+
+    /**
+     * Detach and drop all partitions of the partitioned tables that only hold datapoints older than the given date,
+     * which is a lot cheaper than deleting the rows and leaves nothing to vacuum.
+     */
+    protected void dropPartitions(LocalDateTime dateTime) {
+        for (String tableName : getPartitionedTableNames()) {
+            @SuppressWarnings("unchecked")
+            List<String> partitionsToDrop = persistenceService.doReturningTransaction(em -> em.createNativeQuery(
+                "select PARTITION_TABLE from DATAPOINT_PARTITION where PARENT_TABLE = :table and END_TIMESTAMP <= :dt"
+            ).setParameter("table", tableName).setParameter("dt", dateTime).getResultList());
+
+            for (String partition : partitionsToDrop) {
+                getLogger().fine("Dropping datapoint partition: " + partition);
+                partitions.values().removeIf(partition::equals);
+                persistenceService.doTransaction(em -> {
+                    em.createNativeQuery("alter table " + partition + " no inherit " + tableName).executeUpdate();
+                    em.createNativeQuery("drop table " + partition).executeUpdate();
+                    em.createNativeQuery("delete from DATAPOINT_PARTITION where PARTITION_TABLE = :partition")
+                        .setParameter("partition", partition).executeUpdate();
+                });
+            }
+        }
+    }
+
+    /**
+     * Delete the datapoints older than the given date that match the where clause from the partitioned tables,
+     * including their retained tables.
+     *
+     * @param whereClause Additional native conditions appended to the timestamp condition.
+     */
+    protected void purgeChunked(String whereClause, LocalDateTime dateTime) {
+        for (String tableName : getPartitionedTableNames()) {
+            deleteChunked(tableName, whereClause, dateTime);
+        }
+    }
+
+    /**
+     * Delete the datapoints older than the given date that match the where clause from the table, in chunks of
+     * {@link #PURGE_CHUNK_SIZE} rows with a transaction per chunk.
+     */
+    protected void deleteChunked(String tableName, String whereClause, LocalDateTime dateTime) {
+        int deleted;
+        do {
+            deleted = persistenceService.doReturningTransaction(em -> em.createNativeQuery(
+                "delete from " + tableName + " where (timestamp, entity_id, attribute_name) in (" +
+                    "select timestamp, entity_id, attribute_name from " + tableName +
+                    " where timestamp < :dt" + whereClause + " limit " + PURGE_CHUNK_SIZE + ")"
+            ).setParameter("dt", dateTime).executeUpdate());
+        } while (deleted >= PURGE_CHUNK_SIZE);
     }
 
     protected long getFirstPurgeMillis(Instant currentTime) {
@@ -20,7 +20,6 @@
 package org.openremote.manager.datapoint;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import org.apache.commons.io.IOUtils;
 import org.openremote.container.timer.TimerService;
 import org.openremote.manager.asset.AssetStorageService;
 import org.openremote.manager.security.ManagerIdentityService;
@@ -29,27 +28,37 @@ import org.openremote.model.asset.Asset;
 import org.openremote.model.attribute.Attribute;
 import org.openremote.model.attribute.AttributeRef;
 import org.openremote.model.datapoint.AssetDatapointResource;
+import org.openremote.model.datapoint.DatapointDownsampling;
+import org.openremote.model.datapoint.DatapointExportFormat;
 import org.openremote.model.datapoint.DatapointInterval;
 import org.openremote.model.datapoint.DatapointPeriod;
 import org.openremote.model.datapoint.ValueDatapoint;
+import org.openremote.model.datapoint.ValueDatapointSeries;
 import org.openremote.model.http.RequestParams;
+import org.openremote.model.query.AssetQuery;
 import org.openremote.model.syslog.SyslogCategory;
+import org.openremote.model.util.Pair;
 
 import javax.ws.rs.BadRequestException;
 import javax.ws.rs.BeanParam;
 import javax.ws.rs.NotSupportedException;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.container.AsyncResponse;
-import javax.ws.rs.container.ConnectionCallback;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import java.io.*;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
-import java.util.concurrent.ScheduledFuture;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -60,6 +69,7 @@ public class AssetDatapointResourceImpl extends ManagerWebResource implements As
 
     private static final Logger LOG = Logger.getLogger(AssetDatapointResourceImpl.class.getName());
     private static final Logger DATA_EXPORT_LOG = SyslogCategory.getLogger(DATA, AssetDatapointResourceImpl.class);
+    protected static final int EXPORT_BUFFER_SIZE = 65536;
 
     protected final AssetStorageService assetStorageService;
     protected final AssetDatapointService assetDatapointService;
@@ -79,6 +89,8 @@ public class AssetDatapointResourceImpl extends ManagerWebResource implements As
                                              String attributeName,
                                              DatapointInterval interval,
                                              Integer stepSize,
+                                             DatapointDownsampling downsampling,
+                                             Integer points,
                                              long fromTimestamp,
                                              long toTimestamp) {
         try {
@@ -106,6 +118,63 @@ public class AssetDatapointResourceImpl extends ManagerWebResource implements As
                     attribute,
                     interval,
                     stepSize,
+                    downsampling,
+                    points,
+                    LocalDateTime.ofInstant(Instant.ofEpochMilli(fromTimestamp), ZoneId.systemDefault()),
+                    LocalDateTime.ofInstant(Instant.ofEpochMilli(toTimestamp), ZoneId.systemDefault()));
+        } catch (IllegalStateException ex) {
+            throw new BadRequestException(ex);
+        } catch (UnsupportedOperationException ex) {
+            throw new NotSupportedException(ex);
+        }
+    }
+
+    @Override
+    public ValueDatapointSeries[] queryDatapoints(RequestParams requestParams,
+                                                  DatapointInterval interval,
+                                                  Integer stepSize,
+                                                  DatapointDownsampling downsampling,
+                                                  Integer points,
+                                                  long fromTimestamp,
+                                                  long toTimestamp,
+                                                  AttributeRef[] attributeRefs) {
+        if (attributeRefs == null || attributeRefs.length == 0) {
+            return new ValueDatapointSeries[0];
+        }
+
+        try {
+            AbstractDatapointService.checkQueryAttributes(attributeRefs.length);
+            String[] assetIds = Arrays.stream(attributeRefs).map(AttributeRef::getId).distinct().toArray(String[]::new);
+            Map<String, Asset<?>> assets = new HashMap<>();
+
+            for (Asset<?> asset : assetStorageService.findAll(
+                new AssetQuery().ids(assetIds).select(AssetQuery.Select.selectExcludePathAndParentInfo()))) {
+
+                if (!isTenantActiveAndAccessible(asset.getRealm())) {
+                    LOG.info("Forbidden access for user '" + getUsername() + "': " + asset);
+                    throw new WebApplicationException(Response.Status.FORBIDDEN);
+                }
+
+                if (isRestrictedUser() && !assetStorageService.isUserAsset(getUserId(), asset.getId())) {
+                    throw new WebApplicationException(Response.Status.FORBIDDEN);
+                }
+
+                assets.put(asset.getId(), asset);
+            }
+
+            List<Pair<String, Attribute<?>>> attributes = new ArrayList<>(attributeRefs.length);
+            for (AttributeRef attributeRef : attributeRefs) {
+                Asset<?> asset = assets.get(attributeRef.getId());
+                if (asset != null) {
+                    asset.getAttribute(attributeRef.getName()).ifPresent(attribute -> attributes.add(new Pair<>(asset.getId(), attribute)));
+                }
+            }
+
+            return assetDatapointService.getValueDatapoints(attributes,
+                    interval,
+                    stepSize,
+                    downsampling,
+                    points,
                     LocalDateTime.ofInstant(Instant.ofEpochMilli(fromTimestamp), ZoneId.systemDefault()),
                     LocalDateTime.ofInstant(Instant.ofEpochMilli(toTimestamp), ZoneId.systemDefault()));
         } catch (IllegalStateException ex) {
@@ -148,71 +217,91 @@ public class AssetDatapointResourceImpl extends ManagerWebResource implements As
     @Override
     public void getDatapointExport(AsyncResponse asyncResponse, String attributeRefsString, long fromTimestamp, long toTimestamp) {
         try {
-            AttributeRef[] attributeRefs = JSON.readValue(attributeRefsString, AttributeRef[].class);
+            AttributeRef[] attributeRefs = getExportAttributeRefs(attributeRefsString);
 
-            for (AttributeRef attributeRef : attributeRefs) {
-                if (isRestrictedUser() && !assetStorageService.isUserAsset(getUserId(), attributeRef.getId())) {
-                    throw new WebApplicationException(Response.Status.FORBIDDEN);
+            DATA_EXPORT_LOG.info("User '" + getUsername() +  "' started data export for " + attributeRefsString + " from " + fromTimestamp + " to " + toTimestamp);
+
+            StreamingOutput output = outputStream -> {
+                try (ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(outputStream, EXPORT_BUFFER_SIZE))) {
+                    zipOut.putNextEntry(new ZipEntry("dataexport." + DatapointExportFormat.CSV.getFileExtension()));
+                    exportDatapoints(attributeRefs, fromTimestamp, toTimestamp, DatapointExportFormat.CSV, zipOut);
+                    zipOut.closeEntry();
                 }
+            };
+
+            asyncResponse.resume(
+                Response.ok(output, "application/zip")
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"dataexport.zip\"")
+                    .build()
+            );
+        } catch (WebApplicationException ex) {
+            asyncResponse.resume(ex);
+        }
+    }
 
-                Asset<?> asset = assetStorageService.find(attributeRef.getId(), true);
+    @Override
+    public Response getDatapointExportStream(RequestParams requestParams, String attributeRefsString, long fromTimestamp, long toTimestamp, DatapointExportFormat format, boolean gzip) {
+        AttributeRef[] attributeRefs = getExportAttributeRefs(attributeRefsString);
+        DatapointExportFormat exportFormat = format != null ? format : DatapointExportFormat.CSV;
 
-                if (asset == null) {
-                    throw new WebApplicationException(Response.Status.NOT_FOUND);
-                }
+        DATA_EXPORT_LOG.info("User '" + getUsername() +  "' started " + exportFormat + " data export stream for " + attributeRefsString + " from " + fromTimestamp + " to " + toTimestamp);
 
-                if (!isTenantActiveAndAccessible(asset.getRealm())) {
-                    DATA_EXPORT_LOG.info("Forbidden access for user '" + getUsername() + "': " + asset);
-                    throw new WebApplicationException(Response.Status.FORBIDDEN);
-                }
+        StreamingOutput output = outputStream -> {
+            try (OutputStream exportOut = new BufferedOutputStream(gzip ? new GZIPOutputStream(outputStream) : outputStream, EXPORT_BUFFER_SIZE)) {
+                exportDatapoints(attributeRefs, fromTimestamp, toTimestamp, exportFormat, exportOut);
+            }
+        };
+        String fileName = "dataexport." + exportFormat.getFileExtension() + (gzip ? ".gz" : "");
+
+        return Response.ok(output, gzip ? "application/gzip" : exportFormat.getMediaType())
+            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
+            .build();
+    }
+
+    protected AttributeRef[] getExportAttributeRefs(String attributeRefsString) {
+        AttributeRef[] attributeRefs;
+
+        try {
+            attributeRefs = JSON.readValue(attributeRefsString, AttributeRef[].class);
+        } catch (JsonProcessingException ex) {
+            throw new BadRequestException(ex);
+        }
+
+        if (attributeRefs == null || attributeRefs.length == 0) {
+            throw new BadRequestException("No attributes to export");
+        }
 
-                asset.getAttribute(attributeRef.getName()).orElseThrow(() ->
-                        new WebApplicationException(Response.Status.NOT_FOUND)
-                );
+        for (AttributeRef attributeRef : attributeRefs) {
+            if (isRestrictedUser() && !assetStorageService.isUserAsset(getUserId(), attributeRef.getId())) {
+                throw new WebApplicationException(Response.Status.FORBIDDEN);
             }
 
-            DATA_EXPORT_LOG.info("User '" + getUsername() +  "' started data export for " + attributeRefsString + " from " + fromTimestamp + " to " + toTimestamp);
+            Asset<?> asset = assetStorageService.find(attributeRef.getId(), true);
 
-            ScheduledFuture<File> exportFuture = assetDatapointService.exportDatapoints(attributeRefs, fromTimestamp, toTimestamp);
-            asyncResponse.register((ConnectionCallback) disconnected -> {
-                exportFuture.cancel(true);
-            });
-
-            File exportFile = null;
-
-            try {
-                exportFile = exportFuture.get();
-
-                ZipOutputStream zipOut = new ZipOutputStream(response.getOutputStream());
-                FileInputStream fin = new FileInputStream(exportFile);
-                ZipEntry zipEntry = new ZipEntry(exportFile.getName());
-                zipOut.putNextEntry(zipEntry);
-                IOUtils.copy(fin, zipOut);
-                zipOut.closeEntry();
-                zipOut.close();
-                fin.close();
-
-                response.setContentType("application/zip");
-                response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"dataexport.zip\"");
-
-                asyncResponse.resume(
-                    response
-                );
-            } catch (Exception ex) {
-                exportFuture.cancel(true);
-                asyncResponse.resume(new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR));
-                DATA_EXPORT_LOG.log(Level.SEVERE, "Exception in ScheduledFuture: ", ex);
-            } finally {
-                if (exportFile != null && exportFile.exists()) {
-                    try {
-                        exportFile.delete();
-                    } catch (Exception e) {
-                        DATA_EXPORT_LOG.log(Level.SEVERE, "Failed to delete temporary export file: " + exportFile.getPath(), e);
-                    }
-                }
+            if (asset == null) {
+                throw new WebApplicationException(Response.Status.NOT_FOUND);
             }
-        } catch (JsonProcessingException ex) {
-            asyncResponse.resume(new BadRequestException(ex));
+
+            if (!isTenantActiveAndAccessible(asset.getRealm())) {
+                DATA_EXPORT_LOG.info("Forbidden access for user '" + getUsername() + "': " + asset);
+                throw new WebApplicationException(Response.Status.FORBIDDEN);
+            }
+
+            asset.getAttribute(attributeRef.getName()).orElseThrow(() ->
+                    new WebApplicationException(Response.Status.NOT_FOUND)
+            );
+        }
+
+        return attributeRefs;
+    }
+
+    protected void exportDatapoints(AttributeRef[] attributeRefs, long fromTimestamp, long toTimestamp, DatapointExportFormat format, OutputStream outputStream) throws IOException {
+        try {
+            assetDatapointService.exportDatapoints(attributeRefs, fromTimestamp, toTimestamp, format, outputStream);
+        } catch (Exception ex) {
+            // The response has already been committed, the client sees an incomplete download
+            DATA_EXPORT_LOG.log(Level.WARNING, "Data export failed: " + ex.getMessage(), ex);
+            throw new IOException("Data export failed", ex);
         }
     }
 }
@@ -1,7 +1,7 @@
 package org.openremote.manager.datapoint;
 
+import org.hibernate.Session;
 import org.openremote.container.timer.TimerService;
-import org.openremote.container.util.UniqueIdentifierGenerator;
 import org.openremote.manager.asset.AssetProcessingException;
 import org.openremote.manager.asset.AssetStorageService;
 import org.openremote.manager.asset.AssetUpdateProcessor;
@@ -14,25 +14,31 @@ import org.openremote.model.attribute.AttributeEvent.Source;
 import org.openremote.model.attribute.AttributeRef;
 import org.openremote.model.attribute.AttributeWriteFailure;
 import org.openremote.model.datapoint.AssetDatapoint;
+import org.openremote.model.datapoint.DatapointExportFormat;
+import org.openremote.model.datapoint.DatapointInterval;
 import org.openremote.model.query.AssetQuery;
 import org.openremote.model.query.filter.AttributePredicate;
 import org.openremote.model.query.filter.NameValuePredicate;
 import org.openremote.model.util.Pair;
 import org.openremote.model.value.MetaItemType;
+import org.postgresql.PGConnection;
 
 import javax.persistence.EntityManager;
-import java.io.File;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.sql.Date;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -41,8 +47,8 @@ import java.util.stream.Collectors;
 import static java.time.temporal.ChronoUnit.DAYS;
 import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.toList;
+import static org.openremote.container.util.MapAccess.getBoolean;
 import static org.openremote.container.util.MapAccess.getInteger;
-import static org.openremote.container.util.MapAccess.getString;
 import static org.openremote.model.value.MetaItemType.STORE_DATA_POINTS;
 
 /**
@@ -50,16 +56,38 @@ import static org.openremote.model.value.MetaItemType.STORE_DATA_POINTS;
  * {@link MetaItemType#DATA_POINTS_MAX_AGE_DAYS} {@link org.openremote.model.attribute.MetaItem}
  * and {@link #DATA_POINTS_MAX_AGE_DAYS} setting; storage duration defaults to {@value #DATA_POINTS_MAX_AGE_DAYS_DEFAULT}
  * days.
+ * <p>
+ * Hourly and daily rollups of numeric and boolean datapoints are updated in the transaction that stores the datapoints
+ * (see {@link DatapointRollups}), aggregated queries by hour or longer intervals are served from the rollups.
+ * <p>
+ * Partitions are dropped by the default max age. Before that, the datapoints of attributes with a longer max age are
+ * moved from those partitions into a retained child table of the partitioned table (see {@link #RETAINED_TABLE_SUFFIX}),
+ * which is purged by attribute.
+ * <p>
+ * If {@link #DATA_POINTS_NUMBER_STORAGE} is enabled floating point values are stored in the {@link #NUMBER_TABLE_NAME}
+ * table as <code>double precision</code> and other values, including booleans and integers, are stored as JSON so they
+ * are read back with their type.
  */
 public class AssetDatapointService extends AbstractDatapointService<AssetDatapoint> implements AssetUpdateProcessor {
 
     public static final String DATA_POINTS_MAX_AGE_DAYS = "DATA_POINTS_MAX_AGE_DAYS";
     public static final int DATA_POINTS_MAX_AGE_DAYS_DEFAULT = 31;
-    public static final String DATA_POINTS_EXPORT_DIR = "DATA_POINTS_EXPORT_DIR";
-    public static final String DATA_POINTS_EXPORT_DIR_DEFAULT = "/tmp";
+    public static final String DATA_POINTS_NUMBER_STORAGE = "DATA_POINTS_NUMBER_STORAGE";
+    public static final boolean DATA_POINTS_NUMBER_STORAGE_DEFAULT = false;
+    public static final String DATA_POINTS_EXPORT_TIMEOUT_SECONDS = "DATA_POINTS_EXPORT_TIMEOUT_SECONDS";
+    public static final int DATA_POINTS_EXPORT_TIMEOUT_SECONDS_DEFAULT = 600;
+    public static final String NUMBER_TABLE_NAME = "asset_datapoint_number";
+    public static final String RETAINED_TABLE_SUFFIX = "_retained";
+    /**
+     * Native conditions that select the datapoints of attributes without a
+     * {@link MetaItemType#DATA_POINTS_MAX_AGE_DAYS} meta item, which are purged by the default max age.
+     */
+    protected static final String DEFAULT_MAX_AGE_WHERE_CLAUSE = " and not exists (select 1 from asset a where a.id = entity_id" +
+        " and a.attributes #> array[attribute_name, 'meta', '" + MetaItemType.DATA_POINTS_MAX_AGE_DAYS.getName() + "'] is not null)";
     private static final Logger LOG = Logger.getLogger(AssetDatapointService.class.getName());
     protected int maxDatapointAgeDays;
-    protected Path exportPath;
+    protected boolean numberStorage;
+    protected int exportTimeoutSeconds;
 
     @Override
     public void init(Container container) throws Exception {
@@ -80,11 +108,14 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
             LOG.warning(DATA_POINTS_MAX_AGE_DAYS + " value is not a valid value so data points won't be auto purged");
         }
 
-        exportPath = Paths.get(getString(container.getConfig(), DATA_POINTS_EXPORT_DIR, DATA_POINTS_EXPORT_DIR_DEFAULT));
+        numberStorage = getBoolean(container.getConfig(), DATA_POINTS_NUMBER_STORAGE, DATA_POINTS_NUMBER_STORAGE_DEFAULT);
+        exportTimeoutSeconds = getInteger(container.getConfig(), DATA_POINTS_EXPORT_TIMEOUT_SECONDS, DATA_POINTS_EXPORT_TIMEOUT_SECONDS_DEFAULT);
     }
 
     @Override
     public void start(Container container) throws Exception {
+        createPartitions();
+
         if (maxDatapointAgeDays > 0) {
             dataPointsPurgeScheduledFuture = executorService.scheduleAtFixedRate(
                 this::purgeDataPoints,
@@ -114,6 +145,50 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
         return false;
     }
 
+    @Override
+    public List<AssetDatapoint> getDatapoints(AttributeRef attributeRef) {
+        List<AssetDatapoint> datapoints = super.getDatapoints(attributeRef);
+
+        if (!numberStorage) {
+            return datapoints;
+        }
+
+        // Values of the number table are returned as double values
+        List<AssetDatapoint> result = new ArrayList<>(datapoints);
+        persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement st = connection.prepareStatement(
+                "select TIMESTAMP, VALUE from " + NUMBER_TABLE_NAME + " where ENTITY_ID = ? and ATTRIBUTE_NAME = ?")) {
+                st.setString(1, attributeRef.getId());
+                st.setString(2, attributeRef.getName());
+                try (ResultSet rs = st.executeQuery()) {
+                    while (rs.next()) {
+                        result.add(new AssetDatapoint(attributeRef, rs.getDouble(2), rs.getTimestamp(1).getTime()));
+                    }
+                }
+            }
+        }));
+        result.sort(Comparator.comparingLong(AssetDatapoint::getTimestamp).reversed());
+        return result;
+    }
+
+    @Override
+    protected String getNumberDatapointTableName() {
+        return numberStorage ? NUMBER_TABLE_NAME : null;
+    }
+
+    @Override
+    protected DatapointRollups createRollups() {
+        Pair<String, String> source = getNumberDatapointSource(
+            "(case jsonb_typeof(VALUE) when 'number' then VALUE::text::double precision " +
+                "when 'boolean' then case when VALUE::text::boolean then 1 else 0 end end)");
+        return new DatapointRollups(source.key, source.value);
+    }
+
+    @Override
+    protected String getRollupTableName(DatapointInterval datapointInterval) {
+        return DatapointRollups.getTableName(datapointInterval);
+    }
+
     @Override
     protected Class<AssetDatapoint> getDatapointClass() {
         return AssetDatapoint.class;
@@ -129,6 +204,26 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
         return LOG;
     }
 
+    @Override
+    protected List<String> getPartitionedTableNames() {
+        // The number table is purged even when disabled, it might contain values stored while it was enabled
+        return Arrays.asList(getDatapointTableName(), NUMBER_TABLE_NAME);
+    }
+
+    @Override
+    protected String getRetainedTableName(String tableName) {
+        return tableName + RETAINED_TABLE_SUFFIX;
+    }
+
+    /**
+     * Delete the datapoints older than the given date that match the where clause from the retained tables.
+     */
+    protected void purgeRetained(String whereClause, LocalDateTime dateTime) {
+        for (String tableName : getPartitionedTableNames()) {
+            deleteChunked(getRetainedTableName(tableName), whereClause, dateTime);
+        }
+    }
+
     protected void purgeDataPoints() {
         LOG.info("Starting data points purge daily task");
 
@@ -151,35 +246,44 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
                 .flatMap(List::stream)
                 .collect(toList());
 
-            // Purge data points not in the above list using default duration
-            LOG.fine("Purging data points of attributes that use default max age days of " + maxDatapointAgeDays);
-
-            persistenceService.doTransaction(em -> em.createQuery(
-                "delete from AssetDatapoint dp " +
-                    "where dp.timestamp < :dt" + buildWhereClause(attributes, true)
-            ).setParameter("dt", Date.from(timerService.getNow().truncatedTo(DAYS).minus(maxDatapointAgeDays, DAYS))).executeUpdate());
-
-            if (!attributes.isEmpty()) {
-                // Purge data points that have specific age constraints
-                Map<Integer, List<Pair<String, Attribute<?>>>> ageAttributeRefMap = attributes.stream()
-                    .collect(groupingBy(attributeRef ->
-                        attributeRef.value
-                            .getMetaValue(MetaItemType.DATA_POINTS_MAX_AGE_DAYS)
-                            .orElse(maxDatapointAgeDays)));
-
-                ageAttributeRefMap.forEach((age, attrs) -> {
-                    LOG.fine("Purging data points of " + attrs.size() + " attributes that use a max age of " + age);
-
-                    try {
-                        persistenceService.doTransaction(em -> em.createQuery(
-                            "delete from AssetDatapoint dp " +
-                                "where dp.timestamp < :dt" + buildWhereClause(attrs, false)
-                        ).setParameter("dt", Date.from(timerService.getNow().truncatedTo(DAYS).minus(age, DAYS))).executeUpdate());
-                    } catch (Exception e) {
-                        LOG.log(Level.SEVERE, "An error occurred whilst deleting data points, this should not happen", e);
-                    }
-                });
+            Map<Integer, List<Pair<String, Attribute<?>>>> ageAttributeRefMap = attributes.stream()
+                .collect(groupingBy(attributeRef ->
+                    attributeRef.value
+                        .getMetaValue(MetaItemType.DATA_POINTS_MAX_AGE_DAYS)
+                        .orElse(maxDatapointAgeDays)));
+
+            List<Pair<String, Attribute<?>>> retainedAttributes = ageAttributeRefMap.entrySet().stream()
+                .filter(entry -> entry.getKey() > maxDatapointAgeDays)
+                .flatMap(entry -> entry.getValue().stream())
+                .collect(toList());
+            LocalDateTime purgeTimestamp = getPurgeTimestamp(maxDatapointAgeDays);
+
+            createPartitions();
+
+            // Data points of attributes with a longer max age are moved out of the partitions that are purged
+            if (!retainedAttributes.isEmpty()) {
+                LOG.fine("Retaining data points of " + retainedAttributes.size() + " attributes that use a longer max age than " + maxDatapointAgeDays + " days");
+                retainDatapoints(buildNativeWhereClause(retainedAttributes), purgeTimestamp);
             }
+
+            // Purge data points using default duration by dropping partitions, and retained data points of attributes
+            // that no longer have a max age, retained data points of attributes with a max age are purged below
+            LOG.fine("Purging data points older than default max age days of " + maxDatapointAgeDays);
+            purgePartitions(purgeTimestamp);
+            purgeRetained(DEFAULT_MAX_AGE_WHERE_CLAUSE, purgeTimestamp);
+            purgeRollups(maxDatapointAgeDays, DEFAULT_MAX_AGE_WHERE_CLAUSE);
+
+            // Purge data points that have specific age constraints
+            ageAttributeRefMap.forEach((age, attrs) -> {
+                LOG.fine("Purging data points of " + attrs.size() + " attributes that use a max age of " + age);
+
+                try {
+                    purgeChunked(buildNativeWhereClause(attrs), getPurgeTimestamp(age));
+                    purgeRollups(age, buildNativeWhereClause(attrs));
+                } catch (Exception e) {
+                    LOG.log(Level.SEVERE, "An error occurred whilst deleting data points, this should not happen", e);
+                }
+            });
         } catch (Exception e) {
             LOG.log(Level.WARNING, "Failed to run data points purge", e);
         }
@@ -187,34 +291,72 @@ public class AssetDatapointService extends AbstractDatapointService<AssetDatapoi
         LOG.info("Finished data points purge daily task");
     }
 
-    protected String buildWhereClause(List<Pair<String, Attribute<?>>> attributes, boolean negate) {
+    /**
+     * @return Native conditions that select the datapoints of the attributes.
+     */
+    protected String buildNativeWhereClause(List<Pair<String, Attribute<?>>> attributes) {
 
         if (attributes.isEmpty()) {
             return "";
         }
 
         String whereStr = attributes.stream()
-            .map(attributeRef -> "('" + attributeRef.key + "','" + attributeRef.value.getName() + "')")
+            .map(attributeRef -> "(" + quoteLiteral(attributeRef.key) + "," + quoteLiteral(attributeRef.value.getName()) + ")")
             .collect(Collectors.joining(","));
 
-        return " and (dp.assetId, dp.attributeName) " + (negate ? "not " : "") + "in (" + whereStr + ")";
+        return " and (entity_id, attribute_name) in (" + whereStr + ")";
     }
 
-    public ScheduledFuture<File> exportDatapoints(AttributeRef[] attributeRefs,
-                                                  long fromTimestamp,
-                                                  long toTimestamp) {
-        return executorService.schedule(() -> {
-            String fileName = UniqueIdentifierGenerator.generateId() + ".csv";
-            StringBuilder sb = new StringBuilder(String.format("copy (select ad.timestamp, a.name, ad.attribute_name, value from asset_datapoint ad, asset a where ad.entity_id = a.id and ad.timestamp >= to_timestamp(%d) and ad.timestamp <= to_timestamp(%d) and (", fromTimestamp / 1000, toTimestamp / 1000));
-
-            sb.append(Arrays.stream(attributeRefs).map(attributeRef -> String.format("(ad.entity_id = '%s' and ad.attribute_name = '%s')", attributeRef.getId(), attributeRef.getName())).collect(Collectors.joining(" or ")));
+    /**
+     * Rollups are kept as long as the datapoints they were built from, a rollup bucket is removed in chunks when it
+     * starts before the purge date.
+     */
+    protected void purgeRollups(int maxAgeDays, String whereClause) {
+        for (String tableName : new String[] {DatapointRollups.HOURLY_TABLE_NAME, DatapointRollups.DAILY_TABLE_NAME}) {
+            deleteChunked(tableName, whereClause, getPurgeTimestamp(maxAgeDays));
+        }
+    }
 
-            sb.append(String.format(")) to '/tmp/%s' delimiter ',' CSV HEADER;", fileName));
+    protected LocalDateTime getPurgeTimestamp(int maxAgeDays) {
+        return LocalDateTime.ofInstant(timerService.getNow().truncatedTo(DAYS).minus(maxAgeDays, DAYS), ZoneId.systemDefault());
+    }
 
-            persistenceService.doTransaction(em -> em.createNativeQuery(sb.toString()).executeUpdate());
+    /**
+     * Write the datapoints of the attributes to the output stream with <code>COPY ... TO STDOUT</code>, the rows are
+     * streamed as they are read so memory usage doesn't depend on the number of datapoints. A slow client holds the
+     * connection for as long as the copy takes, which is limited by {@link #DATA_POINTS_EXPORT_TIMEOUT_SECONDS}.
+     */
+    public void exportDatapoints(AttributeRef[] attributeRefs,
+                                 long fromTimestamp,
+                                 long toTimestamp,
+                                 DatapointExportFormat format,
+                                 OutputStream outputStream) {
+        String datapoints = numberStorage
+            ? "(select timestamp, entity_id, attribute_name, value from asset_datapoint union all select timestamp, entity_id, attribute_name, to_jsonb(value) from " + NUMBER_TABLE_NAME + ")"
+            : "asset_datapoint";
+        String attributes = Arrays.stream(attributeRefs)
+            .map(attributeRef -> "(" + quoteLiteral(attributeRef.getId()) + "," + quoteLiteral(attributeRef.getName()) + ")")
+            .collect(Collectors.joining(","));
+        String copy = "copy (select ad.timestamp, a.name, ad.attribute_name, ad.value from " + datapoints + " ad join asset a on ad.entity_id = a.id" +
+            " where ad.timestamp >= to_timestamp(" + fromTimestamp / 1000 + ") and ad.timestamp <= to_timestamp(" + toTimestamp / 1000 + ")" +
+            " and (ad.entity_id, ad.attribute_name) in (" + attributes + "))" +
+            " to stdout with (format " + (format == DatapointExportFormat.BINARY ? "binary" : "csv, header") + ")";
+        persistenceService.doTransaction(em -> em.unwrap(Session.class).doWork(connection -> {
+            if (exportTimeoutSeconds > 0) {
+                try (Statement st = connection.createStatement()) {
+                    st.execute("set local statement_timeout = " + TimeUnit.SECONDS.toMillis(exportTimeoutSeconds));
+                }
+            }
+            try {
+                connection.unwrap(PGConnection.class).getCopyAPI().copyOut(copy, outputStream);
+            } catch (IOException e) {
+                throw new SQLException("Failed to write datapoint export", e);
+            }
+        }));
+    }
 
-            return exportPath.resolve(fileName).toFile();
-        }, 0, TimeUnit.MILLISECONDS);
+    protected static String quoteLiteral(String value) {
+        return "'" + value.replace("'", "''") + "'";
     }
 
 }
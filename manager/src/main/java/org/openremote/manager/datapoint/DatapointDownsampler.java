@@ -0,0 +1,299 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.datapoint;
+
+import org.openremote.model.datapoint.DatapointDownsampling;
+import org.openremote.model.datapoint.ValueDatapoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reduces a stream of datapoints in ascending timestamp order to approximately the requested number of points. The
+ * requested period is divided into buckets of equal duration and each bucket is reduced as defined by the
+ * {@link DatapointDownsampling} mode; empty buckets produce no datapoints. Only the state of the current bucket is
+ * kept (for {@link DatapointDownsampling#LTTB} the values of two buckets) so datapoints can be reduced as they are
+ * read from the database.
+ * <p>
+ * Values are {@link Number}s for numeric modes, only {@link DatapointDownsampling#FIRST} and
+ * {@link DatapointDownsampling#LAST} accept other values.
+ */
+public abstract class DatapointDownsampler {
+
+    protected final long fromMillis;
+    protected final long bucketMillis;
+    protected final List<ValueDatapoint<?>> result = new ArrayList<>();
+    protected long bucket = -1;
+
+    protected DatapointDownsampler(long fromMillis, long toMillis, int points) {
+        this.fromMillis = fromMillis;
+        this.bucketMillis = Math.max(1, (toMillis - fromMillis + 1) / Math.max(1, points));
+    }
+
+    public static DatapointDownsampler create(DatapointDownsampling mode, long fromMillis, long toMillis, int points) {
+        if (mode == DatapointDownsampling.LTTB) {
+            return new LttbDownsampler(fromMillis, toMillis, points);
+        }
+        return new BucketDownsampler(mode == null ? DatapointDownsampling.AVG : mode, fromMillis, toMillis, points);
+    }
+
+    public void add(long timestamp, Object value) {
+        long valueBucket = Math.max(0, (timestamp - fromMillis) / bucketMillis);
+        if (valueBucket != bucket) {
+            if (bucket >= 0) {
+                closeBucket();
+            }
+            bucket = valueBucket;
+        }
+        addToBucket(timestamp, value);
+    }
+
+    public ValueDatapoint<?>[] getDatapoints() {
+        if (bucket >= 0) {
+            closeBucket();
+            bucket = -1;
+        }
+        complete();
+        return result.toArray(new ValueDatapoint<?>[0]);
+    }
+
+    protected long getBucketStart() {
+        return fromMillis + bucket * bucketMillis;
+    }
+
+    protected abstract void addToBucket(long timestamp, Object value);
+
+    protected abstract void closeBucket();
+
+    protected void complete() {
+    }
+
+    /**
+     * Reduces each bucket to its average, minimum, maximum, first or last value or to its minimum and maximum value.
+     */
+    public static class BucketDownsampler extends DatapointDownsampler {
+
+        protected final DatapointDownsampling mode;
+        protected int count;
+        protected double sum;
+        protected double min;
+        protected long minTimestamp;
+        protected double max;
+        protected long maxTimestamp;
+        protected Object first;
+        protected long firstTimestamp;
+        protected Object last;
+        protected long lastTimestamp;
+
+        public BucketDownsampler(DatapointDownsampling mode, long fromMillis, long toMillis, int points) {
+            super(fromMillis, toMillis, points);
+            this.mode = mode;
+        }
+
+        @Override
+        protected void addToBucket(long timestamp, Object value) {
+            if (count == 0) {
+                first = value;
+                firstTimestamp = timestamp;
+            }
+            last = value;
+            lastTimestamp = timestamp;
+
+            if (value instanceof Number) {
+                double number = ((Number) value).doubleValue();
+                if (count == 0 || number < min) {
+                    min = number;
+                    minTimestamp = timestamp;
+                }
+                if (count == 0 || number > max) {
+                    max = number;
+                    maxTimestamp = timestamp;
+                }
+                sum += number;
+            }
+            count++;
+        }
+
+        @Override
+        protected void closeBucket() {
+            if (count == 0) {
+                return;
+            }
+
+            switch (mode) {
+                case AVG:
+                    result.add(new ValueDatapoint<>(getBucketStart(), sum / count));
+                    break;
+                case MIN:
+                    result.add(new ValueDatapoint<>(minTimestamp, min));
+                    break;
+                case MAX:
+                    result.add(new ValueDatapoint<>(maxTimestamp, max));
+                    break;
+                case MIN_MAX:
+                    if (minTimestamp == maxTimestamp) {
+                        result.add(new ValueDatapoint<>(minTimestamp, min));
+                    } else if (minTimestamp < maxTimestamp) {
+                        result.add(new ValueDatapoint<>(minTimestamp, min));
+                        result.add(new ValueDatapoint<>(maxTimestamp, max));
+                    } else {
+                        result.add(new ValueDatapoint<>(maxTimestamp, max));
+                        result.add(new ValueDatapoint<>(minTimestamp, min));
+                    }
+                    break;
+                case FIRST:
+                    result.add(new ValueDatapoint<>(firstTimestamp, first));
+                    break;
+                default:
+                    result.add(new ValueDatapoint<>(lastTimestamp, last));
+                    break;
+            }
+
+            count = 0;
+            sum = 0;
+            first = null;
+            last = null;
+        }
+    }
+
+    /**
+     * Selects one datapoint per bucket with the Largest-Triangle-Three-Buckets algorithm: the datapoint that forms the
+     * largest triangle with the previously selected datapoint and the average of the next bucket. The first and last
+     * datapoints are always selected.
+     */
+    public static class LttbDownsampler extends DatapointDownsampler {
+
+        protected Points pending = new Points();
+        protected Points current = new Points();
+        protected boolean hasSelected;
+        protected long selectedTimestamp;
+        protected double selectedValue;
+
+        public LttbDownsampler(long fromMillis, long toMillis, int points) {
+            // The first and last datapoints are selected in addition to one datapoint per bucket
+            super(fromMillis, toMillis, Math.max(1, points - 2));
+        }
+
+        @Override
+        protected void addToBucket(long timestamp, Object value) {
+            if (!(value instanceof Number)) {
+                return;
+            }
+            double number = ((Number) value).doubleValue();
+            if (!hasSelected) {
+                select(timestamp, number);
+                return;
+            }
+            current.add(timestamp, number);
+        }
+
+        @Override
+        protected void closeBucket() {
+            if (current.size == 0) {
+                return;
+            }
+            if (pending.size > 0) {
+                selectLargestTriangle(pending, current.getAverageTimestamp(), current.getAverageValue());
+            }
+            Points points = pending;
+            pending = current;
+            current = points;
+            current.clear();
+        }
+
+        @Override
+        protected void complete() {
+            if (pending.size == 0) {
+                return;
+            }
+            // The last datapoint is the third point of the triangle for the last bucket
+            int lastIndex = pending.size - 1;
+            long lastTimestamp = pending.timestamps[lastIndex];
+            double lastValue = pending.values[lastIndex];
+            pending.size--;
+            if (pending.size > 0) {
+                selectLargestTriangle(pending, lastTimestamp, lastValue);
+            }
+            select(lastTimestamp, lastValue);
+            pending.clear();
+        }
+
+        protected void selectLargestTriangle(Points points, double nextTimestamp, double nextValue) {
+            int selectedIndex = 0;
+            double maxArea = -1;
+            for (int i = 0; i < points.size; i++) {
+                // Twice the area, which is sufficient for comparison
+                double area = Math.abs(
+                    (selectedTimestamp - nextTimestamp) * (points.values[i] - selectedValue)
+                        - (selectedTimestamp - points.timestamps[i]) * (nextValue - selectedValue)
+                );
+                if (area > maxArea) {
+                    maxArea = area;
+                    selectedIndex = i;
+                }
+            }
+            select(points.timestamps[selectedIndex], points.values[selectedIndex]);
+        }
+
+        protected void select(long timestamp, double value) {
+            hasSelected = true;
+            selectedTimestamp = timestamp;
+            selectedValue = value;
+            result.add(new ValueDatapoint<>(timestamp, value));
+        }
+    }
+
+    protected static class Points {
+        protected long[] timestamps = new long[64];
+        protected double[] values = new double[64];
+        protected int size;
+
+        protected void add(long timestamp, double value) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            timestamps[size] = timestamp;
+            values[size] = value;
+            size++;
+        }
+
+        protected double getAverageTimestamp() {
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += timestamps[i];
+            }
+            return sum / size;
+        }
+
+        protected double getAverageValue() {
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += values[i];
+            }
+            return sum / size;
+        }
+
+        protected void clear() {
+            size = 0;
+        }
+    }
+}
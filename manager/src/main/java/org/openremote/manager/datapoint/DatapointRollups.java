@@ -0,0 +1,172 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.datapoint;
+
+import org.openremote.model.datapoint.DatapointInterval;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Collects the buckets touched by the numeric and boolean (as 1 or 0) values of stored datapoints and updates them in
+ * the hourly and daily rollup tables, which hold the count, sum, minimum, maximum, first and last value of each
+ * attribute per hour and per day. An hourly bucket is recomputed from the stored datapoints of the hour and a daily
+ * bucket from the hourly buckets of the day, so a batch of datapoints results in one upsert per attribute and bucket
+ * and a datapoint that is stored again with the same timestamp replaces its previous value instead of being counted
+ * again. The upserts must be executed after the datapoints have been written, in the same transaction.
+ * <p>
+ * Instances are not thread safe and should be used for a single transaction.
+ */
+public class DatapointRollups {
+
+    public static final String HOURLY_TABLE_NAME = "asset_datapoint_hourly";
+    public static final String DAILY_TABLE_NAME = "asset_datapoint_daily";
+    protected static final String COLUMNS = "(timestamp, entity_id, attribute_name, value_count, value_sum, value_min, value_max, first_timestamp, first_val, last_timestamp, last_val)";
+    protected static final String ON_CONFLICT_REPLACE = "ON CONFLICT (entity_id, attribute_name, timestamp) DO UPDATE SET " +
+        "value_count = excluded.value_count, " +
+        "value_sum = excluded.value_sum, " +
+        "value_min = excluded.value_min, " +
+        "value_max = excluded.value_max, " +
+        "first_timestamp = excluded.first_timestamp, " +
+        "first_val = excluded.first_val, " +
+        "last_timestamp = excluded.last_timestamp, " +
+        "last_val = excluded.last_val";
+
+    protected static class BucketKey {
+        protected final String assetId;
+        protected final String attributeName;
+        protected final LocalDateTime timestamp;
+
+        protected BucketKey(String assetId, String attributeName, LocalDateTime timestamp) {
+            this.assetId = assetId;
+            this.attributeName = attributeName;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            BucketKey that = (BucketKey) o;
+            return assetId.equals(that.assetId) && attributeName.equals(that.attributeName) && timestamp.equals(that.timestamp);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(assetId, attributeName, timestamp);
+        }
+    }
+
+    protected final String datapointSource;
+    protected final String datapointValue;
+    protected final Set<BucketKey> hourlyBuckets = new LinkedHashSet<>();
+    protected final Set<BucketKey> dailyBuckets = new LinkedHashSet<>();
+
+    /**
+     * @param datapointSource The table expression to read stored datapoints from, with <code>TIMESTAMP</code>,
+     *                        <code>ENTITY_ID</code> and <code>ATTRIBUTE_NAME</code> columns.
+     * @param datapointValue  The expression of the number value of a datapoint in the source, <code>null</code> if the
+     *                        value is not a number or boolean.
+     */
+    public DatapointRollups(String datapointSource, String datapointValue) {
+        this.datapointSource = datapointSource;
+        this.datapointValue = datapointValue;
+    }
+
+    /**
+     * @return The rollup table that can be used to aggregate values per interval of the given type, or
+     * <code>null</code> if the interval is shorter than an hour.
+     */
+    public static String getTableName(DatapointInterval datapointInterval) {
+        if (datapointInterval == null) {
+            return null;
+        }
+
+        switch (datapointInterval) {
+            case MINUTE:
+                return null;
+            case HOUR:
+                return HOURLY_TABLE_NAME;
+            default:
+                return DAILY_TABLE_NAME;
+        }
+    }
+
+    public void add(String assetId, String attributeName, Object value, LocalDateTime timestamp) {
+        if (AbstractDatapointService.getNumberValue(value) == null) {
+            return;
+        }
+
+        hourlyBuckets.add(new BucketKey(assetId, attributeName, timestamp.truncatedTo(ChronoUnit.HOURS)));
+        dailyBuckets.add(new BucketKey(assetId, attributeName, timestamp.truncatedTo(ChronoUnit.DAYS)));
+    }
+
+    public boolean isEmpty() {
+        return hourlyBuckets.isEmpty();
+    }
+
+    public void store(Connection connection) throws SQLException {
+        if (isEmpty()) {
+            return;
+        }
+
+        // Hourly buckets first as the daily buckets are built from them
+        store(connection, "INSERT INTO " + HOURLY_TABLE_NAME + " " + COLUMNS + " " +
+            "SELECT ?, ENTITY_ID, ATTRIBUTE_NAME, count(*), sum(V), min(V), max(V), " +
+            "min(TIMESTAMP), (array_agg(V order by TIMESTAMP asc))[1], " +
+            "max(TIMESTAMP), (array_agg(V order by TIMESTAMP desc))[1] " +
+            "FROM (SELECT TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME, " + datapointValue + " as V FROM " + datapointSource +
+            " WHERE ENTITY_ID = ? AND ATTRIBUTE_NAME = ? AND TIMESTAMP >= ? AND TIMESTAMP < ?) DP " +
+            "WHERE V is not null GROUP BY ENTITY_ID, ATTRIBUTE_NAME " +
+            ON_CONFLICT_REPLACE, hourlyBuckets, ChronoUnit.HOURS);
+
+        store(connection, "INSERT INTO " + DAILY_TABLE_NAME + " " + COLUMNS + " " +
+            "SELECT ?, ENTITY_ID, ATTRIBUTE_NAME, sum(VALUE_COUNT), sum(VALUE_SUM), min(VALUE_MIN), max(VALUE_MAX), " +
+            "min(FIRST_TIMESTAMP), (array_agg(FIRST_VAL order by FIRST_TIMESTAMP asc))[1], " +
+            "max(LAST_TIMESTAMP), (array_agg(LAST_VAL order by LAST_TIMESTAMP desc))[1] " +
+            "FROM " + HOURLY_TABLE_NAME +
+            " WHERE ENTITY_ID = ? AND ATTRIBUTE_NAME = ? AND TIMESTAMP >= ? AND TIMESTAMP < ? " +
+            "GROUP BY ENTITY_ID, ATTRIBUTE_NAME " +
+            ON_CONFLICT_REPLACE, dailyBuckets, ChronoUnit.DAYS);
+
+        hourlyBuckets.clear();
+        dailyBuckets.clear();
+    }
+
+    protected void store(Connection connection, String upsert, Set<BucketKey> buckets, ChronoUnit bucketUnit) throws SQLException {
+        try (PreparedStatement st = connection.prepareStatement(upsert)) {
+            for (BucketKey key : buckets) {
+                st.setObject(1, key.timestamp);
+                st.setString(2, key.assetId);
+                st.setString(3, key.attributeName);
+                st.setObject(4, key.timestamp);
+                st.setObject(5, key.timestamp.plus(1, bucketUnit));
+                st.addBatch();
+            }
+            st.executeBatch();
+        }
+    }
+}
@@ -25,6 +25,7 @@ import org.openremote.container.persistence.PersistenceEvent;
 import org.openremote.container.timer.TimerService;
 import org.openremote.manager.asset.AssetProcessingService;
 import org.openremote.manager.asset.AssetStorageService;
+import org.openremote.manager.datapoint.AbstractDatapointService;
 import org.openremote.manager.datapoint.AssetPredictedDatapointService;
 import org.openremote.manager.event.ClientEventService;
 import org.openremote.manager.gateway.GatewayService;
@@ -39,6 +40,7 @@ import org.openremote.model.attribute.AttributeExecuteStatus;
 import org.openremote.model.attribute.AttributeRef;
 import org.openremote.model.datapoint.DatapointInterval;
 import org.openremote.model.datapoint.ValueDatapoint;
+import org.openremote.model.datapoint.ValueDatapointSeries;
 import org.openremote.model.query.AssetQuery;
 import org.openremote.model.query.LogicGroup;
 import org.openremote.model.query.filter.AttributePredicate;
@@ -506,12 +508,16 @@ public class EnergyOptimisationService extends RouteBuilder implements Container
                 .types(ElectricityConsumerAsset.class, ElectricityProducerAsset.class)
                 .attributes(new AttributePredicate().name(new StringPredicate(ElectricityAsset.POWER.getName())))
         )
-            //.stream()
+            .stream()
             //.filter(asset -> !(asset instanceof GroupAsset) || isElectricityGroupAsset(asset))
-            .forEach(asset -> {
+            .map(asset -> {
                 @SuppressWarnings("OptionalGetWithoutIsPresent")
                 Attribute<Double> powerAttribute = asset.getAttribute(ElectricityAsset.POWER).get();
-                double[] powerLevels = get24HAttributeValues(asset.getId(), powerAttribute, optimiser.getIntervalSize(), intervalCount, optimisationTime);
+                return new Pair<>(asset.getId(), powerAttribute);
+            })
+            .collect(Collectors.collectingAndThen(Collectors.toList(), powerAttributes ->
+                get24HAttributeValues(powerAttributes, optimiser.getIntervalSize(), intervalCount, optimisationTime)))
+            .forEach(powerLevels -> {
                 IntStream.range(0, intervalCount).forEach(i -> powerNets[i] += powerLevels[i]);
                 count.incrementAndGet();
             });
@@ -557,10 +563,14 @@ public class EnergyOptimisationService extends RouteBuilder implements Container
                 }
                 return true;
             })
-            .forEach(asset -> {
+            .map(asset -> {
                 @SuppressWarnings("OptionalGetWithoutIsPresent")
                 Attribute<Double> powerAttribute = asset.getAttribute(ElectricityAsset.POWER).get();
-                double[] powerLevels = get24HAttributeValues(asset.getId(), powerAttribute, optimiser.getIntervalSize(), intervalCount, optimisationTime);
+                return new Pair<>(asset.getId(), powerAttribute);
+            })
+            .collect(Collectors.collectingAndThen(Collectors.toList(), powerAttributes ->
+                get24HAttributeValues(powerAttributes, optimiser.getIntervalSize(), intervalCount, optimisationTime)))
+            .forEach(powerLevels -> {
                 IntStream.range(0, intervalCount).forEach(i -> powerNets[i] += powerLevels[i]);
                 count.incrementAndGet();
             });
@@ -582,12 +592,22 @@ public class EnergyOptimisationService extends RouteBuilder implements Container
             financialWeightingExport = 1d;
         }
 
-        double[] costsImport = get24HAttributeValues(supplierAsset.getId(), supplierAsset.getAttribute(ElectricitySupplierAsset.TARIFF_IMPORT).orElse(null), optimiser.getIntervalSize(), intervalCount, optimisationTime);
-        double[] costsExport = get24HAttributeValues(supplierAsset.getId(), supplierAsset.getAttribute(ElectricitySupplierAsset.TARIFF_EXPORT).orElse(null), optimiser.getIntervalSize(), intervalCount, optimisationTime);
+        boolean carbonWeighting = financialWeightingImport < 1d || financialWeightingExport < 1d;
+        List<Pair<String, Attribute<Double>>> supplierAttributes = new ArrayList<>(Arrays.asList(
+            new Pair<>(supplierAsset.getId(), supplierAsset.getAttribute(ElectricitySupplierAsset.TARIFF_IMPORT).orElse(null)),
+            new Pair<>(supplierAsset.getId(), supplierAsset.getAttribute(ElectricitySupplierAsset.TARIFF_EXPORT).orElse(null))
+        ));
+        if (carbonWeighting) {
+            supplierAttributes.add(new Pair<>(supplierAsset.getId(), supplierAsset.getAttribute(ElectricitySupplierAsset.CARBON_IMPORT).orElse(null)));
+            supplierAttributes.add(new Pair<>(supplierAsset.getId(), supplierAsset.getAttribute(ElectricitySupplierAsset.CARBON_EXPORT).orElse(null)));
+        }
+        List<double[]> supplierValues = get24HAttributeValues(supplierAttributes, optimiser.getIntervalSize(), intervalCount, optimisationTime);
+        double[] costsImport = supplierValues.get(0);
+        double[] costsExport = supplierValues.get(1);
 
-        if (financialWeightingImport < 1d || financialWeightingExport < 1d) {
-            double[] carbonImport = get24HAttributeValues(supplierAsset.getId(), supplierAsset.getAttribute(ElectricitySupplierAsset.CARBON_IMPORT).orElse(null), optimiser.getIntervalSize(), intervalCount, optimisationTime);
-            double[] carbonExport = get24HAttributeValues(supplierAsset.getId(), supplierAsset.getAttribute(ElectricitySupplierAsset.CARBON_EXPORT).orElse(null), optimiser.getIntervalSize(), intervalCount, optimisationTime);
+        if (carbonWeighting) {
+            double[] carbonImport = supplierValues.get(2);
+            double[] carbonExport = supplierValues.get(3);
 
             LOG.finer(getLogPrefix(optimisationAssetId) + "Adjusting costs to include some carbon weighting, financialWeightingImport=" + financialWeightingImport + ", financialWeightingExport=" + financialWeightingExport);
 
@@ -764,6 +784,45 @@ public class EnergyOptimisationService extends RouteBuilder implements Container
     }
 
     protected double[] get24HAttributeValues(String assetId, Attribute<Double> attribute, double intervalSize, int intervalCount, Instant optimisationTime) {
+        return get24HAttributeValues(Collections.singletonList(new Pair<>(assetId, attribute)), intervalSize, intervalCount, optimisationTime).get(0);
+    }
+
+    /**
+     * Get the values of each interval of the next 24 hours for many attributes, the predicted datapoints of all
+     * attributes are retrieved with a single query per {@link AbstractDatapointService#MAX_QUERY_ATTRIBUTES} attributes.
+     */
+    protected List<double[]> get24HAttributeValues(List<Pair<String, Attribute<Double>>> attributes, double intervalSize, int intervalCount, Instant optimisationTime) {
+
+        List<Pair<String, Attribute<?>>> predictedAttributes = attributes.stream()
+            .filter(attribute -> attribute.value != null && attribute.value.hasMeta(MetaItemType.HAS_PREDICTED_DATA_POINTS))
+            .map(attribute -> new Pair<String, Attribute<?>>(attribute.key, attribute.value))
+            .collect(Collectors.toList());
+        Map<AttributeRef, ValueDatapoint<?>[]> predictedDatapoints = new HashMap<>();
+
+        if (!predictedAttributes.isEmpty()) {
+            LocalDateTime timestamp = LocalDateTime.ofInstant(optimisationTime, ZoneId.systemDefault());
+            for (int i = 0; i < predictedAttributes.size(); i += AbstractDatapointService.MAX_QUERY_ATTRIBUTES) {
+                ValueDatapointSeries[] series = assetPredictedDatapointService.getValueDatapoints(
+                    predictedAttributes.subList(i, Math.min(predictedAttributes.size(), i + AbstractDatapointService.MAX_QUERY_ATTRIBUTES)),
+                    DatapointInterval.MINUTE,
+                    (int)(intervalSize * 60),
+                    null,
+                    null,
+                    timestamp,
+                    timestamp.plus(24, HOURS).minus((long)(intervalSize * 60), ChronoUnit.MINUTES)
+                );
+                for (ValueDatapointSeries attributeSeries : series) {
+                    predictedDatapoints.put(attributeSeries.getRef(), attributeSeries.getDatapoints());
+                }
+            }
+        }
+
+        return attributes.stream()
+            .map(attribute -> get24HAttributeValues(attribute.key, attribute.value, intervalCount, predictedDatapoints))
+            .collect(Collectors.toList());
+    }
+
+    protected double[] get24HAttributeValues(String assetId, Attribute<Double> attribute, int intervalCount, Map<AttributeRef, ValueDatapoint<?>[]> predictedDatapoints) {
 
         double[] values = new double[intervalCount];
 
@@ -772,16 +831,9 @@ public class EnergyOptimisationService extends RouteBuilder implements Container
         }
 
         AttributeRef ref = new AttributeRef(assetId, attribute.getName());
+        ValueDatapoint<?>[] predictedData = predictedDatapoints.get(ref);
 
-        if (attribute.hasMeta(MetaItemType.HAS_PREDICTED_DATA_POINTS)) {
-            LocalDateTime timestamp = LocalDateTime.ofInstant(optimisationTime, ZoneId.systemDefault());
-            ValueDatapoint<?>[] predictedData = assetPredictedDatapointService.getValueDatapoints(
-                ref,
-                DatapointInterval.MINUTE,
-                (int)(intervalSize * 60),
-                timestamp,
-                timestamp.plus(24, HOURS).minus((long)(intervalSize * 60), ChronoUnit.MINUTES)
-            );
+        if (predictedData != null) {
             if (predictedData.length != values.length) {
                 LOG.warning("Returned predicted data point count does not match interval count: Ref=" + ref + ", expected=" + values.length + ", actual=" + predictedData.length);
             } else {
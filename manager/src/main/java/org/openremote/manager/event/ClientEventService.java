@@ -21,6 +21,7 @@ package org.openremote.manager.event;
 
 import org.apache.camel.Exchange;
 import org.apache.camel.builder.RouteBuilder;
+import org.openremote.container.concurrent.ContainerExecutor;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.security.AuthContext;
 import org.openremote.container.timer.TimerService;
@@ -39,12 +40,17 @@ import javax.websocket.CloseReason;
 import javax.websocket.Session;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static org.apache.camel.builder.Builder.header;
 import static org.apache.camel.builder.PredicateBuilder.or;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.container.web.ConnectionConstants.SESSION;
 
 /**
@@ -87,6 +93,12 @@ import static org.openremote.container.web.ConnectionConstants.SESSION;
  * <dd><p>
  * The payload is an array of {@link SharedEvent}s.
  * </p></dd>
+ * <dt><code>TRIGGERED:{...}</code></dt>
+ * <dd><p>
+ * The payload is a serialized representation of {@link org.openremote.model.event.TriggeredEventSubscription} with
+ * the events matching a subscription; a subscription with an {@link EventDeliveryPolicy} receives its buffered events
+ * in batches.
+ * </p></dd>
  * </dl>
  */
 public class ClientEventService implements ContainerService {
@@ -116,6 +128,19 @@ public class ClientEventService implements ContainerService {
 
     public static final String CLIENT_EVENT_QUEUE = "seda://ClientEventQueue?multipleConsumers=false&waitForTaskToComplete=NEVER&purgeWhenStopping=true&discardIfNoConsumers=true&size=25000";
 
+    // Interval of delivering the buffered events of subscriptions with an EventDeliveryPolicy
+    public static final String EVENT_BUFFER_FLUSH_INTERVAL_MILLIS = "EVENT_BUFFER_FLUSH_INTERVAL_MILLIS";
+    public static final int EVENT_BUFFER_FLUSH_INTERVAL_MILLIS_DEFAULT = 100;
+    // Server limits of the buffer size and the time between deliveries requested by an EventDeliveryPolicy
+    public static final String EVENT_BUFFER_MAX_SIZE = "EVENT_BUFFER_MAX_SIZE";
+    public static final int EVENT_BUFFER_MAX_SIZE_DEFAULT = 1000;
+    public static final String EVENT_BUFFER_MAX_RATE_MILLIS = "EVENT_BUFFER_MAX_RATE_MILLIS";
+    public static final int EVENT_BUFFER_MAX_RATE_MILLIS_DEFAULT = 60000;
+    // Threads delivering buffered events, deliveries are rejected and retried when all threads are busy
+    public static final String EVENT_BUFFER_DELIVERY_THREADS = "EVENT_BUFFER_DELIVERY_THREADS";
+    public static final int EVENT_BUFFER_DELIVERY_THREADS_DEFAULT = 2;
+    public static final int EVENT_BUFFER_DELIVERY_QUEUE_SIZE = 1000;
+
     final protected Collection<EventSubscriptionAuthorizer> eventSubscriptionAuthorizers = new CopyOnWriteArraySet<>();
     final protected Collection<Consumer<Exchange>> exchangeInterceptors = new CopyOnWriteArraySet<>();
     protected Map<String, SessionInfo> sessionKeyInfoMap = new HashMap<>();
@@ -126,6 +151,11 @@ public class ClientEventService implements ContainerService {
     protected GatewayService gatewayService;
     protected Set<EventSubscription<?>> pendingInternalSubscriptions;
     protected boolean stopped;
+    protected ScheduledExecutorService executorService;
+    protected int eventBufferFlushIntervalMillis;
+    protected ScheduledFuture<?> eventBufferFlushFuture;
+    protected int eventBufferDeliveryThreads;
+    protected ContainerExecutor eventBufferDeliveryExecutor;
 
     /**
      * Method to stop further processing of the exchange
@@ -161,9 +191,15 @@ public class ClientEventService implements ContainerService {
         messageBrokerService = container.getService(MessageBrokerService.class);
         identityService = container.getService(ManagerIdentityService.class);
         gatewayService = container.getService(GatewayService.class);
+        executorService = container.getExecutorService();
+        eventBufferFlushIntervalMillis = getInteger(container.getConfig(), EVENT_BUFFER_FLUSH_INTERVAL_MILLIS, EVENT_BUFFER_FLUSH_INTERVAL_MILLIS_DEFAULT);
+
+        eventBufferDeliveryThreads = Math.max(1, getInteger(container.getConfig(), EVENT_BUFFER_DELIVERY_THREADS, EVENT_BUFFER_DELIVERY_THREADS_DEFAULT));
 
         eventSubscriptions = new EventSubscriptions(
-            container.getService(TimerService.class)
+            container.getService(TimerService.class),
+            Math.max(1, getInteger(container.getConfig(), EVENT_BUFFER_MAX_SIZE, EVENT_BUFFER_MAX_SIZE_DEFAULT)),
+            Math.max(0, getInteger(container.getConfig(), EVENT_BUFFER_MAX_RATE_MILLIS, EVENT_BUFFER_MAX_RATE_MILLIS_DEFAULT))
         );
 
         messageBrokerService.getContext().getTypeConverterRegistry().addTypeConverters(
@@ -319,11 +355,32 @@ public class ClientEventService implements ContainerService {
     @Override
     public void start(Container container) {
         stopped = false;
+        // Deliveries can block on slow sessions so they don't run on the shared scheduler
+        eventBufferDeliveryExecutor = new ContainerExecutor(
+            "Event buffer delivery",
+            eventBufferDeliveryThreads,
+            EVENT_BUFFER_DELIVERY_QUEUE_SIZE,
+            new ThreadPoolExecutor.AbortPolicy()
+        );
+        eventBufferFlushFuture = executorService.scheduleAtFixedRate(
+            () -> eventSubscriptions.flushBuffers(eventBufferDeliveryExecutor, this::sendToSession),
+            eventBufferFlushIntervalMillis,
+            eventBufferFlushIntervalMillis,
+            TimeUnit.MILLISECONDS
+        );
     }
 
     @Override
     public void stop(Container container) {
         stopped = true;
+        if (eventBufferFlushFuture != null) {
+            eventBufferFlushFuture.cancel(false);
+            eventBufferFlushFuture = null;
+        }
+        if (eventBufferDeliveryExecutor != null) {
+            eventBufferDeliveryExecutor.shutdownNow();
+            eventBufferDeliveryExecutor = null;
+        }
     }
 
     public void addExchangeInterceptor(Consumer<Exchange> exchangeInterceptor) throws RuntimeException {
@@ -361,6 +418,7 @@ public class ClientEventService implements ContainerService {
             if (!(event instanceof SyslogEvent)) {
                 LOG.finer("Publishing: " + event);
             }
+            messageBrokerService.getQueueBackpressure(CLIENT_EVENT_QUEUE).await();
             messageBrokerService.getProducerTemplate()
                 .sendBodyAndHeader(CLIENT_EVENT_QUEUE, event, HEADER_ACCESS_RESTRICTED, accessRestricted);
         }
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.event;
+
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.event.shared.EventDeliveryPolicy;
+import org.openremote.model.event.shared.SharedEvent;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Buffers the events matching a subscription with an {@link EventDeliveryPolicy} until they are delivered. Only one
+ * delivery is in progress at a time; events arriving in the meantime are buffered, bounded by the maximum buffer
+ * size of the policy by dropping the oldest events. The maximum buffer size and rate of the policy are requested by
+ * the client, so they are clamped to the limits of the server.
+ */
+public class EventSubscriptionBuffer {
+
+    protected final EventDeliveryPolicy policy;
+    protected final int maxBufferSize;
+    protected final long maxRateMillis;
+    protected final Map<Object, SharedEvent> events = new LinkedHashMap<>();
+    protected long sequence;
+    protected long lastDeliveryMillis;
+    protected boolean delivering;
+    protected long droppedCount;
+
+    public EventSubscriptionBuffer(EventDeliveryPolicy policy) {
+        this(policy, EventDeliveryPolicy.DEFAULT_MAX_BUFFER_SIZE, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxBufferSizeLimit The largest maximum buffer size a policy may request.
+     * @param maxRateMillisLimit The longest time between deliveries a policy may request.
+     */
+    public EventSubscriptionBuffer(EventDeliveryPolicy policy, int maxBufferSizeLimit, long maxRateMillisLimit) {
+        this.policy = policy;
+        this.maxBufferSize = policy.getMaxBufferSize() != null && policy.getMaxBufferSize() > 0
+            ? Math.min(policy.getMaxBufferSize(), maxBufferSizeLimit)
+            : Math.min(EventDeliveryPolicy.DEFAULT_MAX_BUFFER_SIZE, maxBufferSizeLimit);
+        this.maxRateMillis = policy.getMaxRateMillis() != null && policy.getMaxRateMillis() > 0
+            ? Math.min(policy.getMaxRateMillis(), maxRateMillisLimit)
+            : 0;
+    }
+
+    public synchronized void add(SharedEvent event) {
+        Object key = policy.isCoalesce() && event instanceof AttributeEvent
+            ? ((AttributeEvent) event).getAttributeRef()
+            : sequence++;
+
+        // Latest value wins and moves to the end
+        events.remove(key);
+        events.put(key, event);
+        trim();
+    }
+
+    /**
+     * Put the drained events of a delivery that couldn't be started back in front of the events buffered since, and
+     * end the delivery.
+     */
+    public synchronized void restore(List<SharedEvent> drainedEvents) {
+        Map<Object, SharedEvent> bufferedEvents = new LinkedHashMap<>(events);
+        events.clear();
+        drainedEvents.forEach(event -> events.put(policy.isCoalesce() && event instanceof AttributeEvent
+            ? ((AttributeEvent) event).getAttributeRef()
+            : sequence++, event));
+        // Newer events of the same key replace the restored ones
+        bufferedEvents.forEach((key, event) -> {
+            events.remove(key);
+            events.put(key, event);
+        });
+        trim();
+        delivering = false;
+    }
+
+    protected void trim() {
+        Iterator<SharedEvent> iterator = events.values().iterator();
+        while (events.size() > maxBufferSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            droppedCount++;
+        }
+    }
+
+    /**
+     * @return The buffered events if a delivery is due, the buffer is then marked as delivering until
+     * {@link #delivered} is called; otherwise <code>null</code>.
+     */
+    public synchronized List<SharedEvent> drainIfDue(long currentMillis) {
+        if (delivering || events.isEmpty()) {
+            return null;
+        }
+        if (currentMillis - lastDeliveryMillis < maxRateMillis) {
+            return null;
+        }
+
+        List<SharedEvent> result = new ArrayList<>(events.values());
+        events.clear();
+        lastDeliveryMillis = currentMillis;
+        delivering = true;
+        return result;
+    }
+
+    public synchronized void delivered() {
+        delivering = false;
+    }
+
+    public synchronized int size() {
+        return events.size();
+    }
+
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    public long getMaxRateMillis() {
+        return maxRateMillis;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "{" +
+            "policy=" + policy +
+            ", size=" + events.size() +
+            ", delivering=" + delivering +
+            ", droppedCount=" + droppedCount +
+            '}';
+    }
+}
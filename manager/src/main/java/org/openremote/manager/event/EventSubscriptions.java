@@ -24,26 +24,51 @@ import org.apache.camel.Message;
 import org.apache.camel.impl.DefaultMessage;
 import org.openremote.container.timer.TimerService;
 import org.openremote.container.web.ConnectionConstants;
+import org.openremote.model.asset.AssetFilter;
 import org.openremote.model.event.TriggeredEventSubscription;
+import org.openremote.model.event.shared.AssetInfo;
 import org.openremote.model.event.shared.CancelEventSubscription;
+import org.openremote.model.event.shared.EventDeliveryPolicy;
 import org.openremote.model.event.shared.EventSubscription;
 import org.openremote.model.event.shared.SharedEvent;
 import org.openremote.model.util.TextUtil;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.logging.Logger;
 
 /**
  * Manages subscriptions to events for WebSocket sessions.
+ * <p>
+ * Subscriptions are indexed by event type and by the most selective criteria of their {@link AssetFilter} (asset ID,
+ * parent ID, path, attribute name or realm), so that an event is only matched against the subscriptions that can
+ * possibly match it. The index is modified while holding the lock of the session subscriptions and read without
+ * locking.
  */
 public class EventSubscriptions {
 
     private static final Logger LOG = Logger.getLogger(EventSubscriptions.class.getName());
 
     final protected TimerService timerService;
+    final protected int maxBufferSizeLimit;
+    final protected long maxRateMillisLimit;
     final protected Map<String, SessionSubscriptions> sessionSubscriptionIdMap = new HashMap<>();
+    final protected Map<String, EventTypeSubscriptions> eventTypeSubscriptionsMap = new ConcurrentHashMap<>();
+    final protected Set<SessionSubscription> bufferedSubscriptions = ConcurrentHashMap.newKeySet();
 
     class SessionSubscriptions extends HashSet<SessionSubscription> {
+        final String sessionKey;
+
+        SessionSubscriptions(String sessionKey) {
+            this.sessionKey = sessionKey;
+        }
+
         public void createOrUpdate(boolean restrictedUser, EventSubscription<?> eventSubscription) {
 
             if (TextUtil.isNullOrEmpty(eventSubscription.getSubscriptionId())) {
@@ -52,7 +77,13 @@ public class EventSubscriptions {
                 cancelById(eventSubscription.getSubscriptionId());
             }
 
-            add(new SessionSubscription(restrictedUser, timerService.getCurrentTimeMillis(), eventSubscription));
+            SessionSubscription sessionSubscription = new SessionSubscription(sessionKey, restrictedUser, timerService.getCurrentTimeMillis(), eventSubscription);
+            add(sessionSubscription);
+            if (sessionSubscription.buffer != null) {
+                bufferedSubscriptions.add(sessionSubscription);
+            }
+            eventTypeSubscriptionsMap.computeIfAbsent(eventSubscription.getEventType(), eventType -> new EventTypeSubscriptions())
+                .add(sessionSubscription);
         }
 
         public void update(boolean resstrictedUser, String[] subscriptionIds) {
@@ -66,25 +97,88 @@ public class EventSubscriptions {
         }
 
         public void cancelByType(String eventType) {
-            removeIf(sessionSubscription -> sessionSubscription.subscriptionId == null && sessionSubscription.subscription.getEventType().equals(eventType));
+            cancelIf(sessionSubscription -> sessionSubscription.subscriptionId == null && sessionSubscription.subscription.getEventType().equals(eventType));
         }
 
         public void cancelById(String subscriptionId) {
-            removeIf(sessionSubscription -> sessionSubscription.subscription.getSubscriptionId().equals(subscriptionId));
+            cancelIf(sessionSubscription -> sessionSubscription.subscription.getSubscriptionId().equals(subscriptionId));
+        }
+
+        public void cancelAll() {
+            cancelIf(sessionSubscription -> true);
+        }
+
+        protected void cancelIf(Predicate<SessionSubscription> predicate) {
+            removeIf(sessionSubscription -> {
+                if (!predicate.test(sessionSubscription)) {
+                    return false;
+                }
+                bufferedSubscriptions.remove(sessionSubscription);
+                EventTypeSubscriptions eventTypeSubscriptions = eventTypeSubscriptionsMap.get(sessionSubscription.subscription.getEventType());
+                if (eventTypeSubscriptions != null) {
+                    eventTypeSubscriptions.remove(sessionSubscription);
+                }
+                return true;
+            });
         }
     }
 
+    /**
+     * The criteria of an {@link AssetFilter} a subscription is indexed by, in order of selectivity.
+     */
+    enum IndexKey {
+        ASSET_ID,
+        PARENT_ID,
+        PATH,
+        ATTRIBUTE_NAME,
+        REALM
+    }
+
     class SessionSubscription {
-        boolean restrictedUser;
-        long timestamp;
+        final String sessionKey;
+        volatile boolean restrictedUser;
+        volatile long timestamp;
         final EventSubscription subscription;
         final String subscriptionId;
+        final IndexKey indexKey;
+        final String[] indexValues;
+        final EventSubscriptionBuffer buffer;
 
-        public SessionSubscription(boolean restrictedUser, long timestamp, EventSubscription subscription) {
+        public SessionSubscription(String sessionKey, boolean restrictedUser, long timestamp, EventSubscription subscription) {
+            this.sessionKey = sessionKey;
             this.restrictedUser = restrictedUser;
             this.timestamp = timestamp;
             this.subscription = subscription;
             this.subscriptionId = subscription.getSubscriptionId();
+            this.buffer = subscription.getDeliveryPolicy() != null
+                ? new EventSubscriptionBuffer(subscription.getDeliveryPolicy(), maxBufferSizeLimit, maxRateMillisLimit)
+                : null;
+
+            IndexKey indexKey = null;
+            String[] indexValues = null;
+
+            if (subscription.getFilter() instanceof AssetFilter) {
+                AssetFilter<?> filter = (AssetFilter<?>) subscription.getFilter();
+                if (filter.getAssetIds() != null && filter.getAssetIds().length > 0) {
+                    indexKey = IndexKey.ASSET_ID;
+                    indexValues = filter.getAssetIds();
+                } else if (filter.getParentIds() != null && filter.getParentIds().length > 0) {
+                    indexKey = IndexKey.PARENT_ID;
+                    indexValues = filter.getParentIds();
+                } else if (filter.getPath() != null && filter.getPath().length > 0) {
+                    indexKey = IndexKey.PATH;
+                    indexValues = filter.getPath();
+                } else if (filter.getAttributeNames() != null && filter.getAttributeNames().length > 0) {
+                    indexKey = IndexKey.ATTRIBUTE_NAME;
+                    indexValues = filter.getAttributeNames();
+                } else if (!TextUtil.isNullOrEmpty(filter.getRealm())) {
+                    indexKey = IndexKey.REALM;
+                    indexValues = new String[] {filter.getRealm()};
+                }
+            }
+
+            this.indexKey = indexKey;
+            this.indexValues = indexValues;
         }
 
         public boolean matches(boolean accessibleForRestrictedUsers, SharedEvent event) {
@@ -92,9 +186,100 @@ public class EventSubscriptions {
         }
     }
 
+    /**
+     * The subscriptions to a single event type; subscriptions without an indexable {@link AssetFilter} are candidates
+     * for every event, all others only for events with matching {@link AssetInfo}.
+     */
+    static class EventTypeSubscriptions {
+        final List<SessionSubscription> unindexed = new CopyOnWriteArrayList<>();
+        final Map<IndexKey, Map<String, List<SessionSubscription>>> indexed = new EnumMap<>(IndexKey.class);
+
+        EventTypeSubscriptions() {
+            // Populated once so the map itself is never modified after construction
+            for (IndexKey indexKey : IndexKey.values()) {
+                indexed.put(indexKey, new ConcurrentHashMap<>());
+            }
+        }
+
+        void add(SessionSubscription sessionSubscription) {
+            if (sessionSubscription.indexKey == null) {
+                unindexed.add(sessionSubscription);
+                return;
+            }
+            Map<String, List<SessionSubscription>> index = indexed.get(sessionSubscription.indexKey);
+            for (String indexValue : sessionSubscription.indexValues) {
+                if (indexValue != null) {
+                    index.computeIfAbsent(indexValue, value -> new CopyOnWriteArrayList<>()).add(sessionSubscription);
+                }
+            }
+        }
+
+        void remove(SessionSubscription sessionSubscription) {
+            if (sessionSubscription.indexKey == null) {
+                unindexed.remove(sessionSubscription);
+                return;
+            }
+            Map<String, List<SessionSubscription>> index = indexed.get(sessionSubscription.indexKey);
+            for (String indexValue : sessionSubscription.indexValues) {
+                if (indexValue != null) {
+                    index.computeIfPresent(indexValue, (value, subscriptions) -> {
+                        subscriptions.remove(sessionSubscription);
+                        return subscriptions.isEmpty() ? null : subscriptions;
+                    });
+                }
+            }
+        }
+
+        /**
+         * @return The subscriptions that can match the event, each subscription at most once.
+         */
+        Collection<SessionSubscription> getCandidates(SharedEvent event) {
+            if (!(event instanceof AssetInfo)) {
+                return unindexed;
+            }
+
+            AssetInfo assetInfo = (AssetInfo) event;
+            Set<SessionSubscription> candidates = new LinkedHashSet<>(unindexed);
+            addCandidates(candidates, IndexKey.ASSET_ID, assetInfo.getAssetId());
+            addCandidates(candidates, IndexKey.PARENT_ID, assetInfo.getParentId());
+            addCandidates(candidates, IndexKey.REALM, assetInfo.getRealm());
+            if (assetInfo.getPath() != null) {
+                for (String pathElement : assetInfo.getPath()) {
+                    addCandidates(candidates, IndexKey.PATH, pathElement);
+                }
+            }
+            if (assetInfo.getAttributeNames() != null) {
+                for (String attributeName : assetInfo.getAttributeNames()) {
+                    addCandidates(candidates, IndexKey.ATTRIBUTE_NAME, attributeName);
+                }
+            }
+            return candidates;
+        }
+
+        protected void addCandidates(Set<SessionSubscription> candidates, IndexKey indexKey, String indexValue) {
+            if (indexValue == null) {
+                return;
+            }
+            List<SessionSubscription> subscriptions = indexed.get(indexKey).get(indexValue);
+            if (subscriptions != null) {
+                candidates.addAll(subscriptions);
+            }
+        }
+    }
+
     public EventSubscriptions(TimerService timerService) {
+        this(timerService, EventDeliveryPolicy.DEFAULT_MAX_BUFFER_SIZE, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxBufferSizeLimit The largest buffer size an {@link EventDeliveryPolicy} of a subscription may request.
+     * @param maxRateMillisLimit The longest time between deliveries an {@link EventDeliveryPolicy} may request.
+     */
+    public EventSubscriptions(TimerService timerService, int maxBufferSizeLimit, long maxRateMillisLimit) {
         LOG.info("Starting background task checking for expired event subscriptions from clients");
         this.timerService = timerService;
+        this.maxBufferSizeLimit = maxBufferSizeLimit;
+        this.maxRateMillisLimit = maxRateMillisLimit;
     }
 
     public void createOrUpdate(String sessionKey, boolean restrictedUser, EventSubscription<?> subscription) {
@@ -102,7 +287,7 @@ public class EventSubscriptions {
             // TODO Check if the user can actually subscribe to the events it wants, how do we do that?
             LOG.finer("For session '" + sessionKey + "', creating/updating: " + subscription);
             SessionSubscriptions sessionSubscriptions =
-                this.sessionSubscriptionIdMap.computeIfAbsent(sessionKey, k -> new SessionSubscriptions());
+                this.sessionSubscriptionIdMap.computeIfAbsent(sessionKey, SessionSubscriptions::new);
             sessionSubscriptions.createOrUpdate(restrictedUser, subscription);
         }
     }
@@ -142,7 +327,7 @@ public class EventSubscriptions {
         synchronized (this.sessionSubscriptionIdMap) {
             if (this.sessionSubscriptionIdMap.containsKey(sessionKey)) {
                 LOG.finer("Cancelling all subscriptions for session: " + sessionKey);
-                this.sessionSubscriptionIdMap.remove(sessionKey);
+                this.sessionSubscriptionIdMap.remove(sessionKey).cancelAll();
             }
         }
     }
@@ -156,41 +341,89 @@ public class EventSubscriptions {
 
         boolean accessibleForRestrictedUsers = exchange.getIn().getHeader(ClientEventService.HEADER_ACCESS_RESTRICTED, false, Boolean.class);
 
-        Set<Map.Entry<String, SessionSubscriptions>> sessionSubscriptionsSet;
-        synchronized (this.sessionSubscriptionIdMap) {
-            sessionSubscriptionsSet = new HashSet<>(sessionSubscriptionIdMap.entrySet());
-        }
+        EventTypeSubscriptions eventTypeSubscriptions = eventTypeSubscriptionsMap.get(event.getEventType());
+        if (eventTypeSubscriptions == null)
+            return messageList;
+
+        // Serialised at most once for all sessions
+        SharedTriggeredEventSubscription.SharedEvents<SharedEvent> sharedEvents =
+            new SharedTriggeredEventSubscription.SharedEvents<>(Collections.singletonList(event));
 
-        for (Map.Entry<String, SessionSubscriptions> entry : sessionSubscriptionsSet) {
-            String sessionKey = entry.getKey();
-            SessionSubscriptions subscriptions = entry.getValue();
+        for (SessionSubscription sessionSubscription : eventTypeSubscriptions.getCandidates(event)) {
 
-            for (SessionSubscription sessionSubscription : subscriptions) {
+            if (!sessionSubscription.matches(accessibleForRestrictedUsers, event))
+                continue;
 
-                if (!sessionSubscription.matches(accessibleForRestrictedUsers, event))
+            if (sessionSubscription.subscription.getFilter() == null
+                || sessionSubscription.subscription.getFilter().apply(event)) {
+                if (sessionSubscription.buffer != null) {
+                    // Delivered by flushBuffers
+                    sessionSubscription.buffer.add(event);
                     continue;
+                }
+
+                String sessionKey = sessionSubscription.sessionKey;
+                LOG.finer("Creating message for subscribed session '" + sessionKey + "': " + event);
 
-                if (sessionSubscription.subscription.getFilter() == null
-                    || sessionSubscription.subscription.getFilter().apply(event)) {
-                    LOG.finer("Creating message for subscribed session '" + sessionKey + "': " + event);
-                    List<SharedEvent> events = Collections.singletonList(event);
-                    TriggeredEventSubscription<?> triggeredEventSubscription = new TriggeredEventSubscription<>(events, sessionSubscription.subscriptionId);
-
-                    if (sessionSubscription.subscription.getInternalConsumer() == null) {
-                        Message msg = new DefaultMessage();
-                        msg.setBody(triggeredEventSubscription); // Don't copy the event, use same reference
-                        msg.setHeaders(new HashMap<>(exchange.getIn().getHeaders())); // Copy headers
-                        msg.setHeader(ConnectionConstants.SESSION_KEY, sessionKey);
-                        messageList.add(msg);
+                if (sessionSubscription.subscription.getInternalConsumer() == null) {
+                    Message msg = new DefaultMessage();
+                    // Don't copy the event, use same reference and serialised form
+                    msg.setBody(new SharedTriggeredEventSubscription<>(sharedEvents, sessionSubscription.subscriptionId));
+                    // Only the session key is used when sending to the session
+                    msg.setHeader(ConnectionConstants.SESSION_KEY, sessionKey);
+                    messageList.add(msg);
+                } else {
+                    Consumer<SharedEvent> internalConsumer = sessionSubscription.subscription.getInternalConsumer();
+                    if (internalConsumer instanceof SharedEventConsumer) {
+                        ((SharedEventConsumer<SharedEvent>) internalConsumer).accept(event, sharedEvents);
                     } else {
-                        if (triggeredEventSubscription.getEvents() != null) {
-                            triggeredEventSubscription.getEvents().forEach(ev ->
-                                sessionSubscription.subscription.getInternalConsumer().accept(ev));
-                        }
+                        internalConsumer.accept(event);
                     }
                 }
             }
         }
         return messageList;
     }
+
+    /**
+     * Drain the buffers of subscriptions with an {@link EventDeliveryPolicy} that are due and deliver their events as
+     * a single {@link TriggeredEventSubscription} on the executor, so a slow session only delays delivery to itself.
+     * Internal subscriptions are delivered to their consumer instead. If the executor rejects a delivery the events
+     * are put back in the buffer.
+     */
+    public void flushBuffers(Executor executor, BiConsumer<String, TriggeredEventSubscription<?>> delivery) {
+        long currentMillis = timerService.getCurrentTimeMillis();
+
+        for (SessionSubscription sessionSubscription : bufferedSubscriptions) {
+            EventSubscriptionBuffer buffer = sessionSubscription.buffer;
+            List<SharedEvent> events = buffer.drainIfDue(currentMillis);
+            if (events == null) {
+                continue;
+            }
+
+            try {
+                executor.execute(() -> {
+                    try {
+                        deliver(sessionSubscription, events, delivery);
+                    } finally {
+                        buffer.delivered();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Retried on the next flush
+                buffer.restore(events);
+                LOG.fine("Buffered event delivery rejected for session '" + sessionSubscription.sessionKey + "'");
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected void deliver(SessionSubscription sessionSubscription, List<SharedEvent> events, BiConsumer<String, TriggeredEventSubscription<?>> delivery) {
+        if (sessionSubscription.subscription.getInternalConsumer() != null) {
+            events.forEach(event -> sessionSubscription.subscription.getInternalConsumer().accept(event));
+        } else {
+            LOG.finer("Delivering " + events.size() + " buffered event(s) to session '" + sessionSubscription.sessionKey + "'");
+            delivery.accept(sessionSubscription.sessionKey, new TriggeredEventSubscription<>(events, sessionSubscription.subscriptionId));
+        }
+    }
 }
@@ -67,6 +67,9 @@ public class EventTypeConverters implements TypeConverters {
 
     @Converter
     public String writeTriggeredEventSubscription(TriggeredEventSubscription triggeredEventSubscription, Exchange exchange) throws Exception {
+        if (triggeredEventSubscription instanceof SharedTriggeredEventSubscription) {
+            return ((SharedTriggeredEventSubscription<?>) triggeredEventSubscription).writeMessage();
+        }
         return TriggeredEventSubscription.MESSAGE_PREFIX + ValueUtil.JSON.writeValueAsString(triggeredEventSubscription);
     }
 
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.event;
+
+import org.openremote.model.event.shared.SharedEvent;
+
+import java.util.function.Consumer;
+
+/**
+ * An internal consumer of an {@link org.openremote.model.event.shared.EventSubscription} that is also given the
+ * {@link SharedTriggeredEventSubscription.SharedEvents} of the publish that triggered it, so consumers called in turn
+ * for the same event can share work such as serialisation. The shared events are <code>null</code> when the event
+ * is delivered on its own, e.g. from a buffered subscription.
+ */
+@FunctionalInterface
+public interface SharedEventConsumer<T extends SharedEvent> extends Consumer<T> {
+
+    void accept(T event, SharedTriggeredEventSubscription.SharedEvents<? extends SharedEvent> sharedEvents);
+
+    @Override
+    default void accept(T event) {
+        accept(event, null);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.event;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.openremote.model.event.TriggeredEventSubscription;
+import org.openremote.model.event.shared.SharedEvent;
+import org.openremote.model.util.ValueUtil;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A {@link TriggeredEventSubscription} that shares its events with the subscriptions of all other sessions the events
+ * are delivered to; the events are serialised at most once and only the envelope with the subscription ID is written
+ * per session.
+ */
+public class SharedTriggeredEventSubscription<T extends SharedEvent> extends TriggeredEventSubscription<T> {
+
+    /**
+     * The shared events and their lazily serialised JSON array; payloads derived from the events by
+     * {@link SharedEventConsumer}s are memoised for the duration of the publish.
+     */
+    public static class SharedEvents<T extends SharedEvent> {
+        protected final List<T> events;
+        protected volatile String json;
+        protected Map<Object, byte[]> payloads;
+
+        public SharedEvents(List<T> events) {
+            this.events = events;
+        }
+
+        public List<T> getEvents() {
+            return events;
+        }
+
+        public String getJson() throws JsonProcessingException {
+            String result = json;
+            if (result == null) {
+                // Benign race, concurrent writers produce the same value
+                result = ValueUtil.JSON.writeValueAsString(events);
+                json = result;
+            }
+            return result;
+        }
+
+        /**
+         * @return The payload of the data created by the serialiser, consumers passing the same data instance get
+         * the same payload.
+         */
+        public synchronized byte[] getPayload(Object data, Function<Object, byte[]> serialiser) {
+            if (data == null) {
+                return serialiser.apply(null);
+            }
+            if (payloads == null) {
+                payloads = new IdentityHashMap<>(2);
+            }
+            return payloads.computeIfAbsent(data, serialiser);
+        }
+    }
+
+    protected final SharedEvents<T> sharedEvents;
+
+    public SharedTriggeredEventSubscription(SharedEvents<T> sharedEvents, String subscriptionId) {
+        super(sharedEvents.getEvents(), subscriptionId);
+        this.sharedEvents = sharedEvents;
+    }
+
+    /**
+     * @return The same message as the JSON serialisation of a {@link TriggeredEventSubscription} prefixed with
+     * {@link #MESSAGE_PREFIX}.
+     */
+    public String writeMessage() throws JsonProcessingException {
+        String eventsJson = sharedEvents.getJson();
+        String subscriptionIdJson = subscriptionId != null ? ValueUtil.JSON.writeValueAsString(subscriptionId) : null;
+
+        StringBuilder sb = new StringBuilder(
+            MESSAGE_PREFIX.length() + eventsJson.length() + (subscriptionIdJson != null ? subscriptionIdJson.length() : 0) + 32
+        );
+        sb.append(MESSAGE_PREFIX).append("{\"events\":").append(eventsJson);
+        if (subscriptionIdJson != null) {
+            sb.append(",\"subscriptionId\":").append(subscriptionIdJson);
+        }
+        return sb.append('}').toString();
+    }
+}
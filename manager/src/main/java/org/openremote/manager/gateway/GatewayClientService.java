@@ -46,11 +46,17 @@ import org.openremote.model.event.shared.TenantFilter;
 import org.openremote.model.gateway.GatewayConnection;
 import org.openremote.model.gateway.GatewayConnectionStatusEvent;
 import org.openremote.model.gateway.GatewayDisconnectEvent;
+import org.openremote.model.gateway.GatewaySyncDigestEvent;
+import org.openremote.model.gateway.GatewaySyncDigestRequestEvent;
 import org.openremote.model.query.AssetQuery;
 import org.openremote.model.query.filter.TenantPredicate;
 import org.openremote.model.syslog.SyslogCategory;
 import org.openremote.model.util.ValueUtil;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.logging.Level;
@@ -58,17 +64,31 @@ import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
+import static org.openremote.container.util.MapAccess.getInteger;
+import static org.openremote.container.util.MapAccess.getString;
 import static org.openremote.container.persistence.PersistenceEvent.isPersistenceEventForEntityType;
 import static org.openremote.model.syslog.SyslogCategory.GATEWAY;
 
 /**
  * Handles outbound connections to central managers
+ * <p>
+ * Events are sent to the central manager through a {@link GatewayEventBuffer} per connection, which can batch attribute
+ * events (see {@link #GATEWAY_EVENT_BATCH_WINDOW_MILLIS}) and buffer them on disk whilst disconnected (see
+ * {@link #GATEWAY_EVENT_BUFFER_PATH}).
  */
 public class GatewayClientService extends RouteBuilder implements ContainerService {
 
     public static final int PRIORITY = ManagerWebService.PRIORITY - 300;
     private static final Logger LOG = SyslogCategory.getLogger(GATEWAY, GatewayClientService.class.getName());
     public static final String CLIENT_EVENT_SESSION_PREFIX = GatewayClientService.class.getSimpleName() + ":";
+    public static final String GATEWAY_EVENT_BATCH_WINDOW_MILLIS = "GATEWAY_EVENT_BATCH_WINDOW_MILLIS";
+    public static final int GATEWAY_EVENT_BATCH_WINDOW_MILLIS_DEFAULT = 0;
+    public static final String GATEWAY_EVENT_BATCH_SIZE = "GATEWAY_EVENT_BATCH_SIZE";
+    public static final int GATEWAY_EVENT_BATCH_SIZE_DEFAULT = 100;
+    public static final String GATEWAY_EVENT_BUFFER_PATH = "GATEWAY_EVENT_BUFFER_PATH";
+    public static final String GATEWAY_EVENT_BUFFER_PATH_DEFAULT = null;
+    public static final String GATEWAY_EVENT_BUFFER_MAX_SIZE_MB = "GATEWAY_EVENT_BUFFER_MAX_SIZE_MB";
+    public static final int GATEWAY_EVENT_BUFFER_MAX_SIZE_MB_DEFAULT = 16;
     protected AssetStorageService assetStorageService;
     protected AssetProcessingService assetProcessingService;
     protected PersistenceService persistenceService;
@@ -78,10 +98,28 @@ public class GatewayClientService extends RouteBuilder implements ContainerServi
     protected ManagerIdentityService identityService;
     protected final Map<String, GatewayConnection> connectionRealmMap = new HashMap<>();
     protected final Map<String, WebsocketIOClient<String>> clientRealmMap = new HashMap<>();
+    protected final Map<String, GatewayEventBuffer> eventBufferRealmMap = new HashMap<>();
+    protected int eventBatchWindowMillis;
+    protected int eventBatchSize;
+    protected Path eventBufferPath;
+    protected long eventBufferMaxBytes;
 
     @Override
     public void init(Container container) throws Exception {
         executorService = container.getExecutorService();
+        eventBatchWindowMillis = getInteger(container.getConfig(), GATEWAY_EVENT_BATCH_WINDOW_MILLIS, GATEWAY_EVENT_BATCH_WINDOW_MILLIS_DEFAULT);
+        eventBatchSize = getInteger(container.getConfig(), GATEWAY_EVENT_BATCH_SIZE, GATEWAY_EVENT_BATCH_SIZE_DEFAULT);
+        eventBufferMaxBytes = getInteger(container.getConfig(), GATEWAY_EVENT_BUFFER_MAX_SIZE_MB, GATEWAY_EVENT_BUFFER_MAX_SIZE_MB_DEFAULT) * 1024L * 1024L;
+        String bufferPath = getString(container.getConfig(), GATEWAY_EVENT_BUFFER_PATH, GATEWAY_EVENT_BUFFER_PATH_DEFAULT);
+
+        if (bufferPath != null && !bufferPath.isEmpty()) {
+            try {
+                eventBufferPath = Files.createDirectories(Paths.get(bufferPath));
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed to create gateway event buffer directory so events won't be buffered whilst disconnected: " + bufferPath, e);
+            }
+        }
+
         assetStorageService = container.getService(AssetStorageService.class);
         assetProcessingService = container.getService(AssetProcessingService.class);
         persistenceService = container.getService(PersistenceService.class);
@@ -222,20 +260,31 @@ public class GatewayClientService extends RouteBuilder implements ContainerServi
 
             client.addMessageConsumer(message -> onCentralManagerMessage(connection, message));
 
+            GatewayEventBuffer eventBuffer = new GatewayEventBuffer(
+                connection.getLocalRealm(),
+                message -> sendCentralManagerMessage(connection.getLocalRealm(), message),
+                executorService,
+                eventBatchWindowMillis,
+                eventBatchSize,
+                eventBufferPath != null ? eventBufferPath.resolve(connection.getLocalRealm() + ".events") : null,
+                eventBufferMaxBytes);
+
+            synchronized (eventBufferRealmMap) {
+                eventBufferRealmMap.put(connection.getLocalRealm(), eventBuffer);
+            }
+
             // Subscribe to Asset<?> and attribute events of local realm and pass through to connected manager
             clientEventService.addInternalSubscription(
                 getClientSessionKey(connection)+"Asset",
                 AssetEvent.class,
                 new AssetFilter<AssetEvent>().setRealm(connection.getLocalRealm()),
-                assetEvent ->
-                    sendCentralManagerMessage(connection.getLocalRealm(), messageToString(SharedEvent.MESSAGE_PREFIX, assetEvent)));
+                eventBuffer::addEvent);
 
             clientEventService.addInternalSubscription(
                 getClientSessionKey(connection)+"Attribute",
                 AttributeEvent.class,
                 new AssetFilter<AttributeEvent>().setRealm(connection.getLocalRealm()),
-                attributeEvent ->
-                    sendCentralManagerMessage(connection.getLocalRealm(), messageToString(SharedEvent.MESSAGE_PREFIX, attributeEvent)));
+                eventBuffer::addAttributeEvent);
 
             client.connect();
             return client;
@@ -265,11 +314,27 @@ public class GatewayClientService extends RouteBuilder implements ContainerServi
         if (connection != null) {
             clientEventService.cancelInternalSubscription(getClientSessionKey(connection)+"Asset");
             clientEventService.cancelInternalSubscription(getClientSessionKey(connection)+"Attribute");
+
+            GatewayEventBuffer eventBuffer;
+            synchronized (eventBufferRealmMap) {
+                eventBuffer = eventBufferRealmMap.remove(connection.getLocalRealm());
+            }
+            if (eventBuffer != null) {
+                eventBuffer.destroy();
+            }
         }
     }
 
     protected void onGatewayClientConnectionStatusChanged(GatewayConnection connection, ConnectionStatus connectionStatus) {
         LOG.info("Connection status change for gateway IO client '" + connectionStatus + "': " + connection);
+
+        GatewayEventBuffer eventBuffer;
+        synchronized (eventBufferRealmMap) {
+            eventBuffer = eventBufferRealmMap.get(connection.getLocalRealm());
+        }
+        if (eventBuffer != null) {
+            eventBuffer.setConnected(connectionStatus == ConnectionStatus.CONNECTED);
+        }
         clientEventService.publishEvent(new GatewayConnectionStatusEvent(timerService.getCurrentTimeMillis(), connection.getLocalRealm(), connectionStatus));
     }
 
@@ -330,6 +395,30 @@ public class GatewayClientService extends RouteBuilder implements ContainerServi
                             )
                     ));
                 }
+            } else if (event instanceof GatewaySyncDigestRequestEvent) {
+                GatewaySyncDigestRequestEvent digestRequest = (GatewaySyncDigestRequestEvent)event;
+                Map<String, long[]> versionInfo = assetStorageService.findAssetVersionInfo(connection.getLocalRealm(), null);
+                Map<String, String> digests = GatewaySyncDigest.getDigests(
+                    GatewaySyncDigest.getAssetDigests(versionInfo),
+                    digestRequest.getPrefixes(),
+                    digestRequest.getPrefixLength());
+                Map<String, Integer> depths = null;
+
+                if (digestRequest.getPrefixLength() <= 0) {
+                    depths = new HashMap<>(digests.size());
+                    for (String assetId : digests.keySet()) {
+                        depths.put(assetId, (int) versionInfo.get(assetId)[2]);
+                    }
+                }
+
+                sendCentralManagerMessage(
+                    connection.getLocalRealm(),
+                    messageToString(
+                        EventRequestResponseWrapper.MESSAGE_PREFIX,
+                        new EventRequestResponseWrapper<>(
+                            messageId,
+                            new GatewaySyncDigestEvent(digests, depths)
+                        )));
             } else if (event instanceof ReadAssetsEvent) {
                 ReadAssetsEvent readAssets = (ReadAssetsEvent)event;
                 AssetQuery query = readAssets.getAssetQuery();
@@ -349,16 +438,22 @@ public class GatewayClientService extends RouteBuilder implements ContainerServi
         }
     }
 
-    protected void sendCentralManagerMessage(String realm, String message) {
+    /**
+     * @return False if the client of the realm isn't connected so the message couldn't be sent.
+     */
+    protected boolean sendCentralManagerMessage(String realm, String message) {
         WebsocketIOClient<String> client;
 
         synchronized (clientRealmMap) {
             client = clientRealmMap.get(realm);
         }
 
-        if (client != null) {
-            client.sendMessage(message);
+        if (client == null || client.getConnectionStatus() != ConnectionStatus.CONNECTED) {
+            return false;
         }
+
+        client.sendMessage(message);
+        return true;
     }
 
     protected String getClientSessionKey(GatewayConnection connection) {
@@ -22,18 +22,26 @@ package org.openremote.manager.gateway;
 import org.openremote.container.util.UniqueIdentifierGenerator;
 import org.openremote.manager.asset.AssetProcessingService;
 import org.openremote.manager.asset.AssetStorageService;
+import org.openremote.manager.datapoint.AssetDatapointService;
 import org.openremote.model.asset.*;
 import org.openremote.model.asset.agent.ConnectionStatus;
 import org.openremote.model.asset.impl.GatewayAsset;
 import org.openremote.model.attribute.AttributeEvent;
 import org.openremote.model.event.shared.EventRequestResponseWrapper;
 import org.openremote.model.event.shared.SharedEvent;
+import org.openremote.model.gateway.GatewayAttributeEventsEvent;
 import org.openremote.model.gateway.GatewayDisconnectEvent;
+import org.openremote.model.gateway.GatewaySyncDigestEvent;
+import org.openremote.model.gateway.GatewaySyncDigestRequestEvent;
 import org.openremote.model.query.AssetQuery;
 import org.openremote.model.syslog.SyslogCategory;
 import org.openremote.model.util.Pair;
 
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -53,6 +61,16 @@ import static org.openremote.model.syslog.SyslogCategory.GATEWAY;
 
 /**
  * Handles all communication between a gateway and the local manager
+ * <p>
+ * The first sync after the connector is created reads all gateway assets. The version of each gateway asset received
+ * is remembered, so subsequent syncs (i.e. reconnects) compare the digests (see {@link GatewaySyncDigest}) of the
+ * gateway assets with those of the local copies and only read the modified assets. Gateways that don't answer a
+ * digest request are synced completely.
+ * <p>
+ * Attribute events buffered by the gateway whilst disconnected are replayed on reconnect (see
+ * {@link GatewayAttributeEventsEvent#isReplay}), their values are older than the values read by the sync so they are
+ * stored as data points of the attributes that store data points instead of being processed, also when they arrive
+ * after the sync completed.
  */
 public class GatewayConnector {
 
@@ -63,16 +81,24 @@ public class GatewayConnector {
     public static int SYNC_ASSET_BATCH_SIZE = 20;
     public static final String ASSET_READ_EVENT_NAME_INITIAL = "INITIAL";
     public static final String ASSET_READ_EVENT_NAME_BATCH = "BATCH";
+    public static final String ASSET_READ_EVENT_NAME_DIGEST = "DIGEST";
+    public static int SYNC_DIGEST_MAX_PREFIX_LENGTH = 2; // Asset ID prefix length of the lowest digest level above the assets
     protected static final Map<String, Pair<Function<String, String>, Function<String, String>>> ASSET_ID_MAPPERS = new HashMap<>();
     protected final String realm;
     protected final String gatewayId;
     protected final AssetStorageService assetStorageService;
     protected final ScheduledExecutorService executorService;
     protected final AssetProcessingService assetProcessingService;
+    protected final AssetDatapointService assetDatapointService;
     protected final Map<String, Asset<?>> pendingAssetMerges = new HashMap<>();
     protected final AtomicReference<EventRequestResponseWrapper<DeleteAssetsRequestEvent>> pendingAssetDelete = new AtomicReference<>();
+    // Version of each gateway asset (by gateway asset ID) when last received from the gateway
+    protected final Map<String, Long> syncedAssetVersions = new ConcurrentHashMap<>();
+    protected boolean digestSyncSupported = true;
+    protected boolean digestSyncConfirmed;
     protected List<AssetEvent> cachedAssetEvents;
     protected List<AttributeEvent> cachedAttributeEvents;
+    protected List<AttributeEvent> cachedReplayedAttributeEvents;
     protected Consumer<Object> gatewayMessageConsumer;
     protected Runnable disconnectRunnable;
     protected boolean disabled;
@@ -83,6 +109,10 @@ public class GatewayConnector {
     int syncErrors;
     GatewayAsset gateway;
     String expectedSyncResponseName;
+    Map<String, String> syncLocalDigests;
+    List<String> syncPrefixes;
+    int syncPrefixLength;
+    List<String> syncObsoleteAssetIds; // Local IDs of assets to delete when syncing digests
 
     protected static List<Integer> ALPHA_NUMERIC_CHARACTERS = new ArrayList<>(62);
 
@@ -127,9 +157,19 @@ public class GatewayConnector {
         AssetProcessingService assetProcessingService,
         ScheduledExecutorService executorService,
         GatewayAsset gateway) {
+        this(assetStorageService, assetProcessingService, null, executorService, gateway);
+    }
+
+    public GatewayConnector(
+        AssetStorageService assetStorageService,
+        AssetProcessingService assetProcessingService,
+        AssetDatapointService assetDatapointService,
+        ScheduledExecutorService executorService,
+        GatewayAsset gateway) {
 
         this.assetStorageService = assetStorageService;
         this.assetProcessingService = assetProcessingService;
+        this.assetDatapointService = assetDatapointService;
         this.executorService = executorService;
         boolean disabled = gateway.getDisabled().orElse(false);
         this.realm = gateway.getRealm();
@@ -166,9 +206,14 @@ public class GatewayConnector {
         syncProcessorFuture = null;
         cachedAssetEvents = new ArrayList<>();
         cachedAttributeEvents = new ArrayList<>();
+        cachedReplayedAttributeEvents = new ArrayList<>();
         syncAssetIds = null;
         syncIndex = 0;
         syncErrors = 0;
+        syncLocalDigests = null;
+        syncPrefixes = null;
+        syncObsoleteAssetIds = null;
+        digestSyncConfirmed = false;
 
         startSync();
     }
@@ -245,8 +290,15 @@ public class GatewayConnector {
         if (initialSyncInProgress) {
             if (e instanceof AssetsEvent) {
                 onSyncAssetsResponse(messageId, (AssetsEvent) e);
+            } else if (e instanceof GatewaySyncDigestEvent) {
+                onSyncDigestResponse(messageId, (GatewaySyncDigestEvent) e);
             } else if (e instanceof AttributeEvent) {
                 cachedAttributeEvents.add((AttributeEvent) e);
+            } else if (e instanceof GatewayAttributeEventsEvent) {
+                GatewayAttributeEventsEvent eventsEvent = (GatewayAttributeEventsEvent) e;
+                if (eventsEvent.getEvents() != null) {
+                    (eventsEvent.isReplay() ? cachedReplayedAttributeEvents : cachedAttributeEvents).addAll(eventsEvent.getEvents());
+                }
             } else if (e instanceof AssetEvent) {
                 cachedAssetEvents.add((AssetEvent) e);
             }
@@ -255,6 +307,16 @@ public class GatewayConnector {
                 onAssetEvent((AssetEvent) e);
             } else if (e instanceof AttributeEvent) {
                 onAttributeEvent((AttributeEvent) e);
+            } else if (e instanceof GatewayAttributeEventsEvent) {
+                GatewayAttributeEventsEvent eventsEvent = (GatewayAttributeEventsEvent) e;
+                if (eventsEvent.getEvents() != null) {
+                    // Replayed events can still arrive after the sync completed, they are never newer than the synced values
+                    if (eventsEvent.isReplay()) {
+                        storeReplayedAttributeEvents(eventsEvent.getEvents());
+                    } else {
+                        eventsEvent.getEvents().forEach(this::onAttributeEvent);
+                    }
+                }
             } else if (e instanceof DeleteAssetsResponseEvent) {
                 onAssetDeleteResponseEvent(messageId, (DeleteAssetsResponseEvent) e);
             }
@@ -270,6 +332,13 @@ public class GatewayConnector {
             return;
         }
 
+        if (digestSyncSupported && !syncedAssetVersions.isEmpty()) {
+            startDigestSync();
+            return;
+        }
+
+        syncLocalDigests = null;
+        syncObsoleteAssetIds = null;
         expectedSyncResponseName = ASSET_READ_EVENT_NAME_INITIAL;
         sendMessageToGateway(new EventRequestResponseWrapper<>(
             ASSET_READ_EVENT_NAME_INITIAL,
@@ -293,6 +362,14 @@ public class GatewayConnector {
         }
 
         if (syncAssetIds == null) {
+            if (syncLocalDigests != null && digestSyncConfirmed) {
+                requestDigests();
+                return;
+            }
+            if (syncLocalDigests != null) {
+                LOG.info("Gateway didn't respond to sync digest request so falling back to full sync: Gateway ID=" + gatewayId);
+                digestSyncSupported = false;
+            }
             // Haven't received initial list of assets so retry
             startSync();
         } else {
@@ -311,6 +388,91 @@ public class GatewayConnector {
         return false;
     }
 
+    /**
+     * Compute the digests of the local copies of the gateway assets, the version of an asset is the version it had when
+     * last received from the gateway, and request the top level digests from the gateway.
+     */
+    protected void startDigestSync() {
+        Map<String, long[]> localVersionInfo = assetStorageService.findAssetVersionInfo(realm, gatewayId);
+        syncLocalDigests = new HashMap<>(localVersionInfo.size());
+        localVersionInfo.forEach((localId, info) -> {
+            String id = mapAssetId(gatewayId, localId, true);
+            syncLocalDigests.put(id, GatewaySyncDigest.getAssetDigest(id, syncedAssetVersions.getOrDefault(id, -1L), info[1]));
+        });
+
+        syncPrefixes = null;
+        syncPrefixLength = 1;
+        // The gateway must answer a digest request of this sync before timeouts retry the digest request
+        digestSyncConfirmed = false;
+        requestDigests();
+    }
+
+    protected void requestDigests() {
+
+        if (syncAborted()) {
+            return;
+        }
+
+        expectedSyncResponseName = ASSET_READ_EVENT_NAME_DIGEST + syncPrefixLength;
+        sendMessageToGateway(new EventRequestResponseWrapper<>(
+            expectedSyncResponseName,
+            new GatewaySyncDigestRequestEvent(syncPrefixes, syncPrefixLength)));
+        syncProcessorFuture = executorService.schedule(this::onSyncAssetsTimeout, SYNC_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Descend into the ID prefixes whose digests differ until reaching the asset digests, then request the modified
+     * and new assets in batches and delete the local copies of assets that no longer exist.
+     */
+    synchronized protected void onSyncDigestResponse(String messageId, GatewaySyncDigestEvent e) {
+        if (!isConnected() || syncLocalDigests == null) {
+            return;
+        }
+
+        if (!expectedSyncResponseName.equalsIgnoreCase(messageId)) {
+            LOG.info("Unexpected response from gateway so ignoring (expected=" + expectedSyncResponseName + ", actual =" + messageId + "): " + e);
+            return;
+        }
+
+        syncProcessorFuture.cancel(true);
+        syncProcessorFuture = null;
+        digestSyncConfirmed = true;
+
+        Map<String, String> localDigests = GatewaySyncDigest.getDigests(syncLocalDigests, syncPrefixes, syncPrefixLength);
+        Map<String, String> gatewayDigests = e.getDigests() != null ? e.getDigests() : Collections.emptyMap();
+        Set<String> modified = new HashSet<>(localDigests.keySet());
+        modified.addAll(gatewayDigests.keySet());
+        modified.removeIf(key -> Objects.equals(localDigests.get(key), gatewayDigests.get(key)));
+
+        if (syncPrefixLength > 0 && !modified.isEmpty()) {
+            LOG.fine("Gateway asset digests differ for " + modified.size() + " prefix(es) of length " + syncPrefixLength + ": Gateway ID=" + gatewayId);
+            syncPrefixes = new ArrayList<>(modified);
+            syncPrefixLength = syncPrefixLength >= SYNC_DIGEST_MAX_PREFIX_LENGTH ? 0 : syncPrefixLength + 1;
+            requestDigests();
+            return;
+        }
+
+        Map<String, Integer> depths = e.getDepths() != null ? e.getDepths() : Collections.emptyMap();
+        syncObsoleteAssetIds = modified.stream()
+            .filter(id -> !gatewayDigests.containsKey(id))
+            .map(id -> mapAssetId(gatewayId, id, false))
+            .collect(Collectors.toList());
+        syncAssetIds = modified.stream()
+            .filter(gatewayDigests::containsKey)
+            .sorted(Comparator.comparingInt(id -> depths.getOrDefault(id, 0)))
+            .collect(Collectors.toList());
+        syncLocalDigests = null;
+        syncPrefixes = null;
+
+        LOG.info("Gateway asset digests compared, modified=" + syncAssetIds.size() + ", obsolete=" + syncObsoleteAssetIds.size() + ": Gateway ID=" + gatewayId);
+
+        if (syncAssetIds.isEmpty()) {
+            onSyncAssetsRetrieved();
+        } else {
+            requestAssets();
+        }
+    }
+
     /**
      * Request assets in batches of {@link #SYNC_ASSET_BATCH_SIZE} to avoid overloading the gateway
      */
@@ -429,49 +591,69 @@ public class GatewayConnector {
             // Request next batch or move on
             syncIndex += requestedAssetIds.size();
             if (syncIndex >= syncAssetIds.size()) {
-                LOG.info("All requested gateway assets retrieved");
-
-                Set<String> refreshAssets = new HashSet<>();
-
-                cachedAssetEvents.forEach(
-                    assetEvent -> {
-                        if (assetEvent.getCause() == AssetEvent.Cause.DELETE) {
-                            syncAssetIds.remove(assetEvent.getAssetId());
-                        } else if (assetEvent.getCause() == AssetEvent.Cause.CREATE) {
-                            syncAssetIds.add(assetEvent.getAssetId());
-                            try {
-                                saveAssetLocally(assetEvent.getAsset());
-                            } catch (Exception ex) {
-                                LOG.log(Level.SEVERE, "Failed to add new gateway asset (Gateway ID=" + gatewayId + ", Asset=" + assetEvent.getAsset(), ex);
-                            }
-                        } else {
-                            refreshAssets.add(assetEvent.getAssetId());
-                        }
-                    }
-                );
+                onSyncAssetsRetrieved();
+            } else {
+                requestAssets();
+            }
+        }
+    }
 
-                deleteObsoleteLocalAssets();
-                onInitialSyncComplete();
+    /**
+     * Called once all requested gateway assets have been retrieved, applies the asset events received during the sync
+     * and completes the sync.
+     */
+    protected void onSyncAssetsRetrieved() {
+        LOG.info("All requested gateway assets retrieved");
 
-                // Refresh attributes that have changed
-                cachedAttributeEvents.forEach(attributeEvent -> {
-                    String assetId = attributeEvent.getAssetId();
-                    if (!refreshAssets.contains(assetId)) {
-                        LOG.info("1 or more gateway asset attribute values have changed so requesting the asset again (Gateway ID=" + gatewayId + ", Asset<?> ID=" + assetId);
-                        refreshAssets.add(assetId);
+        Set<String> refreshAssets = new HashSet<>();
+
+        cachedAssetEvents.forEach(
+            assetEvent -> {
+                if (assetEvent.getCause() == AssetEvent.Cause.DELETE) {
+                    syncAssetIds.remove(assetEvent.getAssetId());
+                    if (syncObsoleteAssetIds != null) {
+                        syncObsoleteAssetIds.add(mapAssetId(gatewayId, assetEvent.getAssetId(), false));
                     }
-                });
+                } else if (assetEvent.getCause() == AssetEvent.Cause.CREATE) {
+                    syncAssetIds.add(assetEvent.getAssetId());
+                    try {
+                        saveAssetLocally(assetEvent.getAsset());
+                    } catch (Exception ex) {
+                        LOG.log(Level.SEVERE, "Failed to add new gateway asset (Gateway ID=" + gatewayId + ", Asset=" + assetEvent.getAsset(), ex);
+                    }
+                } else {
+                    refreshAssets.add(assetEvent.getAssetId());
+                }
+            }
+        );
 
-                // Refresh assets that have changed
-                refreshAssets.forEach(id -> sendMessageToGateway(new ReadAssetEvent(id)));
-            } else {
-                requestAssets();
+        deleteObsoleteLocalAssets();
+        storeReplayedAttributeEvents(cachedReplayedAttributeEvents);
+        onInitialSyncComplete();
+
+        // Refresh attributes that have changed
+        cachedAttributeEvents.forEach(attributeEvent -> {
+            String assetId = attributeEvent.getAssetId();
+            if (!refreshAssets.contains(assetId)) {
+                LOG.info("1 or more gateway asset attribute values have changed so requesting the asset again (Gateway ID=" + gatewayId + ", Asset<?> ID=" + assetId);
+                refreshAssets.add(assetId);
             }
-        }
+        });
+
+        // Refresh assets that have changed
+        refreshAssets.forEach(id -> sendMessageToGateway(new ReadAssetEvent(id)));
     }
 
     protected void deleteObsoleteLocalAssets() {
 
+        if (syncObsoleteAssetIds != null) {
+            // Digest sync only deletes the assets found to be obsolete
+            if (!syncObsoleteAssetIds.isEmpty() && !deleteAssetsLocally(syncObsoleteAssetIds)) {
+                LOG.warning("Failed to delete obsolete local gateway assets; assets are not correctly synced");
+            }
+            return;
+        }
+
         // Find obsolete local assets
         List<Asset<?>> localAssets = assetStorageService.findAll(
             new AssetQuery()
@@ -493,10 +675,51 @@ public class GatewayConnector {
         }
     }
 
+    /**
+     * Store the values of replayed attribute events as data points of the local attributes that store data points.
+     */
+    protected void storeReplayedAttributeEvents(List<AttributeEvent> events) {
+        if (assetDatapointService == null || events.isEmpty()) {
+            return;
+        }
+
+        Map<String, Map<String, List<Pair<?, LocalDateTime>>>> assetAttributeValues = new LinkedHashMap<>();
+        events.forEach(event -> event.getValue().ifPresent(value ->
+            assetAttributeValues
+                .computeIfAbsent(mapAssetId(gatewayId, event.getAssetId(), false), id -> new LinkedHashMap<>())
+                .computeIfAbsent(event.getAttributeName(), name -> new ArrayList<>())
+                .add(new Pair<>(value, LocalDateTime.ofInstant(Instant.ofEpochMilli(event.getTimestamp()), ZoneId.systemDefault())))));
+
+        int count = 0;
+
+        for (Map.Entry<String, Map<String, List<Pair<?, LocalDateTime>>>> assetEntry : assetAttributeValues.entrySet()) {
+            Asset<?> asset = assetStorageService.find(assetEntry.getKey());
+            if (asset == null) {
+                continue;
+            }
+            for (Map.Entry<String, List<Pair<?, LocalDateTime>>> attributeEntry : assetEntry.getValue().entrySet()) {
+                boolean storeDatapoints = asset.getAttribute(attributeEntry.getKey())
+                    .map(AssetDatapointService::attributeIsStoreDatapoint)
+                    .orElse(false);
+                if (storeDatapoints) {
+                    try {
+                        assetDatapointService.upsertValues(asset.getId(), attributeEntry.getKey(), attributeEntry.getValue());
+                        count += attributeEntry.getValue().size();
+                    } catch (IllegalStateException e) {
+                        LOG.log(Level.WARNING, "Failed to store replayed gateway attribute events: Gateway ID=" + gatewayId + ", Asset ID=" + asset.getId(), e);
+                    }
+                }
+            }
+        }
+
+        LOG.info("Stored " + count + " data point(s) of " + events.size() + " replayed gateway attribute event(s): Gateway ID=" + gatewayId);
+    }
+
     protected void onInitialSyncComplete() {
         initialSyncInProgress = false;
         cachedAssetEvents.clear();
         cachedAttributeEvents.clear();
+        cachedReplayedAttributeEvents.clear();
         assetProcessingService.sendAttributeEvent(new AttributeEvent(gatewayId, GatewayAsset.STATUS, ConnectionStatus.CONNECTED), AttributeEvent.Source.GATEWAY);
     }
 
@@ -673,15 +896,19 @@ public class GatewayConnector {
 
     protected <T extends Asset<?>> T saveAssetLocally(T asset) {
         String assetId = asset.getId();
+        long version = asset.getVersion();
         asset.setId(mapAssetId(gatewayId, assetId, false));
         asset.setParentId(asset.getParentId() != null ? mapAssetId(gatewayId, asset.getParentId(), false) : gatewayId);
         asset.setRealm(realm);
         LOG.fine("Creating/updating gateway asset: Gateway ID=" + gatewayId + ", Asset ID=" + assetId + ", Asset ID Mapped=" + asset.getId());
-        return assetStorageService.merge(asset, true, true, null);
+        T mergedAsset = assetStorageService.merge(asset, true, true, null);
+        syncedAssetVersions.put(assetId, version);
+        return mergedAsset;
     }
 
     protected boolean deleteAssetsLocally(List<String> assetIds) {
         LOG.fine("Removing gateway asset: Gateway ID=" + gatewayId + ", Asset IDs=" + Arrays.toString(assetIds.toArray()));
+        assetIds.forEach(id -> syncedAssetVersions.remove(mapAssetId(gatewayId, id, true)));
         return assetStorageService.delete(assetIds, true);
     }
 }
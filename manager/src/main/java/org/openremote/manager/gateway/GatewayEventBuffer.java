@@ -0,0 +1,366 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.gateway;
+
+import org.openremote.model.attribute.AttributeEvent;
+import org.openremote.model.event.shared.SharedEvent;
+import org.openremote.model.gateway.GatewayAttributeEventsEvent;
+import org.openremote.model.syslog.SyslogCategory;
+import org.openremote.model.util.ValueUtil;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.openremote.model.syslog.SyslogCategory.GATEWAY;
+
+/**
+ * Queues the events an edge gateway sends to the central manager of one gateway connection.
+ * <p>
+ * Attribute events are collected for up to the batch window and sent as a single {@link GatewayAttributeEventsEvent};
+ * other events flush the pending attribute events first so the order of events is kept. Whilst disconnected the
+ * attribute events are appended to the buffer file (if any) as one JSON event per line, the file is replayed in order
+ * by the executor when connected again. Replayed events are only stored as data points by the central manager, so
+ * attribute events added whilst replaying are kept in memory and sent as live events once the replay has finished
+ * (or appended to the buffer file if disconnected before that). The buffer file is moved to the replay file before it
+ * is replayed so it can be appended to, and the replay file is only deleted once all of its events have been sent (the
+ * events that weren't sent are kept for the next replay). Other events are dropped whilst disconnected, the central
+ * manager syncs the gateway assets when the gateway reconnects.
+ */
+public class GatewayEventBuffer {
+
+    private static final Logger LOG = SyslogCategory.getLogger(GATEWAY, GatewayEventBuffer.class.getName());
+    public static long REPLAY_RETRY_MILLIS = 5000;
+    protected final String realm;
+    // Returns false if the message couldn't be sent
+    protected final Predicate<String> sender;
+    protected final ScheduledExecutorService executorService;
+    protected final long batchWindowMillis;
+    protected final int batchSize;
+    protected final Path bufferFile;
+    protected final Path replayFile;
+    protected final long bufferMaxBytes;
+    protected final List<AttributeEvent> pendingEvents = new ArrayList<>();
+    // Attribute events added whilst replaying, sent once the replay has finished
+    protected final List<AttributeEvent> replayLiveEvents = new ArrayList<>();
+    protected ScheduledFuture<?> flushFuture;
+    protected boolean connected;
+    protected boolean replaying;
+    protected boolean bufferFull;
+
+    public GatewayEventBuffer(String realm, Predicate<String> sender, ScheduledExecutorService executorService, long batchWindowMillis, int batchSize, Path bufferFile, long bufferMaxBytes) {
+        this.realm = realm;
+        this.sender = sender;
+        this.executorService = executorService;
+        this.batchWindowMillis = batchWindowMillis;
+        this.batchSize = Math.max(1, batchSize);
+        this.bufferFile = bufferFile;
+        this.replayFile = bufferFile != null ? bufferFile.resolveSibling(bufferFile.getFileName() + ".replay") : null;
+        this.bufferMaxBytes = bufferMaxBytes;
+    }
+
+    synchronized public void addAttributeEvent(AttributeEvent event) {
+        if (!connected) {
+            bufferEvent(event);
+            return;
+        }
+
+        if (replaying) {
+            replayLiveEvents.add(event);
+            return;
+        }
+
+        if (batchWindowMillis <= 0) {
+            send(event);
+            return;
+        }
+
+        pendingEvents.add(event);
+
+        if (pendingEvents.size() >= batchSize) {
+            flush();
+        } else if (flushFuture == null) {
+            flushFuture = executorService.schedule(this::flush, batchWindowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    synchronized public void addEvent(SharedEvent event) {
+        if (!connected) {
+            return;
+        }
+
+        flush();
+        send(event);
+    }
+
+    synchronized public void flush() {
+        if (flushFuture != null) {
+            flushFuture.cancel(false);
+            flushFuture = null;
+        }
+
+        if (pendingEvents.isEmpty()) {
+            return;
+        }
+
+        List<AttributeEvent> events = new ArrayList<>(pendingEvents);
+        pendingEvents.clear();
+
+        if (!connected) {
+            events.forEach(this::bufferEvent);
+        } else if (replaying) {
+            replayLiveEvents.addAll(events);
+        } else if (events.size() == 1) {
+            send(events.get(0));
+        } else {
+            send(new GatewayAttributeEventsEvent(events, false));
+        }
+    }
+
+    /**
+     * Replays the buffered attribute events by the executor when connected.
+     */
+    synchronized public void setConnected(boolean connected) {
+        if (this.connected == connected) {
+            return;
+        }
+
+        if (!connected) {
+            flush();
+            this.connected = false;
+            // The live events of an unfinished replay are now older than the values synced when reconnecting
+            replayLiveEvents.forEach(this::bufferEvent);
+            replayLiveEvents.clear();
+            return;
+        }
+
+        this.connected = true;
+
+        if (bufferFile != null && !replaying && (Files.isRegularFile(replayFile) || Files.isRegularFile(bufferFile))) {
+            replaying = true;
+            executorService.execute(this::replay);
+        }
+    }
+
+    synchronized public boolean isReplaying() {
+        return replaying;
+    }
+
+    synchronized public void destroy() {
+        if (flushFuture != null) {
+            flushFuture.cancel(false);
+            flushFuture = null;
+        }
+        pendingEvents.clear();
+        replayLiveEvents.clear();
+        connected = false;
+    }
+
+    /**
+     * Replays the replay file and then the buffer file until both have been sent or sending fails, in which case the
+     * replay is retried after {@link #REPLAY_RETRY_MILLIS} whilst still connected. The attribute events added whilst
+     * replaying are sent once both have been sent.
+     */
+    protected void replay() {
+        while (true) {
+            synchronized (this) {
+                if (!connected) {
+                    replaying = false;
+                    return;
+                }
+
+                if (!Files.isRegularFile(replayFile)) {
+                    if (!Files.isRegularFile(bufferFile)) {
+                        replaying = false;
+                        sendReplayLiveEvents();
+                        return;
+                    }
+                    try {
+                        Files.move(bufferFile, replayFile, StandardCopyOption.REPLACE_EXISTING);
+                        bufferFull = false;
+                    } catch (IOException e) {
+                        LOG.log(Level.WARNING, "Failed to move gateway event buffer file so discarding it: " + bufferFile, e);
+                        deleteFile(bufferFile);
+                        bufferFull = false;
+                        continue;
+                    }
+                }
+            }
+
+            if (!replayFile()) {
+                synchronized (this) {
+                    if (connected) {
+                        executorService.schedule(this::replay, REPLAY_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                    } else {
+                        replaying = false;
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends the attribute events added whilst replaying in batches as live events, the events that couldn't be sent are
+     * appended to the buffer file.
+     */
+    protected void sendReplayLiveEvents() {
+        List<AttributeEvent> events = new ArrayList<>(replayLiveEvents);
+        replayLiveEvents.clear();
+
+        for (int i = 0; i < events.size(); i += batchSize) {
+            List<AttributeEvent> batch = events.subList(i, Math.min(i + batchSize, events.size()));
+            boolean sent = batch.size() == 1 ? send(batch.get(0)) : send(new GatewayAttributeEventsEvent(new ArrayList<>(batch), false));
+
+            if (!sent) {
+                LOG.info("Failed to send " + (events.size() - i) + " attribute event(s) added whilst replaying so buffering them: Realm=" + realm);
+                events.subList(i, events.size()).forEach(this::bufferEvent);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends the events of the replay file in batches and deletes it once all events have been sent, otherwise the
+     * events that weren't sent are kept in the replay file.
+     */
+    protected boolean replayFile() {
+        long lineCount = 0;
+        long sentLineCount = 0;
+        int count = 0;
+        boolean sent = true;
+
+        try (BufferedReader reader = Files.newBufferedReader(replayFile, StandardCharsets.UTF_8)) {
+            List<AttributeEvent> events = new ArrayList<>(batchSize);
+            String line;
+
+            while (sent && (line = reader.readLine()) != null) {
+                lineCount++;
+                ValueUtil.parse(line, AttributeEvent.class).ifPresent(events::add);
+
+                if (events.size() >= batchSize) {
+                    sent = send(new GatewayAttributeEventsEvent(events, true));
+                    if (sent) {
+                        count += events.size();
+                        sentLineCount = lineCount;
+                        events = new ArrayList<>(batchSize);
+                    }
+                }
+            }
+
+            if (sent && !events.isEmpty()) {
+                sent = send(new GatewayAttributeEventsEvent(events, true));
+                if (sent) {
+                    count += events.size();
+                    sentLineCount = lineCount;
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to read gateway event replay file: " + replayFile, e);
+            sent = false;
+        }
+
+        if (!sent) {
+            LOG.info("Replayed " + count + " attribute event(s) buffered whilst disconnected from the central manager before sending failed: Realm=" + realm);
+            if (sentLineCount > 0) {
+                removeSentLines(sentLineCount);
+            }
+            return false;
+        }
+
+        LOG.info("Replayed " + count + " attribute event(s) buffered whilst disconnected from the central manager: Realm=" + realm);
+        deleteFile(replayFile);
+        return true;
+    }
+
+    protected void removeSentLines(long sentLineCount) {
+        Path remainingFile = replayFile.resolveSibling(replayFile.getFileName() + ".tmp");
+
+        try (BufferedReader reader = Files.newBufferedReader(replayFile, StandardCharsets.UTF_8);
+             BufferedWriter writer = Files.newBufferedWriter(remainingFile, StandardCharsets.UTF_8)) {
+            String line;
+            long lineCount = 0;
+
+            while ((line = reader.readLine()) != null) {
+                if (++lineCount > sentLineCount) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to remove sent events from gateway event replay file, they will be replayed again: " + replayFile, e);
+            deleteFile(remainingFile);
+            return;
+        }
+
+        try {
+            Files.move(remainingFile, replayFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to replace gateway event replay file, sent events will be replayed again: " + replayFile, e);
+            deleteFile(remainingFile);
+        }
+    }
+
+    protected void deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to delete gateway event buffer file: " + file, e);
+        }
+    }
+
+    protected void bufferEvent(AttributeEvent event) {
+        if (bufferFile == null || bufferFull) {
+            return;
+        }
+
+        try {
+            if (Files.isRegularFile(bufferFile) && Files.size(bufferFile) >= bufferMaxBytes) {
+                LOG.warning("Gateway event buffer file is full so discarding further events until connected: " + bufferFile);
+                bufferFull = true;
+                return;
+            }
+
+            try (BufferedWriter writer = Files.newBufferedWriter(bufferFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                writer.write(ValueUtil.asJSON(event).orElse("null"));
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to write gateway event buffer file: " + bufferFile, e);
+        }
+    }
+
+    protected boolean send(SharedEvent event) {
+        return sender.test(SharedEvent.MESSAGE_PREFIX + ValueUtil.asJSON(event).orElse("null"));
+    }
+}
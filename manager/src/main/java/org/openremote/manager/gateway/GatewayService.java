@@ -28,6 +28,7 @@ import org.openremote.container.web.ConnectionConstants;
 import org.openremote.manager.asset.AssetProcessingException;
 import org.openremote.manager.asset.AssetProcessingService;
 import org.openremote.manager.asset.AssetStorageService;
+import org.openremote.manager.datapoint.AssetDatapointService;
 import org.openremote.manager.asset.AssetUpdateProcessor;
 import org.openremote.manager.event.ClientEventService;
 import org.openremote.manager.rules.RulesService;
@@ -81,6 +82,7 @@ public class GatewayService extends RouteBuilder implements ContainerService, As
     private static final Logger LOG = SyslogCategory.getLogger(GATEWAY, GatewayService.class.getName());
     protected AssetStorageService assetStorageService;
     protected AssetProcessingService assetProcessingService;
+    protected AssetDatapointService assetDatapointService;
     protected ManagerIdentityService identityService;
     protected ManagerKeycloakIdentityProvider identityProvider;
     protected ClientEventService clientEventService;
@@ -154,6 +156,7 @@ public class GatewayService extends RouteBuilder implements ContainerService, As
     public void init(Container container) throws Exception {
         assetStorageService = container.getService(AssetStorageService.class);
         assetProcessingService = container.getService(AssetProcessingService.class);
+        assetDatapointService = container.hasService(AssetDatapointService.class) ? container.getService(AssetDatapointService.class) : null;
         identityService = container.getService(ManagerIdentityService.class);
         clientEventService = container.getService(ClientEventService.class);
         executorService = container.getExecutorService();
@@ -202,7 +205,7 @@ public class GatewayService extends RouteBuilder implements ContainerService, As
                 }
 
                 // Create connector
-                GatewayConnector connector = new GatewayConnector(assetStorageService, assetProcessingService, executorService, gateway);
+                GatewayConnector connector = new GatewayConnector(assetStorageService, assetProcessingService, assetDatapointService, executorService, gateway);
                 gatewayConnectorMap.put(gateway.getId().toLowerCase(Locale.ROOT), connector);
 
                 // Get IDs of all assets under this gateway
@@ -511,7 +514,7 @@ public class GatewayService extends RouteBuilder implements ContainerService, As
             case CREATE:
                 createUpdateGatewayServiceUser(gateway);
                 synchronized (gatewayConnectorMap) {
-                    GatewayConnector connector = new GatewayConnector(assetStorageService, assetProcessingService, executorService, gateway);
+                    GatewayConnector connector = new GatewayConnector(assetStorageService, assetProcessingService, assetDatapointService, executorService, gateway);
                     gatewayConnectorMap.put(gateway.getId().toLowerCase(Locale.ROOT), connector);
                 }
                 break;
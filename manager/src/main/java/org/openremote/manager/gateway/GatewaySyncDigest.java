@@ -0,0 +1,90 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.manager.gateway;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Digests used to synchronise the assets of a gateway with the central manager, they form a hash tree over the asset
+ * IDs: the digest of an asset covers its ID, version and attribute timestamps and the digest of an ID prefix covers
+ * the digests of all assets whose ID starts with that prefix. Comparing the digests of the gateway with those of the
+ * local copies level by level finds the modified assets without transferring the unmodified ones.
+ */
+public final class GatewaySyncDigest {
+
+    private GatewaySyncDigest() {
+    }
+
+    /**
+     * @param versionInfo Map of asset ID to <code>[version, attribute timestamp sum, ...]</code> as returned by
+     *                    {@link org.openremote.manager.asset.AssetStorageService#findAssetVersionInfo}.
+     * @return Map of asset ID to asset digest.
+     */
+    public static Map<String, String> getAssetDigests(Map<String, long[]> versionInfo) {
+        Map<String, String> assetDigests = new HashMap<>(versionInfo.size());
+        versionInfo.forEach((id, info) -> assetDigests.put(id, getAssetDigest(id, info[0], info[1])));
+        return assetDigests;
+    }
+
+    public static String getAssetDigest(String assetId, long version, long attributeTimestampSum) {
+        return Hashing.murmur3_128().newHasher()
+            .putString(assetId, StandardCharsets.UTF_8)
+            .putLong(version)
+            .putLong(attributeTimestampSum)
+            .hash()
+            .toString();
+    }
+
+    /**
+     * Get the digests of the asset ID prefixes of the given length, limited to assets whose ID starts with one of the
+     * prefixes (all if <code>null</code>); a prefix length of 0 returns the matching asset digests themselves.
+     */
+    public static Map<String, String> getDigests(Map<String, String> assetDigests, Collection<String> prefixes, int prefixLength) {
+        Map<String, TreeMap<String, String>> groups = new HashMap<>();
+
+        assetDigests.forEach((id, digest) -> {
+            if (prefixes != null && prefixes.stream().noneMatch(id::startsWith)) {
+                return;
+            }
+            String key = prefixLength > 0 ? id.substring(0, Math.min(prefixLength, id.length())) : id;
+            groups.computeIfAbsent(key, k -> new TreeMap<>()).put(id, digest);
+        });
+
+        Map<String, String> digests = new HashMap<>(groups.size());
+        groups.forEach((key, group) -> {
+            if (prefixLength <= 0) {
+                digests.put(key, group.firstEntry().getValue());
+                return;
+            }
+            // Sorted by asset ID so the digest doesn't depend on iteration order
+            Hasher hasher = Hashing.murmur3_128().newHasher();
+            group.values().forEach(digest -> hasher.putString(digest, StandardCharsets.UTF_8));
+            digests.put(key, hasher.hash().toString());
+        });
+        return digests;
+    }
+}
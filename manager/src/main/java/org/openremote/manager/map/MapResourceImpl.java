@@ -25,7 +25,9 @@ import org.openremote.manager.security.ManagerIdentityService;
 import org.openremote.model.http.RequestParams;
 import org.openremote.model.map.MapResource;
 
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 
 public class MapResourceImpl extends WebResource implements MapResource {
@@ -56,11 +58,23 @@ public class MapResourceImpl extends WebResource implements MapResource {
 
     @Override
     public byte[] getTile(int zoom, int column, int row) {
-        byte[] tile = mapService.getMapTile(zoom, column, row);
-        if (tile != null) {
-            return tile;
-        } else {
+        if (!MapService.isValidTile(zoom, column, row)) {
+            throw new BadRequestException("Invalid tile: zoom=" + zoom + ", column=" + column + ", row=" + row);
+        }
+
+        MapService.MapTile tile = mapService.getTile(zoom, column, row);
+        if (tile == null) {
             throw new WebApplicationException(Response.Status.NOT_FOUND);
         }
+
+        response.setHeader(HttpHeaders.ETAG, tile.getETag());
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "public, max-age=" + mapService.getTileMaxAge());
+
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null && (ifNoneMatch.contains(tile.getETag()) || ifNoneMatch.trim().equals("*"))) {
+            throw new WebApplicationException(Response.notModified().build());
+        }
+
+        return tile.getData();
     }
 }
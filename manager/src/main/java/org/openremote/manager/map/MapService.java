@@ -22,6 +22,9 @@ package org.openremote.manager.map;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.handlers.ResponseCodeHandler;
 import io.undertow.server.handlers.proxy.ProxyHandler;
@@ -32,18 +35,25 @@ import org.openremote.model.Container;
 import org.openremote.model.ContainerService;
 import org.openremote.model.util.TextUtil;
 import org.openremote.model.util.ValueUtil;
+import org.sqlite.SQLiteConfig;
 
 import javax.ws.rs.core.UriBuilder;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -67,9 +77,27 @@ public class MapService implements ContainerService {
     public static final String TILESERVER_TILE_PATH = "/styles/standard";
     public static final String MAP_TILESERVER_REQUEST_TIMEOUT = "MAP_TILESERVER_REQUEST_TIMEOUT";
     public static final int MAP_TILESERVER_REQUEST_TIMEOUT_DEFAULT = 10000;
+    // Number of read only connections to the map tiles database used concurrently to read tiles
+    public static final String MAP_TILES_CONNECTIONS = "MAP_TILES_CONNECTIONS";
+    public static final int MAP_TILES_CONNECTIONS_DEFAULT = Math.max(2, Runtime.getRuntime().availableProcessors());
+    // Maximum size in MB of the in-memory tile cache
+    public static final String MAP_TILE_CACHE_MAX_SIZE_MB = "MAP_TILE_CACHE_MAX_SIZE_MB";
+    public static final int MAP_TILE_CACHE_MAX_SIZE_MB_DEFAULT = 32;
+    // Max age in seconds of tiles in HTTP caches
+    public static final String MAP_TILE_MAX_AGE = "MAP_TILE_MAX_AGE";
+    public static final int MAP_TILE_MAX_AGE_DEFAULT = 86400;
+    protected static final long MAP_TILES_CONNECTION_TIMEOUT_MILLIS = 10000;
+    // Highest zoom level of a tile, the column and row of a tile are packed into 28 bits each of its cache key
+    public static final int MAX_TILE_ZOOM = 28;
+    // Size of the memory mapped region of the map tiles database per connection
+    protected static final long MAP_TILES_MMAP_SIZE = 256L * 1024 * 1024;
     private static final Logger LOG = Logger.getLogger(MapService.class.getName());
-    // Shared SQL connection is fine concurrently in SQLite
-    protected Connection connection;
+    // Pool of read only connections, a connection is used by one request at a time
+    protected BlockingQueue<Connection> connections;
+    protected List<Connection> allConnections = new ArrayList<>();
+    protected int connectionCount;
+    protected Cache<Long, MapTile> tileCache;
+    protected int tileMaxAge;
     protected Path mapTilesPath;
     protected Path mapSettingsPath;
     protected Metadata metadata;
@@ -118,6 +146,16 @@ public class MapService implements ContainerService {
         return metadata;
     }
 
+    protected static Connection createConnection(Path mapTilesPath) throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        Connection connection = config.createConnection("jdbc:sqlite:" + mapTilesPath.toAbsolutePath());
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("pragma mmap_size = " + MAP_TILES_MMAP_SIZE);
+        }
+        return connection;
+    }
+
     protected static ObjectNode loadMapSettingsJson(Path mapSettingsPath) {
         ObjectNode mapSettings = null;
 
@@ -182,6 +220,15 @@ public class MapService implements ContainerService {
             }
         }
 
+        connectionCount = Math.max(1, getInteger(container.getConfig(), MAP_TILES_CONNECTIONS, MAP_TILES_CONNECTIONS_DEFAULT));
+        tileMaxAge = getInteger(container.getConfig(), MAP_TILE_MAX_AGE, MAP_TILE_MAX_AGE_DEFAULT);
+        long tileCacheMaxBytes = getInteger(container.getConfig(), MAP_TILE_CACHE_MAX_SIZE_MB, MAP_TILE_CACHE_MAX_SIZE_MB_DEFAULT) * 1024L * 1024L;
+        tileCache = CacheBuilder.newBuilder()
+            .maximumWeight(tileCacheMaxBytes)
+            .weigher((Long key, MapTile tile) -> tile.getWeight())
+            .recordStats()
+            .build();
+
         container.getService(ManagerWebService.class).getApiSingletons().add(
                 new MapResourceImpl(this, container.getService(ManagerIdentityService.class))
         );
@@ -228,9 +275,14 @@ public class MapService implements ContainerService {
 
         LOG.info("Starting map service with tile data: " + mapTilesPath.toAbsolutePath());
         Class.forName(org.sqlite.JDBC.class.getName());
-        connection = DriverManager.getConnection("jdbc:sqlite:" + mapTilesPath.toAbsolutePath());
+        connections = new ArrayBlockingQueue<>(connectionCount);
+        for (int i = 0; i < connectionCount; i++) {
+            Connection connection = createConnection(mapTilesPath);
+            allConnections.add(connection);
+            connections.add(connection);
+        }
 
-        metadata = getMetadata(connection);
+        metadata = getMetadata(allConnections.get(0));
         if (metadata.isValid()) {
             mapConfig = loadMapSettingsJson(mapSettingsPath);
             if (mapConfig == null) {
@@ -272,8 +324,17 @@ public class MapService implements ContainerService {
 
     @Override
     public void stop(Container container) throws Exception {
-        if (connection != null) {
-            connection.close();
+        for (Connection connection : allConnections) {
+            try {
+                connection.close();
+            } catch (Exception ex) {
+                LOG.warning("Error closing map tiles connection: " + ex);
+            }
+        }
+        allConnections.clear();
+        connections = null;
+        if (tileCache != null) {
+            tileCache.invalidateAll();
         }
     }
 
@@ -385,12 +446,64 @@ public class MapService implements ContainerService {
     }
 
     public byte[] getMapTile(int zoom, int column, int row) {
+        MapTile tile = getTile(zoom, column, row);
+        return tile != null ? tile.getData() : null;
+    }
+
+    /**
+     * @return The tile from the cache or the map tiles database, <code>null</code> if there is no such tile.
+     */
+    public MapTile getTile(int zoom, int column, int row) {
+        if (connections == null || !isValidTile(zoom, column, row)) {
+            return null;
+        }
+
+        long key = getTileKey(zoom, column, row);
+
+        MapTile tile = tileCache.getIfPresent(key);
+        if (tile == null) {
+            tile = new MapTile(readMapTile(zoom, column, row));
+            tileCache.put(key, tile);
+        }
+        return tile.getData() != null ? tile : null;
+    }
+
+    /**
+     * @return <code>true</code> if the zoom level is at most {@link #MAX_TILE_ZOOM} and the column and row are within
+     * the <code>2^zoom</code> tiles of the zoom level.
+     */
+    public static boolean isValidTile(int zoom, int column, int row) {
+        if (zoom < 0 || zoom > MAX_TILE_ZOOM) {
+            return false;
+        }
+        long tiles = 1L << zoom;
+        return column >= 0 && column < tiles && row >= 0 && row < tiles;
+    }
+
+    /**
+     * @return A key that is unique for each valid tile, see {@link #isValidTile}.
+     */
+    public static long getTileKey(int zoom, int column, int row) {
+        return ((long) zoom << 56) | ((long) column << 28) | row;
+    }
+
+    public int getTileMaxAge() {
+        return tileMaxAge;
+    }
+
+    protected byte[] readMapTile(int zoom, int column, int row) {
         // Flip y, oh why
-        row = new Double(Math.pow(2, zoom) - 1 - row).intValue();
+        row = (1 << zoom) - 1 - row;
 
+        Connection connection = null;
         PreparedStatement query = null;
         ResultSet result = null;
         try {
+            connection = connections.poll(MAP_TILES_CONNECTION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            if (connection == null) {
+                throw new IllegalStateException("Timeout waiting for a map tiles connection");
+            }
+
             query = connection.prepareStatement(
                 "select TILE_DATA from TILES where ZOOM_LEVEL = ? and TILE_COLUMN = ? and TILE_ROW = ?"
             );
@@ -407,10 +520,16 @@ public class MapService implements ContainerService {
             } else {
                 return null;
             }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
         } catch (Exception ex) {
             throw new RuntimeException(ex);
         } finally {
             closeQuietly(query, result);
+            if (connection != null) {
+                connections.offer(connection);
+            }
         }
     }
 
@@ -419,9 +538,38 @@ public class MapService implements ContainerService {
         return getClass().getSimpleName() + "{" +
                 "mapTilesPath=" + mapTilesPath +
                 ", mapSettingsPath=" + mapSettingsPath +
+                ", connections=" + connectionCount +
+                ", tileCacheStats=" + (tileCache != null ? tileCache.stats() : null) +
                 '}';
     }
 
+    /**
+     * A tile as cached in memory; the ETag is derived from the tile data which is immutable as long as the map tiles
+     * database doesn't change.
+     */
+    public static final class MapTile {
+        protected final byte[] data;
+        protected final String etag;
+
+        protected MapTile(byte[] data) {
+            this.data = data;
+            this.etag = data != null ? "\"" + Hashing.murmur3_128().hashBytes(data) + "\"" : null;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        protected int getWeight() {
+            // Include some overhead so that missing tiles are also accounted for
+            return 64 + (data != null ? data.length : 0);
+        }
+    }
+
     protected static final class Metadata {
         protected String attribution;
         protected ArrayNode vectorLayers;
@@ -28,6 +28,7 @@ import org.openremote.container.security.AuthContext;
 import org.openremote.container.web.ConnectionConstants;
 import org.openremote.manager.asset.AssetStorageService;
 import org.openremote.manager.event.ClientEventService;
+import org.openremote.manager.event.SharedEventConsumer;
 import org.openremote.manager.security.ManagerIdentityService;
 import org.openremote.manager.security.ManagerKeycloakIdentityProvider;
 import org.openremote.model.Constants;
@@ -46,8 +47,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -322,7 +323,7 @@ public class DefaultMQTTHandler extends MQTTHandler {
             return;
         }
 
-        Consumer<SharedEvent> eventConsumer = getSubscriptionEventConsumer(connection, topic, msg.getRequestedQos());
+        SharedEventConsumer<SharedEvent> eventConsumer = getSubscriptionEventConsumer(connection, topic, msg.getRequestedQos());
 
         EventSubscription subscription = new EventSubscription(
             subscriptionClass,
@@ -454,7 +455,7 @@ public class DefaultMQTTHandler extends MQTTHandler {
         return assetFilter;
     }
 
-    protected Consumer<SharedEvent> getSubscriptionEventConsumer(MqttConnection connection, Topic topic, MqttQoS mqttQoS) {
+    protected SharedEventConsumer<SharedEvent> getSubscriptionEventConsumer(MqttConnection connection, Topic topic, MqttQoS mqttQoS) {
         boolean isValueSubscription = ATTRIBUTE_VALUE_TOPIC.equalsIgnoreCase(topicTokenIndexToString(topic, 2));
         boolean isAssetTopic = isAssetTopic(topic);
 
@@ -485,22 +486,29 @@ public class DefaultMQTTHandler extends MQTTHandler {
         }
 
 
-        return ev -> {
+        // The consumers of all subscriptions matching an event are called in turn, so the payload is shared by them
+        return (ev, sharedEvents) -> {
+            Object data;
 
             if (isAssetTopic) {
-                if (ev instanceof AssetEvent) {
-                    mqttBrokerService.publishMessage(topicExpander.apply(ev), ev, mqttQoS);
+                if (!(ev instanceof AssetEvent)) {
+                    return;
                 }
+                data = ev;
             } else {
-                if (ev instanceof AttributeEvent) {
-                    AttributeEvent attributeEvent = (AttributeEvent) ev;
-
-                    if (isValueSubscription) {
-                        mqttBrokerService.publishMessage(topicExpander.apply(ev), attributeEvent.getValue().orElse(null), mqttQoS);
-                    } else {
-                        mqttBrokerService.publishMessage(topicExpander.apply(ev), ev, mqttQoS);
-                    }
+                if (!(ev instanceof AttributeEvent)) {
+                    return;
                 }
+                data = isValueSubscription ? ((AttributeEvent) ev).getValue().orElse(null) : ev;
+            }
+
+            try {
+                byte[] payload = sharedEvents != null
+                    ? sharedEvents.getPayload(data, mqttBrokerService::getPayload)
+                    : mqttBrokerService.getPayload(data);
+                mqttBrokerService.publishPayload(topicExpander.apply(ev), payload, mqttQoS);
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, "Couldn't send event to MQTT client: " + connection, e);
             }
         };
     }
@@ -341,13 +341,26 @@ public class MqttBrokerService extends RouteBuilder implements ContainerService,
     }
 
     public void publishMessage(String topic, Object data, MqttQoS qoS) {
+        byte[] payload;
         try {
-            ByteBuf payload = Unpooled.copiedBuffer(ValueUtil.asJSON(data).orElseThrow(() -> new IllegalStateException("Failed to convert payload to JSON string: " + data)), Charset.defaultCharset());
+            payload = getPayload(data);
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Couldn't send AttributeEvent to MQTT client", e);
+            return;
+        }
+        publishPayload(topic, payload, qoS);
+    }
 
+    /**
+     * Publish an already serialised payload, the bytes may be shared by several publishes.
+     */
+    public void publishPayload(String topic, byte[] payload, MqttQoS qoS) {
+        try {
+            // Each publish wraps the shared bytes with its own reader index and reference count
             MqttPublishMessage publishMessage = MqttMessageBuilders.publish()
                 .qos(qoS)
                 .topicName(topic)
-                .payload(payload)
+                .payload(Unpooled.wrappedBuffer(payload))
                 .build();
 
             mqttBroker.internalPublish(publishMessage, INTERNAL_CLIENT_ID);
@@ -355,4 +368,10 @@ public class MqttBrokerService extends RouteBuilder implements ContainerService,
             LOG.log(Level.WARNING, "Couldn't send AttributeEvent to MQTT client", e);
         }
     }
+
+    public byte[] getPayload(Object data) {
+        return ValueUtil.asJSON(data)
+            .orElseThrow(() -> new IllegalStateException("Failed to convert payload to JSON string: " + data))
+            .getBytes(Charset.defaultCharset());
+    }
 }
@@ -36,6 +36,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -43,18 +45,54 @@ import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
- * Test an {@link AssetState} with a {@link AssetQuery}.
+ * Test an {@link AssetState} with a {@link AssetQuery}. The predicates of the query are compiled when the instance is
+ * created, so an instance can be reused to test many asset states as long as the query is not modified.
  */
 public class AssetQueryPredicate implements Predicate<AssetState<?>> {
 
     final protected AssetQuery query;
     final protected TimerService timerService;
     final protected AssetStorageService assetStorageService;
+    final protected Predicate<Object> namesPredicate;
+    final protected Predicate<AssetState<?>> parentsPredicate;
+    final protected Predicate<String[]> pathsPredicate;
+    final protected Predicate<AssetState<?>> tenantPredicate;
+    final protected Predicate<AssetState<?>> attributesPredicate;
+    final protected Map<String, Boolean> assetTypeMatches = new ConcurrentHashMap<>();
 
     public AssetQueryPredicate(TimerService timerService, AssetStorageService assetStorageService, AssetQuery query) {
         this.timerService = timerService;
         this.assetStorageService = assetStorageService;
         this.query = query;
+
+        namesPredicate = query.names != null && query.names.length > 0
+            ? Arrays.stream(query.names)
+                .map(stringPredicate -> stringPredicate.asPredicate(timerService::getCurrentTimeMillis))
+                .reduce(name -> false, Predicate::or)
+            : null;
+
+        parentsPredicate = query.parents != null && query.parents.length > 0
+            ? Arrays.stream(query.parents)
+                .map(AssetQueryPredicate::asPredicate)
+                .reduce(assetState -> false, Predicate::or)
+            : null;
+
+        pathsPredicate = query.paths != null && query.paths.length > 0
+            ? Arrays.stream(query.paths)
+                .map(AssetQueryPredicate::asPredicate)
+                .reduce(path -> false, Predicate::or)
+            : null;
+
+        tenantPredicate = query.tenant != null ? AssetQueryPredicate.asPredicate(query.tenant) : null;
+
+        // TODO: LogicGroup AND doesn't make much sense when applying to a single asset state
+        attributesPredicate = query.attributes != null
+            ? asPredicate(timerService::getCurrentTimeMillis, query.attributes)
+            : null;
+    }
+
+    public AssetQuery getQuery() {
+        return query;
     }
 
     @Override
@@ -66,51 +104,30 @@ public class AssetQueryPredicate implements Predicate<AssetState<?>> {
             }
         }
 
-        if (query.names != null && query.names.length > 0) {
-            if (Arrays.stream(query.names)
-                    .map(stringPredicate -> stringPredicate.asPredicate(timerService::getCurrentTimeMillis))
-                    .noneMatch(np -> np.test(assetState.getAssetName()))) {
-                return false;
-            }
+        if (namesPredicate != null && !namesPredicate.test(assetState.getAssetName())) {
+            return false;
         }
 
-        if (query.parents != null && query.parents.length > 0) {
-            if (Arrays.stream(query.parents)
-                    .map(AssetQueryPredicate::asPredicate)
-                    .noneMatch(np -> np.test(assetState))) {
-                return false;
-            }
+        if (parentsPredicate != null && !parentsPredicate.test(assetState)) {
+            return false;
         }
 
         if (query.types != null && query.types.length > 0) {
-            if (Arrays.stream(query.types).noneMatch(type ->
-                        type.isAssignableFrom(
-                            ValueUtil.getAssetDescriptor(assetState.getAssetType())
-                                .orElse(ThingAsset.DESCRIPTOR).getType()))
-                    ) {
+            if (!matchesAssetType(assetState.getAssetType())) {
                 return false;
             }
         }
 
-        if (query.paths != null && query.paths.length > 0) {
-            if (Arrays.stream(query.paths)
-                    .map(AssetQueryPredicate::asPredicate)
-                    .noneMatch(np -> np.test(assetState.getPath()))) {
-                return false;
-            }
+        if (pathsPredicate != null && !pathsPredicate.test(assetState.getPath())) {
+            return false;
         }
 
-        if (query.tenant != null) {
-            if (!AssetQueryPredicate.asPredicate(query.tenant).test(assetState)) {
-                return false;
-            }
+        if (tenantPredicate != null && !tenantPredicate.test(assetState)) {
+            return false;
         }
 
-        if (query.attributes != null) {
-            // TODO: LogicGroup AND doesn't make much sense when applying to a single asset state
-            if (!asPredicate(timerService::getCurrentTimeMillis, query.attributes).test(assetState)) {
-                return false;
-            }
+        if (attributesPredicate != null && !attributesPredicate.test(assetState)) {
+            return false;
         }
 
         // Apply user ID predicate last as it is the most expensive
@@ -121,6 +138,24 @@ public class AssetQueryPredicate implements Predicate<AssetState<?>> {
         return true;
     }
 
+    /**
+     * @return <code>true</code> if the query has no type constraint or the asset type is or extends one of the types.
+     */
+    public boolean matchesAssetType(String assetType) {
+        if (query.types == null || query.types.length == 0) {
+            return true;
+        }
+        if (assetType == null) {
+            return matchesAssetClass(null);
+        }
+        return assetTypeMatches.computeIfAbsent(assetType, this::matchesAssetClass);
+    }
+
+    protected boolean matchesAssetClass(String assetType) {
+        Class<?> assetClass = ValueUtil.getAssetDescriptor(assetType).orElse(ThingAsset.DESCRIPTOR).getType();
+        return Arrays.stream(query.types).anyMatch(queryType -> queryType.isAssignableFrom(assetClass));
+    }
+
     public static Predicate<AssetState<?>> asPredicate(ParentPredicate predicate) {
         return assetState ->
             (predicate.id == null || predicate.id.equals(assetState.getParentId()))
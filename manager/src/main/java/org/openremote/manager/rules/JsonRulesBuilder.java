@@ -34,6 +34,7 @@ import org.openremote.model.query.AssetQuery;
 import org.openremote.model.query.LogicGroup;
 import org.openremote.model.query.UserQuery;
 import org.openremote.model.query.filter.AttributePredicate;
+import org.openremote.model.query.filter.DateTimePredicate;
 import org.openremote.model.rules.*;
 import org.openremote.model.rules.json.*;
 import org.openremote.model.util.TextUtil;
@@ -86,6 +87,7 @@ public class JsonRulesBuilder extends RulesBuilder {
         Set<AssetState<?>> previouslyUnmatchedAssetStates;
         Predicate<Long> timePredicate;
         RuleConditionEvaluationResult lastEvaluationResult;
+        boolean timeDependent;
 
         public RuleConditionState(RuleCondition ruleCondition, boolean trackUnmatched, TimerService timerService) throws Exception {
             this.timerService = timerService;
@@ -144,6 +146,7 @@ public class JsonRulesBuilder extends RulesBuilder {
                     // don't support it here either)
                     attributePredicates.groups = null;
                     assetStatePredicate = AssetQueryPredicate.asPredicate(timerService::getCurrentTimeMillis, attributePredicates);
+                    timeDependent = attributePredicates.items.stream().anyMatch(RuleConditionState::isTimeDependent);
                 }
                 ruleCondition.assets.orderBy = null;
                 ruleCondition.assets.limit = 0;
@@ -157,23 +160,34 @@ public class JsonRulesBuilder extends RulesBuilder {
 
             // Only interested in this when condition is of type asset query
             if (ruleCondition.assets != null) {
-                // Clear last trigger to ensure update runs again
-                lastEvaluationResult = null;
-
-                if (event == null || event.cause == PersistenceEvent.Cause.CREATE) {
+                if (event == null) {
                     // Do a complete refresh of unfiltered asset states based on the asset query (without attribute predicates)
                     unfilteredAssetStates = facts.matchAssetState(ruleCondition.assets).collect(Collectors.toSet());
+                    // Clear last trigger to ensure update runs again
+                    lastEvaluationResult = null;
                 } else {
-                    // Replace or remove asset state as required
+                    // Replace or remove asset state as required, the last trigger is only cleared (so the condition is
+                    // evaluated again on the next fire) if the changed asset state is relevant to this condition
                     switch (event.cause) {
+                        case CREATE:
+                            // Only insert if fact matches the asset query
+                            if (facts.getCompiledAssetQuery(ruleCondition.assets).predicate.test(event.assetState)) {
+                                unfilteredAssetStates.remove(event.assetState);
+                                unfilteredAssetStates.add(event.assetState);
+                                lastEvaluationResult = null;
+                            }
+                            break;
                         case UPDATE:
                             // Only insert if fact was already in there (i.e. it matches the asset type constraints)
                             if (unfilteredAssetStates.remove(event.assetState)) {
                                 unfilteredAssetStates.add(event.assetState);
+                                lastEvaluationResult = null;
                             }
                             break;
                         case DELETE:
-                            unfilteredAssetStates.remove(event.assetState);
+                            if (unfilteredAssetStates.remove(event.assetState)) {
+                                lastEvaluationResult = null;
+                            }
                             break;
                     }
                 }
@@ -187,8 +201,9 @@ public class JsonRulesBuilder extends RulesBuilder {
 
         void update(Map<String, Long> nextRecurAssetIdMap) {
 
-            // Last trigger is cleared by rule RHS execution if a match is already found then skip the update
-            if (lastEvaluationResult != null && lastEvaluationResult.matches) {
+            // Last trigger is cleared by rule RHS execution if a match is already found then skip the update; it is also
+            // cleared when a relevant asset state changes so a previous result can be reused unless it depends on time
+            if (lastEvaluationResult != null && (lastEvaluationResult.matches || !timeDependent)) {
                 return;
             }
 
@@ -320,6 +335,25 @@ public class JsonRulesBuilder extends RulesBuilder {
             log(Level.FINEST, "Rule evaluation result: " + lastEvaluationResult);
         }
 
+        /**
+         * Clear a last result that didn't match so the condition is evaluated again on the next update.
+         */
+        void clearUnmatchedResult() {
+            if (lastEvaluationResult != null && !lastEvaluationResult.matches) {
+                lastEvaluationResult = null;
+            }
+        }
+
+        /**
+         * @return <code>true</code> if the predicate depends on the current time rather than only on asset states.
+         */
+        static boolean isTimeDependent(AttributePredicate attributePredicate) {
+            return attributePredicate.value instanceof DateTimePredicate
+                || attributePredicate.previousValue instanceof DateTimePredicate
+                || (attributePredicate.meta != null && Arrays.stream(attributePredicate.meta)
+                    .anyMatch(metaPredicate -> metaPredicate.value instanceof DateTimePredicate));
+        }
+
         Collection<String> getMatchedAssetIds() {
 
             if (lastEvaluationResult == null) {
@@ -393,8 +427,10 @@ public class JsonRulesBuilder extends RulesBuilder {
                 return;
             }
 
-            // Clear out expired recurrence timers
-            nextRecurAssetIdMap.entrySet().removeIf(entry -> entry.getValue() <= currentMillisSupplier.get());
+            // Clear out expired recurrence timers, the assets can match again
+            if (nextRecurAssetIdMap.entrySet().removeIf(entry -> entry.getValue() <= currentMillisSupplier.get())) {
+                conditionStateMap.values().forEach(RuleConditionState::clearUnmatchedResult);
+            }
 
             // Update each condition state
             log(Level.FINEST, "Updating rule condition states for rule: " + rule.name);
@@ -874,10 +910,8 @@ public class JsonRulesBuilder extends RulesBuilder {
             List<AssetState<?>> matchingAssetStates = matchingAssetIds
                 .stream()
                 .map(assetId ->
-                        facts.getAssetStates()
-                                .stream()
-                                .filter(state -> state.getId().equals(assetId) && state.getName().equals(attributeUpdateAction.attributeName))
-                                .findFirst().orElseGet(() -> {
+                        facts.getAssetState(assetId, attributeUpdateAction.attributeName)
+                                .orElseGet(() -> {
                                     log(Level.WARNING, "Failed to find attribute in rule states for attribute update: " + new AttributeRef(assetId, attributeUpdateAction.attributeName));
                                     return null;
                         }))
@@ -39,17 +39,25 @@ import org.openremote.model.syslog.SyslogCategory;
 import org.openremote.model.util.TextUtil;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
-import static org.openremote.container.concurrent.GlobalLock.withLock;
 import static org.openremote.model.rules.RulesetStatus.*;
 
+/**
+ * A rules engine fires its deployments on the shared, bounded firing executor of the {@link RulesService}. Facts and
+ * deployments of an engine are guarded by its own engine lock so engines fire independently of each other. Fact
+ * changes never wait for a firing engine, they are queued and applied by the thread holding the engine lock before
+ * it is released.
+ */
 public class RulesEngine<T extends Ruleset> {
 
     /**
@@ -102,6 +110,7 @@ public class RulesEngine<T extends Ruleset> {
     protected static BiConsumer<RulesEngine<?>, RulesetDeployment> PAUSE_SCHEDULER = RulesEngine::schedulePause;
     final protected TimerService timerService;
     final protected ScheduledExecutorService executorService;
+    final protected ScheduledExecutorService firingExecutorService;
     final protected AssetStorageService assetStorageService;
     final protected ClientEventService clientEventService;
 
@@ -113,11 +122,20 @@ public class RulesEngine<T extends Ruleset> {
     final protected HistoricDatapoints historicFacade;
     final protected AssetLocationPredicateProcessor assetLocationPredicatesConsumer;
 
+    // Only modified holding the engine lock, readers on other threads use the deployment snapshot
     final protected Map<Long, RulesetDeployment> deployments = new LinkedHashMap<>();
     final protected RulesFacts facts;
     final protected InferenceRulesEngine engine;
 
-    protected boolean running;
+    final protected ReentrantLock engineLock = new ReentrantLock();
+    // Fact changes made while another thread holds the engine lock
+    final protected Queue<Runnable> pendingFactChanges = new ConcurrentLinkedQueue<>();
+    // Calls to other services which must not be made holding the engine lock, only accessed holding the engine lock
+    final protected List<Runnable> afterUnlockActions = new ArrayList<>();
+    final protected Object fireTimerLock = new Object();
+
+    protected volatile List<RulesetDeployment> deploymentSnapshot = Collections.emptyList();
+    protected volatile boolean running;
     protected long lastFireTimestamp;
     protected boolean trackLocationPredicates;
     protected ScheduledFuture<?> fireTimer;
@@ -134,6 +152,7 @@ public class RulesEngine<T extends Ruleset> {
     public RulesEngine(TimerService timerService,
                        ManagerIdentityService identityService,
                        ScheduledExecutorService executorService,
+                       ScheduledExecutorService firingExecutorService,
                        AssetStorageService assetStorageService,
                        AssetProcessingService assetProcessingService,
                        NotificationService notificationService,
@@ -144,6 +163,7 @@ public class RulesEngine<T extends Ruleset> {
                        AssetLocationPredicateProcessor assetLocationPredicatesConsumer) {
         this.timerService = timerService;
         this.executorService = executorService;
+        this.firingExecutorService = firingExecutorService;
         this.assetStorageService = assetStorageService;
         this.clientEventService = clientEventService;
         this.id = id;
@@ -171,14 +191,14 @@ public class RulesEngine<T extends Ruleset> {
      * @return a shallow copy of the asset state facts.
      */
     public Set<AssetState<?>> getAssetStates() {
-        return new HashSet<>(facts.getAssetStates());
+        return withEngineLockReturning(() -> new HashSet<>(facts.getAssetStates()));
     }
 
     /**
      * @return a shallow copy of the asset event facts.
      */
     public List<TemporaryFact<AssetState<?>>> getAssetEvents() {
-        return new ArrayList<>(facts.getAssetEvents());
+        return withEngineLockReturning(() -> new ArrayList<>(facts.getAssetEvents()));
     }
 
     public boolean isRunning() {
@@ -186,7 +206,7 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public boolean isError() {
-        for (RulesetDeployment deployment : deployments.values()) {
+        for (RulesetDeployment deployment : deploymentSnapshot) {
             if (deployment.isError() || deployment.getError() instanceof RulesLoopException) {
                 return true;
             }
@@ -195,11 +215,11 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public int getExecutionErrorDeploymentCount() {
-        return (int) deployments.values().stream().filter(deployment -> deployment.getStatus() == EXECUTION_ERROR || deployment.getStatus() == LOOP_ERROR).count();
+        return (int) deploymentSnapshot.stream().filter(deployment -> deployment.getStatus() == EXECUTION_ERROR || deployment.getStatus() == LOOP_ERROR).count();
     }
 
     public int getCompilationErrorDeploymentCount() {
-        return (int) deployments.values().stream().filter(deployment -> deployment.getStatus() == COMPILATION_ERROR).count();
+        return (int) deploymentSnapshot.stream().filter(deployment -> deployment.getStatus() == COMPILATION_ERROR).count();
     }
 
     public RuntimeException getError() {
@@ -217,126 +237,141 @@ public class RulesEngine<T extends Ruleset> {
         return null;
     }
 
+    /**
+     * @return <code>true</code> if the ruleset is deployed in this engine with the same rules; reads the deployment
+     * snapshot so the engine lock is not required.
+     */
+    public boolean isRulesetDeployed(Ruleset ruleset) {
+        return deploymentSnapshot.stream().anyMatch(deployment ->
+            Objects.equals(deployment.getId(), ruleset.getId()) && Objects.equals(deployment.ruleset.getRules(), ruleset.getRules()));
+    }
+
     /**
      * @return <code>true</code> if all rulesets are not in an error state.
      */
     public boolean canStart() {
-        return deployments.values().stream().noneMatch(rd -> rd.getStatus() == COMPILATION_ERROR && !rd.isContinueOnError());
+        return deploymentSnapshot.stream().noneMatch(rd -> rd.getStatus() == COMPILATION_ERROR && !rd.isContinueOnError());
     }
 
     public void addRuleset(T ruleset) {
+        withEngineLock(() -> {
 
-        // Check for previous version of this ruleset
-        RulesetDeployment deployment = deployments.get(ruleset.getId());
-        boolean wasRunning = this.running;
+            // Check for previous version of this ruleset
+            RulesetDeployment deployment = deployments.get(ruleset.getId());
+            boolean wasRunning = this.running;
 
-        stop();
+            stop();
 
-        if (deployment != null) {
-            removeRuleset(deployment.ruleset);
-        }
+            if (deployment != null) {
+                removeRuleset(deployment.ruleset);
+            }
 
-        deployment = new RulesetDeployment(ruleset, timerService, assetStorageService, executorService, assetsFacade, usersFacade, notificationFacade, historicFacade, predictedFacade);
-        boolean compiled;
+            deployment = new RulesetDeployment(ruleset, timerService, assetStorageService, executorService, assetsFacade, usersFacade, notificationFacade, historicFacade, predictedFacade);
+            boolean compiled;
 
-        if (TextUtil.isNullOrEmpty(ruleset.getRules())) {
-            LOG.finest("Ruleset is empty so no rules to deploy: " + ruleset.getName());
-            deployment.setStatus(EMPTY);
-            publishRulesetStatus(deployment);
-        } else if (!ruleset.isEnabled()) {
-            LOG.finest("Ruleset is disabled: " + ruleset.getName());
-            deployment.setStatus(DISABLED);
-            publishRulesetStatus(deployment);
-        } else {
-            deployment.updateValidity();
-            if (deployment.hasExpired()) {
-                LOG.fine("Ruleset validity period has expired: " + ruleset.getName());
-                deployment.setStatus(EXPIRED);
+            if (TextUtil.isNullOrEmpty(ruleset.getRules())) {
+                LOG.finest("Ruleset is empty so no rules to deploy: " + ruleset.getName());
+                deployment.setStatus(EMPTY);
+                publishRulesetStatus(deployment);
+            } else if (!ruleset.isEnabled()) {
+                LOG.finest("Ruleset is disabled: " + ruleset.getName());
+                deployment.setStatus(DISABLED);
                 publishRulesetStatus(deployment);
-                compiled = true;
             } else {
-                compiled = deployment.compile();
-            }
+                deployment.updateValidity();
+                if (deployment.hasExpired()) {
+                    LOG.fine("Ruleset validity period has expired: " + ruleset.getName());
+                    deployment.setStatus(EXPIRED);
+                    publishRulesetStatus(deployment);
+                    compiled = true;
+                } else {
+                    compiled = deployment.compile();
+                }
 
-            if (!compiled) {
-                LOG.log(Level.SEVERE, "Ruleset compilation error: " + ruleset.getName(), deployment.getError());
-                deployment.setStatus(COMPILATION_ERROR);
-                publishRulesetStatus(deployment);
-            } else if (running) {
-                startRuleset(deployment);
+                if (!compiled) {
+                    LOG.log(Level.SEVERE, "Ruleset compilation error: " + ruleset.getName(), deployment.getError());
+                    deployment.setStatus(COMPILATION_ERROR);
+                    publishRulesetStatus(deployment);
+                } else if (running) {
+                    startRuleset(deployment);
+                }
             }
-        }
 
-        deployments.put(ruleset.getId(), deployment);
-        updateDeploymentInfo();
+            deployments.put(ruleset.getId(), deployment);
+            updateDeploymentInfo();
 
-        if (wasRunning) {
-            start();
-        }
+            if (wasRunning) {
+                start();
+            }
+        });
     }
 
     /**
      * @return <code>true</code> if this rules engine has no deployments.
      */
     public boolean removeRuleset(Ruleset ruleset) {
-        RulesetDeployment deployment = deployments.get(ruleset.getId());
+        return withEngineLockReturning(() -> {
+            RulesetDeployment deployment = deployments.get(ruleset.getId());
 
-        if (deployment == null) {
-            LOG.finer("Ruleset cannot be retracted as it was never deployed: " + ruleset);
-            return deployments.size() == 0;
-        }
+            if (deployment == null) {
+                LOG.finer("Ruleset cannot be retracted as it was never deployed: " + ruleset);
+                return deployments.size() == 0;
+            }
 
-        stopRuleset(deployment);
+            stopRuleset(deployment);
 
-        deployment.setStatus(REMOVED);
-        publishRulesetStatus(deployment);
-        deployments.remove(ruleset.getId());
+            deployment.setStatus(REMOVED);
+            publishRulesetStatus(deployment);
+            deployments.remove(ruleset.getId());
 
-        ScheduledFuture<?> timer = pauseTimers.remove(ruleset.getId());
-        if (timer != null) timer.cancel(true);
-        timer = unpauseTimers.remove(ruleset.getId());
-        if (timer != null) timer.cancel(true);
+            ScheduledFuture<?> timer = pauseTimers.remove(ruleset.getId());
+            if (timer != null) timer.cancel(true);
+            timer = unpauseTimers.remove(ruleset.getId());
+            if (timer != null) timer.cancel(true);
 
-        updateDeploymentInfo();
-        start();
+            updateDeploymentInfo();
+            start();
 
-        return deployments.size() == 0;
+            return deployments.size() == 0;
+        });
     }
 
     public void start() {
-        if (running) {
-            return;
-        }
+        withEngineLock(() -> {
+            if (running) {
+                return;
+            }
 
-        if (deployments.size() == 0) {
-            LOG.finest("No rulesets so nothing to start");
-            return;
-        }
+            if (deployments.size() == 0) {
+                LOG.finest("No rulesets so nothing to start");
+                return;
+            }
 
-        if (!canStart()) {
-            LOG.fine("Cannot start rules engine one or more rulesets in an error state");
-            return;
-        }
+            if (!canStart()) {
+                LOG.fine("Cannot start rules engine one or more rulesets in an error state");
+                return;
+            }
 
-        LOG.info("Starting: " + this);
-        running = true;
-        trackLocationPredicates(true);
+            LOG.info("Starting: " + this);
+            running = true;
+            trackLocationPredicates(true);
 
-        deployments.values().forEach(this::startRuleset);
+            deployments.values().forEach(this::startRuleset);
 
-        updateDeploymentInfo();
-        publishRulesEngineStatus();
-        scheduleFire();
+            updateDeploymentInfo();
+            publishRulesEngineStatus();
+            scheduleFire();
 
-        // Start a background stats printer if INFO level logging is enabled
-        if (STATS_LOG.isLoggable(Level.INFO) || STATS_LOG.isLoggable(Level.FINEST)) {
-            if (STATS_LOG.isLoggable(Level.FINEST)) {
-                LOG.info("On " + this + ", enabling periodic statistics output at INFO level every 30 seconds on category: " + STATS_LOG.getName());
-            } else {
-                LOG.info("On " + this + ", enabling periodic full memory dump at FINEST level every 30 seconds on category: " + STATS_LOG.getName());
+            // Start a background stats printer if INFO level logging is enabled
+            if (STATS_LOG.isLoggable(Level.INFO) || STATS_LOG.isLoggable(Level.FINEST)) {
+                if (STATS_LOG.isLoggable(Level.FINEST)) {
+                    LOG.info("On " + this + ", enabling periodic statistics output at INFO level every 30 seconds on category: " + STATS_LOG.getName());
+                } else {
+                    LOG.info("On " + this + ", enabling periodic full memory dump at FINEST level every 30 seconds on category: " + STATS_LOG.getName());
+                }
+                statsTimer = executorService.scheduleAtFixedRate(this::printSessionStats, 3, 30, TimeUnit.SECONDS);
             }
-            statsTimer = executorService.scheduleAtFixedRate(this::printSessionStats, 3, 30, TimeUnit.SECONDS);
-        }
+        });
     }
 
     protected void trackLocationPredicates(boolean track) {
@@ -359,32 +394,36 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public void stop(boolean systemShutdownInProgress) {
-        if (!running) {
-            return;
-        }
-        LOG.info("Stopping: " + this);
-        if (fireTimer != null) {
-            fireTimer.cancel(true);
-            fireTimer = null;
-        }
-        if (statsTimer != null) {
-            statsTimer.cancel(true);
-            statsTimer = null;
-        }
-        pauseTimers.values().forEach(pauseTimer -> pauseTimer.cancel(true));
-        pauseTimers.clear();
-        unpauseTimers.values().forEach(unpauseTimer -> unpauseTimer.cancel(true));
-        unpauseTimers.clear();
+        withEngineLock(() -> {
+            if (!running) {
+                return;
+            }
+            LOG.info("Stopping: " + this);
+            synchronized (fireTimerLock) {
+                if (fireTimer != null) {
+                    fireTimer.cancel(true);
+                    fireTimer = null;
+                }
+            }
+            if (statsTimer != null) {
+                statsTimer.cancel(true);
+                statsTimer = null;
+            }
+            pauseTimers.values().forEach(pauseTimer -> pauseTimer.cancel(true));
+            pauseTimers.clear();
+            unpauseTimers.values().forEach(unpauseTimer -> unpauseTimer.cancel(true));
+            unpauseTimers.clear();
 
-        deployments.values().forEach(this::stopRuleset);
-        running = false;
+            deployments.values().forEach(this::stopRuleset);
+            running = false;
 
-        if (!systemShutdownInProgress && assetLocationPredicatesConsumer != null) {
-            assetLocationPredicatesConsumer.accept(this, null);
-        }
+            if (!systemShutdownInProgress && assetLocationPredicatesConsumer != null) {
+                runAfterEngineUnlock(() -> assetLocationPredicatesConsumer.accept(this, null));
+            }
 
-        updateDeploymentInfo();
-        publishRulesEngineStatus();
+            updateDeploymentInfo();
+            publishRulesEngineStatus();
+        });
     }
 
     protected void startRuleset(RulesetDeployment deployment) {
@@ -431,40 +470,61 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public void scheduleFire() {
-        withLock(toString() + "::scheduleFire", () -> {
+        synchronized (fireTimerLock) {
             // Schedule a firing within the guaranteed expiration time (so not immediately), and
             // only if the last firing is done. This effectively limits how often the rules engine
             // will fire, only once within the guaranteed minimum expiration time.
             if (fireTimer == null || fireTimer.isDone()) {
                 LOG.fine("Scheduling rules firing on: " + this);
-                fireTimer = executorService.schedule(
-                    () -> withLock(RulesEngine.this.toString() + "::fire", () -> {
+                fireTimer = firingExecutorService.schedule(
+                    this::fire,
+                    TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS,
+                    TimeUnit.MILLISECONDS
+                );
+            }
+        }
+    }
 
-                        fireTimer = null;
+    protected void fire() {
+        synchronized (fireTimerLock) {
+            fireTimer = null;
+        }
 
-                        // Are temporary facts present before rules are fired?
-                        boolean hadTemporaryFactsBefore = facts.hasTemporaryFacts();
+        // Don't block a firing thread while the engine is being modified, try again later
+        if (!engineLock.tryLock()) {
+            LOG.fine("Engine is locked, rescheduling rules firing on: " + this);
+            scheduleFire();
+            return;
+        }
 
-                        // Process rules for all deployments
-                        fireAllDeployments();
+        boolean fireAgain = false;
 
-                        // If there are temporary facts, or if there were some before and
-                        // now they are gone, schedule a new firing to guarantee processing
-                        // of expired and removed temporary facts
-                        if ((facts.hasTemporaryFacts() || (hadTemporaryFactsBefore && !facts.hasTemporaryFacts()))
-                            && !disableTemporaryFactExpiration) {
-                            LOG.fine("Temporary facts require firing rules on: " + this);
-                            executorService.submit(this::scheduleFire);
-                        } else if (!disableTemporaryFactExpiration) {
-                            LOG.fine("No temporary facts present/changed when firing rules on: " + this);
-                        }
+        try {
+            applyPendingFactChanges();
 
-                    }),
-                    TemporaryFact.GUARANTEED_MIN_EXPIRATION_MILLIS,
-                    TimeUnit.MILLISECONDS
-                );
+            // Are temporary facts present before rules are fired?
+            boolean hadTemporaryFactsBefore = facts.hasTemporaryFacts();
+
+            // Process rules for all deployments
+            fireAllDeployments();
+
+            // If there are temporary facts, or if there were some before and
+            // now they are gone, schedule a new firing to guarantee processing
+            // of expired and removed temporary facts
+            if ((facts.hasTemporaryFacts() || (hadTemporaryFactsBefore && !facts.hasTemporaryFacts()))
+                && !disableTemporaryFactExpiration) {
+                LOG.fine("Temporary facts require firing rules on: " + this);
+                fireAgain = true;
+            } else if (!disableTemporaryFactExpiration) {
+                LOG.fine("No temporary facts present/changed when firing rules on: " + this);
             }
-        });
+        } finally {
+            unlockEngine();
+        }
+
+        if (fireAgain) {
+            scheduleFire();
+        }
     }
 
     private void fireDeployments(Collection<RulesetDeployment> deploymentList) {
@@ -527,15 +587,17 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     protected void fireAllDeployments() {
-        fireDeployments(deployments.values());
+        fireDeployments(deploymentSnapshot);
     }
 
     protected void fireAllDeploymentsWithPredictedData() {
-        fireDeployments(deployments.values().stream().filter(RulesetDeployment::isTriggerOnPredictedData).collect(Collectors.toList()));
+        withEngineLock(() ->
+            fireDeployments(deploymentSnapshot.stream().filter(RulesetDeployment::isTriggerOnPredictedData).collect(Collectors.toList()))
+        );
     }
 
     protected void notifyAssetStatesChanged(AssetStateChangeEvent event) {
-        for (RulesetDeployment deployment : deployments.values()) {
+        for (RulesetDeployment deployment : deploymentSnapshot) {
             if (!deployment.isError()) {
                 deployment.onAssetStatesChanged(facts, event);
             }
@@ -543,42 +605,134 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     public void updateOrInsertAssetState(AssetState<?> assetState, boolean insert) {
-        facts.putAssetState(assetState);
-        // Make sure location predicate tracking is activated before notifying the deployments otherwise they won't report location predicates
-        trackLocationPredicates(trackLocationPredicates || (insert && assetState.getName().equals(Asset.LOCATION.getName())));
-        notifyAssetStatesChanged(new AssetStateChangeEvent(insert ? PersistenceEvent.Cause.CREATE : PersistenceEvent.Cause.UPDATE, assetState));
-        if (running) {
-            scheduleFire();
-        }
+        applyFactChange(() -> {
+            facts.putAssetState(assetState);
+            // Make sure location predicate tracking is activated before notifying the deployments otherwise they won't report location predicates
+            trackLocationPredicates(trackLocationPredicates || (insert && assetState.getName().equals(Asset.LOCATION.getName())));
+            notifyAssetStatesChanged(new AssetStateChangeEvent(insert ? PersistenceEvent.Cause.CREATE : PersistenceEvent.Cause.UPDATE, assetState));
+            if (running) {
+                scheduleFire();
+            }
+        });
     }
 
     public void removeAssetState(AssetState<?> assetState) {
-        facts.removeAssetState(assetState);
-        // Make sure location predicate tracking is activated before notifying the deployments otherwise they won't report location predicates
-        trackLocationPredicates(trackLocationPredicates || assetState.getName().equals(Asset.LOCATION.getName()));
-        notifyAssetStatesChanged(new AssetStateChangeEvent(PersistenceEvent.Cause.DELETE, assetState));
-        if (running) {
-            scheduleFire();
-        }
+        applyFactChange(() -> {
+            facts.removeAssetState(assetState);
+            // Make sure location predicate tracking is activated before notifying the deployments otherwise they won't report location predicates
+            trackLocationPredicates(trackLocationPredicates || assetState.getName().equals(Asset.LOCATION.getName()));
+            notifyAssetStatesChanged(new AssetStateChangeEvent(PersistenceEvent.Cause.DELETE, assetState));
+            if (running) {
+                scheduleFire();
+            }
+        });
     }
 
     public void insertAssetEvent(String expires, AssetState<?> assetState) {
-        facts.insertAssetEvent(expires, assetState);
-        if (running) {
-            scheduleFire();
+        applyFactChange(() -> {
+            facts.insertAssetEvent(expires, assetState);
+            if (running) {
+                scheduleFire();
+            }
+        });
+    }
+
+    /**
+     * Run the action holding the engine lock, any queued fact changes are applied first.
+     */
+    protected void withEngineLock(Runnable action) {
+        engineLock.lock();
+        try {
+            applyPendingFactChanges();
+            action.run();
+        } finally {
+            unlockEngine();
+        }
+    }
+
+    protected <R> R withEngineLockReturning(Supplier<R> supplier) {
+        engineLock.lock();
+        try {
+            applyPendingFactChanges();
+            return supplier.get();
+        } finally {
+            unlockEngine();
+        }
+    }
+
+    /**
+     * Fact changes don't wait for the engine lock: the change is applied immediately if the lock is available,
+     * otherwise it is queued and applied by the lock holder (e.g. the firing thread) before the lock is released.
+     */
+    protected void applyFactChange(Runnable change) {
+        pendingFactChanges.add(change);
+
+        if (engineLock.isHeldByCurrentThread()) {
+            applyPendingFactChanges();
+        } else if (engineLock.tryLock()) {
+            unlockEngine();
+        }
+    }
+
+    protected void applyPendingFactChanges() {
+        Runnable change;
+        while ((change = pendingFactChanges.poll()) != null) {
+            try {
+                change.run();
+            } catch (Exception ex) {
+                LOG.log(Level.SEVERE, "On " + this + ", error applying fact change", ex);
+            }
+        }
+    }
+
+    protected void unlockEngine() {
+        List<Runnable> actions = null;
+
+        if (engineLock.getHoldCount() == 1) {
+            applyPendingFactChanges();
+            if (!afterUnlockActions.isEmpty()) {
+                actions = new ArrayList<>(afterUnlockActions);
+                afterUnlockActions.clear();
+            }
+        }
+
+        engineLock.unlock();
+
+        if (actions != null) {
+            actions.forEach(Runnable::run);
+        }
+
+        // A change might have been queued after the queue was drained and before the lock was released
+        if (!engineLock.isHeldByCurrentThread() && !pendingFactChanges.isEmpty() && engineLock.tryLock()) {
+            unlockEngine();
+        }
+    }
+
+    /**
+     * Calls into other services that take the {@link org.openremote.container.concurrent.GlobalLock} must be
+     * made after the engine lock has been released, otherwise a firing engine can deadlock with a thread
+     * that holds the global lock and waits for the engine lock.
+     */
+    protected void runAfterEngineUnlock(Runnable action) {
+        if (engineLock.isHeldByCurrentThread()) {
+            afterUnlockActions.add(action);
+        } else {
+            action.run();
         }
     }
 
     protected void updateDeploymentInfo() {
+        // Immutable snapshot for the firing thread and readers that don't hold the engine lock
+        deploymentSnapshot = Collections.unmodifiableList(new ArrayList<>(deployments.values()));
         deploymentInfo = Arrays.toString(
-            deployments.values().stream()
+            deploymentSnapshot.stream()
                 .map(RulesetDeployment::toString)
                 .toArray(String[]::new)
         );
     }
 
     protected void printSessionStats() {
-        withLock(toString() + "::printSessionStats", () -> {
+        withEngineLock(() -> {
             Collection<AssetState<?>> assetStateFacts = facts.getAssetStates();
             Collection<TemporaryFact<AssetState<?>>> assetEventFacts = facts.getAssetEvents();
             Map<String, Object> namedFacts = facts.getNamedFacts();
@@ -604,7 +758,7 @@ public class RulesEngine<T extends Ruleset> {
      */
     protected void processLocationRules(List<AssetStateLocationPredicates> assetStateLocationPredicates) {
         if (assetLocationPredicatesConsumer != null) {
-            assetLocationPredicatesConsumer.accept(this, assetStateLocationPredicates);
+            runAfterEngineUnlock(() -> assetLocationPredicatesConsumer.accept(this, assetStateLocationPredicates));
         }
     }
 
@@ -613,11 +767,11 @@ public class RulesEngine<T extends Ruleset> {
             return RulesEngineStatus.RUNNING;
         }
 
-        return deployments.values().stream().anyMatch(RulesetDeployment::isError) ? RulesEngineStatus.ERROR : RulesEngineStatus.STOPPED;
+        return deploymentSnapshot.stream().anyMatch(RulesetDeployment::isError) ? RulesEngineStatus.ERROR : RulesEngineStatus.STOPPED;
     }
 
     protected void publishRulesEngineStatus() {
-        withLock(getClass().getSimpleName() + "::publishRulesEngineStatus", () -> {
+        withEngineLock(() -> {
 
             String engineId = id == null ? null : id.getRealm().orElse(id.getAssetId().orElse(null));
             int compilationErrors = getCompilationErrorDeploymentCount();
@@ -641,7 +795,7 @@ public class RulesEngine<T extends Ruleset> {
     }
 
     protected void publishRulesetStatus(RulesetDeployment deployment) {
-        withLock(getClass().getSimpleName() + "::publishRulesetStatus", () -> {
+        withEngineLock(() -> {
 
             Ruleset ruleset = deployment.ruleset;
             String engineId = id == null ? null : id.getRealm().orElse(id.getAssetId().orElse(null));
@@ -675,7 +829,7 @@ public class RulesEngine<T extends Ruleset> {
             return;
         }
 
-        withLock(getClass().getSimpleName() + ":pauseRuleset", () -> {
+        withEngineLock(() -> {
             LOG.info("Pausing ruleset: " + deployment.getRuleset().getName());
             stopRuleset(deployment);
             deployment.updateValidity();
@@ -705,7 +859,7 @@ public class RulesEngine<T extends Ruleset> {
             return;
         }
 
-        withLock(getClass().getSimpleName() + "::unpauseRuleset", () -> {
+        withEngineLock(() -> {
             LOG.info("Un-pausing ruleset: " + deployment.getRuleset().getName());
             startRuleset(deployment);
         });
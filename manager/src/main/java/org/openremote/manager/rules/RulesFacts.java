@@ -29,7 +29,10 @@ import org.openremote.model.asset.Asset;
 import org.openremote.model.asset.AssetEvent;
 import org.openremote.model.attribute.AttributeEvent;
 import org.openremote.model.query.AssetQuery;
+import org.openremote.model.query.LogicGroup;
+import org.openremote.model.query.filter.AttributePredicate;
 import org.openremote.model.query.filter.GeofencePredicate;
+import org.openremote.model.query.filter.StringPredicate;
 import org.openremote.model.rules.AssetState;
 import org.openremote.model.rules.Assets;
 import org.openremote.model.rules.TemporaryFact;
@@ -55,6 +58,9 @@ public class RulesFacts extends Facts implements RuleListener {
 
     public static final int INITIAL_CAPACITY = 100000;
 
+    // Candidate asset states are only matched in parallel above this size
+    public static final int PARALLEL_MATCH_THRESHOLD = 10000;
+
     public static final String CLOCK = "INTERNAL_CLOCK";
     public static final String ASSET_STATES = "INTERNAL_ASSET_STATES";
     public static final String ASSET_EVENTS = "INTERNAL_ASSET_EVENTS";
@@ -68,6 +74,10 @@ public class RulesFacts extends Facts implements RuleListener {
     final protected Logger LOG;
     final protected Map<String, Collection<AssetState<?>>> assetIdIndex = new HashMap<>();
     final protected Map<String, Collection<AssetState<?>>> assetTypeIndex = new HashMap<>();
+    final protected Map<String, Collection<AssetState<?>>> attributeNameIndex = new HashMap<>();
+    final protected Map<String, Collection<AssetState<?>>> parentIdIndex = new HashMap<>();
+    final protected Map<String, Collection<AssetState<?>>> realmIndex = new HashMap<>();
+    final protected Map<AssetQuery, CompiledAssetQuery> compiledAssetQueries = Collections.synchronizedMap(new WeakHashMap<>());
     public RulesClock clock;
     protected int triggerCount;
     protected boolean trackLocationRules;
@@ -80,7 +90,8 @@ public class RulesFacts extends Facts implements RuleListener {
         this.loggingContext = loggingContext;
         this.LOG = logger;
 
-        super.put(ASSET_STATES, new ArrayDeque<AssetState<?>>(INITIAL_CAPACITY));
+        // Asset states are unique by asset ID and attribute name
+        super.put(ASSET_STATES, new LinkedHashSet<AssetState<?>>(INITIAL_CAPACITY));
         super.put(ASSET_EVENTS, new ArrayDeque<AssetEvent>(INITIAL_CAPACITY));
         super.put(EXECUTION_VARS, new HashMap<>());
         super.put(ANONYMOUS_FACTS, new ArrayDeque<>(INITIAL_CAPACITY));
@@ -210,19 +221,11 @@ public class RulesFacts extends Facts implements RuleListener {
         if (LOG.isLoggable(Level.FINEST)) {
             LOG.finest("Fact change (UPDATE): " + assetState + " - on: " + loggingContext);
         }
+        // The existing state is indexed by its own parent, realm and type, which change when the asset is moved
+        getIndexedAssetState(assetState).ifPresent(this::removeFromIndexes);
         getAssetStates().remove(assetState);
         getAssetStates().add(assetState);
-
-        // Maintain index of all asset states for this asset by ID
-        assetIdIndex.putIfAbsent(assetState.getId(), new ArrayDeque<>());
-        assetIdIndex.get(assetState.getId()).remove(assetState);
-        assetIdIndex.get(assetState.getId()).add(assetState);
-
-        // Maintain index of all asset states for this asset by type
-        assetTypeIndex.putIfAbsent(assetState.getAssetType(), new ArrayDeque<>());
-        assetTypeIndex.get(assetState.getAssetType()).remove(assetState);
-        assetTypeIndex.get(assetState.getAssetType()).add(assetState);
-
+        addToIndexes(assetState);
         return this;
     }
 
@@ -231,20 +234,59 @@ public class RulesFacts extends Facts implements RuleListener {
             LOG.finest("Fact change (DELETE): " + assetState + " - on: " + loggingContext);
         }
         getAssetStates().remove(assetState);
+        removeFromIndexes(getIndexedAssetState(assetState).orElse(assetState));
+        return this;
+    }
 
-        // Maintain index of all asset states for this asset by ID
-        Collection<AssetState<?>> assetIdIndexCollection = assetIdIndex.get(assetState.getId());
-        if (assetIdIndexCollection != null) {
-            assetIdIndexCollection.remove(assetState);
-        }
+    /**
+     * Maintain the secondary indexes of asset states by asset ID, asset type, attribute name, parent ID and realm
+     * used to find the candidates of an {@link AssetQuery}.
+     */
+    protected void addToIndexes(AssetState<?> assetState) {
+        addToIndex(assetIdIndex, assetState.getId(), assetState);
+        addToIndex(assetTypeIndex, assetState.getAssetType(), assetState);
+        addToIndex(attributeNameIndex, assetState.getName(), assetState);
+        addToIndex(parentIdIndex, assetState.getParentId(), assetState);
+        addToIndex(realmIndex, assetState.getRealm(), assetState);
+    }
+
+    /**
+     * @return The indexed instance of the asset state with the same asset ID and attribute name.
+     */
+    protected Optional<AssetState<?>> getIndexedAssetState(AssetState<?> assetState) {
+        Collection<AssetState<?>> assetStates = assetIdIndex.get(assetState.getId());
+        return assetStates != null ? assetStates.stream().filter(assetState::equals).findFirst() : Optional.empty();
+    }
 
-        // Maintain index of all asset states for this asset by type
-        Collection<AssetState<?>> assetTypeIndexCollection = assetTypeIndex.get(assetState.getAssetType());
-        if (assetTypeIndexCollection != null) {
-            assetTypeIndexCollection.remove(assetState);
+    protected void removeFromIndexes(AssetState<?> assetState) {
+        removeFromIndex(assetIdIndex, assetState.getId(), assetState);
+        removeFromIndex(assetTypeIndex, assetState.getAssetType(), assetState);
+        removeFromIndex(attributeNameIndex, assetState.getName(), assetState);
+        removeFromIndex(parentIdIndex, assetState.getParentId(), assetState);
+        removeFromIndex(realmIndex, assetState.getRealm(), assetState);
+    }
+
+    protected static void addToIndex(Map<String, Collection<AssetState<?>>> index, String key, AssetState<?> assetState) {
+        if (key == null) {
+            return;
         }
+        Collection<AssetState<?>> assetStates = index.computeIfAbsent(key, k -> new LinkedHashSet<>());
+        // Replace the existing state
+        assetStates.remove(assetState);
+        assetStates.add(assetState);
+    }
 
-        return this;
+    protected static void removeFromIndex(Map<String, Collection<AssetState<?>>> index, String key, AssetState<?> assetState) {
+        if (key == null) {
+            return;
+        }
+        Collection<AssetState<?>> assetStates = index.get(key);
+        if (assetStates != null) {
+            assetStates.remove(assetState);
+            if (assetStates.isEmpty()) {
+                index.remove(key);
+            }
+        }
     }
 
     public RulesFacts insertAssetEvent(String expires, AssetState<?> assetState) {
@@ -422,6 +464,13 @@ public class RulesFacts extends Facts implements RuleListener {
                 .map(fact -> (T) fact);
     }
 
+    public Optional<AssetState<?>> getAssetState(String assetId, String attributeName) {
+        Collection<AssetState<?>> assetStates = assetIdIndex.get(assetId);
+        return assetStates == null
+            ? Optional.empty()
+            : assetStates.stream().filter(assetState -> assetState.getName().equals(attributeName)).findFirst();
+    }
+
     public Optional<AssetState<?>> matchFirstAssetState(AssetQuery assetQuery) {
         return matchAssetState(assetQuery).findFirst();
     }
@@ -432,8 +481,12 @@ public class RulesFacts extends Facts implements RuleListener {
             storeLocationPredicates(getLocationPredicates(assetQuery.attributes));
         }
 
-        Predicate<AssetState<?>> p = new AssetQueryPredicate(timerService, assetStorageService, assetQuery);
-        return matchAssetState(p);
+        CompiledAssetQuery compiledAssetQuery = getCompiledAssetQuery(assetQuery);
+        Collection<AssetState<?>> candidates = getCandidateAssetStates(compiledAssetQuery);
+        Stream<AssetState<?>> assetStates = candidates.size() > PARALLEL_MATCH_THRESHOLD
+            ? candidates.parallelStream()
+            : candidates.stream();
+        return assetStates.filter(compiledAssetQuery.predicate);
     }
 
     public Stream<AssetState<?>> matchAssetState(Predicate<AssetState<?>> p) {
@@ -452,7 +505,7 @@ public class RulesFacts extends Facts implements RuleListener {
 
     @SuppressWarnings("unchecked")
     public Stream<TemporaryFact<AssetState<?>>> matchAssetEvent(AssetQuery assetQuery) {
-        Predicate<AssetState<?>> p = new AssetQueryPredicate(timerService, assetStorageService, assetQuery);
+        Predicate<AssetState<?>> p = getCompiledAssetQuery(assetQuery).predicate;
         return getAssetEvents().stream().parallel()
                 .filter(fact -> this.matchFact(fact, (Class<AssetState<?>>)(Class)AssetState.class, p).isPresent());
     }
@@ -599,26 +652,19 @@ public class RulesFacts extends Facts implements RuleListener {
 
     protected RulesFacts invalidateAssetStateAndDispatch(String assetId, String attributeName, Object value) {
         // Remove the asset state from the facts, it is invalid now
-        getAssetStates()
-                .removeIf(assetState -> {
-                    boolean invalid = assetState.getId().equals(assetId) && assetState.getName().equals(attributeName);
-                    if (invalid) {
-                        if (LOG.isLoggable(Level.FINEST)) {
-                            LOG.finest("Fact change (INTERNAL DELETE): " + assetState + " - on: " + loggingContext);
-                        }
-                        // Maintain index of all asset states for this asset by ID
-                        Collection<AssetState<?>> assetIdIndexCollection = assetIdIndex.get(assetState.getId());
-                        if (assetIdIndexCollection != null) {
-                            assetIdIndexCollection.remove(assetState);
-                        }
-                        // Maintain index of all asset states for this asset by type
-                        Collection<AssetState<?>> assetTypeIndexCollection = assetTypeIndex.get(assetState.getAssetType());
-                        if (assetTypeIndexCollection != null) {
-                            assetTypeIndexCollection.remove(assetState);
-                        }
+        Collection<AssetState<?>> assetIdIndexCollection = assetIdIndex.get(assetId);
+        if (assetIdIndexCollection != null) {
+            assetIdIndexCollection.stream()
+                .filter(assetState -> assetState.getName().equals(attributeName))
+                .collect(Collectors.toList())
+                .forEach(assetState -> {
+                    if (LOG.isLoggable(Level.FINEST)) {
+                        LOG.finest("Fact change (INTERNAL DELETE): " + assetState + " - on: " + loggingContext);
                     }
-                    return invalid;
+                    getAssetStates().remove(assetState);
+                    removeFromIndexes(assetState);
                 });
+        }
 
         // Dispatch the update to the asset processing service
         AttributeEvent attributeEvent = new AttributeEvent(assetId, attributeName, value);
@@ -628,6 +674,166 @@ public class RulesFacts extends Facts implements RuleListener {
         return this;
     }
 
+    /**
+     * @return The cached {@link AssetQueryPredicate} of the query, compiled again if the query has been modified.
+     */
+    protected CompiledAssetQuery getCompiledAssetQuery(AssetQuery assetQuery) {
+        return compiledAssetQueries.compute(assetQuery, (query, compiledAssetQuery) ->
+            compiledAssetQuery != null && compiledAssetQuery.isCompiledFrom(query)
+                ? compiledAssetQuery
+                : new CompiledAssetQuery(new AssetQueryPredicate(timerService, assetStorageService, query)));
+    }
+
+    /**
+     * @return The asset states of the most selective index applicable to the query, or all asset states; the
+     * candidates must still be tested with the query predicate.
+     */
+    protected Collection<AssetState<?>> getCandidateAssetStates(CompiledAssetQuery compiledAssetQuery) {
+        AssetQuery query = compiledAssetQuery.predicate.getQuery();
+        List<Collection<AssetState<?>>> candidates = null;
+        int candidatesSize = getAssetStates().size();
+
+        if (query.ids != null && query.ids.length > 0) {
+            List<Collection<AssetState<?>>> indexed = getIndexed(assetIdIndex, Arrays.asList(query.ids));
+            if (size(indexed) < candidatesSize) {
+                candidates = indexed;
+                candidatesSize = size(indexed);
+            }
+        }
+
+        if (compiledAssetQuery.attributeNames != null) {
+            List<Collection<AssetState<?>>> indexed = getIndexed(attributeNameIndex, compiledAssetQuery.attributeNames);
+            if (size(indexed) < candidatesSize) {
+                candidates = indexed;
+                candidatesSize = size(indexed);
+            }
+        }
+
+        if (query.parents != null && query.parents.length > 0 && Arrays.stream(query.parents).allMatch(parent -> parent.id != null)) {
+            List<Collection<AssetState<?>>> indexed = getIndexed(parentIdIndex, Arrays.stream(query.parents).map(parent -> parent.id).collect(Collectors.toList()));
+            if (size(indexed) < candidatesSize) {
+                candidates = indexed;
+                candidatesSize = size(indexed);
+            }
+        }
+
+        if (query.tenant != null && query.tenant.realm != null) {
+            List<Collection<AssetState<?>>> indexed = getIndexed(realmIndex, Collections.singletonList(query.tenant.realm));
+            if (size(indexed) < candidatesSize) {
+                candidates = indexed;
+                candidatesSize = size(indexed);
+            }
+        }
+
+        if (query.types != null && query.types.length > 0) {
+            List<Collection<AssetState<?>>> indexed = assetTypeIndex.entrySet().stream()
+                .filter(entry -> compiledAssetQuery.predicate.matchesAssetType(entry.getKey()))
+                .map(Map.Entry::getValue)
+                .collect(Collectors.toList());
+            if (size(indexed) < candidatesSize) {
+                candidates = indexed;
+            }
+        }
+
+        if (candidates == null) {
+            return getAssetStates();
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        List<AssetState<?>> result = new ArrayList<>(size(candidates));
+        candidates.forEach(result::addAll);
+        return result;
+    }
+
+    protected static List<Collection<AssetState<?>>> getIndexed(Map<String, Collection<AssetState<?>>> index, Collection<String> keys) {
+        List<Collection<AssetState<?>>> indexed = new ArrayList<>(keys.size());
+        // Keys are distinct so the indexed collections are disjoint
+        for (String key : new LinkedHashSet<>(keys)) {
+            Collection<AssetState<?>> assetStates = index.get(key);
+            if (assetStates != null) {
+                indexed.add(assetStates);
+            }
+        }
+        return indexed;
+    }
+
+    protected static int size(List<Collection<AssetState<?>>> indexed) {
+        int size = 0;
+        for (Collection<AssetState<?>> assetStates : indexed) {
+            size += assetStates.size();
+        }
+        return size;
+    }
+
+    /**
+     * An {@link AssetQueryPredicate} cached for an {@link AssetQuery} instance; rule builders may still modify a query
+     * after it has been used, so the compiled predicate is only reused while the query references the same values.
+     */
+    protected static class CompiledAssetQuery {
+        final protected AssetQueryPredicate predicate;
+        final protected Object[] compiledFrom;
+        final protected String[] attributeNames;
+
+        protected CompiledAssetQuery(AssetQueryPredicate predicate) {
+            this.predicate = predicate;
+            this.compiledFrom = getCompiledFrom(predicate.getQuery());
+            this.attributeNames = getExactAttributeNames(predicate.getQuery().attributes);
+        }
+
+        protected boolean isCompiledFrom(AssetQuery query) {
+            return Arrays.equals(compiledFrom, getCompiledFrom(query));
+        }
+
+        protected static Object[] getCompiledFrom(AssetQuery query) {
+            return new Object[] {
+                query.ids, query.names, query.parents, query.paths, query.tenant, query.userIds, query.types, query.attributes
+            };
+        }
+
+        /**
+         * @return The attribute names an asset state must have to match the attribute predicates, if they can be
+         * determined; otherwise <code>null</code>.
+         */
+        protected static String[] getExactAttributeNames(LogicGroup<AttributePredicate> group) {
+            if (group == null || group.getItems().isEmpty()) {
+                return null;
+            }
+
+            if (group.operator == LogicGroup.Operator.OR) {
+                if (group.groups != null && !group.groups.isEmpty()) {
+                    return null;
+                }
+                List<String> names = new ArrayList<>();
+                for (AttributePredicate attributePredicate : group.getItems()) {
+                    String name = getExactName(attributePredicate);
+                    if (name == null) {
+                        return null;
+                    }
+                    names.add(name);
+                }
+                return names.toArray(new String[0]);
+            }
+
+            // Every item must match the same asset state so any exact name will do
+            for (AttributePredicate attributePredicate : group.getItems()) {
+                String name = getExactName(attributePredicate);
+                if (name != null) {
+                    return new String[] {name};
+                }
+            }
+            return null;
+        }
+
+        protected static String getExactName(AttributePredicate attributePredicate) {
+            StringPredicate name = attributePredicate.name;
+            if (name == null || name.value == null || name.negate || !name.caseSensitive || name.match != AssetQuery.Match.EXACT) {
+                return null;
+            }
+            return name.value;
+        }
+    }
+
     protected void storeLocationPredicates(List<GeofencePredicate> foundLocationPredicates) {
 
         if (foundLocationPredicates != null && !foundLocationPredicates.isEmpty()) {
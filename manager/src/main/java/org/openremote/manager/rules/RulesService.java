@@ -20,6 +20,7 @@
 package org.openremote.manager.rules;
 
 import org.apache.camel.builder.RouteBuilder;
+import org.openremote.container.concurrent.ContainerScheduledExecutor;
 import org.openremote.container.message.MessageBrokerService;
 import org.openremote.container.persistence.PersistenceEvent;
 import org.openremote.container.persistence.PersistenceService;
@@ -69,6 +70,7 @@ import static org.openremote.container.concurrent.GlobalLock.withLock;
 import static org.openremote.container.concurrent.GlobalLock.withLockReturning;
 import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
 import static org.openremote.container.persistence.PersistenceEvent.isPersistenceEventForEntityType;
+import static org.openremote.container.util.MapAccess.getInteger;
 import static org.openremote.container.util.MapAccess.getString;
 import static org.openremote.manager.gateway.GatewayService.isNotForGateway;
 import static org.openremote.model.attribute.Attribute.getAddedOrModifiedAttributes;
@@ -100,12 +102,17 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     public static final int PRIORITY = LOW_PRIORITY;
     public static final String RULE_EVENT_EXPIRES = "RULE_EVENT_EXPIRES";
     public static final String RULE_EVENT_EXPIRES_DEFAULT = "PT1H";
+    public static final String RULES_FIRING_THREADS = "RULES_FIRING_THREADS";
+    public static final int RULES_FIRING_THREADS_DEFAULT = Runtime.getRuntime().availableProcessors();
     private static final Logger LOG = Logger.getLogger(RulesService.class.getName());
     protected final Map<String, RulesEngine<TenantRuleset>> tenantEngines = new HashMap<>();
     protected final Map<String, RulesEngine<AssetRuleset>> assetEngines = new HashMap<>();
     protected List<GeofenceAssetAdapter> geofenceAssetAdapters = new ArrayList<>();
     protected TimerService timerService;
     protected ScheduledExecutorService executorService;
+    // Shared by all engines, each engine fires while holding its own engine lock
+    protected ScheduledExecutorService firingExecutorService;
+    protected int firingThreads;
     protected PersistenceService persistenceService;
     protected RulesetStorageService rulesetStorageService;
     protected ManagerIdentityService identityService;
@@ -128,7 +135,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     protected Set<AssetState<?>> preInitassetStates = new HashSet<>();
     protected String configEventExpires;
     protected boolean initDone;
-    protected boolean startDone;
+    protected volatile boolean startDone;
 
     @Override
     public int getPriority() {
@@ -184,6 +191,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
         geofenceAssetAdapters.sort(Comparator.comparingInt(GeofenceAssetAdapter::getPriority));
         container.getService(MessageBrokerService.class).getContext().addRoutes(this);
         configEventExpires = getString(container.getConfig(), RULE_EVENT_EXPIRES, RULE_EVENT_EXPIRES_DEFAULT);
+        firingThreads = Math.max(1, getInteger(container.getConfig(), RULES_FIRING_THREADS, RULES_FIRING_THREADS_DEFAULT));
 
         container.getService(ManagerWebService.class).getApiSingletons().add(
             new FlowResourceImpl(
@@ -234,6 +242,10 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
     @Override
     public void start(Container container) throws Exception {
 
+        if (firingExecutorService == null) {
+            firingExecutorService = new ContainerScheduledExecutor("Rules firing", firingThreads);
+        }
+
         if (!geofenceAssetAdapters.isEmpty()) {
             LOG.info("GeoefenceAssetAdapters found: " + geofenceAssetAdapters.size());
             locationPredicateRulesConsumer = this::onEngineLocationRulesChanged;
@@ -296,10 +308,13 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
         tenantEngines.values().forEach(RulesEngine::start);
         assetEngines.values().forEach(RulesEngine::start);
 
-        startDone = true;
-
-        preInitassetStates.forEach(this::doProcessAssetUpdate);
-        preInitassetStates.clear();
+        // Asset updates are processed concurrently when processing is partitioned, so hand over the queued states
+        // whilst holding the lock that processAssetUpdate uses to queue them
+        withLock(getClass().getSimpleName() + "::startDone", () -> {
+            startDone = true;
+            preInitassetStates.forEach(this::doProcessAssetUpdate);
+            preInitassetStates.clear();
+        });
     }
 
     @Override
@@ -326,6 +341,11 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
             assetStates.clear();
         });
 
+        if (firingExecutorService != null) {
+            firingExecutorService.shutdownNow();
+            firingExecutorService = null;
+        }
+
         for (GeofenceAssetAdapter geofenceAssetAdapter : geofenceAssetAdapters) {
             geofenceAssetAdapter.stop(container);
         }
@@ -340,12 +360,22 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
                                       Asset<?> asset,
                                       Attribute<?> attribute,
                                       Source source) throws AssetProcessingException {
+        AssetState<?> assetState = new AssetState<>(asset, attribute, source);
+
         if (!startDone) {
-            preInitassetStates.add(new AssetState<>(asset, attribute, source));
-        } else {
-            doProcessAssetUpdate(new AssetState<>(asset, attribute, source));
+            boolean queued = Boolean.TRUE.equals(withLockReturning(getClass().getSimpleName() + "::processAssetUpdate", () -> {
+                if (startDone) {
+                    return false;
+                }
+                preInitassetStates.add(assetState);
+                return true;
+            }));
+            if (queued) {
+                return false;
+            }
         }
 
+        doProcessAssetUpdate(assetState);
         return false;
     }
 
@@ -366,28 +396,24 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
         }
     }
 
+    /**
+     * Engine maps are guarded by the {@link org.openremote.container.concurrent.GlobalLock} and the deployments of an
+     * engine are read from its immutable snapshot, so this can be called from any thread.
+     */
     public boolean isRulesetKnown(Ruleset ruleset) {
-        if (ruleset instanceof GlobalRuleset) {
-            return globalEngine != null
-                && globalEngine.deployments != null
-                && globalEngine.deployments.containsKey(ruleset.getId())
-                && globalEngine.deployments.get(ruleset.getId()).ruleset.getRules().equals(ruleset.getRules());
-        }
-        if (ruleset instanceof TenantRuleset) {
-            TenantRuleset tenantRuleset = (TenantRuleset) ruleset;
-            return tenantEngines.get(tenantRuleset.getRealm()) != null
-                && tenantEngines.get(tenantRuleset.getRealm()).deployments != null
-                && tenantEngines.get(tenantRuleset.getRealm()).deployments.containsKey(ruleset.getId())
-                && tenantEngines.get(tenantRuleset.getRealm()).deployments.get(ruleset.getId()).ruleset.getRules().equals(ruleset.getRules());
-        }
-        if (ruleset instanceof AssetRuleset) {
-            AssetRuleset assetRuleset = (AssetRuleset) ruleset;
-            return assetEngines.get(assetRuleset.getAssetId()) != null
-                && assetEngines.get(assetRuleset.getAssetId()).deployments != null
-                && assetEngines.get(assetRuleset.getAssetId()).deployments.containsKey(ruleset.getId())
-                && assetEngines.get(assetRuleset.getAssetId()).deployments.get(ruleset.getId()).ruleset.getRules().equals(ruleset.getRules());
-        }
-        return false;
+        return Boolean.TRUE.equals(withLockReturning(getClass().getSimpleName() + "::isRulesetKnown", () -> {
+            RulesEngine<?> engine = null;
+
+            if (ruleset instanceof GlobalRuleset) {
+                engine = globalEngine;
+            } else if (ruleset instanceof TenantRuleset) {
+                engine = tenantEngines.get(((TenantRuleset) ruleset).getRealm());
+            } else if (ruleset instanceof AssetRuleset) {
+                engine = assetEngines.get(((AssetRuleset) ruleset).getAssetId());
+            }
+
+            return engine != null && engine.isRulesetDeployed(ruleset);
+        }));
     }
 
     public GeofenceDefinition[] getAssetGeofences(String assetId) {
@@ -622,6 +648,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
                     timerService,
                     identityService,
                     executorService,
+                    firingExecutorService,
                     assetStorageService,
                     assetProcessingService,
                     notificationService,
@@ -663,6 +690,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
                         timerService,
                         identityService,
                         executorService,
+                        firingExecutorService,
                         assetStorageService,
                         assetProcessingService,
                         notificationService,
@@ -738,6 +766,7 @@ public class RulesService extends RouteBuilder implements ContainerService, Asse
                         timerService,
                         identityService,
                         executorService,
+                        firingExecutorService,
                         assetStorageService,
                         assetProcessingService,
                         notificationService,
@@ -19,28 +19,71 @@
  */
 package org.openremote.manager.security;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.camel.builder.RouteBuilder;
+import org.openremote.container.message.MessageBrokerService;
+import org.openremote.container.persistence.PersistenceEvent;
 import org.openremote.container.persistence.PersistenceService;
+import org.openremote.container.security.AuthContext;
 import org.openremote.container.security.IdentityService;
 import org.openremote.container.timer.TimerService;
+import org.openremote.manager.asset.AssetStorageService;
 import org.openremote.manager.web.ManagerWebService;
 import org.openremote.model.Container;
+import org.openremote.model.asset.Asset;
+import org.openremote.model.asset.UserAssetLink;
+import org.openremote.model.security.Tenant;
+import org.openremote.model.security.User;
 
 import javax.persistence.EntityManager;
 import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
+import static org.openremote.container.persistence.PersistenceEvent.PERSISTENCE_TOPIC;
+import static org.openremote.container.util.MapAccess.getInteger;
+
+/**
+ * Caches the {@link Tenant}s and the positive results of {@link AssetStorageService#isUserAsset(String, String)} used
+ * to authorize client attribute writes and event subscriptions. Cached entries are invalidated by the
+ * {@link PersistenceEvent}s of {@link Tenant}s, {@link UserAssetLink}s, {@link User}s and {@link Asset}s; they also
+ * expire after {@link #AUTHORIZATION_CACHE_EXPIRY_SECONDS} as realms can be modified in Keycloak directly. An entry that
+ * is loaded while entries are invalidated is not kept as it may have been loaded before the change.
+ */
 public class ManagerIdentityService extends IdentityService {
 
     private static final Logger LOG = Logger.getLogger(ManagerIdentityService.class.getName());
+    public static final String AUTHORIZATION_CACHE_EXPIRY_SECONDS = "AUTHORIZATION_CACHE_EXPIRY_SECONDS";
+    public static final int AUTHORIZATION_CACHE_EXPIRY_SECONDS_DEFAULT = 60;
+    protected static final int AUTHORIZATION_CACHE_MAX_SIZE = 10000;
 
     protected ManagerIdentityProvider identityProvider;
     protected PersistenceService persistenceService;
+    protected AssetStorageService assetStorageService;
+    protected Cache<String, Optional<Tenant>> tenantCache;
+    // Only links that exist are cached so creating a link needs no invalidation, key is user ID and asset ID
+    protected Cache<String, Boolean> userAssetCache;
+    // Incremented before entries are invalidated, an entry loaded while it changes may be stale and is dropped again
+    protected final AtomicLong cacheGeneration = new AtomicLong();
 
     @Override
     public void init(Container container) throws Exception {
         super.init(container);
         persistenceService = container.getService(PersistenceService.class);
 
+        int cacheExpirySeconds = getInteger(container.getConfig(), AUTHORIZATION_CACHE_EXPIRY_SECONDS, AUTHORIZATION_CACHE_EXPIRY_SECONDS_DEFAULT);
+        tenantCache = CacheBuilder.newBuilder()
+            .maximumSize(cacheExpirySeconds > 0 ? AUTHORIZATION_CACHE_MAX_SIZE : 0)
+            .expireAfterWrite(Math.max(0, cacheExpirySeconds), TimeUnit.SECONDS)
+            .build();
+        userAssetCache = CacheBuilder.newBuilder()
+            .maximumSize(cacheExpirySeconds > 0 ? AUTHORIZATION_CACHE_MAX_SIZE : 0)
+            .expireAfterWrite(Math.max(0, cacheExpirySeconds), TimeUnit.SECONDS)
+            .build();
+
         container.getService(ManagerWebService.class).getApiSingletons().add(
             new TenantResourceImpl(container.getService(TimerService.class), this, container)
         );
@@ -49,10 +92,109 @@ public class ManagerIdentityService extends IdentityService {
         );
     }
 
+    @Override
+    public void start(Container container) throws Exception {
+        super.start(container);
+
+        if (container.hasService(AssetStorageService.class)) {
+            assetStorageService = container.getService(AssetStorageService.class);
+        }
+
+        container.getService(MessageBrokerService.class).getContext().addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from(PERSISTENCE_TOPIC)
+                    .routeId("AuthorizationCacheInvalidation")
+                    .process(exchange -> onPersistenceEvent(exchange.getIn().getBody(PersistenceEvent.class)));
+            }
+        });
+    }
+
     public ManagerIdentityProvider getIdentityProvider() {
         return identityProvider;
     }
 
+    /**
+     * @return The cached tenant of the realm, loaded from the identity provider if not cached.
+     */
+    public Tenant getTenant(String realm) {
+        if (realm == null) {
+            return null;
+        }
+        Optional<Tenant> tenant = tenantCache.getIfPresent(realm);
+        if (tenant == null) {
+            long generation = cacheGeneration.get();
+            tenant = Optional.ofNullable(identityProvider.getTenant(realm));
+            tenantCache.put(realm, tenant);
+            if (cacheGeneration.get() != generation) {
+                tenantCache.invalidate(realm);
+            }
+        }
+        return tenant.orElse(null);
+    }
+
+    /**
+     * Same as {@link ManagerIdentityProvider#isTenantActiveAndAccessible(AuthContext, String)} using the cached tenant.
+     */
+    public boolean isTenantActiveAndAccessible(AuthContext authContext, String realm) {
+        if (identityProvider instanceof ManagerBasicIdentityProvider) {
+            // Only the master realm exists, no need to load it
+            return identityProvider.isTenantActiveAndAccessible(authContext, realm);
+        }
+        return identityProvider.isTenantActiveAndAccessible(authContext, getTenant(realm));
+    }
+
+    /**
+     * Same as {@link AssetStorageService#isUserAsset(String, String)} but only queries the database if the link is not
+     * cached.
+     */
+    public boolean isUserAsset(String userId, String assetId) {
+        if (userId == null || assetId == null || assetStorageService == null) {
+            return false;
+        }
+        String key = getUserAssetKey(userId, assetId);
+        if (userAssetCache.getIfPresent(key) != null) {
+            return true;
+        }
+        long generation = cacheGeneration.get();
+        boolean isUserAsset = assetStorageService.isUserAsset(userId, assetId);
+        if (isUserAsset) {
+            userAssetCache.put(key, Boolean.TRUE);
+            if (cacheGeneration.get() != generation) {
+                userAssetCache.invalidate(key);
+            }
+        }
+        return isUserAsset;
+    }
+
+    protected void onPersistenceEvent(PersistenceEvent<?> persistenceEvent) {
+        Object entity = persistenceEvent.getEntity();
+
+        if (entity instanceof Tenant) {
+            cacheGeneration.incrementAndGet();
+            tenantCache.invalidate(((Tenant) entity).getRealm());
+            if (persistenceEvent.getCause() == PersistenceEvent.Cause.DELETE) {
+                userAssetCache.invalidateAll();
+            }
+        } else if (entity instanceof UserAssetLink) {
+            UserAssetLink.Id id = ((UserAssetLink) entity).getId();
+            cacheGeneration.incrementAndGet();
+            userAssetCache.invalidate(getUserAssetKey(id.getUserId(), id.getAssetId()));
+        } else if (entity instanceof User && persistenceEvent.getCause() == PersistenceEvent.Cause.DELETE) {
+            String prefix = getUserAssetKey(((User) entity).getId(), "");
+            cacheGeneration.incrementAndGet();
+            userAssetCache.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+        } else if (entity instanceof Asset && persistenceEvent.getCause() == PersistenceEvent.Cause.DELETE) {
+            String suffix = getUserAssetKey("", ((Asset<?>) entity).getId());
+            cacheGeneration.incrementAndGet();
+            userAssetCache.asMap().keySet().removeIf(key -> key.endsWith(suffix));
+        }
+    }
+
+    protected static String getUserAssetKey(String userId, String assetId) {
+        return userId + "/" + assetId;
+    }
+
     @Override
     public ManagerIdentityProvider createIdentityProvider(Container container, String identityProviderType) {
         if (identityProvider == null) {
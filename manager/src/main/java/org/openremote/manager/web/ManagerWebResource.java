@@ -47,7 +47,7 @@ public class ManagerWebResource extends WebResource {
     }
 
     public boolean isTenantActiveAndAccessible(String realm) {
-        return identityService.getIdentityProvider().isTenantActiveAndAccessible(this, realm);
+        return identityService.isTenantActiveAndAccessible(this, realm);
     }
 
     public boolean isTenantActiveAndAccessible(Tenant tenant) {
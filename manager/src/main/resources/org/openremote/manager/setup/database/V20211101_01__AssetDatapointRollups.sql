@@ -0,0 +1,65 @@
+/*
+  Hourly and daily rollups of numeric and boolean (as 1 or 0) asset datapoints, maintained by the asset datapoint
+  service when datapoints are stored.
+ */
+create table ASSET_DATAPOINT_HOURLY (
+  TIMESTAMP       timestamp        not null,
+  ENTITY_ID       varchar(22)      not null,
+  ATTRIBUTE_NAME  varchar(255)     not null,
+  VALUE_COUNT     int8             not null,
+  VALUE_SUM       double precision not null,
+  VALUE_MIN       double precision not null,
+  VALUE_MAX       double precision not null,
+  FIRST_TIMESTAMP timestamp        not null,
+  FIRST_VAL       double precision not null,
+  LAST_TIMESTAMP  timestamp        not null,
+  LAST_VAL        double precision not null,
+  primary key (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP)
+);
+
+create table ASSET_DATAPOINT_DAILY (
+  TIMESTAMP       timestamp        not null,
+  ENTITY_ID       varchar(22)      not null,
+  ATTRIBUTE_NAME  varchar(255)     not null,
+  VALUE_COUNT     int8             not null,
+  VALUE_SUM       double precision not null,
+  VALUE_MIN       double precision not null,
+  VALUE_MAX       double precision not null,
+  FIRST_TIMESTAMP timestamp        not null,
+  FIRST_VAL       double precision not null,
+  LAST_TIMESTAMP  timestamp        not null,
+  LAST_VAL        double precision not null,
+  primary key (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP)
+);
+
+alter table ASSET_DATAPOINT_HOURLY
+  add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade;
+
+alter table ASSET_DATAPOINT_DAILY
+  add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade;
+
+/*
+  Build the rollups of existing datapoints
+ */
+create temporary table DATAPOINT_NUMBER on commit drop as
+select TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME,
+       case jsonb_typeof(VALUE)
+         when 'number' then VALUE::text::double precision
+         when 'boolean' then case when VALUE::text::boolean then 1 else 0 end
+       end as V
+from ASSET_DATAPOINT
+where jsonb_typeof(VALUE) in ('number', 'boolean');
+
+insert into ASSET_DATAPOINT_HOURLY
+select date_trunc('hour', TIMESTAMP), ENTITY_ID, ATTRIBUTE_NAME, count(*), sum(V), min(V), max(V),
+       min(TIMESTAMP), (array_agg(V order by TIMESTAMP asc))[1],
+       max(TIMESTAMP), (array_agg(V order by TIMESTAMP desc))[1]
+from DATAPOINT_NUMBER
+group by date_trunc('hour', TIMESTAMP), ENTITY_ID, ATTRIBUTE_NAME;
+
+insert into ASSET_DATAPOINT_DAILY
+select date_trunc('day', TIMESTAMP), ENTITY_ID, ATTRIBUTE_NAME, count(*), sum(V), min(V), max(V),
+       min(TIMESTAMP), (array_agg(V order by TIMESTAMP asc))[1],
+       max(TIMESTAMP), (array_agg(V order by TIMESTAMP desc))[1]
+from DATAPOINT_NUMBER
+group by date_trunc('day', TIMESTAMP), ENTITY_ID, ATTRIBUTE_NAME;
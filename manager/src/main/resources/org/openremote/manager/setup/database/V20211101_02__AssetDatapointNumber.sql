@@ -0,0 +1,14 @@
+/*
+  Number and boolean (as 1 or 0) asset datapoints, used instead of ASSET_DATAPOINT when DATA_POINTS_NUMBER_STORAGE
+  is enabled.
+ */
+create table ASSET_DATAPOINT_NUMBER (
+  TIMESTAMP      timestamp        not null,
+  ENTITY_ID      varchar(22)      not null,
+  ATTRIBUTE_NAME varchar(255)     not null,
+  VALUE          double precision not null,
+  primary key (ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP)
+);
+
+alter table ASSET_DATAPOINT_NUMBER
+  add foreign key (ENTITY_ID) references ASSET (ID) on delete cascade;
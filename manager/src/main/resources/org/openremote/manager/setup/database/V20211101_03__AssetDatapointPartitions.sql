@@ -0,0 +1,110 @@
+/*
+  Time partitioning of the datapoint tables using table inheritance, each partition is a child table with a check
+  constraint on the timestamp range it holds. Rows inserted into a parent table are routed to the daily partition of
+  their timestamp by a trigger, which creates missing partitions. The partitions of each parent are registered in
+  DATAPOINT_PARTITION so that they can be detached and dropped by the datapoint services when their whole range is
+  older than the purge date.
+
+  Existing rows are not copied, the existing tables become the first partition of their parent which holds all rows
+  older than the day after the migration (or the latest stored timestamp).
+ */
+create table DATAPOINT_PARTITION (
+  PARTITION_TABLE varchar(255) not null,
+  PARENT_TABLE    varchar(255) not null,
+  START_TIMESTAMP timestamp,
+  END_TIMESTAMP   timestamp    not null,
+  primary key (PARTITION_TABLE)
+);
+
+create index DATAPOINT_PARTITION_PARENT on DATAPOINT_PARTITION(PARENT_TABLE, END_TIMESTAMP);
+
+/*
+  ############################# FUNCTIONS #############################
+ */
+create or replace function GET_DATAPOINT_PARTITION(PARENT text, TS timestamp)
+  returns text as
+$$
+declare
+  PARTITION_DAY date := TS::date;
+  PARTITION_NAME text := PARENT || '_p' || to_char(TS, 'YYYYMMDD');
+  EXISTING text;
+  FK text;
+begin
+  if to_regclass(PARTITION_NAME) is not null then
+    return PARTITION_NAME;
+  end if;
+
+  select P.PARTITION_TABLE into EXISTING
+  from DATAPOINT_PARTITION P
+  where P.PARENT_TABLE = PARENT
+    and (P.START_TIMESTAMP is null or P.START_TIMESTAMP <= TS)
+    and P.END_TIMESTAMP > TS;
+
+  if EXISTING is not null then
+    return EXISTING;
+  end if;
+
+  begin
+    execute format('create table %I (like %I including defaults including indexes, check (TIMESTAMP >= %L and TIMESTAMP < %L)) inherits (%I)',
+                   PARTITION_NAME, PARENT, PARTITION_DAY, PARTITION_DAY + 1, PARENT);
+
+    for FK in select pg_get_constraintdef(C.oid) from pg_constraint C where C.conrelid = PARENT::regclass and C.contype = 'f' loop
+      execute format('alter table %I add %s', PARTITION_NAME, FK);
+    end loop;
+
+    insert into DATAPOINT_PARTITION (PARTITION_TABLE, PARENT_TABLE, START_TIMESTAMP, END_TIMESTAMP)
+    values (PARTITION_NAME, PARENT, PARTITION_DAY, PARTITION_DAY + 1);
+  exception when duplicate_table or unique_violation then
+    -- Created by a concurrent transaction
+  end;
+
+  return PARTITION_NAME;
+end;
+$$
+language plpgsql;
+
+create or replace function ROUTE_DATAPOINT()
+  returns trigger as
+$$
+begin
+  execute format('insert into %I select ($1).* on conflict (TIMESTAMP, ENTITY_ID, ATTRIBUTE_NAME) do update set VALUE = excluded.VALUE',
+                 GET_DATAPOINT_PARTITION(TG_TABLE_NAME, NEW.TIMESTAMP)) using NEW;
+  return null;
+end;
+$$
+language plpgsql;
+
+/*
+  ############################# PARTITIONS #############################
+ */
+create index ASSET_DATAPOINT_ATTRIBUTE on ASSET_DATAPOINT(ENTITY_ID, ATTRIBUTE_NAME, TIMESTAMP);
+
+do
+$$
+declare
+  PARENT text;
+  LEGACY text;
+  BOUND date;
+  FK text;
+begin
+  foreach PARENT in array array ['asset_datapoint', 'asset_predicted_datapoint', 'asset_datapoint_number'] loop
+    LEGACY := PARENT || '_legacy';
+    execute format('select greatest(max(TIMESTAMP)::date, current_date) + 1 from %I', PARENT) into BOUND;
+
+    execute format('alter table %I rename to %I', PARENT, LEGACY);
+    execute format('alter index %I rename to %I', PARENT || '_pkey', LEGACY || '_pkey');
+    execute format('create table %I (like %I including defaults including indexes)', PARENT, LEGACY);
+
+    for FK in select pg_get_constraintdef(C.oid) from pg_constraint C where C.conrelid = LEGACY::regclass and C.contype = 'f' loop
+      execute format('alter table %I add %s', PARENT, FK);
+    end loop;
+
+    execute format('alter table %I add check (TIMESTAMP < %L)', LEGACY, BOUND);
+    execute format('alter table %I inherit %I', LEGACY, PARENT);
+    execute format('create trigger %I before insert on %I for each row execute procedure ROUTE_DATAPOINT()', PARENT || '_route', PARENT);
+
+    insert into DATAPOINT_PARTITION (PARTITION_TABLE, PARENT_TABLE, START_TIMESTAMP, END_TIMESTAMP)
+    values (LEGACY, PARENT, null, BOUND);
+  end loop;
+end
+$$;
@@ -0,0 +1,22 @@
+/*
+  Datapoints of attributes with a max age longer than the default are moved into a RETAINED child table of their
+  partitioned table before the partitions are dropped, so that partitions can be dropped by the default max age. The
+  retained tables are not registered as partitions, they are purged by attribute.
+ */
+do
+$$
+declare
+  PARENT text;
+  RETAINED text;
+  FK text;
+begin
+  foreach PARENT in array array ['asset_datapoint', 'asset_datapoint_number'] loop
+    RETAINED := PARENT || '_retained';
+    execute format('create table %I (like %I including defaults including indexes) inherits (%I)', RETAINED, PARENT, PARENT);
+
+    for FK in select pg_get_constraintdef(C.oid) from pg_constraint C where C.conrelid = PARENT::regclass and C.contype = 'f' loop
+      execute format('alter table %I add %s', RETAINED, FK);
+    end loop;
+  end loop;
+end
+$$;
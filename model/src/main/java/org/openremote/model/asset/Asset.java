@@ -465,6 +465,40 @@ public abstract class Asset<T extends Asset<?>> implements IdentifiableEntity<T>
         return path != null && Arrays.asList(getPath()).contains(assetId);
     }
 
+    /**
+     * Create a copy of this asset without serialization, the attributes are copied with {@link Attribute#copy} so the
+     * copy can be modified without affecting this instance; attribute and meta item values are not copied.
+     */
+    @SuppressWarnings("unchecked")
+    public T copy() {
+        Asset<?> copy;
+        try {
+            java.lang.reflect.Constructor<?> constructor = getClass().getDeclaredConstructor();
+            constructor.setAccessible(true);
+            copy = (Asset<?>) constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Asset class must have a no args constructor: " + getClass(), e);
+        }
+
+        copy.id = id;
+        copy.version = version;
+        copy.createdOn = createdOn != null ? new Date(createdOn.getTime()) : null;
+        copy.name = name;
+        copy.accessPublicRead = accessPublicRead;
+        copy.parentId = parentId;
+        copy.realm = realm;
+        copy.parentName = parentName;
+        copy.parentType = parentType;
+        copy.type = type;
+        copy.path = path != null ? Arrays.copyOf(path, path.length) : null;
+        if (attributes != null) {
+            AttributeMap copiedAttributes = new AttributeMap();
+            attributes.forEach(attribute -> copiedAttributes.addOrReplace(attribute.copy()));
+            copy.attributes = copiedAttributes;
+        }
+        return (T) copy;
+    }
+
     public AttributeMap getAttributes() {
         if (attributes == null) {
             attributes = new AttributeMap();
@@ -560,7 +594,7 @@ public abstract class Asset<T extends Asset<?>> implements IdentifiableEntity<T>
         }
         return "[" +
             attributes.values().stream().map(attr ->
-                "attr=" + attr.getName() + ",timestamp=" + attr.getTimestamp().orElse(null) + ",meta=" + getMetaString(attr.getMeta())).collect(Collectors.joining("; ")) +
+                "attr=" + attr.getName() + ",timestamp=" + attr.getTimestamp().orElse(null) + ",meta=" + getMetaString(attr.readMeta())).collect(Collectors.joining("; ")) +
         "]";
     }
 
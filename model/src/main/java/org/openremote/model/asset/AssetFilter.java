@@ -71,6 +71,10 @@ public class AssetFilter<T extends SharedEvent & AssetInfo> extends EventFilter<
         return this;
     }
 
+    public String[] getPath() {
+        return path;
+    }
+
     public AssetFilter<T> setPath(String[] path) {
         this.path = path;
         return this;
@@ -31,7 +31,9 @@ import org.openremote.model.value.MetaItemType;
 import org.openremote.model.value.ValueFilter;
 import org.openremote.model.util.ValueUtil;
 
+import java.util.Collection;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
@@ -76,9 +78,8 @@ import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
  * #SENSOR_QUEUE_SOURCE_PROTOCOL}.
  * <p>
  * If the user writes a new value into the linked attribute, the protocol translates this value change into a device (or
- * service) action. Write operations on attributes linked to an {@link Agent} can be consumed by the agent's protocol on
- * the {@link #ACTUATOR_TOPIC} where the message body will be an {@link AttributeEvent}. Each message also contains the
- * target protocol name in header {@link #ACTUATOR_TOPIC_TARGET_PROTOCOL}.
+ * service) action. Write operations on attributes linked to an {@link Agent} are passed as an {@link AttributeEvent}
+ * to {@link #processLinkedAttributeWrite} of the agent's protocol instance only.
  * <p>
  * To simplify protocol development some common protocol behaviour is recommended for generic protocols:
  * <h1>Inbound value conversion (Protocol -> Linked Attribute)</h1>
@@ -152,13 +153,9 @@ import static org.openremote.model.syslog.SyslogCategory.PROTOCOL;
 public interface Protocol<T extends Agent<T, ?, ?>> {
 
     Logger LOG = SyslogCategory.getLogger(PROTOCOL, Protocol.class);
-    String ACTUATOR_TOPIC_TARGET_PROTOCOL = "Protocol";
     String SENSOR_QUEUE_SOURCE_PROTOCOL = "Protocol";
 
     // TODO: Some of these options should be configurable depending on expected load etc.
-    // Message topic for communicating from asset/thing to protocol layer (asset attribute changed, trigger actuator)
-    String ACTUATOR_TOPIC = "seda://ActuatorTopic?multipleConsumers=true&concurrentConsumers=1&waitForTaskToComplete=NEVER&purgeWhenStopping=true&discardIfNoConsumers=true&limitConcurrentConsumers=false&size=1000";
-
     // Message queue for communicating from protocol to asset/thing layer (sensor changed, trigger asset attribute update)
     String SENSOR_QUEUE = "seda://SensorQueue?waitForTaskToComplete=NEVER&purgeWhenStopping=true&discardIfNoConsumers=false&size=25000";
 
@@ -203,12 +200,42 @@ public interface Protocol<T extends Agent<T, ?, ?>> {
      */
     void linkAttribute(String assetId, Attribute<?> attribute) throws Exception;
 
+    /**
+     * Links the {@link Attribute}s of any number of {@link Asset}s (keyed by asset ID) in one go, see
+     * {@link #linkAttribute}; attributes that are already linked are skipped and attributes that fail to link are
+     * logged and skipped.
+     */
+    default void linkAttributes(Map<String, ? extends Collection<Attribute<?>>> assetAttributes) {
+        assetAttributes.forEach((assetId, attributes) ->
+            attributes.forEach(attribute -> {
+                AttributeRef attributeRef = new AttributeRef(assetId, attribute.getName());
+                if (getLinkedAttributes().containsKey(attributeRef)) {
+                    return;
+                }
+                try {
+                    linkAttribute(assetId, attribute);
+                } catch (Exception ex) {
+                    LOG.log(Level.SEVERE, prefixLogMessage("Failed to link attribute: " + attributeRef), ex);
+                }
+            }));
+    }
+
     /**
      * Un-links an {@link Attribute} from its' agent; the agent will still be connected during this call. This is called
      * whenever the attribute is modified or removed or when the agent is modified or removed.
      */
     void unlinkAttribute(String assetId, Attribute<?> attribute) throws Exception;
 
+    /**
+     * Writes the value of the {@link AttributeEvent} of a linked {@link Attribute} to the device (or service). This is
+     * called by the agent service for every write to an attribute linked to this protocol instance, writes of the
+     * same protocol instance are passed in order of arrival but not necessarily on the same thread. Protocols that
+     * can't write to the device (or service) don't need to implement this, the write is logged and discarded.
+     */
+    default void processLinkedAttributeWrite(AttributeEvent event) {
+        LOG.info(prefixLogMessage("Protocol doesn't support writing linked attributes so discarding write: " + event));
+    }
+
     /**
      * Called before any calls to {@link #linkAttribute} to allow the protocol to perform required tasks with {@link
      * ContainerService}s (e.g. register Camel routes). The protocol instance should validate the settings defined in
@@ -216,6 +243,8 @@ public interface Protocol<T extends Agent<T, ?, ?>> {
      * time is up to the protocol implementation, it could be desirable to wait until {@link #linkAttribute} is called
      * for the first time, or it could be a connectionless protocol. If there is a configuration issue etc. then an
      * appropriate exception should be thrown and suitable logs made.
+     * <p>
+     * Instances of different agents may be started concurrently.
      */
     void start(Container container) throws Exception;
 
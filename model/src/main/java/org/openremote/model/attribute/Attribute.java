@@ -135,7 +135,10 @@ public class Attribute<T> extends AbstractNameValueHolder<T> implements MetaHold
     }
 
     @Valid
-    protected MetaMap meta;
+    protected volatile MetaMap meta;
+    // Meta is shared with a copy of this attribute and must be copied before it is modified, guarded by this attribute
+    @JsonIgnore
+    protected transient volatile boolean metaShared;
     @JsonProperty
     @JsonInclude(JsonInclude.Include.NON_DEFAULT)
     protected long timestamp;
@@ -230,19 +233,65 @@ public class Attribute<T> extends AbstractNameValueHolder<T> implements MetaHold
         this.name = name;
     }
 
-    public MetaMap getMeta() {
+    /**
+     * Create a copy of this attribute with the given value and timestamp without serialization. The meta of this
+     * attribute is shared with the copy until either of them calls {@link #getMeta} (copy-on-write), the value and
+     * meta item values themselves are not copied. Reads through {@link #readMeta} never copy the shared meta.
+     */
+    public synchronized Attribute<T> copyWithValue(T value, long timestamp) {
+        Attribute<T> copy = new Attribute<>();
+        copy.name = name;
+        copy.type = type;
+        copy.value = value;
+        copy.timestamp = timestamp;
+        if (meta != null) {
+            copy.meta = meta;
+            copy.metaShared = true;
+            metaShared = true;
+        }
+        return copy;
+    }
+
+    /**
+     * Create a copy of this attribute with the same value and timestamp, see {@link #copyWithValue}.
+     */
+    public Attribute<T> copy() {
+        return copyWithValue(value, timestamp);
+    }
+
+    /**
+     * @return The modifiable meta of this attribute; if the meta is shared with a copy then it is copied first. Use
+     * {@link #readMeta} when the meta is only read.
+     */
+    @JsonIgnore
+    @Override
+    public synchronized MetaMap getMeta() {
         if (meta == null) {
             meta = new MetaMap();
+        } else if (metaShared) {
+            meta = meta.copy();
+            metaShared = false;
         }
 
         return meta;
     }
 
-    public Attribute<T> setMeta(MetaMap meta) {
+    public synchronized Attribute<T> setMeta(MetaMap meta) {
         this.meta = meta;
+        metaShared = false;
         return this;
     }
 
+    /**
+     * @return The meta of this attribute for reading only; a meta shared with a copy is not copied so it must not be
+     * modified, use {@link #getMeta} to modify the meta.
+     */
+    @JsonProperty("meta")
+    public MetaMap readMeta() {
+        MetaMap meta = this.meta;
+        return meta != null ? meta : getMeta();
+    }
+
     public Attribute<T> addMeta(@NotNull MetaMap meta) {
         getMeta().addAll(meta);
         return this;
@@ -273,23 +322,27 @@ public class Attribute<T> extends AbstractNameValueHolder<T> implements MetaHold
     }
 
     public <U> Optional<U> getMetaValue(MetaItemDescriptor<U> metaItemDescriptor) {
-        return getMeta().getValue(metaItemDescriptor);
+        return readMeta().getValue(metaItemDescriptor);
     }
 
     public <U> U getMetaValueOrDefault(MetaItemDescriptor<U> metaItemDescriptor) {
-        return getMeta().getValueOrDefault(metaItemDescriptor);
+        return readMeta().getValueOrDefault(metaItemDescriptor);
     }
 
     public boolean hasMeta(MetaItemDescriptor<?> metaItemDescriptor) {
-        return getMeta().has(metaItemDescriptor);
+        return readMeta().has(metaItemDescriptor);
     }
 
     public boolean hasMeta(String metaItemName) {
-        return getMeta().has(metaItemName);
+        return readMeta().has(metaItemName);
     }
 
+    /**
+     * @return The meta item read through {@link #readMeta}, it must not be modified, use {@link #getMeta} to modify
+     * the meta.
+     */
     public <U> Optional<MetaItem<U>> getMetaItem(MetaItemDescriptor<U> metaItemDescriptor) {
-        return getMeta().get(metaItemDescriptor);
+        return readMeta().get(metaItemDescriptor);
     }
 
     @Override
@@ -323,7 +376,7 @@ public class Attribute<T> extends AbstractNameValueHolder<T> implements MetaHold
             "name='" + name + '\'' +
             ", value='" + value + '\'' +
             ", timestamp='" + getTimestamp().orElse(0L) + '\'' +
-            ", meta='" + (meta == null ? "" : getMeta().values().stream().map(MetaItem::toString).collect(Collectors.joining(","))) + '\'' +
+            ", meta='" + (meta == null ? "" : meta.values().stream().map(MetaItem::toString).collect(Collectors.joining(","))) + '\'' +
             "} ";
     }
 
@@ -56,6 +56,15 @@ public class MetaItem<T> extends AbstractNameValueHolder<T> {
     MetaItem() {
     }
 
+    /**
+     * Shallow copy, the value is shared.
+     */
+    MetaItem(MetaItem<T> metaItem) {
+        this.name = metaItem.name;
+        this.type = metaItem.type;
+        this.value = metaItem.value;
+    }
+
     @SuppressWarnings("unchecked")
     public MetaItem(MetaItemDescriptor<T> metaDescriptor) {
         // If it's a boolean meta descriptor assume the caller wants it to be true as a default
@@ -98,6 +98,21 @@ public class MetaMap extends NamedMap<MetaItem<?>> {
         super(map);
     }
 
+    /**
+     * @return A copy of this map with copies of the meta items, the meta item values are shared.
+     */
+    public MetaMap copy() {
+        List<MetaItem<?>> list = new ArrayList<>(size());
+        values().forEach(metaItem -> list.add(copyItem(metaItem)));
+        MetaMap metaMap = new MetaMap();
+        metaMap.putAllSilent(list);
+        return metaMap;
+    }
+
+    protected static <T> MetaItem<T> copyItem(MetaItem<T> metaItem) {
+        return new MetaItem<>(metaItem);
+    }
+
     // This works around the crappy type system and avoids the need for a type witness
     public <S> Optional<MetaItem<S>> get(MetaItemDescriptor<S> metaDescriptor) {
         return super.get(metaDescriptor);
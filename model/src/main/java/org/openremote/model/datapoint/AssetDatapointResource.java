@@ -21,11 +21,13 @@ package org.openremote.model.datapoint;
 
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.openremote.model.Constants;
+import org.openremote.model.attribute.AttributeRef;
 import org.openremote.model.http.RequestParams;
 import javax.annotation.security.RolesAllowed;
 import javax.ws.rs.*;
 import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Response;
 
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 
@@ -39,6 +41,13 @@ public interface AssetDatapointResource {
      * regular user tries to access an asset in a realm different than its authenticated realm, or if the user is
      * restricted and the asset is not linked to the user. A 400 status is returned if the asset attribute does
      * not have datapoint storage enabled.
+     * <p>
+     * Numeric and boolean values are reduced per interval with the {@link DatapointDownsampling} mode, which
+     * defaults to {@link DatapointDownsampling#AVG}. If the target number of points is set the period is instead
+     * divided into that many buckets of equal duration and empty buckets are omitted; values of other types are
+     * then reduced to the {@link DatapointDownsampling#FIRST} or {@link DatapointDownsampling#LAST} value of each
+     * bucket. The target number of points is limited to 10000, larger targets are reduced to this limit; a 400 status
+     * is returned if it is not greater than 0.
      */
     @GET
     @Path("{assetId}/attribute/{attributeName}")
@@ -49,9 +58,31 @@ public interface AssetDatapointResource {
                                    @PathParam("attributeName") String attributeName,
                                    @QueryParam("interval") DatapointInterval datapointInterval,
                                    @QueryParam("step") Integer stepSize,
+                                   @QueryParam("downsampling") DatapointDownsampling downsampling,
+                                   @QueryParam("points") Integer points,
                                    @QueryParam("fromTimestamp") long fromTimestamp,
                                    @QueryParam("toTimestamp") long toTimestamp);
 
+    /**
+     * Retrieve the historical datapoints of many asset attributes for the same interval and period, see
+     * {@link #getDatapoints}. The result has a series for each attribute in the order of the request, attributes that
+     * don't exist are omitted. A 403 status is returned if the user can't access any of the assets. At most 1000
+     * attributes can be queried at once, a 400 status is returned for more.
+     */
+    @POST
+    @Path("query")
+    @Consumes(APPLICATION_JSON)
+    @Produces(APPLICATION_JSON)
+    @RolesAllowed({Constants.READ_ASSETS_ROLE})
+    ValueDatapointSeries[] queryDatapoints(@BeanParam RequestParams requestParams,
+                                           @QueryParam("interval") DatapointInterval datapointInterval,
+                                           @QueryParam("step") Integer stepSize,
+                                           @QueryParam("downsampling") DatapointDownsampling downsampling,
+                                           @QueryParam("points") Integer points,
+                                           @QueryParam("fromTimestamp") long fromTimestamp,
+                                           @QueryParam("toTimestamp") long toTimestamp,
+                                           AttributeRef[] attributeRefs);
+
     @GET
     @Path("periods")
     @Produces(APPLICATION_JSON)
@@ -60,6 +91,10 @@ public interface AssetDatapointResource {
                                           @QueryParam("assetId") String assetId,
                                           @QueryParam("attributeName") String attributeName);
 
+    /**
+     * Export the datapoints of the asset attributes as a zip file containing a CSV file, the attribute references are
+     * a JSON array of {@link org.openremote.model.attribute.AttributeRef}.
+     */
     @GET
     @Path("export")
     @Produces("application/zip")
@@ -68,4 +103,21 @@ public interface AssetDatapointResource {
                             @QueryParam("attributeRefs") String attributeRefsString,
                             @QueryParam("fromTimestamp") long fromTimestamp,
                             @QueryParam("toTimestamp") long toTimestamp);
+
+    /**
+     * Export the datapoints of the asset attributes in the {@link DatapointExportFormat}, which defaults to
+     * {@link DatapointExportFormat#CSV}. The datapoints are streamed from the database into the response as they are
+     * read, so an export can be of any size; if gzip is set the response is a gzip file. The attribute references are
+     * a JSON array of {@link org.openremote.model.attribute.AttributeRef}.
+     */
+    @GET
+    @Path("export/stream")
+    @Produces({"text/csv", "application/octet-stream", "application/gzip"})
+    @RolesAllowed({Constants.READ_ASSETS_ROLE})
+    Response getDatapointExportStream(@BeanParam RequestParams requestParams,
+                                      @QueryParam("attributeRefs") String attributeRefsString,
+                                      @QueryParam("fromTimestamp") long fromTimestamp,
+                                      @QueryParam("toTimestamp") long toTimestamp,
+                                      @QueryParam("format") DatapointExportFormat format,
+                                      @QueryParam("gzip") boolean gzip);
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.model.datapoint;
+
+/**
+ * How the datapoints of a bucket are reduced when retrieving historical datapoints.
+ * <ul>
+ * <li>{@link #AVG}: The average value of the bucket</li>
+ * <li>{@link #MIN}/{@link #MAX}: The datapoint with the smallest/largest value of the bucket</li>
+ * <li>{@link #MIN_MAX}: The datapoints with the smallest and largest value of the bucket in chronological order,
+ * this preserves peaks in the data</li>
+ * <li>{@link #FIRST}/{@link #LAST}: The first/last datapoint of the bucket</li>
+ * <li>{@link #LTTB}: The datapoint of the bucket selected with the Largest-Triangle-Three-Buckets algorithm, this
+ * preserves the visual shape of the data</li>
+ * </ul>
+ * Only {@link #FIRST} and {@link #LAST} can be applied to values that are not numbers or booleans, other modes fall
+ * back to {@link #LAST} for such values.
+ */
+public enum DatapointDownsampling {
+
+    AVG,
+    MIN,
+    MAX,
+    MIN_MAX,
+    FIRST,
+    LAST,
+    LTTB
+}
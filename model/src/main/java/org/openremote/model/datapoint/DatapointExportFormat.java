@@ -0,0 +1,51 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.model.datapoint;
+
+/**
+ * Format of a datapoint export, each exported datapoint has the columns timestamp, asset name, attribute name and
+ * value.
+ * <ul>
+ * <li>{@link #CSV}: Comma separated values with a header row</li>
+ * <li>{@link #BINARY}: The PostgreSQL binary <code>COPY</code> format, which is more compact and faster to parse than
+ * CSV; values are <code>jsonb</code></li>
+ * </ul>
+ */
+public enum DatapointExportFormat {
+
+    CSV("text/csv", "csv"),
+    BINARY("application/octet-stream", "bin");
+
+    protected final String mediaType;
+    protected final String fileExtension;
+
+    DatapointExportFormat(String mediaType, String fileExtension) {
+        this.mediaType = mediaType;
+        this.fileExtension = fileExtension;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    public String getFileExtension() {
+        return fileExtension;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.model.datapoint;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.openremote.model.attribute.AttributeRef;
+
+import java.util.Arrays;
+
+/**
+ * The {@link ValueDatapoint}s of an asset attribute, as returned by a query for the datapoints of many attributes.
+ */
+public class ValueDatapointSeries {
+
+    protected AttributeRef ref;
+    protected ValueDatapoint<?>[] datapoints;
+
+    protected ValueDatapointSeries() {
+    }
+
+    @JsonCreator
+    public ValueDatapointSeries(@JsonProperty("ref") AttributeRef ref,
+                                @JsonProperty("datapoints") ValueDatapoint<?>[] datapoints) {
+        this.ref = ref;
+        this.datapoints = datapoints;
+    }
+
+    public AttributeRef getRef() {
+        return ref;
+    }
+
+    public ValueDatapoint<?>[] getDatapoints() {
+        return datapoints;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "ref=" + ref +
+            ", datapoints=" + Arrays.toString(datapoints) +
+            '}';
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.model.event.shared;
+
+import org.openremote.model.attribute.AttributeEvent;
+
+/**
+ * Optional policy of an {@link EventSubscription} for how matching events are delivered to the subscriber; when set,
+ * events are buffered per subscription and delivered in batches instead of one message per event, so a slow
+ * subscriber only delays its own events.
+ * <ul>
+ * <li>{@link #coalesce}: Only the latest {@link AttributeEvent} of each attribute is delivered per batch</li>
+ * <li>{@link #maxRateMillis}: Minimum time between two deliveries to the subscriber</li>
+ * <li>{@link #maxBufferSize}: Maximum number of undelivered events, the oldest events are dropped when exceeded</li>
+ * </ul>
+ */
+public class EventDeliveryPolicy {
+
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 1000;
+
+    protected boolean coalesce;
+    protected Integer maxRateMillis;
+    protected Integer maxBufferSize;
+
+    public EventDeliveryPolicy() {
+    }
+
+    public EventDeliveryPolicy(boolean coalesce, Integer maxRateMillis, Integer maxBufferSize) {
+        this.coalesce = coalesce;
+        this.maxRateMillis = maxRateMillis;
+        this.maxBufferSize = maxBufferSize;
+    }
+
+    public boolean isCoalesce() {
+        return coalesce;
+    }
+
+    public EventDeliveryPolicy setCoalesce(boolean coalesce) {
+        this.coalesce = coalesce;
+        return this;
+    }
+
+    public Integer getMaxRateMillis() {
+        return maxRateMillis;
+    }
+
+    public EventDeliveryPolicy setMaxRateMillis(Integer maxRateMillis) {
+        this.maxRateMillis = maxRateMillis;
+        return this;
+    }
+
+    public Integer getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    public EventDeliveryPolicy setMaxBufferSize(Integer maxBufferSize) {
+        this.maxBufferSize = maxBufferSize;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "coalesce=" + coalesce +
+            ", maxRateMillis=" + maxRateMillis +
+            ", maxBufferSize=" + maxBufferSize +
+            '}';
+    }
+}
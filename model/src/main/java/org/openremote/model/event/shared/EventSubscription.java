@@ -32,6 +32,9 @@ import java.util.function.Consumer;
  * <p>
  * A subscription can optionally contain a {@link #subscriptionId} which allows a client
  * to have multiple subscriptions for the same event type.
+ * <p>
+ * A subscription can optionally contain an {@link EventDeliveryPolicy} to coalesce, rate limit and bound the events
+ * delivered to the client.
  */
 public class EventSubscription<E extends SharedEvent> {
 
@@ -41,6 +44,7 @@ public class EventSubscription<E extends SharedEvent> {
     protected String eventType;
     protected EventFilter<E> filter;
     protected String subscriptionId;
+    protected EventDeliveryPolicy deliveryPolicy;
     @JsonIgnore
     protected boolean subscribed;
 
@@ -121,6 +125,15 @@ public class EventSubscription<E extends SharedEvent> {
         return subscriptionId;
     }
 
+    public EventDeliveryPolicy getDeliveryPolicy() {
+        return deliveryPolicy;
+    }
+
+    public EventSubscription<E> setDeliveryPolicy(EventDeliveryPolicy deliveryPolicy) {
+        this.deliveryPolicy = deliveryPolicy;
+        return this;
+    }
+
     public void setSubscribed(boolean subscribed) {
         this.subscribed = subscribed;
     }
@@ -135,6 +148,7 @@ public class EventSubscription<E extends SharedEvent> {
             "eventType='" + eventType + '\'' +
             ", filter=" + filter +
             ", subscriptionId='" + subscriptionId + '\'' +
+            ", deliveryPolicy=" + deliveryPolicy +
             '}';
     }
 }
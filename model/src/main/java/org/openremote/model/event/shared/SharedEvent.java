@@ -24,8 +24,11 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import org.openremote.model.asset.*;
 import org.openremote.model.attribute.AttributeEvent;
 import org.openremote.model.event.Event;
+import org.openremote.model.gateway.GatewayAttributeEventsEvent;
 import org.openremote.model.gateway.GatewayConnectionStatusEvent;
 import org.openremote.model.gateway.GatewayDisconnectEvent;
+import org.openremote.model.gateway.GatewaySyncDigestEvent;
+import org.openremote.model.gateway.GatewaySyncDigestRequestEvent;
 import org.openremote.model.rules.RulesEngineStatusEvent;
 import org.openremote.model.rules.RulesetChangedEvent;
 import org.openremote.model.simulator.RequestSimulatorState;
@@ -50,6 +53,9 @@ import org.openremote.model.syslog.SyslogEvent;
     @JsonSubTypes.Type(value = RulesetChangedEvent.class, name = "ruleset-changed"),
     @JsonSubTypes.Type(value = GatewayDisconnectEvent.class, name = "gateway-disconnect"),
     @JsonSubTypes.Type(value = GatewayConnectionStatusEvent.class, name = "gateway-connection-status"),
+    @JsonSubTypes.Type(value = GatewaySyncDigestRequestEvent.class, name = "gateway-sync-digest-request"),
+    @JsonSubTypes.Type(value = GatewaySyncDigestEvent.class, name = "gateway-sync-digest"),
+    @JsonSubTypes.Type(value = GatewayAttributeEventsEvent.class, name = "gateway-attribute-events"),
     @JsonSubTypes.Type(value = DeleteAssetsRequestEvent.class, name = "delete-assets-request"),
     @JsonSubTypes.Type(value = DeleteAssetsResponseEvent.class, name = "delete-assets-response")
 })
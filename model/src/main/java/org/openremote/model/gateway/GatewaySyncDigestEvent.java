@@ -0,0 +1,59 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.model.gateway;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.openremote.model.event.shared.SharedEvent;
+
+import java.util.Map;
+
+/**
+ * This event is used in response to a {@link GatewaySyncDigestRequestEvent}; {@link #digests} maps each requested
+ * asset ID prefix (or asset ID) to its digest. When the digests of individual assets are requested then {@link #depths}
+ * maps each asset ID to the depth of the asset in the asset tree.
+ */
+public class GatewaySyncDigestEvent extends SharedEvent {
+
+    protected Map<String, String> digests;
+    protected Map<String, Integer> depths;
+
+    @JsonCreator
+    public GatewaySyncDigestEvent(@JsonProperty("digests") Map<String, String> digests, @JsonProperty("depths") Map<String, Integer> depths) {
+        this.digests = digests;
+        this.depths = depths;
+    }
+
+    public Map<String, String> getDigests() {
+        return digests;
+    }
+
+    public Map<String, Integer> getDepths() {
+        return depths;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "digests=" + (digests == null ? "null" : digests.size()) +
+            ", depths=" + (depths == null ? "null" : depths.size()) +
+            '}';
+    }
+}
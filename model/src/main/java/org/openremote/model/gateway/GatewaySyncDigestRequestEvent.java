@@ -0,0 +1,60 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.model.gateway;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.openremote.model.event.shared.SharedEvent;
+
+import java.util.List;
+
+/**
+ * Sent by the central manager to a gateway to request the digests of the gateway's assets, expecting the gateway to
+ * answer with a {@link GatewaySyncDigestEvent}. The assets are grouped by the first {@link #prefixLength} characters of
+ * their ID and only groups matching one of the {@link #prefixes} (all if <code>null</code>) are included; a
+ * {@link #prefixLength} of 0 requests the digest of each individual asset.
+ */
+public class GatewaySyncDigestRequestEvent extends SharedEvent {
+
+    protected List<String> prefixes;
+    protected int prefixLength;
+
+    @JsonCreator
+    public GatewaySyncDigestRequestEvent(@JsonProperty("prefixes") List<String> prefixes, @JsonProperty("prefixLength") int prefixLength) {
+        this.prefixes = prefixes;
+        this.prefixLength = prefixLength;
+    }
+
+    public List<String> getPrefixes() {
+        return prefixes;
+    }
+
+    public int getPrefixLength() {
+        return prefixLength;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+            "prefixes=" + (prefixes == null ? "null" : prefixes.size()) +
+            ", prefixLength=" + prefixLength +
+            '}';
+    }
+}
@@ -48,7 +48,8 @@ public interface MapResource {
     ObjectNode getSettingsJs(@BeanParam RequestParams requestParams);
 
     /**
-     * Gets vector tile data for Mapbox GL
+     * Gets vector tile data for Mapbox GL, a 400 status is returned if the zoom level is above 28 or the column or row
+     * is not within the <code>2^zoom</code> tiles of the zoom level.
      */
     @GET
     @Produces("application/vnd.mapbox-vector-tile")
@@ -96,7 +96,7 @@ public class AssetState<T> implements Comparable<AssetState<?>>, NameValueHolder
         this.parentName = asset.getParentName();
         this.parentType = asset.getParentType();
         this.realm = asset.getRealm();
-        this.meta = attribute.getMeta();
+        this.meta = attribute.readMeta();
     }
 
     @Override
@@ -33,6 +33,7 @@ import org.openremote.model.value.ValueType;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 /**
@@ -44,6 +45,10 @@ public class MockProtocol extends AbstractProtocol<MockAgent, MockAgentLink> imp
     public List<AttributeEvent> protocolWriteAttributeEvents = new ArrayList<>();
     public List<String> protocolMethodCalls = new ArrayList<>();
     public boolean updateSensor = true;
+    // Delays the start of all instances and records how many are started concurrently
+    public static volatile long startDelayMillis;
+    public static final AtomicInteger startingInstances = new AtomicInteger();
+    public static final AtomicInteger maxStartingInstances = new AtomicInteger();
     protected Container container;
 
     public MockProtocol(MockAgent agent) {
@@ -55,6 +60,15 @@ public class MockProtocol extends AbstractProtocol<MockAgent, MockAgentLink> imp
         this.container = container;
         protocolMethodCalls.add("START");
 
+        maxStartingInstances.accumulateAndGet(startingInstances.incrementAndGet(), Math::max);
+        try {
+            if (startDelayMillis > 0) {
+                Thread.sleep(startDelayMillis);
+            }
+        } finally {
+            startingInstances.decrementAndGet();
+        }
+
         if (!agent.getRequired().isPresent()) {
             throw new IllegalStateException("Agent required attribute is not defined");
         }
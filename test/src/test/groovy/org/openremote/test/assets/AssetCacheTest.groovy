@@ -0,0 +1,117 @@
+package org.openremote.test.assets
+
+import org.openremote.manager.asset.AssetProcessingService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.setup.SetupService
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.attribute.MetaItem
+import org.openremote.test.ManagerContainerTrait
+import org.openremote.test.setup.KeycloakTestSetup
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import static org.openremote.model.value.MetaItemType.LABEL
+import static org.openremote.model.value.ValueType.INTEGER
+
+class AssetCacheTest extends Specification implements ManagerContainerTrait {
+
+    def "Check cached assets are copied, written through and invalidated"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.2)
+
+        when: "the container is started with the asset cache enabled"
+        def config = defaultConfig()
+        config << [(AssetStorageService.ASSET_CACHE_MAX_SIZE_MB): "16"]
+        def container = startContainer(config, defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+        def assetCache = assetStorageService.getAssetCache()
+
+        then: "the cache should be enabled"
+        assetCache != null
+
+        when: "a parent and a child asset are created"
+        def parent = new ThingAsset("Cache parent")
+            .setRealm(keycloakTestSetup.masterTenant.realm)
+        parent = assetStorageService.merge(parent)
+        def otherParent = new ThingAsset("Other cache parent")
+            .setRealm(keycloakTestSetup.masterTenant.realm)
+        otherParent = assetStorageService.merge(otherParent)
+        def child = new ThingAsset("Cache child")
+            .setParent(parent)
+        child.addOrReplaceAttributes(
+            new Attribute<>("counter", INTEGER, 0)
+                .addOrReplaceMeta(new MetaItem<>(LABEL, "Counter"))
+        )
+        child = assetStorageService.merge(child)
+
+        and: "the child is loaded twice"
+        def hitCount = assetCache.getStats().hitCount()
+        def firstLoad = assetStorageService.find(child.id, true)
+        def secondLoad = assetStorageService.find(child.id, true)
+
+        then: "the second load should be served from the cache as a separate instance"
+        assetCache.getStats().hitCount() > hitCount
+        firstLoad != null
+        secondLoad != null
+        !firstLoad.is(secondLoad)
+        !firstLoad.getAttribute("counter").get().is(secondLoad.getAttribute("counter").get())
+
+        when: "the loaded asset, its attribute value and meta are modified without storing them"
+        secondLoad.setName("Modified name")
+        secondLoad.getAttribute("counter").get().setValue(100)
+        secondLoad.getAttribute("counter").get().addOrReplaceMeta(new MetaItem<>(LABEL, "Modified"))
+
+        then: "the cached asset should not have been modified"
+        def cachedAsset = assetStorageService.find(child.id, true)
+        cachedAsset.name == "Cache child"
+        cachedAsset.getAttribute("counter").flatMap{it.value}.orElse(null) == 0
+        cachedAsset.getAttribute("counter").flatMap{it.getMetaValue(LABEL)}.orElse(null) == "Counter"
+
+        when: "an attribute event updates the child"
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(child.id, "counter", 5))
+
+        then: "the new value should be written through to the cache"
+        conditions.eventually {
+            assert assetStorageService.find(child.id, true).getAttribute("counter").flatMap{it.value}.orElse(null) == 5
+        }
+
+        when: "the child is renamed"
+        child = assetStorageService.find(child.id, true)
+        child.setName("Renamed cache child")
+        child = assetStorageService.merge(child)
+
+        then: "the cached asset should have been invalidated"
+        assetStorageService.find(child.id, true).name == "Renamed cache child"
+
+        when: "the child is moved to another parent"
+        child = assetStorageService.find(child.id, true)
+        child.setParent(otherParent)
+        child = assetStorageService.merge(child)
+
+        then: "the cached asset should have the new path"
+        def movedChild = assetStorageService.find(child.id, true)
+        movedChild.parentId == otherParent.id
+        movedChild.path.toList().contains(otherParent.id)
+        !movedChild.path.toList().contains(parent.id)
+
+        when: "the parent of the child is renamed"
+        otherParent = assetStorageService.find(otherParent.id, true)
+        otherParent.setName("Renamed other cache parent")
+        assetStorageService.merge(otherParent)
+
+        then: "the cached child should have been invalidated with its parent"
+        assetStorageService.find(child.id, true).parentName == "Renamed other cache parent"
+
+        when: "the child is deleted"
+        def deleted = assetStorageService.delete([child.id])
+
+        then: "the child should no longer be found"
+        deleted
+        assetStorageService.find(child.id, true) == null
+    }
+}
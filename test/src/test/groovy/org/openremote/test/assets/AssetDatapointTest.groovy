@@ -1,19 +1,28 @@
 package org.openremote.test.assets
 
 import org.openremote.agent.protocol.simulator.SimulatorProtocol
+import org.openremote.container.persistence.PersistenceService
 import org.openremote.manager.agent.AgentService
 import org.openremote.manager.asset.AssetProcessingService
 import org.openremote.manager.asset.AssetStorageService
 import org.openremote.manager.datapoint.AssetDatapointService
+import org.openremote.manager.datapoint.DatapointRollups
 import org.openremote.manager.setup.SetupService
 import org.openremote.test.setup.ManagerTestSetup
+import org.openremote.model.attribute.Attribute
 import org.openremote.model.attribute.AttributeRef
+import org.openremote.model.attribute.MetaItem
+import org.openremote.model.datapoint.AssetDatapoint
+import org.openremote.model.datapoint.DatapointDownsampling
 import org.openremote.model.datapoint.DatapointInterval
+import org.openremote.model.util.Pair
 import org.openremote.model.util.ValueUtil
+import org.openremote.model.value.MetaItemType
 import org.openremote.test.ManagerContainerTrait
 import spock.lang.Specification
 import spock.util.concurrent.PollingConditions
 
+import java.sql.Timestamp
 import java.time.Instant
 import java.time.LocalDateTime
 import java.time.ZoneId
@@ -23,7 +32,11 @@ import java.util.concurrent.TimeUnit
 import static java.util.concurrent.TimeUnit.DAYS
 import static java.util.concurrent.TimeUnit.MINUTES
 import static java.util.concurrent.TimeUnit.SECONDS
+import static org.openremote.manager.datapoint.AbstractDatapointService.MAX_DOWNSAMPLING_POINTS
+import static org.openremote.manager.datapoint.AbstractDatapointService.MAX_QUERY_ATTRIBUTES
 import static org.openremote.manager.datapoint.AssetDatapointService.DATA_POINTS_MAX_AGE_DAYS_DEFAULT
+import static org.openremote.manager.datapoint.AssetDatapointService.DATA_POINTS_NUMBER_STORAGE
+import static org.openremote.model.value.ValueType.NUMBER
 import static org.openremote.test.setup.ManagerTestSetup.thingLightToggleAttributeName
 import static spock.util.matcher.HamcrestMatchers.closeTo
 
@@ -241,6 +254,87 @@ class AssetDatapointTest extends Specification implements ManagerContainerTrait
             assert aggregatedDatapoints[60].value == 0
         }
 
+        and: "the datapoints of many attributes retrieved together should match the datapoints of each attribute"
+        conditions.eventually {
+            def thing = assetStorageService.find(managerTestSetup.thingId, true)
+            def fromTimestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault()).minus(1, ChronoUnit.HOURS)
+            def toTimestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault())
+            def series = assetDatapointService.getValueDatapoints(
+                [
+                    new AttributeRef(managerTestSetup.thingId, "light1PowerConsumption"),
+                    new AttributeRef(managerTestSetup.thingId, "doesNotExist"),
+                    new AttributeRef(managerTestSetup.thingId, thingLightToggleAttributeName)
+                ] as AttributeRef[],
+                DatapointInterval.MINUTE,
+                null,
+                null,
+                null,
+                fromTimestamp,
+                toTimestamp
+            )
+            assert series.length == 2
+            assert series[0].ref == new AttributeRef(managerTestSetup.thingId, "light1PowerConsumption")
+            assert series[1].ref == new AttributeRef(managerTestSetup.thingId, thingLightToggleAttributeName)
+            [0, 1].each { i ->
+                def datapoints = assetDatapointService.getValueDatapoints(
+                    thing.getId(),
+                    thing.getAttribute(series[i].ref.name).orElseThrow({ new RuntimeException("Missing attribute") }),
+                    DatapointInterval.MINUTE,
+                    null,
+                    fromTimestamp,
+                    toTimestamp
+                )
+                assert series[i].datapoints.collect { it.timestamp } == datapoints.collect { it.timestamp }
+                assert series[i].datapoints.collect { it.value } == datapoints.collect { it.value }
+            }
+        }
+
+        when: "datapoints are retrieved with a target number of points that is not greater than 0"
+        def powerAttribute = assetStorageService.find(managerTestSetup.thingId, true).getAttribute("light1PowerConsumption").orElseThrow({ new RuntimeException("Missing attribute") })
+        assetDatapointService.getValueDatapoints(
+            managerTestSetup.thingId,
+            powerAttribute,
+            null,
+            null,
+            DatapointDownsampling.MAX,
+            0,
+            LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault()).minus(1, ChronoUnit.HOURS),
+            LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault())
+        )
+
+        then: "the request should be rejected"
+        thrown(IllegalStateException)
+
+        when: "datapoints are retrieved with a target number of points above the maximum"
+        def datapointsWithLargeTarget = assetDatapointService.getValueDatapoints(
+            managerTestSetup.thingId,
+            powerAttribute,
+            null,
+            null,
+            DatapointDownsampling.MIN_MAX,
+            Integer.MAX_VALUE,
+            LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault()).minus(1, ChronoUnit.HOURS),
+            LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault())
+        )
+
+        and: "datapoints of a long period are retrieved without a target number of points"
+        def datapointsWithoutTarget = assetDatapointService.getValueDatapoints(
+            managerTestSetup.thingId,
+            powerAttribute,
+            DatapointInterval.MINUTE,
+            null,
+            DatapointDownsampling.LTTB,
+            null,
+            LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault()).minus(365, ChronoUnit.DAYS),
+            LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault())
+        )
+
+        then: "the target number of points should have been limited to the maximum"
+        assert datapointsWithLargeTarget.length > 0
+        assert datapointsWithLargeTarget.length <= 2 * MAX_DOWNSAMPLING_POINTS
+        assert datapointsWithoutTarget.length > 0
+        assert datapointsWithoutTarget.length <= MAX_DOWNSAMPLING_POINTS
+
         // ------------------------------------
         // Test purging of data points
         // ------------------------------------
@@ -337,4 +431,265 @@ class AssetDatapointTest extends Specification implements ManagerContainerTrait
             assert datapoints.isEmpty()
         }
     }
+
+    def "Check rollups match the aggregates of the stored datapoints when datapoints are stored again"() {
+
+        given: "the container is started"
+        def config = defaultConfig()
+        config << [(DATA_POINTS_NUMBER_STORAGE): Boolean.toString(numberStorage)]
+        def container = startContainer(config, defaultServices())
+        def managerTestSetup = container.getService(SetupService.class).getTaskOfType(ManagerTestSetup.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def persistenceService = container.getService(PersistenceService.class)
+
+        and: "a day in the past that has no datapoints"
+        def day = LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault()).truncatedTo(ChronoUnit.DAYS).minusDays(3)
+        def powerRef = new AttributeRef(managerTestSetup.thingId, "light1PowerConsumption")
+        def toggleRef = new AttributeRef(managerTestSetup.thingId, thingLightToggleAttributeName)
+
+        when: "number and boolean datapoints are stored"
+        assetDatapointService.upsertValues(powerRef.id, powerRef.name, [
+            new Pair<>(10d, day.plusHours(1)),
+            new Pair<>(20d, day.plusHours(1).plusMinutes(30)),
+            new Pair<>(30d, day.plusHours(2).plusMinutes(15))
+        ])
+        assetDatapointService.upsertValues(toggleRef.id, toggleRef.name, [
+            new Pair<>(true, day.plusHours(1)),
+            new Pair<>(false, day.plusHours(1).plusMinutes(10))
+        ])
+
+        and: "some of the datapoints are stored again with other values together with new datapoints"
+        assetDatapointService.upsertValues(powerRef.id, powerRef.name, [
+            new Pair<>(15d, day.plusHours(1).plusMinutes(30)),
+            new Pair<>(40d, day.plusHours(2).plusMinutes(15)),
+            new Pair<>(5d, day.plusHours(2).plusMinutes(45))
+        ])
+        assetDatapointService.upsertValues(toggleRef.id, toggleRef.name, [
+            new Pair<>(false, day.plusHours(1))
+        ])
+
+        then: "the number of stored datapoints of the day should not include the replaced values"
+        assert assetDatapointService.getDatapoints(powerRef).count { it.timestamp >= toMillis(day) && it.timestamp < toMillis(day.plusDays(1)) } == 4
+        assert assetDatapointService.getDatapoints(toggleRef).count { it.timestamp >= toMillis(day) && it.timestamp < toMillis(day.plusDays(1)) } == 2
+
+        and: "the hourly rollups should match the aggregates of the stored datapoints of each hour"
+        def powerHourly = getRollups(persistenceService, DatapointRollups.HOURLY_TABLE_NAME, powerRef, day, day.plusDays(1))
+        assert powerHourly.size() == 2
+        assertRollup(powerHourly[0], day.plusHours(1), 2, 25d, 10d, 15d, day.plusHours(1), 10d, day.plusHours(1).plusMinutes(30), 15d)
+        assertRollup(powerHourly[1], day.plusHours(2), 2, 45d, 5d, 40d, day.plusHours(2).plusMinutes(15), 40d, day.plusHours(2).plusMinutes(45), 5d)
+        def toggleHourly = getRollups(persistenceService, DatapointRollups.HOURLY_TABLE_NAME, toggleRef, day, day.plusDays(1))
+        assert toggleHourly.size() == 1
+        assertRollup(toggleHourly[0], day.plusHours(1), 2, 0d, 0d, 0d, day.plusHours(1), 0d, day.plusHours(1).plusMinutes(10), 0d)
+
+        and: "the daily rollups should match the aggregates of the stored datapoints of the day"
+        def powerDaily = getRollups(persistenceService, DatapointRollups.DAILY_TABLE_NAME, powerRef, day, day.plusDays(1))
+        assert powerDaily.size() == 1
+        assertRollup(powerDaily[0], day, 4, 70d, 5d, 40d, day.plusHours(1), 10d, day.plusHours(2).plusMinutes(45), 5d)
+        def toggleDaily = getRollups(persistenceService, DatapointRollups.DAILY_TABLE_NAME, toggleRef, day, day.plusDays(1))
+        assert toggleDaily.size() == 1
+        assertRollup(toggleDaily[0], day, 2, 0d, 0d, 0d, day.plusHours(1), 0d, day.plusHours(1).plusMinutes(10), 0d)
+
+        and: "the hourly aggregated datapoints should match the raw values"
+        def hourlyAverages = assetDatapointService.getValueDatapoints(
+            [powerRef] as AttributeRef[],
+            DatapointInterval.HOUR,
+            null,
+            null,
+            null,
+            day,
+            day.plusHours(3)
+        )[0].datapoints
+        assert hourlyAverages.find { it.timestamp == toMillis(day.plusHours(1)) }.value == 12.5d
+        assert hourlyAverages.find { it.timestamp == toMillis(day.plusHours(2)) }.value == 22.5d
+
+        where:
+        numberStorage << [false, true]
+    }
+
+    def "Check datapoints keep their value type when number storage is enabled"() {
+
+        given: "the container is started with number storage enabled"
+        def config = defaultConfig()
+        config << [(DATA_POINTS_NUMBER_STORAGE): "true"]
+        def container = startContainer(config, defaultServices())
+        def managerTestSetup = container.getService(SetupService.class).getTaskOfType(ManagerTestSetup.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def timestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault()).truncatedTo(ChronoUnit.DAYS).minusDays(2)
+
+        when: "boolean, integer, long and double datapoints are stored"
+        assetDatapointService.upsertValue(managerTestSetup.thingId, "booleanValue", true, timestamp)
+        assetDatapointService.upsertValue(managerTestSetup.thingId, "integerValue", 42, timestamp)
+        assetDatapointService.upsertValue(managerTestSetup.thingId, "longValue", 9007199254740993L, timestamp)
+        assetDatapointService.upsertValue(managerTestSetup.thingId, "doubleValue", 12.5d, timestamp)
+
+        then: "the datapoints should be read back with the same value and type"
+        def booleanValue = assetDatapointService.getDatapoints(new AttributeRef(managerTestSetup.thingId, "booleanValue"))[0].value
+        assert booleanValue instanceof Boolean
+        assert booleanValue == true
+        def integerValue = assetDatapointService.getDatapoints(new AttributeRef(managerTestSetup.thingId, "integerValue"))[0].value
+        assert integerValue instanceof Integer || integerValue instanceof Long
+        assert ((Number) integerValue).longValue() == 42L
+        def longValue = assetDatapointService.getDatapoints(new AttributeRef(managerTestSetup.thingId, "longValue"))[0].value
+        assert longValue instanceof Long
+        assert longValue == 9007199254740993L
+        def doubleValue = assetDatapointService.getDatapoints(new AttributeRef(managerTestSetup.thingId, "doubleValue"))[0].value
+        assert doubleValue instanceof Double
+        assert doubleValue == 12.5d
+
+        and: "only the double value should have been stored in the number table"
+        assert assetDatapointService.getDatapointsCount(new AttributeRef(managerTestSetup.thingId, "doubleValue")) == 1
+        def numberTableCount = container.getService(PersistenceService.class).doReturningTransaction { em ->
+            em.createNativeQuery("select count(*) from " + AssetDatapointService.NUMBER_TABLE_NAME + " where ENTITY_ID = ?1 and ATTRIBUTE_NAME in ('booleanValue', 'integerValue', 'longValue', 'doubleValue')")
+                .setParameter(1, managerTestSetup.thingId)
+                .getSingleResult()
+        }
+        assert ((Number) numberTableCount).longValue() == 1L
+    }
+
+    def "Check the number of attributes of a multi-attribute datapoint query is limited"() {
+
+        given: "the container is started"
+        def container = startContainer(defaultConfig(), defaultServices())
+        def managerTestSetup = container.getService(SetupService.class).getTaskOfType(ManagerTestSetup.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def toTimestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault())
+        def fromTimestamp = toTimestamp.minusHours(1)
+
+        when: "the maximum number of attributes are queried"
+        def attributeRefs = (1..MAX_QUERY_ATTRIBUTES - 1).collect { new AttributeRef(managerTestSetup.thingId, "doesNotExist" + it) }
+        attributeRefs.add(new AttributeRef(managerTestSetup.thingId, "light1PowerConsumption"))
+        def series = assetDatapointService.getValueDatapoints(attributeRefs as AttributeRef[], DatapointInterval.MINUTE, null, null, null, fromTimestamp, toTimestamp)
+
+        then: "the query should succeed"
+        assert series.length == 1
+        assert series[0].ref == new AttributeRef(managerTestSetup.thingId, "light1PowerConsumption")
+
+        when: "more than the maximum number of attributes are queried"
+        attributeRefs.add(new AttributeRef(managerTestSetup.thingId, thingLightToggleAttributeName))
+        assetDatapointService.getValueDatapoints(attributeRefs as AttributeRef[], DatapointInterval.MINUTE, null, null, null, fromTimestamp, toTimestamp)
+
+        then: "the query should be rejected"
+        thrown(IllegalStateException)
+    }
+
+    def "Check purging drops partitions by the default max age and keeps data points of attributes with a longer max age"() {
+
+        given: "the container is started"
+        def container = startContainer(defaultConfig(), defaultServices())
+        def managerTestSetup = container.getService(SetupService.class).getTaskOfType(ManagerTestSetup.class)
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def now = LocalDateTime.ofInstant(Instant.ofEpochMilli(getClockTimeOf(container)), ZoneId.systemDefault())
+        def day = now.truncatedTo(ChronoUnit.DAYS)
+        def powerRef = new AttributeRef(managerTestSetup.thingId, "light1PowerConsumption")
+        def toggleRef = new AttributeRef(managerTestSetup.thingId, thingLightToggleAttributeName)
+        def shortLivedRef = new AttributeRef(managerTestSetup.thingId, "shortLivedValue")
+
+        and: "an attribute with a max age that is shorter than the default"
+        def thing = assetStorageService.find(managerTestSetup.thingId, true)
+        thing.addOrReplaceAttributes(
+            new Attribute<>(shortLivedRef.name, NUMBER).addMeta(
+                new MetaItem<>(MetaItemType.STORE_DATA_POINTS, true),
+                new MetaItem<>(MetaItemType.DATA_POINTS_MAX_AGE_DAYS, 7)
+            )
+        )
+        assetStorageService.merge(thing)
+
+        expect: "data points of today to be inserted into the partition that was created ahead"
+        def todayPartition = assetDatapointService.getInsertTableName(AssetDatapoint.TABLE_NAME, now)
+        assert todayPartition != AssetDatapoint.TABLE_NAME
+        assetDatapointService.upsertValue(powerRef.id, powerRef.name, 1d, now)
+        assert getDatapointTable(persistenceService, AssetDatapoint.TABLE_NAME, powerRef, now) == todayPartition
+
+        when: "data points of different ages are stored for attributes with the default, a shorter and a longer max age"
+        [powerRef, toggleRef, shortLivedRef].each { ref ->
+            assetDatapointService.upsertValues(ref.id, ref.name, [
+                new Pair<>(ref == toggleRef ? true : 40d, day.minusDays(40)),
+                new Pair<>(ref == toggleRef ? false : 10d, day.minusDays(10)),
+                new Pair<>(ref == toggleRef ? true : 2d, day.minusDays(1))
+            ])
+        }
+        assetDatapointService.upsertValue(toggleRef.id, toggleRef.name, false, day.minusDays(DATA_POINTS_MAX_AGE_DAYS_DEFAULT * 7 + 10))
+
+        and: "the data points are purged"
+        assetDatapointService.purgeDataPoints()
+
+        then: "data points should be purged by the max age of their attribute"
+        assert getDatapointDays(assetDatapointService, powerRef, now) == [10, 1]
+        assert getDatapointDays(assetDatapointService, shortLivedRef, now) == [1]
+        assert getDatapointDays(assetDatapointService, toggleRef, now) == [40, 10, 1]
+
+        and: "the data point of the attribute with a longer max age should have been moved to the retained table"
+        assert getDatapointTable(persistenceService, AssetDatapoint.TABLE_NAME, toggleRef, day.minusDays(40)) == AssetDatapoint.TABLE_NAME + AssetDatapointService.RETAINED_TABLE_SUFFIX
+
+        and: "no partition that only holds data points older than the default max age should remain"
+        def oldPartitions = persistenceService.doReturningTransaction { em ->
+            em.createNativeQuery("select count(*) from DATAPOINT_PARTITION where PARENT_TABLE = ?1 and END_TIMESTAMP <= ?2")
+                .setParameter(1, AssetDatapoint.TABLE_NAME)
+                .setParameter(2, Timestamp.valueOf(day.minusDays(DATA_POINTS_MAX_AGE_DAYS_DEFAULT)))
+                .getSingleResult()
+        }
+        assert ((Number) oldPartitions).longValue() == 0L
+
+        when: "the attribute no longer has a longer max age and the data points are purged again"
+        thing = assetStorageService.find(managerTestSetup.thingId, true)
+        thing.getAttribute(toggleRef.name).get().getMeta().remove(MetaItemType.DATA_POINTS_MAX_AGE_DAYS)
+        assetStorageService.merge(thing)
+        assetDatapointService.purgeDataPoints()
+
+        then: "its retained data point should be purged by the default max age"
+        assert getDatapointDays(assetDatapointService, toggleRef, now) == [10, 1]
+        assert getDatapointDays(assetDatapointService, powerRef, now) == [10, 1]
+    }
+
+    protected static String getDatapointTable(PersistenceService persistenceService, String tableName, AttributeRef attributeRef, LocalDateTime timestamp) {
+        return persistenceService.doReturningTransaction { em ->
+            em.createNativeQuery("select tableoid::regclass::text from " + tableName + " where ENTITY_ID = ?1 and ATTRIBUTE_NAME = ?2 and TIMESTAMP = ?3")
+                .setParameter(1, attributeRef.id)
+                .setParameter(2, attributeRef.name)
+                .setParameter(3, Timestamp.valueOf(timestamp))
+                .getSingleResult()
+        } as String
+    }
+
+    /**
+     * @return The age in days of the data points of the attribute stored before today, newest last.
+     */
+    protected static List<Long> getDatapointDays(AssetDatapointService assetDatapointService, AttributeRef attributeRef, LocalDateTime now) {
+        return assetDatapointService.getDatapoints(attributeRef)
+            .collect { ChronoUnit.DAYS.between(LocalDateTime.ofInstant(Instant.ofEpochMilli(it.timestamp), ZoneId.systemDefault()).truncatedTo(ChronoUnit.DAYS), now.truncatedTo(ChronoUnit.DAYS)) }
+            .findAll { it > 0 }
+            .unique()
+            .sort()
+            .reverse()
+    }
+
+    protected static long toMillis(LocalDateTime timestamp) {
+        return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+    }
+
+    protected static List<Object[]> getRollups(PersistenceService persistenceService, String tableName, AttributeRef attributeRef, LocalDateTime from, LocalDateTime to) {
+        return persistenceService.doReturningTransaction { em ->
+            em.createNativeQuery("select TIMESTAMP, VALUE_COUNT, VALUE_SUM, VALUE_MIN, VALUE_MAX, FIRST_TIMESTAMP, FIRST_VAL, LAST_TIMESTAMP, LAST_VAL from " + tableName +
+                " where ENTITY_ID = ?1 and ATTRIBUTE_NAME = ?2 and TIMESTAMP >= ?3 and TIMESTAMP < ?4 order by TIMESTAMP")
+                .setParameter(1, attributeRef.id)
+                .setParameter(2, attributeRef.name)
+                .setParameter(3, Timestamp.valueOf(from))
+                .setParameter(4, Timestamp.valueOf(to))
+                .getResultList()
+        } as List<Object[]>
+    }
+
+    protected static void assertRollup(Object[] rollup, LocalDateTime timestamp, long count, double sum, double min, double max, LocalDateTime firstTimestamp, double first, LocalDateTime lastTimestamp, double last) {
+        assert ((Timestamp) rollup[0]).toLocalDateTime() == timestamp
+        assert ((Number) rollup[1]).longValue() == count
+        assert ((Number) rollup[2]).doubleValue() == sum
+        assert ((Number) rollup[3]).doubleValue() == min
+        assert ((Number) rollup[4]).doubleValue() == max
+        assert ((Timestamp) rollup[5]).toLocalDateTime() == firstTimestamp
+        assert ((Number) rollup[6]).doubleValue() == first
+        assert ((Timestamp) rollup[7]).toLocalDateTime() == lastTimestamp
+        assert ((Number) rollup[8]).doubleValue() == last
+    }
 }
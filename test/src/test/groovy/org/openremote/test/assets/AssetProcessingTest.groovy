@@ -1,5 +1,7 @@
 package org.openremote.test.assets
 
+import org.openremote.container.persistence.PersistenceService
+import org.openremote.container.timer.TimerService
 import org.openremote.manager.agent.AgentService
 import org.openremote.manager.asset.*
 import org.openremote.manager.datapoint.AssetDatapointService
@@ -19,6 +21,7 @@ import spock.lang.Specification
 import spock.util.concurrent.PollingConditions
 
 import javax.persistence.EntityManager
+import java.util.concurrent.ConcurrentHashMap
 
 import static org.openremote.model.value.ValueType.*
 import static org.openremote.model.value.MetaItemType.*
@@ -236,4 +239,209 @@ class AssetProcessingTest extends Specification implements ManagerContainerTrait
         }
 
     }
+
+    def "Check partitioned processing keeps the order of events for each asset"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 20, delay: 0.2)
+        def startRecording = [false]
+        Map<String, List<Object>> processedValues = new ConcurrentHashMap<>()
+
+        and: "a mock asset update processor that records the order of processed values for each asset"
+        AssetUpdateProcessor firstProcessor = new AssetUpdateProcessor() {
+            @Override
+            boolean processAssetUpdate(EntityManager em, Asset asset, Attribute attribute, AttributeEvent.Source source) throws AssetProcessingException {
+                if (startRecording[0] && attribute.name == "counter") {
+                    processedValues.computeIfAbsent(asset.getId(), {Collections.synchronizedList([])}).add(attribute.getValue().orElse(null))
+                }
+                false
+            }
+        }
+
+        when: "the container is started with several asset processing partitions"
+        def config = defaultConfig()
+        config << [(AssetProcessingService.ASSET_PROCESSING_PARTITIONS): "4"]
+        def container = startContainer(config, defaultServices())
+        def agentService = container.getService(AgentService.class)
+        def rulesService = container.getService(RulesService.class)
+        def timerService = container.getService(TimerService.class)
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+
+        then: "the container should be running and initialised"
+        conditions.eventually {
+            assert noEventProcessedIn(assetProcessingService, 500)
+        }
+
+        when: "the mock asset processor is registered"
+        assetProcessingService.processors.add(0, firstProcessor)
+
+        and: "a mock agent and several thing assets with a rule state attribute and an agent linked attribute are created"
+        def mockAgent = assetStorageService.merge(new MockAgent("Partition mock agent")
+            .setRealm(keycloakTestSetup.masterTenant.realm))
+        List<ThingAsset> things = (1..8).collect {
+            def thing = new ThingAsset("Partition thing " + it)
+                .setParent(mockAgent)
+            thing.addOrReplaceAttributes(
+                new Attribute<>("counter", INTEGER, 0)
+                    .addOrReplaceMeta(new MetaItem<>(RULE_STATE, true)),
+                new Attribute<>("target", INTEGER, 0)
+                    .addOrReplaceMeta(new MetaItem<>(AGENT_LINK, new MockAgentLink(mockAgent.id)))
+            )
+            assetStorageService.merge(thing)
+        }
+
+        then: "the agent should be connected and all linked attributes deployed to the protocol instance"
+        conditions.eventually {
+            assert agentService.getAgent(mockAgent.id).getAgentStatus().orElse(null) == ConnectionStatus.CONNECTED
+            assert agentService.getProtocolInstance(mockAgent.id).linkedAttributes.size() == things.size()
+            assert noEventProcessedIn(assetProcessingService, 300)
+        }
+
+        when: "interleaved attribute events for all assets are sent"
+        startRecording[0] = true
+        def mockProtocol = (MockProtocol)agentService.getProtocolInstance(mockAgent.id)
+        mockProtocol.updateSensor = false
+        mockProtocol.protocolWriteAttributeEvents.clear()
+        def eventCount = 20
+        def startTime = timerService.getCurrentTimeMillis() - eventCount
+        (1..eventCount).each { i ->
+            things.each { thing ->
+                assetProcessingService.sendAttributeEvent(new AttributeEvent(thing.id, "counter", i, startTime + i))
+                assetProcessingService.sendAttributeEvent(new AttributeEvent(thing.id, "target", i, startTime + i))
+            }
+        }
+
+        then: "the events of each asset should have been processed in the order they were sent"
+        conditions.eventually {
+            things.each { thing ->
+                assert processedValues[thing.id] == (1..eventCount).toList()
+            }
+        }
+
+        and: "the rules service should hold the latest state of every asset"
+        conditions.eventually {
+            things.each { thing ->
+                def assetState = rulesService.assetStates.find { it.id == thing.id && it.name == "counter" }
+                assert assetState != null
+                assert assetState.value.orElse(null) == eventCount
+            }
+        }
+
+        and: "the protocol should have received the writes of each asset in order"
+        conditions.eventually {
+            things.each { thing ->
+                def writes = new ArrayList<>(mockProtocol.protocolWriteAttributeEvents)
+                    .findAll { it.assetId == thing.id }
+                    .collect { it.value.orElse(null) }
+                assert writes == (1..eventCount).toList()
+            }
+        }
+
+        and: "the database should hold the latest rule state values"
+        conditions.eventually {
+            things.each { thing ->
+                def asset = assetStorageService.find(thing.id, true)
+                assert asset.getAttribute("counter").flatMap{it.value}.orElse(null) == eventCount
+            }
+        }
+    }
+
+    def "Check batched processing stores the events one by one without processing them again when storing the batch fails"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.2)
+
+        when: "the container is started with batched processing"
+        def config = defaultConfig()
+        config << [(AssetProcessingService.ASSET_PROCESSING_BATCH_SIZE): "10"]
+        config << [(AssetProcessingService.ASSET_PROCESSING_BATCH_WINDOW_MILLIS): "500"]
+        def container = startContainer(config, defaultServices())
+        def agentService = container.getService(AgentService.class)
+        def persistenceService = container.getService(PersistenceService.class)
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+
+        then: "the container should be running and initialised"
+        conditions.eventually {
+            assert noEventProcessedIn(assetProcessingService, 500)
+        }
+
+        when: "a mock agent and two thing assets with data point attributes and an agent linked attribute are created"
+        def mockAgent = assetStorageService.merge(new MockAgent("Batch mock agent")
+            .setRealm(keycloakTestSetup.masterTenant.realm))
+        List<ThingAsset> things = (1..2).collect {
+            def thing = new ThingAsset("Batch thing " + it)
+                .setParent(mockAgent)
+            thing.addOrReplaceAttributes(
+                new Attribute<>("counter", INTEGER, 0)
+                    .addOrReplaceMeta(new MetaItem<>(STORE_DATA_POINTS, true)),
+                new Attribute<>("removedAttribute", INTEGER, 0)
+                    .addOrReplaceMeta(new MetaItem<>(STORE_DATA_POINTS, true)),
+                new Attribute<>("target", INTEGER, 0)
+                    .addOrReplaceMeta(new MetaItem<>(AGENT_LINK, new MockAgentLink(mockAgent.id)))
+            )
+            assetStorageService.merge(thing)
+        }
+
+        then: "the agent should be connected and the linked attributes deployed to the protocol instance"
+        conditions.eventually {
+            assert agentService.getAgent(mockAgent.id).getAgentStatus().orElse(null) == ConnectionStatus.CONNECTED
+            assert agentService.getProtocolInstance(mockAgent.id).linkedAttributes.size() == things.size()
+            assert noEventProcessedIn(assetProcessingService, 300)
+        }
+
+        when: "a mock asset update processor is registered that removes an attribute from the database in its own transaction whilst it is being updated"
+        def removed = [false]
+        AssetUpdateProcessor removingProcessor = new AssetUpdateProcessor() {
+            @Override
+            boolean processAssetUpdate(EntityManager em, Asset asset, Attribute attribute, AttributeEvent.Source source) throws AssetProcessingException {
+                if (attribute.name == "removedAttribute" && !removed[0]) {
+                    removed[0] = true
+                    persistenceService.doTransaction { removeEm ->
+                        removeEm.createNativeQuery("update ASSET set ATTRIBUTES = ATTRIBUTES - 'removedAttribute' where ID = ?1")
+                            .setParameter(1, asset.getId())
+                            .executeUpdate()
+                    }
+                }
+                false
+            }
+        }
+        assetProcessingService.processors.add(0, removingProcessor)
+
+        and: "events for both assets are sent in one batch, one of them for the attribute that gets removed and one for an agent linked attribute"
+        def mockProtocol = (MockProtocol)agentService.getProtocolInstance(mockAgent.id)
+        mockProtocol.updateSensor = false
+        mockProtocol.protocolWriteAttributeEvents.clear()
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(things[0].id, "counter", 1))
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(things[0].id, "removedAttribute", 1))
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(things[0].id, "target", 5))
+        assetProcessingService.sendAttributeEvent(new AttributeEvent(things[1].id, "counter", 2))
+
+        then: "the events that could be stored should have been stored with their data points"
+        conditions.eventually {
+            assert assetStorageService.find(things[0].id, true).getAttribute("counter").flatMap{it.value}.orElse(null) == 1
+            assert assetStorageService.find(things[1].id, true).getAttribute("counter").flatMap{it.value}.orElse(null) == 2
+            assert assetDatapointService.getDatapoints(new AttributeRef(things[0].id, "counter")).size() == 1
+            assert assetDatapointService.getDatapoints(new AttributeRef(things[1].id, "counter")).size() == 1
+        }
+
+        and: "the failed event should not have stored a value or data point"
+        conditions.eventually {
+            assert noEventProcessedIn(assetProcessingService, 300)
+            assert !assetStorageService.find(things[0].id, true).getAttribute("removedAttribute").isPresent()
+            assert assetDatapointService.getDatapoints(new AttributeRef(things[0].id, "removedAttribute")).isEmpty()
+        }
+
+        and: "the protocol should have received the write of the agent linked attribute exactly once"
+        conditions.eventually {
+            assert new ArrayList<>(mockProtocol.protocolWriteAttributeEvents).findAll { it.assetId == things[0].id && it.attributeName == "target" }.collect { it.value.orElse(null) } == [5]
+        }
+
+        cleanup: "the mock asset processor is removed"
+        assetProcessingService.processors.remove(removingProcessor)
+    }
 }
@@ -2,7 +2,9 @@ package org.openremote.test.assets
 
 import org.keycloak.adapters.rotation.AdapterTokenVerifier
 import org.openremote.container.security.keycloak.AccessTokenAuthContext
+import org.openremote.container.persistence.PersistenceEvent
 import org.openremote.container.timer.TimerService
+import org.openremote.manager.asset.AssetStorageService
 import org.openremote.manager.security.ManagerIdentityService
 import org.openremote.manager.setup.SetupService
 import org.openremote.test.setup.KeycloakTestSetup
@@ -11,6 +13,7 @@ import org.openremote.model.asset.AssetResource
 import org.openremote.model.asset.UserAssetLink
 import org.openremote.test.ManagerContainerTrait
 import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
 
 import javax.ws.rs.WebApplicationException
 
@@ -194,4 +197,79 @@ class AssetUserLinkingTest extends Specification implements ManagerContainerTrai
         then: "result should match"
         userAssetLinks.length == 0
     }
+
+    def "Check cached user asset links and tenants are invalidated"() {
+        given: "the server container is started"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.2)
+        def container = startContainer(defaultConfig(), defaultServices())
+        def identityService = container.getService(ManagerIdentityService.class)
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def managerTestSetup = container.getService(SetupService.class).getTaskOfType(ManagerTestSetup.class)
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+        def realm = keycloakTestSetup.tenantBuilding.realm
+        def userAssetLink = new UserAssetLink(realm, keycloakTestSetup.testuser2Id, managerTestSetup.apartment2Id)
+        def userAssetKey = ManagerIdentityService.getUserAssetKey(keycloakTestSetup.testuser2Id, managerTestSetup.apartment2Id)
+
+        when: "an asset is linked to a user and the link is checked"
+        assetStorageService.storeUserAssetLinks([userAssetLink])
+
+        then: "the link should be cached"
+        identityService.isUserAsset(keycloakTestSetup.testuser2Id, managerTestSetup.apartment2Id)
+        identityService.userAssetCache.getIfPresent(userAssetKey) != null
+
+        when: "the link is removed"
+        assetStorageService.deleteUserAssetLinks([userAssetLink])
+
+        then: "the cached link should be invalidated"
+        conditions.eventually {
+            assert identityService.userAssetCache.getIfPresent(userAssetKey) == null
+            assert !identityService.isUserAsset(keycloakTestSetup.testuser2Id, managerTestSetup.apartment2Id)
+        }
+
+        when: "the link is removed while it is being loaded"
+        def loadingAssetStorageService = new AssetStorageService() {
+            @Override
+            boolean isUserAsset(String userId, String assetId) {
+                // The link still existed when it was loaded but is removed before it is cached
+                identityService.onPersistenceEvent(new PersistenceEvent<>(PersistenceEvent.Cause.DELETE, userAssetLink, null, null, null))
+                return true
+            }
+        }
+        identityService.assetStorageService = loadingAssetStorageService
+        identityService.isUserAsset(keycloakTestSetup.testuser2Id, managerTestSetup.apartment2Id)
+
+        then: "the stale link should not be cached"
+        identityService.userAssetCache.getIfPresent(userAssetKey) == null
+
+        when: "the asset storage service is restored"
+        identityService.assetStorageService = assetStorageService
+
+        then: "the removed link should not be found"
+        !identityService.isUserAsset(keycloakTestSetup.testuser2Id, managerTestSetup.apartment2Id)
+
+        when: "the tenant is loaded"
+        def tenant = identityService.getTenant(realm)
+
+        then: "the tenant should be enabled and cached"
+        tenant.enabled
+        identityService.tenantCache.getIfPresent(realm) != null
+
+        when: "the tenant is disabled"
+        def updatedTenant = identityService.getIdentityProvider().getTenant(realm)
+        updatedTenant.setEnabled(false)
+        identityService.getIdentityProvider().updateTenant(updatedTenant)
+
+        then: "the cached tenant should be invalidated and the tenant should be disabled"
+        conditions.eventually {
+            assert !identityService.getTenant(realm).enabled
+        }
+
+        cleanup: "the tenant is enabled again"
+        identityService.assetStorageService = assetStorageService
+        def disabledTenant = identityService.getIdentityProvider().getTenant(realm)
+        if (disabledTenant != null && !disabledTenant.enabled) {
+            disabledTenant.setEnabled(true)
+            identityService.getIdentityProvider().updateTenant(disabledTenant)
+        }
+    }
 }
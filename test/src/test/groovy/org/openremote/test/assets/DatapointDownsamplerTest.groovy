@@ -0,0 +1,63 @@
+package org.openremote.test.assets
+
+import org.openremote.manager.datapoint.DatapointDownsampler
+import spock.lang.Specification
+
+import static org.openremote.model.datapoint.DatapointDownsampling.*
+
+class DatapointDownsamplerTest extends Specification {
+
+    def "Bucket downsampling test"() {
+        given: "datapoints every second over 100 seconds with a peak at 50 seconds"
+        def downsamplers = [AVG, MIN, MAX, MIN_MAX, FIRST, LAST].collectEntries {
+            [(it): DatapointDownsampler.create(it, 0, 99999, 10)]
+        }
+        (0..<100).each { i ->
+            def value = i == 50 ? 1000d : i % 10
+            downsamplers.values().each { it.add(i * 1000L, value) }
+        }
+
+        expect: "one datapoint per bucket or two for min/max"
+        def avg = downsamplers[AVG].getDatapoints()
+        avg.length == 10
+        avg[0].timestamp == 0
+        avg[0].value == 4.5d
+        avg[5].value == 104.5d
+
+        def min = downsamplers[MIN].getDatapoints()
+        min.collect { it.value } == [0d, 0d, 0d, 0d, 0d, 1d, 0d, 0d, 0d, 0d]
+
+        def max = downsamplers[MAX].getDatapoints()
+        max[5].timestamp == 50000
+        max[5].value == 1000d
+
+        def minMax = downsamplers[MIN_MAX].getDatapoints()
+        minMax.length == 20
+        minMax.collect { it.timestamp } == minMax.collect { it.timestamp }.sort()
+        minMax[10].value == 1000d
+        minMax[11].value == 1d
+
+        def first = downsamplers[FIRST].getDatapoints()
+        first.collect { it.timestamp } == (0..<10).collect { it * 10000L }
+
+        def last = downsamplers[LAST].getDatapoints()
+        last.collect { it.value } == (0..<10).collect { 9d }
+    }
+
+    def "LTTB downsampling test"() {
+        given: "datapoints every second over 1000 seconds with a peak at 500 seconds"
+        def downsampler = DatapointDownsampler.create(LTTB, 0, 999999, 12)
+        (0..<1000).each { i ->
+            downsampler.add(i * 1000L, i == 500 ? 1000d : 0d)
+        }
+
+        when: "the datapoints are retrieved"
+        def datapoints = downsampler.getDatapoints()
+
+        then: "the first, last and peak datapoints should be selected"
+        datapoints.length == 12
+        datapoints[0].timestamp == 0
+        datapoints[11].timestamp == 999000
+        datapoints.any { it.timestamp == 500000 && it.value == 1000d }
+    }
+}
@@ -0,0 +1,139 @@
+package org.openremote.test.event
+
+import org.openremote.container.Container
+import org.openremote.container.timer.TimerService
+import org.openremote.manager.event.EventSubscriptionBuffer
+import org.openremote.manager.event.EventSubscriptions
+import org.openremote.model.asset.AssetFilter
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.event.TriggeredEventSubscription
+import org.openremote.model.event.shared.EventDeliveryPolicy
+import org.openremote.model.event.shared.EventSubscription
+import spock.lang.Specification
+
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+
+class EventSubscriptionBufferTest extends Specification {
+
+    def setupSpec() {
+        // Init logging config
+        Container.LOG.info("Running test...")
+    }
+
+    def "Check the requested policy is clamped to the server limits"() {
+
+        when: "a buffer is created with a policy exceeding the server limits"
+        def buffer = new EventSubscriptionBuffer(new EventDeliveryPolicy(false, 3600000, 1000000), 100, 5000)
+
+        then: "the buffer size and rate should be clamped"
+        buffer.maxBufferSize == 100
+        buffer.maxRateMillis == 5000
+
+        when: "a buffer is created with a policy within the server limits"
+        buffer = new EventSubscriptionBuffer(new EventDeliveryPolicy(false, 1000, 10), 100, 5000)
+
+        then: "the requested buffer size and rate should be used"
+        buffer.maxBufferSize == 10
+        buffer.maxRateMillis == 1000
+
+        when: "a buffer is created with a policy without limits or with invalid limits"
+        buffer = new EventSubscriptionBuffer(new EventDeliveryPolicy(false, -1, -1), 100, 5000)
+
+        then: "the server limit should be used for the buffer size and there should be no rate limit"
+        buffer.maxBufferSize == 100
+        buffer.maxRateMillis == 0
+
+        when: "more events than the clamped buffer size are added"
+        (1..150).each { buffer.add(new AttributeEvent("asset1", "counter", it)) }
+
+        then: "the oldest events should have been dropped"
+        buffer.size() == 100
+        buffer.droppedCount == 50
+        buffer.drainIfDue(0).first().value.orElse(null) == 51
+    }
+
+    def "Check coalescing, rate limiting and restoring rejected deliveries"() {
+
+        given: "a coalescing buffer with a rate limit"
+        def buffer = new EventSubscriptionBuffer(new EventDeliveryPolicy(true, 1000, 100), 100, 5000)
+
+        when: "several events of the same attributes are added"
+        buffer.add(new AttributeEvent("asset1", "counter", 1))
+        buffer.add(new AttributeEvent("asset1", "other", 1))
+        buffer.add(new AttributeEvent("asset1", "counter", 2))
+
+        then: "only the latest value of each attribute should be drained"
+        def events = buffer.drainIfDue(10000)
+        events.collect { ((AttributeEvent)it).attributeName + ":" + ((AttributeEvent)it).value.orElse(null) } == ["other:1", "counter:2"]
+
+        when: "more events are added while the delivery is in progress"
+        buffer.add(new AttributeEvent("asset1", "counter", 3))
+        buffer.add(new AttributeEvent("asset1", "third", 1))
+
+        then: "nothing should be drained"
+        buffer.drainIfDue(20000) == null
+
+        when: "the delivery couldn't be started and the drained events are restored"
+        buffer.restore(events)
+
+        then: "the restored events should be in front and replaced by newer events of the same attribute"
+        def restored = buffer.drainIfDue(20000)
+        restored.collect { ((AttributeEvent)it).attributeName + ":" + ((AttributeEvent)it).value.orElse(null) } == ["other:1", "counter:3", "third:1"]
+
+        when: "the delivery completes and another event is added before the rate limit has passed"
+        buffer.delivered()
+        buffer.add(new AttributeEvent("asset1", "counter", 4))
+
+        then: "the event should only be drained once the rate limit has passed"
+        buffer.drainIfDue(20500) == null
+        buffer.drainIfDue(21000).size() == 1
+    }
+
+    def "Check buffered events are delivered on the executor and restored when it rejects them"() {
+
+        given: "event subscriptions with a buffered subscription"
+        def timerService = new TimerService()
+        timerService.clock = TimerService.Clock.PSEUDO
+        def eventSubscriptions = new EventSubscriptions(timerService, 100, 5000)
+        def subscription = new EventSubscription<>(AttributeEvent.class, new AssetFilter<AttributeEvent>().setAssetIds("asset1"))
+        subscription.setDeliveryPolicy(new EventDeliveryPolicy(true, null, null))
+        eventSubscriptions.createOrUpdate("session1", false, subscription)
+        def sessionSubscription = eventSubscriptions.bufferedSubscriptions.first()
+
+        and: "an executor that can be made to reject tasks"
+        def reject = [true]
+        List<Runnable> tasks = []
+        Executor executor = { Runnable task ->
+            if (reject[0]) {
+                throw new RejectedExecutionException()
+            }
+            tasks.add(task)
+        } as Executor
+        List<TriggeredEventSubscription<?>> delivered = []
+
+        when: "an event is buffered and the executor rejects the delivery"
+        sessionSubscription.buffer.add(new AttributeEvent("asset1", "counter", 1))
+        eventSubscriptions.flushBuffers(executor, { sessionKey, triggered -> delivered.add(triggered) })
+
+        then: "the event should still be buffered"
+        delivered.isEmpty()
+        sessionSubscription.buffer.size() == 1
+
+        when: "the executor accepts the delivery"
+        reject[0] = false
+        eventSubscriptions.flushBuffers(executor, { sessionKey, triggered -> delivered.add(triggered) })
+
+        then: "the delivery should only happen on the executor"
+        delivered.isEmpty()
+        tasks.size() == 1
+
+        when: "the executor runs the delivery"
+        tasks[0].run()
+
+        then: "the event should have been delivered"
+        delivered.size() == 1
+        delivered[0].events.size() == 1
+        sessionSubscription.buffer.size() == 0
+    }
+}
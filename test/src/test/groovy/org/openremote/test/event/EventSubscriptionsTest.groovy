@@ -0,0 +1,154 @@
+package org.openremote.test.event
+
+import org.apache.camel.Exchange
+import org.apache.camel.impl.DefaultCamelContext
+import org.apache.camel.impl.DefaultExchange
+import org.openremote.container.Container
+import org.openremote.container.timer.TimerService
+import org.openremote.container.web.ConnectionConstants
+import org.openremote.manager.event.ClientEventService
+import org.openremote.manager.event.EventSubscriptions
+import org.openremote.manager.event.SharedEventConsumer
+import org.openremote.manager.event.SharedTriggeredEventSubscription
+import org.openremote.model.asset.AssetFilter
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.event.shared.CancelEventSubscription
+import org.openremote.model.event.shared.EventSubscription
+import spock.lang.Specification
+
+class EventSubscriptionsTest extends Specification {
+
+    EventSubscriptions eventSubscriptions
+    DefaultCamelContext camelContext
+
+    def setupSpec() {
+        // Init logging config
+        Container.LOG.info("Running test...")
+    }
+
+    def setup() {
+        def timerService = new TimerService()
+        timerService.clock = TimerService.Clock.PSEUDO
+        eventSubscriptions = new EventSubscriptions(timerService)
+        camelContext = new DefaultCamelContext()
+    }
+
+    protected Exchange createExchange(AttributeEvent event, boolean accessibleForRestrictedUsers) {
+        def exchange = new DefaultExchange(camelContext)
+        exchange.getIn().setBody(event)
+        exchange.getIn().setHeader(ClientEventService.HEADER_ACCESS_RESTRICTED, accessibleForRestrictedUsers)
+        return exchange
+    }
+
+    protected Set<String> getSubscribedSessions(AttributeEvent event, boolean accessibleForRestrictedUsers = false) {
+        return eventSubscriptions.splitForSubscribers(createExchange(event, accessibleForRestrictedUsers))
+            .collect { it.getHeader(ConnectionConstants.SESSION_KEY, String.class) }
+            .toSet()
+    }
+
+    protected static EventSubscription<AttributeEvent> subscription(AssetFilter<AttributeEvent> filter) {
+        return new EventSubscription<>(AttributeEvent.class, filter)
+    }
+
+    def "Check attribute events are only delivered to the sessions whose filter matches"() {
+
+        given: "an attribute event of an asset with a parent"
+        def event = new AttributeEvent("asset1", "temperature", 21)
+            .setParentId("parent1")
+            .setRealm("master")
+            .setPath(["asset1", "parent1"] as String[])
+
+        when: "sessions subscribe with filters on each indexed criteria"
+        eventSubscriptions.createOrUpdate("assetId", false, subscription(new AssetFilter<AttributeEvent>().setAssetIds("asset1")))
+        eventSubscriptions.createOrUpdate("otherAssetId", false, subscription(new AssetFilter<AttributeEvent>().setAssetIds("asset2")))
+        eventSubscriptions.createOrUpdate("parentId", false, subscription(new AssetFilter<AttributeEvent>().setParentIds("parent1")))
+        eventSubscriptions.createOrUpdate("otherParentId", false, subscription(new AssetFilter<AttributeEvent>().setParentIds("parent2")))
+        eventSubscriptions.createOrUpdate("path", false, subscription(new AssetFilter<AttributeEvent>().setPath(["parent1"] as String[])))
+        eventSubscriptions.createOrUpdate("attributeName", false, subscription(new AssetFilter<AttributeEvent>().setAttributeNames("temperature")))
+        eventSubscriptions.createOrUpdate("otherAttributeName", false, subscription(new AssetFilter<AttributeEvent>().setAttributeNames("humidity")))
+        eventSubscriptions.createOrUpdate("realm", false, subscription(new AssetFilter<AttributeEvent>().setRealm("master")))
+        eventSubscriptions.createOrUpdate("otherRealm", false, subscription(new AssetFilter<AttributeEvent>().setRealm("other")))
+        eventSubscriptions.createOrUpdate("unfiltered", false, subscription(null))
+
+        and: "a session subscribes with an asset ID that matches but a realm that doesn't"
+        eventSubscriptions.createOrUpdate("assetIdOtherRealm", false, subscription(new AssetFilter<AttributeEvent>().setAssetIds("asset1").setRealm("other")))
+
+        then: "the event should only be delivered to the matching sessions"
+        getSubscribedSessions(event) == ["assetId", "parentId", "path", "attributeName", "realm", "unfiltered"].toSet()
+
+        when: "some subscriptions are cancelled"
+        eventSubscriptions.cancelAll("assetId")
+        eventSubscriptions.cancel("parentId", new CancelEventSubscription(AttributeEvent.class))
+
+        then: "the event should no longer be delivered to those sessions"
+        getSubscribedSessions(event) == ["path", "attributeName", "realm", "unfiltered"].toSet()
+
+        when: "a session replaces its subscription with one that doesn't match"
+        eventSubscriptions.createOrUpdate("realm", false, subscription(new AssetFilter<AttributeEvent>().setRealm("other")))
+
+        then: "the event should no longer be delivered to that session"
+        getSubscribedSessions(event) == ["path", "attributeName", "unfiltered"].toSet()
+    }
+
+    def "Check restricted sessions and internal consumers"() {
+
+        given: "an attribute event"
+        def event = new AttributeEvent("asset1", "temperature", 21)
+            .setRealm("master")
+            .setPath(["asset1"] as String[])
+
+        and: "an internal consumer"
+        List<AttributeEvent> consumedEvents = []
+
+        when: "a restricted session and an internal consumer subscribe to the asset"
+        eventSubscriptions.createOrUpdate("restricted", true, subscription(new AssetFilter<AttributeEvent>().setAssetIds("asset1")))
+        eventSubscriptions.createOrUpdate("internal", false, new EventSubscription<>(
+            AttributeEvent.class,
+            new AssetFilter<AttributeEvent>().setAssetIds("asset1"),
+            { AttributeEvent e -> consumedEvents.add(e) }
+        ))
+
+        then: "an event not accessible for restricted users should only reach the internal consumer"
+        getSubscribedSessions(event, false).isEmpty()
+        consumedEvents.size() == 1
+
+        and: "an event accessible for restricted users should also reach the restricted session"
+        getSubscribedSessions(event, true) == ["restricted"].toSet()
+        consumedEvents.size() == 2
+    }
+
+    def "Check shared event consumers share the payload of a publish"() {
+
+        given: "an attribute event"
+        def event = new AttributeEvent("asset1", "temperature", 21)
+            .setRealm("master")
+            .setPath(["asset1"] as String[])
+
+        and: "a serialiser counting its invocations"
+        def serialisations = [0]
+        def serialiser = { Object data -> serialisations[0]++; data.toString().getBytes() }
+
+        and: "the payloads created by the consumers"
+        List<byte[]> payloads = []
+        SharedEventConsumer<AttributeEvent> consumer = { AttributeEvent e, SharedTriggeredEventSubscription.SharedEvents sharedEvents ->
+            payloads.add(sharedEvents.getPayload(e.value.orElse(null), serialiser))
+        } as SharedEventConsumer<AttributeEvent>
+
+        when: "two internal subscriptions with shared event consumers match the event"
+        eventSubscriptions.createOrUpdate("internal1", false, new EventSubscription<>(AttributeEvent.class, new AssetFilter<AttributeEvent>().setAssetIds("asset1"), consumer))
+        eventSubscriptions.createOrUpdate("internal2", false, new EventSubscription<>(AttributeEvent.class, new AssetFilter<AttributeEvent>().setRealm("master"), consumer))
+        getSubscribedSessions(event)
+
+        then: "the payload should have been created once and shared"
+        payloads.size() == 2
+        payloads[0].is(payloads[1])
+        serialisations[0] == 1
+
+        when: "the event is published again"
+        getSubscribedSessions(event)
+
+        then: "the payload should be created again for the new publish"
+        payloads.size() == 4
+        serialisations[0] == 2
+    }
+}
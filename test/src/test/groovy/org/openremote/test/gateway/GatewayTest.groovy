@@ -13,8 +13,10 @@ import org.openremote.container.util.UniqueIdentifierGenerator
 import org.openremote.manager.agent.AgentService
 import org.openremote.manager.asset.AssetProcessingService
 import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.datapoint.AssetDatapointService
 import org.openremote.manager.gateway.GatewayClientService
 import org.openremote.manager.gateway.GatewayConnector
+import org.openremote.manager.gateway.GatewayEventBuffer
 import org.openremote.manager.gateway.GatewayService
 import org.openremote.manager.security.ManagerIdentityService
 import org.openremote.manager.security.ManagerKeycloakIdentityProvider
@@ -27,6 +29,7 @@ import org.openremote.model.asset.impl.BuildingAsset
 import org.openremote.model.asset.impl.GatewayAsset
 import org.openremote.model.asset.impl.MicrophoneAsset
 import org.openremote.model.asset.impl.RoomAsset
+import org.openremote.model.asset.impl.ThingAsset
 import org.openremote.model.attribute.Attribute
 import org.openremote.model.attribute.AttributeEvent
 import org.openremote.model.attribute.AttributeRef
@@ -34,6 +37,7 @@ import org.openremote.model.attribute.MetaItem
 import org.openremote.model.auth.OAuthClientCredentialsGrant
 import org.openremote.model.event.shared.EventRequestResponseWrapper
 import org.openremote.model.event.shared.SharedEvent
+import org.openremote.model.gateway.GatewayAttributeEventsEvent
 import org.openremote.model.gateway.GatewayClientResource
 import org.openremote.model.gateway.GatewayConnection
 import org.openremote.model.geo.GeoJSONPoint
@@ -44,9 +48,14 @@ import org.openremote.test.ManagerContainerTrait
 import spock.lang.Specification
 import spock.util.concurrent.PollingConditions
 
+import java.nio.file.Files
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executors
 import java.util.concurrent.ScheduledFuture
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.atomic.AtomicReference
+import java.util.function.Predicate
 import java.util.stream.Collectors
 import java.util.stream.IntStream
 
@@ -928,4 +937,344 @@ class GatewayTest extends Specification implements ManagerContainerTrait {
             assert assetStorageService.find(mapAssetId(gateway.id, managerTestSetup.microphone1Id, false)) == null
         }
     }
+
+    def "Check gateway reconnects only read the modified and deleted assets"() {
+
+        given: "the container environment is started"
+        def conditions = new PollingConditions(timeout: 15, delay: 0.2)
+        def container = startContainer(defaultConfig(), defaultServices())
+        def assetProcessingService = container.getService(AssetProcessingService.class)
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def gatewayService = container.getService(GatewayService.class)
+        def managerTestSetup = container.getService(SetupService.class).getTaskOfType(ManagerTestSetup.class)
+
+        and: "an authenticated admin user"
+        def accessToken = authenticate(
+            container,
+            MASTER_REALM,
+            KEYCLOAK_CLIENT_ID,
+            MASTER_REALM_ADMIN_USER,
+            getString(container.getConfig(), SETUP_ADMIN_PASSWORD, SETUP_ADMIN_PASSWORD_DEFAULT)
+        ).token
+        def gatewayClientResource = getClientApiTarget(serverUri(serverPort), MASTER_REALM, accessToken).proxy(GatewayClientResource.class)
+
+        expect: "the system should settle down"
+        conditions.eventually {
+            assert noEventProcessedIn(assetProcessingService, 300)
+        }
+
+        when: "a gateway is provisioned in the building realm"
+        GatewayAsset gateway = assetStorageService.merge(new GatewayAsset("Digest sync gateway").setRealm(managerTestSetup.realmBuildingTenant))
+        GatewayConnector connector = null
+        conditions.eventually {
+            gateway = assetStorageService.find(gateway.getId(), true) as GatewayAsset
+            assert !isNullOrEmpty(gateway.getClientSecret().orElse(null))
+            connector = gatewayService.gatewayConnectorMap.get(gateway.getId().toLowerCase(Locale.ROOT))
+            assert connector != null
+        }
+
+        and: "the city realm is connected to the gateway"
+        def setConnectionDisabled = { boolean disabled ->
+            gatewayClientResource.setConnection(null, managerTestSetup.realmCityTenant, new GatewayConnection(
+                "127.0.0.1",
+                serverPort,
+                managerTestSetup.realmBuildingTenant,
+                gateway.getClientId().orElse(""),
+                gateway.getClientSecret().orElse(""),
+                false,
+                disabled
+            ))
+        }
+        def waitForSync = {
+            conditions.eventually {
+                assert connector.isConnected()
+                assert !connector.isInitialSyncInProgress()
+                assert (assetStorageService.find(gateway.getId()) as GatewayAsset).getGatewayStatus().orElse(null) == ConnectionStatus.CONNECTED
+            }
+        }
+        def waitForDisconnect = {
+            conditions.eventually {
+                assert !connector.isConnected()
+                assert (assetStorageService.find(gateway.getId()) as GatewayAsset).getGatewayStatus().orElse(null) == ConnectionStatus.DISCONNECTED
+            }
+        }
+        setConnectionDisabled(false)
+
+        then: "all the assets should be read by the first sync"
+        waitForSync()
+        connector.syncObsoleteAssetIds == null
+        connector.syncAssetIds.size() == assetStorageService.findAll(new AssetQuery().tenant(new TenantPredicate(managerTestSetup.realmCityTenant))).size()
+
+        when: "an asset is added on the gateway"
+        def thing = assetStorageService.merge(new ThingAsset("Digest sync thing")
+            .setRealm(managerTestSetup.realmCityTenant)
+            .setParentId(managerTestSetup.area1Id))
+
+        then: "it should be mirrored under the gateway asset"
+        conditions.eventually {
+            assert assetStorageService.find(mapAssetId(gateway.id, thing.id, false)) != null
+        }
+
+        when: "the gateway reconnects without any assets being changed"
+        setConnectionDisabled(true)
+        waitForDisconnect()
+        setConnectionDisabled(false)
+
+        then: "the digests should be compared and no assets should be read or deleted"
+        waitForSync()
+        connector.syncAssetIds.isEmpty()
+        connector.syncObsoleteAssetIds.isEmpty()
+
+        when: "an asset is modified on the gateway whilst it is disconnected and the gateway reconnects"
+        setConnectionDisabled(true)
+        waitForDisconnect()
+        thing = assetStorageService.find(thing.id)
+        thing.setName("Digest sync thing updated")
+        thing = assetStorageService.merge(thing)
+        setConnectionDisabled(false)
+
+        then: "only the modified asset should be read"
+        waitForSync()
+        connector.syncAssetIds == [thing.id]
+        connector.syncObsoleteAssetIds.isEmpty()
+        assetStorageService.find(mapAssetId(gateway.id, thing.id, false)).name == "Digest sync thing updated"
+
+        when: "an asset is deleted on the gateway whilst it is disconnected and the gateway reconnects"
+        setConnectionDisabled(true)
+        waitForDisconnect()
+        assert assetStorageService.delete([thing.id])
+        setConnectionDisabled(false)
+
+        then: "only the deleted asset should be deleted and no assets should be read"
+        waitForSync()
+        connector.syncAssetIds.isEmpty()
+        connector.syncObsoleteAssetIds == [mapAssetId(gateway.id, thing.id, false)]
+        assetStorageService.find(mapAssetId(gateway.id, thing.id, false)) == null
+
+        cleanup: "the gateway connection is removed"
+        gatewayClientResource.deleteConnection(null, managerTestSetup.realmCityTenant)
+    }
+
+    def "Check buffered gateway attribute events are replayed by the executor and only removed once sent"() {
+
+        given: "an event buffer with a buffer file whose sender only accepts one message"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.1)
+        def executorService = Executors.newScheduledThreadPool(2)
+        def bufferFile = Files.createTempDirectory("gateway-event-buffer").resolve("test.events")
+        def replayFile = bufferFile.resolveSibling("test.events.replay")
+        def sentEvents = new CopyOnWriteArrayList<AttributeEvent>()
+        def sentReplayFlags = new CopyOnWriteArrayList<Boolean>()
+        def senderThreads = new CopyOnWriteArrayList<Thread>()
+        def allowedMessages = new AtomicInteger(1)
+        def replayRetryMillis = GatewayEventBuffer.REPLAY_RETRY_MILLIS
+        GatewayEventBuffer.REPLAY_RETRY_MILLIS = 200
+        def eventBuffer = new GatewayEventBuffer("test", { String message ->
+            if (allowedMessages.getAndDecrement() <= 0) {
+                return false
+            }
+            senderThreads.add(Thread.currentThread())
+            def event = ValueUtil.parse(message.substring(SharedEvent.MESSAGE_PREFIX.length()), SharedEvent.class).orElse(null)
+            if (event instanceof GatewayAttributeEventsEvent) {
+                sentEvents.addAll(((GatewayAttributeEventsEvent) event).events)
+                ((GatewayAttributeEventsEvent) event).events.each { sentReplayFlags.add(((GatewayAttributeEventsEvent) event).isReplay()) }
+            } else if (event instanceof AttributeEvent) {
+                sentEvents.add((AttributeEvent) event)
+                sentReplayFlags.add(false)
+            }
+            return true
+        } as Predicate<String>, executorService, 0, 4, bufferFile, 1024 * 1024)
+        def sentValues = { sentEvents.collect { (it.value.orElse(null) as Number).intValue() } }
+
+        when: "attribute events are added whilst disconnected"
+        (0..9).each { eventBuffer.addAttributeEvent(new AttributeEvent("asset1", "attribute1", it)) }
+
+        then: "they should be appended to the buffer file"
+        Files.readAllLines(bufferFile).size() == 10
+        sentEvents.isEmpty()
+
+        when: "the buffer is connected"
+        eventBuffer.setConnected(true)
+
+        then: "the first batch should be sent by the executor and the events that couldn't be sent should be kept"
+        conditions.eventually {
+            assert sentValues() == [0, 1, 2, 3]
+            assert Files.readAllLines(replayFile).size() == 6
+        }
+        !Files.exists(bufferFile)
+        eventBuffer.isReplaying()
+        senderThreads.every { it != Thread.currentThread() }
+
+        when: "attribute events are added whilst replaying"
+        (10..14).each { eventBuffer.addAttributeEvent(new AttributeEvent("asset1", "attribute1", it)) }
+
+        then: "they should be kept separate from the replayed events"
+        !Files.exists(bufferFile)
+        Files.readAllLines(replayFile).size() == 6
+        sentValues() == [0, 1, 2, 3]
+
+        when: "the sender accepts all messages again"
+        allowedMessages.set(Integer.MAX_VALUE)
+
+        then: "the remaining events should be replayed in order exactly once and the files should be deleted"
+        conditions.eventually {
+            assert !eventBuffer.isReplaying()
+            assert sentValues() == (0..14).toList()
+            assert !Files.exists(replayFile)
+            assert !Files.exists(bufferFile)
+        }
+
+        and: "the events added whilst replaying should be sent as live events after the replayed events"
+        sentReplayFlags == (0..9).collect { true } + (10..14).collect { false }
+
+        when: "an attribute event is added after the replay"
+        eventBuffer.addAttributeEvent(new AttributeEvent("asset1", "attribute1", 15))
+
+        then: "it should be sent straight away"
+        sentValues() == (0..15).toList()
+        !sentReplayFlags.last()
+
+        cleanup: "the buffer and executor are stopped"
+        GatewayEventBuffer.REPLAY_RETRY_MILLIS = replayRetryMillis
+        eventBuffer?.destroy()
+        executorService?.shutdownNow()
+    }
+
+    def "Check replayed gateway attribute events are stored as data points also after the sync completed"() {
+
+        given: "the container environment is started"
+        def conditions = new PollingConditions(timeout: 15, delay: 0.2)
+        def container = startContainer(defaultConfig(), defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def gatewayService = container.getService(GatewayService.class)
+        def timerService = container.getService(TimerService.class)
+        def managerTestSetup = container.getService(SetupService.class).getTaskOfType(ManagerTestSetup.class)
+
+        when: "a gateway is provisioned in the building realm"
+        GatewayAsset gateway = assetStorageService.merge(new GatewayAsset("Replay gateway").setRealm(managerTestSetup.realmBuildingTenant))
+        GatewayConnector connector = null
+        conditions.eventually {
+            connector = gatewayService.gatewayConnectorMap.get(gateway.getId().toLowerCase(Locale.ROOT))
+            assert connector != null
+        }
+
+        and: "the gateway connects and syncs an asset whose attribute stores data points"
+        connector.connect({ message -> }, {})
+        def gatewayThingId = UniqueIdentifierGenerator.generateId()
+        def localThingId = mapAssetId(gateway.id, gatewayThingId, false)
+        connector.saveAssetLocally(new ThingAsset("Replay thing")
+            .setId(gatewayThingId)
+            .addAttributes(new Attribute<>("temp", NUMBER, 20d).addMeta(new MetaItem<>(STORE_DATA_POINTS))))
+        connector.syncProcessorFuture?.cancel(true)
+        connector.onInitialSyncComplete()
+
+        then: "the sync should be complete"
+        !connector.isInitialSyncInProgress()
+        assetStorageService.find(localThingId) != null
+
+        when: "replayed attribute events arrive after the sync completed"
+        def replayTimestamp = timerService.getCurrentTimeMillis() - 60000
+        connector.onGatewayEvent(null, new GatewayAttributeEventsEvent([
+            new AttributeEvent(gatewayThingId, "temp", 10d, replayTimestamp),
+            new AttributeEvent(gatewayThingId, "temp", 15d, replayTimestamp + 1000)
+        ], true))
+
+        then: "they should be stored as data points without updating the attribute"
+        conditions.eventually {
+            def datapoints = assetDatapointService.getDatapoints(new AttributeRef(localThingId, "temp"))
+            assert datapoints.size() == 2
+            assert datapoints.collect { it.value as Double }.sort() == [10d, 15d]
+        }
+        assetStorageService.find(localThingId).getAttribute("temp", Double.class).flatMap { it.getValue() }.orElse(null) == 20d
+
+        when: "attribute events that aren't replayed arrive"
+        connector.onGatewayEvent(null, new GatewayAttributeEventsEvent([
+            new AttributeEvent(gatewayThingId, "temp", 30d)
+        ], false))
+
+        then: "the attribute should be updated"
+        conditions.eventually {
+            assert assetStorageService.find(localThingId).getAttribute("temp", Double.class).flatMap { it.getValue() }.orElse(null) == 30d
+        }
+
+        cleanup: "the gateway is disconnected"
+        connector?.disconnect()
+    }
+
+    def "Check attribute values changed whilst replaying update the attribute after the replay"() {
+
+        given: "the container environment is started"
+        def conditions = new PollingConditions(timeout: 15, delay: 0.2)
+        def container = startContainer(defaultConfig(), defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def assetDatapointService = container.getService(AssetDatapointService.class)
+        def gatewayService = container.getService(GatewayService.class)
+        def timerService = container.getService(TimerService.class)
+        def managerTestSetup = container.getService(SetupService.class).getTaskOfType(ManagerTestSetup.class)
+        def executorService = Executors.newScheduledThreadPool(2)
+        def bufferFile = Files.createTempDirectory("gateway-event-buffer").resolve("test.events")
+        def replayRetryMillis = GatewayEventBuffer.REPLAY_RETRY_MILLIS
+        GatewayEventBuffer.REPLAY_RETRY_MILLIS = 200
+
+        when: "a gateway is provisioned in the building realm"
+        GatewayAsset gateway = assetStorageService.merge(new GatewayAsset("Live replay gateway").setRealm(managerTestSetup.realmBuildingTenant))
+        GatewayConnector connector = null
+        conditions.eventually {
+            connector = gatewayService.gatewayConnectorMap.get(gateway.getId().toLowerCase(Locale.ROOT))
+            assert connector != null
+        }
+
+        and: "the gateway connects and syncs an asset whose attribute stores data points"
+        connector.connect({ message -> }, {})
+        def gatewayThingId = UniqueIdentifierGenerator.generateId()
+        def localThingId = mapAssetId(gateway.id, gatewayThingId, false)
+        def attributeRef = new AttributeRef(localThingId, "temp")
+        connector.saveAssetLocally(new ThingAsset("Live replay thing")
+            .setId(gatewayThingId)
+            .addAttributes(new Attribute<>("temp", NUMBER, 20d).addMeta(new MetaItem<>(STORE_DATA_POINTS))))
+        connector.syncProcessorFuture?.cancel(true)
+        connector.onInitialSyncComplete()
+
+        and: "an event buffer sends its messages to the central manager but only accepts one message"
+        def allowedMessages = new AtomicInteger(1)
+        def eventBuffer = new GatewayEventBuffer("test", { String message ->
+            if (allowedMessages.getAndDecrement() <= 0) {
+                return false
+            }
+            connector.onGatewayEvent(null, ValueUtil.parse(message.substring(SharedEvent.MESSAGE_PREFIX.length()), SharedEvent.class).orElse(null))
+            return true
+        } as Predicate<String>, executorService, 0, 2, bufferFile, 1024 * 1024)
+
+        and: "attribute events are buffered whilst disconnected"
+        def replayTimestamp = timerService.getCurrentTimeMillis() - 60000
+        (0..3).each { eventBuffer.addAttributeEvent(new AttributeEvent(gatewayThingId, "temp", 10d + it, replayTimestamp + it * 1000)) }
+
+        and: "the buffer is connected"
+        eventBuffer.setConnected(true)
+
+        then: "the first batch should be replayed as data points"
+        conditions.eventually {
+            assert assetDatapointService.getDatapoints(attributeRef).collect { it.value as Double }.sort() == [10d, 11d]
+        }
+        eventBuffer.isReplaying()
+
+        when: "the value changes whilst replaying"
+        eventBuffer.addAttributeEvent(new AttributeEvent(gatewayThingId, "temp", 50d))
+
+        and: "the sender accepts all messages again"
+        allowedMessages.set(Integer.MAX_VALUE)
+
+        then: "the replay should finish and the changed value should update the attribute"
+        conditions.eventually {
+            assert !eventBuffer.isReplaying()
+            assert assetStorageService.find(localThingId).getAttribute("temp", Double.class).flatMap { it.getValue() }.orElse(null) == 50d
+            assert assetDatapointService.getDatapoints(attributeRef).collect { it.value as Double }.sort() == [10d, 11d, 12d, 13d, 50d]
+        }
+
+        cleanup: "the buffer, executor and gateway are stopped"
+        GatewayEventBuffer.REPLAY_RETRY_MILLIS = replayRetryMillis
+        eventBuffer?.destroy()
+        executorService?.shutdownNow()
+        connector?.disconnect()
+    }
 }
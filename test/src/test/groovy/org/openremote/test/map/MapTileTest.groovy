@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.test.map
+
+import org.openremote.manager.map.MapResourceImpl
+import org.openremote.manager.map.MapService
+import spock.lang.Specification
+
+import javax.ws.rs.BadRequestException
+
+import static org.openremote.manager.map.MapService.MAX_TILE_ZOOM
+
+class MapTileTest extends Specification {
+
+    def "Check tile coordinates are validated"() {
+
+        expect: "tiles within the tiles of their zoom level to be valid"
+        assert MapService.isValidTile(0, 0, 0)
+        assert MapService.isValidTile(1, 1, 1)
+        assert MapService.isValidTile(22, (1 << 22) - 1, (1 << 22) - 1)
+        assert MapService.isValidTile(MAX_TILE_ZOOM, (1 << MAX_TILE_ZOOM) - 1, 0)
+
+        and: "tiles outside of the tiles of their zoom level or with an invalid zoom level to be invalid"
+        assert !MapService.isValidTile(0, 1, 0)
+        assert !MapService.isValidTile(1, 0, 2)
+        assert !MapService.isValidTile(1, -1, 0)
+        assert !MapService.isValidTile(-1, 0, 0)
+        assert !MapService.isValidTile(MAX_TILE_ZOOM + 1, 0, 0)
+        assert !MapService.isValidTile(MAX_TILE_ZOOM, 1 << MAX_TILE_ZOOM, 0)
+        assert !MapService.isValidTile(256, 0, 0)
+    }
+
+    def "Check tile keys are unique for valid tiles"() {
+
+        when: "the keys of all tiles of the first zoom levels are computed"
+        def keys = new HashSet<Long>()
+        def count = 0
+        (0..6).each { zoom ->
+            (0..<(1 << zoom)).each { column ->
+                (0..<(1 << zoom)).each { row ->
+                    keys.add(MapService.getTileKey(zoom, column, row))
+                    count++
+                }
+            }
+        }
+
+        then: "every tile should have its own key"
+        assert keys.size() == count
+
+        and: "tiles at the edges of the highest zoom level should not collide"
+        def max = (1 << MAX_TILE_ZOOM) - 1
+        def edgeKeys = [
+            MapService.getTileKey(MAX_TILE_ZOOM, 0, 0),
+            MapService.getTileKey(MAX_TILE_ZOOM, 0, max),
+            MapService.getTileKey(MAX_TILE_ZOOM, max, 0),
+            MapService.getTileKey(MAX_TILE_ZOOM, max, max),
+            MapService.getTileKey(MAX_TILE_ZOOM - 1, max >> 1, max >> 1),
+            MapService.getTileKey(1, 1, 0),
+            MapService.getTileKey(1, 0, 1)
+        ]
+        assert edgeKeys.toSet().size() == edgeKeys.size()
+    }
+
+    def "Check invalid tiles are rejected"() {
+
+        given: "a map resource"
+        def mapService = new MapService()
+        def mapResource = new MapResourceImpl(mapService, null)
+
+        when: "a tile beyond the tiles of its zoom level is requested"
+        mapResource.getTile(1, 2, 0)
+
+        then: "the request should be rejected"
+        thrown(BadRequestException)
+
+        when: "a tile with a zoom level above the maximum is requested"
+        mapResource.getTile(MAX_TILE_ZOOM + 1, 0, 0)
+
+        then: "the request should be rejected"
+        thrown(BadRequestException)
+
+        and: "the map service should not return invalid tiles"
+        assert mapService.getTile(1, 2, 0) == null
+        assert mapService.getTile(1, -1, 0) == null
+    }
+}
@@ -197,4 +197,101 @@ class AssetModelTest extends Specification implements ManagerContainerTrait {
         assetStateObjectNode.get("value").isTextual()
         assetStateObjectNode.get("value").asText() == "#3264c8"
     }
+
+    def "Copy attribute with new value"() {
+
+        given: "an attribute with meta"
+        def attribute = new Attribute<>("temp", ValueType.NUMBER, 10d, 1000L)
+            .addMeta(new MetaItem<>(MetaItemType.LABEL, "Temperature"), new MetaItem<>(MetaItemType.READ_ONLY))
+
+        when: "the attribute is copied with a new value"
+        def copy = attribute.copyWithValue(20d, 2000L)
+
+        then: "the copy should have the new value and timestamp and the same meta"
+        copy.getValue().orElse(null) == 20d
+        copy.getTimestamp().orElse(null) == 2000L
+        copy.getMetaValue(MetaItemType.LABEL).orElse(null) == "Temperature"
+        copy.hasMeta(MetaItemType.READ_ONLY)
+        attribute.getValue().orElse(null) == 10d
+        attribute.getTimestamp().orElse(null) == 1000L
+
+        when: "the meta of the copy is modified"
+        copy.getMeta().set(MetaItemType.LABEL, "Outside temperature")
+        copy.getMeta().remove(MetaItemType.READ_ONLY)
+
+        then: "the meta of the original attribute should be unchanged"
+        copy.getMetaValue(MetaItemType.LABEL).orElse(null) == "Outside temperature"
+        !copy.hasMeta(MetaItemType.READ_ONLY)
+        attribute.getMetaValue(MetaItemType.LABEL).orElse(null) == "Temperature"
+        attribute.hasMeta(MetaItemType.READ_ONLY)
+
+        when: "the meta of the original attribute is modified"
+        attribute.getMeta().set(MetaItemType.LABEL, "Inside temperature")
+
+        then: "the meta of the copy should be unchanged"
+        attribute.getMetaValue(MetaItemType.LABEL).orElse(null) == "Inside temperature"
+        copy.getMetaValue(MetaItemType.LABEL).orElse(null) == "Outside temperature"
+
+        and: "the copy should serialise like the original"
+        ValueUtil.parse(ValueUtil.asJSON(copy).orElse(null), Attribute.class).map { it.getMetaValue(MetaItemType.LABEL).orElse(null) }.orElse(null) == "Outside temperature"
+    }
+
+    def "Read the meta of a copied attribute without copying it"() {
+
+        given: "an attribute with meta and a copy of it"
+        def attribute = new Attribute<>("temp", ValueType.NUMBER, 10d, 1000L)
+            .addMeta(new MetaItem<>(MetaItemType.LABEL, "Temperature"), new MetaItem<>(MetaItemType.READ_ONLY))
+        def asset = new ThingAsset("Thing").addOrReplaceAttributes(attribute)
+        def copy = attribute.copyWithValue(20d, 2000L)
+        def sharedMeta = attribute.readMeta()
+
+        when: "the copy is serialised, its meta items are read and an asset state is created from it"
+        def copyStr = ValueUtil.asJSON(copy).orElse(null)
+        def label = copy.getMetaItem(MetaItemType.LABEL).flatMap { it.getValue() }.orElse(null)
+        def assetState = new AssetState(asset, copy, null)
+
+        then: "the meta should still be shared by the original attribute and the copy"
+        copy.readMeta().is(sharedMeta)
+        attribute.readMeta().is(sharedMeta)
+        assetState.getMeta().is(sharedMeta)
+        label == "Temperature"
+        ValueUtil.parse(copyStr, Attribute.class).map { it.getMetaValue(MetaItemType.LABEL).orElse(null) }.orElse(null) == "Temperature"
+
+        when: "an attribute without meta is serialised"
+        def emptyStr = ValueUtil.asJSON(new Attribute<>("empty", ValueType.NUMBER, 1d)).orElse(null)
+
+        then: "the meta should be serialised as an empty object"
+        ValueUtil.parse(emptyStr, ObjectNode.class).map { it.get("meta").isObject() && it.get("meta").size() == 0 }.orElse(false)
+
+        when: "the meta of the copy is modified"
+        copy.getMeta().set(MetaItemType.LABEL, "Outside temperature")
+
+        then: "the copy should have its own meta and the shared meta should be unchanged"
+        !copy.readMeta().is(sharedMeta)
+        sharedMeta.getValue(MetaItemType.LABEL).orElse(null) == "Temperature"
+        assetState.getMeta().getValue(MetaItemType.LABEL).orElse(null) == "Temperature"
+
+        when: "the original attribute is copied concurrently and the copies are modified"
+        def copies = Collections.synchronizedList(new ArrayList<Attribute<Double>>())
+        def threads = (1..4).collect { i ->
+            Thread.start {
+                100.times { j ->
+                    def c = attribute.copyWithValue((double) j, 3000L + j)
+                    c.getMeta().set(MetaItemType.LABEL, "Copy " + i)
+                    copies.add(c)
+                }
+            }
+        }
+        threads.each { it.join() }
+
+        and: "the original attribute is modified afterwards"
+        attribute.getMeta().set(MetaItemType.UNITS, ["celsius"] as String[])
+
+        then: "every copy should only have its own modification and the original meta"
+        copies.size() == 400
+        copies.every { it.hasMeta(MetaItemType.READ_ONLY) && !it.hasMeta(MetaItemType.UNITS) && it.getMetaValue(MetaItemType.LABEL).orElse("").startsWith("Copy ") }
+        attribute.getMetaValue(MetaItemType.LABEL).orElse(null) == "Temperature"
+        attribute.hasMeta(MetaItemType.UNITS)
+        sharedMeta.getValue(MetaItemType.LABEL).orElse(null) == "Temperature"
+    }
 }
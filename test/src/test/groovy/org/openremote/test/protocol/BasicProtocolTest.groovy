@@ -20,6 +20,8 @@
 package org.openremote.test.protocol
 
 
+import com.fasterxml.jackson.databind.node.ObjectNode
+import org.openremote.manager.agent.AgentHealthStatusProvider
 import org.openremote.manager.agent.AgentService
 import org.openremote.manager.asset.AssetProcessingService
 import org.openremote.manager.asset.AssetStorageService
@@ -384,4 +386,100 @@ class BasicProtocolTest extends Specification implements ManagerContainerTrait {
             assert !mockThing.getAttribute("filterRegexSubstring").get().getValue().isPresent()
         }
     }
+
+    def "Check agents are started in parallel with their attributes linked in bulk"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 20, initialDelay: 0.3, delay: 0.2)
+
+        and: "the container is started with four agent startup threads"
+        def config = defaultConfig()
+        config << [(AgentService.AGENT_STARTUP_THREADS): "4"]
+        def container = startContainer(config, defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+        def agentService = container.getService(AgentService.class)
+        def agentHealthStatusProvider = new AgentHealthStatusProvider()
+        agentHealthStatusProvider.init(container)
+
+        and: "several mock agents, one of which fails to start"
+        def mockAgents = (1..8).collect {
+            assetStorageService.merge(new MockAgent("Mock agent " + it)
+                .setRealm(MASTER_REALM)
+                .setRequired(true))
+        }
+        def failingAgent = assetStorageService.merge(new MockAgent("Failing mock agent")
+            .setRealm(MASTER_REALM))
+
+        and: "a thing with two attributes linked to each agent"
+        def mockThing = new ThingAsset("Mock Thing Asset").setRealm(MASTER_REALM)
+        mockAgents.eachWithIndex { mockAgent, i ->
+            mockThing.addOrReplaceAttributes(
+                new Attribute<>("toggle" + i, BOOLEAN).addOrReplaceMeta(
+                    new MetaItem<>(AGENT_LINK, new MockAgentLink(mockAgent.id).setRequiredValue("true"))
+                ),
+                new Attribute<>("target" + i, NUMBER).addOrReplaceMeta(
+                    new MetaItem<>(AGENT_LINK, new MockAgentLink(mockAgent.id).setRequiredValue("true"))
+                )
+            )
+        }
+        mockThing = assetStorageService.merge(mockThing)
+
+        expect: "all agents to be started and linked"
+        conditions.eventually {
+            mockAgents.eachWithIndex { mockAgent, i ->
+                def protocol = (MockProtocol) agentService.getProtocolInstance(mockAgent.id)
+                assert protocol != null
+                assert protocol.linkedAttributes.size() == 2
+            }
+        }
+
+        when: "the agents are stopped and started again with a slow protocol start"
+        MockProtocol.startDelayMillis = 200
+        MockProtocol.maxStartingInstances.set(0)
+        def agents = (mockAgents + failingAgent).collect { agentService.getAgent(it.id) }
+        agents.each { agentService.stopAgent(it.id) }
+        agentService.failedAgentCount.set(0)
+        agentService.startAgents(agents)
+
+        then: "the agents should have been started in parallel but by no more than the startup threads"
+        assert MockProtocol.maxStartingInstances.get() > 1
+        assert MockProtocol.maxStartingInstances.get() <= 4
+
+        and: "each new protocol instance should have been started once and linked its attributes"
+        mockAgents.eachWithIndex { mockAgent, i ->
+            def protocol = (MockProtocol) agentService.getProtocolInstance(mockAgent.id)
+            assert protocol != null
+            assert protocol.protocolMethodCalls.size() == 3
+            assert protocol.protocolMethodCalls[0] == "START"
+            assert protocol.protocolMethodCalls.subList(1, 3).toSet() == [
+                "LINK_ATTRIBUTE:" + mockThing.id + ":toggle" + i,
+                "LINK_ATTRIBUTE:" + mockThing.id + ":target" + i
+            ].toSet()
+            assert protocol.linkedAttributes.keySet() == [
+                new AttributeRef(mockThing.id, "toggle" + i),
+                new AttributeRef(mockThing.id, "target" + i)
+            ].toSet()
+        }
+
+        and: "the failing agent should not have a protocol instance"
+        assert agentService.getProtocolInstance(failingAgent.id) == null
+
+        and: "the health status should report the completed startup"
+        def health = (ObjectNode) agentHealthStatusProvider.getHealthStatus()
+        assert health.get("ready").asBoolean()
+        assert health.get("starting").asInt() == 0
+        assert health.get("startupFailures").asInt() == 1
+        assert health.get("protocols").asInt() >= mockAgents.size()
+
+        and: "the agents should be connected"
+        conditions.eventually {
+            mockAgents.each { mockAgent ->
+                assert agentService.getAgent(mockAgent.id).getAgentStatus().orElse(null) == ConnectionStatus.CONNECTED
+            }
+            assert agentService.getAgent(failingAgent.id).getAgentStatus().orElse(null) == ConnectionStatus.ERROR
+        }
+
+        cleanup: "the protocol start delay is removed"
+        MockProtocol.startDelayMillis = 0
+    }
 }
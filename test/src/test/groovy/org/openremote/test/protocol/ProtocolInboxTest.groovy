@@ -0,0 +1,183 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.test.protocol
+
+import org.openremote.manager.agent.ProtocolInbox
+import org.openremote.model.asset.agent.Protocol
+import org.openremote.model.attribute.AttributeEvent
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class ProtocolInboxTest extends Specification {
+
+    ExecutorService executor = Executors.newCachedThreadPool()
+
+    def cleanup() {
+        executor.shutdownNow()
+    }
+
+    def "Check writes are processed in order of arrival and discarded when the inbox is full"() {
+
+        given: "a protocol that blocks until released"
+        def conditions = new PollingConditions(timeout: 5, delay: 0.1)
+        def release = new CountDownLatch(1)
+        def writes = new CopyOnWriteArrayList<AttributeEvent>()
+        def protocol = [processLinkedAttributeWrite: { AttributeEvent event ->
+            release.await(5, TimeUnit.SECONDS)
+            writes.add(event)
+        }] as Protocol
+        def inbox = new ProtocolInbox(protocol, executor, 3, 1, false)
+
+        when: "more writes than the inbox can hold are offered"
+        def first = inbox.offer(new AttributeEvent("asset1", "attribute1", 1))
+        conditions.eventually {
+            // The first write is being processed and no longer pending
+            assert inbox.size() == 0
+        }
+        def accepted = (2..5).collect { inbox.offer(new AttributeEvent("asset1", "attribute1", it)) }
+
+        then: "the writes that don't fit should be discarded"
+        assert first
+        assert accepted == [true, true, true, false]
+
+        when: "the protocol is released"
+        release.countDown()
+
+        then: "the accepted writes should be processed in order"
+        conditions.eventually {
+            assert writes.collect { it.value.orElse(null) } == [1, 2, 3, 4]
+            assert inbox.size() == 0
+        }
+    }
+
+    def "Check pending writes of the same attribute are coalesced"() {
+
+        given: "a protocol that blocks until released"
+        def conditions = new PollingConditions(timeout: 5, delay: 0.1)
+        def release = new CountDownLatch(1)
+        def writes = new CopyOnWriteArrayList<AttributeEvent>()
+        def protocol = [processLinkedAttributeWrite: { AttributeEvent event ->
+            release.await(5, TimeUnit.SECONDS)
+            writes.add(event)
+        }] as Protocol
+        def inbox = new ProtocolInbox(protocol, executor, 10, 1, true)
+
+        when: "many writes of two attributes are offered while the protocol is busy"
+        inbox.offer(new AttributeEvent("asset1", "busy", 0))
+        conditions.eventually {
+            assert inbox.size() == 0
+        }
+        (1..5).each {
+            inbox.offer(new AttributeEvent("asset1", "attribute1", it))
+            inbox.offer(new AttributeEvent("asset1", "attribute2", it * 10))
+        }
+
+        then: "only the latest write of each attribute should be pending"
+        assert inbox.size() == 2
+
+        when: "the protocol is released"
+        release.countDown()
+
+        then: "the latest write of each attribute should be processed in order of the first pending write"
+        conditions.eventually {
+            assert writes.collect { it.attributeName + "=" + it.value.orElse(null) } == ["busy=0", "attribute1=5", "attribute2=50"]
+        }
+    }
+
+    def "Check the number of concurrent writes of a protocol instance is limited"() {
+
+        given: "a protocol that records the number of concurrent writes"
+        def conditions = new PollingConditions(timeout: 5, delay: 0.1)
+        def active = new AtomicInteger()
+        def maxActive = new AtomicInteger()
+        def processed = new AtomicInteger()
+        def protocol = [processLinkedAttributeWrite: { AttributeEvent event ->
+            maxActive.accumulateAndGet(active.incrementAndGet(), { a, b -> Math.max(a, b) })
+            Thread.sleep(20)
+            active.decrementAndGet()
+            processed.incrementAndGet()
+        }] as Protocol
+        def inbox = new ProtocolInbox(protocol, executor, 100, 2, false)
+
+        when: "many writes are offered"
+        (1..20).each { inbox.offer(new AttributeEvent("asset1", "attribute1", it)) }
+
+        then: "all writes should be processed by at most two workers"
+        conditions.eventually {
+            assert processed.get() == 20
+        }
+        assert maxActive.get() <= 2
+    }
+
+    def "Check a write is discarded when no worker can be scheduled"() {
+
+        given: "an executor that rejects all tasks"
+        def rejecting = { Runnable runnable -> throw new RejectedExecutionException("Saturated") } as Executor
+        def writes = new CopyOnWriteArrayList<AttributeEvent>()
+        def protocol = [processLinkedAttributeWrite: { AttributeEvent event -> writes.add(event) }] as Protocol
+        def inbox = new ProtocolInbox(protocol, rejecting, 10, 1, false)
+
+        when: "a write is offered"
+        def accepted = inbox.offer(new AttributeEvent("asset1", "attribute1", 1))
+
+        then: "the write should be discarded and not left pending"
+        assert !accepted
+        assert inbox.size() == 0
+        assert writes.isEmpty()
+    }
+
+    def "Check the lock of a protocol instance doesn't block other instances"() {
+
+        given: "two protocol instances"
+        def protocol1 = new MockProtocol(new MockAgent("Mock agent 1"))
+        def protocol2 = new MockProtocol(new MockAgent("Mock agent 2"))
+        def locked = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+
+        when: "the lock of the first instance is held by another thread"
+        executor.submit {
+            protocol1.withLock("test", {
+                locked.countDown()
+                release.await(10, TimeUnit.SECONDS)
+            } as Runnable)
+        }
+        assert locked.await(5, TimeUnit.SECONDS)
+
+        and: "the lock of the second instance is obtained"
+        def start = System.currentTimeMillis()
+        def result = protocol2.withLockReturning("test", { "done" })
+
+        then: "the second instance should not wait for the first"
+        assert result == "done"
+        assert System.currentTimeMillis() - start < 1000
+
+        cleanup:
+        release.countDown()
+    }
+}
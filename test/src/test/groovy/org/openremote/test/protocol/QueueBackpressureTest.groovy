@@ -0,0 +1,88 @@
+/*
+ * Copyright 2021, OpenRemote Inc.
+ *
+ * See the CONTRIBUTORS.txt file in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openremote.test.protocol
+
+import io.netty.channel.nio.NioEventLoopGroup
+import org.openremote.agent.protocol.io.NettyEventLoops
+import org.openremote.container.concurrent.QueueBackpressure
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.BooleanSupplier
+import java.util.function.IntSupplier
+
+class QueueBackpressureTest extends Specification {
+
+    def "Check producers are paused whilst the queue is full except on IO event loop threads"() {
+
+        given: "the backpressure of a full queue"
+        def queueSize = new AtomicInteger(10)
+        def backpressure = new QueueBackpressure("test", { queueSize.get() } as IntSupplier, 8, 300, { false } as BooleanSupplier)
+        def executor = Executors.newSingleThreadExecutor()
+        def eventLoopGroup = new NioEventLoopGroup(1)
+        def await = {
+            long start = System.currentTimeMillis()
+            backpressure.await()
+            return System.currentTimeMillis() - start
+        } as Callable<Long>
+
+        when: "a producer on a worker thread sends whilst the queue stays full"
+        def elapsed = executor.submit(await).get(5, TimeUnit.SECONDS)
+
+        then: "it should be paused until the maximum wait has elapsed"
+        elapsed >= 300
+        backpressure.pausedCount == 1
+        backpressure.timeoutCount == 1
+        backpressure.nonBlockingCount == 0
+
+        when: "a producer on a thread of the shared IO event loop group sends"
+        elapsed = NettyEventLoops.getEventLoopGroup().submit(await).get(5, TimeUnit.SECONDS)
+
+        then: "it should not be paused but counted"
+        elapsed < 300
+        backpressure.pausedCount == 1
+        backpressure.nonBlockingCount == 1
+
+        when: "a producer on a thread of another event loop group sends"
+        elapsed = eventLoopGroup.submit(await).get(5, TimeUnit.SECONDS)
+
+        then: "it should not be paused either"
+        elapsed < 300
+        backpressure.pausedCount == 1
+        backpressure.nonBlockingCount == 2
+
+        when: "the queue has drained below the high water mark"
+        queueSize.set(2)
+        elapsed = executor.submit(await).get(5, TimeUnit.SECONDS)
+
+        then: "producers should not be paused or counted"
+        elapsed < 300
+        backpressure.pausedCount == 1
+        backpressure.nonBlockingCount == 2
+        !QueueBackpressure.isNonBlockingThread()
+
+        cleanup: "the executor and event loop group are stopped"
+        executor?.shutdownNow()
+        eventLoopGroup?.shutdownGracefully()
+    }
+}
@@ -24,6 +24,7 @@ import io.netty.handler.codec.string.StringDecoder
 import io.netty.handler.codec.string.StringEncoder
 import io.netty.util.CharsetUtil
 import org.openremote.agent.protocol.io.AbstractNettyIOClient
+import org.openremote.agent.protocol.io.NettyEventLoops
 import org.openremote.agent.protocol.tcp.TCPIOClient
 import org.openremote.agent.protocol.tcp.TCPStringServer
 import org.openremote.model.asset.agent.ConnectionStatus
@@ -31,6 +32,8 @@ import org.openremote.test.ManagerContainerTrait
 import spock.lang.Specification
 import spock.util.concurrent.PollingConditions
 
+import java.util.concurrent.CopyOnWriteArrayList
+
 /**
  * This tests the {@link TCPIOClient} by creating a simple echo server that the client communicates with
  */
@@ -189,4 +192,96 @@ class TcpClientTest extends Specification implements ManagerContainerTrait {
         client.disconnect()
         echoServer.stop()
     }
+
+    def "Check clients share the IO event loop group and count their traffic"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.2)
+
+        and: "the container is started"
+        def container = startContainer(defaultConfig(), [])
+
+        and: "the shared event loop group is limited to two threads"
+        NettyEventLoops.shutdown()
+        NettyEventLoops.configure(2)
+
+        and: "a simple TCP echo server"
+        def echoServerPort = findEphemeralPort()
+        def echoServer = new TCPStringServer(new InetSocketAddress("127.0.0.1", echoServerPort), ";", Integer.MAX_VALUE, true)
+        echoServer.addMessageConsumer({
+            message, channel, sender -> echoServer.sendMessage(message)
+        })
+        echoServer.start()
+        conditions.eventually {
+            assert echoServer.channelFuture.isDone()
+            assert echoServer.channelFuture.isSuccess()
+        }
+
+        when: "more clients than event loop threads connect to the server"
+        List<TCPIOClient<String>> clients = (1..10).collect {
+            TCPIOClient<String> client = new TCPIOClient<String>("127.0.0.1", echoServerPort)
+            client.setEncoderDecoderProvider({
+                [new StringEncoder(CharsetUtil.UTF_8),
+                 new StringDecoder(CharsetUtil.UTF_8),
+                 new AbstractNettyIOClient.MessageToMessageDecoder<String>(String.class, client)].toArray(new ChannelHandler[0])
+            })
+            client
+        }
+        Map<TCPIOClient<String>, List<String>> receivedMessages = clients.collectEntries { client ->
+            List<String> messages = new CopyOnWriteArrayList<>()
+            client.addMessageConsumer({ message -> messages.add(message) })
+            [(client): messages]
+        }
+        clients.each { it.connect() }
+
+        then: "all clients should be connected and registered"
+        conditions.eventually {
+            assert clients.every { it.connectionStatus == ConnectionStatus.CONNECTED }
+            assert echoServer.allChannels.size() == clients.size()
+            assert NettyEventLoops.getClients().containsAll(clients)
+        }
+
+        and: "all clients should run on the two threads of the shared event loop group"
+        def sharedGroup = NettyEventLoops.getEventLoopGroup()
+        assert NettyEventLoops.getThreadCount() == 2
+        assert clients.every { NettyEventLoops.isShared(it.workerGroup) }
+        def eventLoops = clients.collect { it.channel.eventLoop() }.unique()
+        assert eventLoops.size() <= 2
+        assert eventLoops.every { eventLoop -> sharedGroup.iterator().any { it.is(eventLoop) } }
+
+        when: "each client sends a message to the server"
+        clients.eachWithIndex { client, i -> client.sendMessage("Client " + i + ";") }
+
+        then: "each client should get its message back and count its traffic"
+        conditions.eventually {
+            clients.eachWithIndex { client, i ->
+                assert receivedMessages[client].contains("Client " + i)
+                def metrics = client.getChannelMetrics()
+                assert metrics.connects == 1
+                assert metrics.messagesWritten >= 1
+                assert metrics.bytesWritten >= ("Client " + i + ";").length()
+                assert metrics.messagesRead >= 1
+                assert metrics.bytesRead >= ("Client " + i).length()
+                assert metrics.lastReadMillis > 0
+                assert metrics.lastWriteMillis > 0
+            }
+        }
+
+        when: "the clients disconnect"
+        clients.each { it.disconnect() }
+
+        then: "the clients should be unregistered and the shared group should keep running"
+        conditions.eventually {
+            assert clients.every { it.connectionStatus == ConnectionStatus.DISCONNECTED }
+            assert clients.every { !NettyEventLoops.getClients().contains(it) }
+        }
+        assert !sharedGroup.isShuttingDown()
+        assert NettyEventLoops.isShared(sharedGroup)
+
+        cleanup: "the server should be stopped and the shared group reset"
+        clients?.each { it.disconnect() }
+        echoServer?.stop()
+        NettyEventLoops.configure(NettyEventLoops.IO_EVENT_LOOP_THREADS_DEFAULT)
+        NettyEventLoops.shutdown()
+    }
 }
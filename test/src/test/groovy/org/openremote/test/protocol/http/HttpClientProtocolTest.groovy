@@ -25,6 +25,7 @@ import org.jboss.resteasy.util.BasicAuthHelper
 import org.openremote.agent.protocol.http.HTTPAgent
 import org.openremote.agent.protocol.http.HTTPAgentLink
 import org.openremote.agent.protocol.http.HTTPMethod
+import org.openremote.agent.protocol.http.HTTPPollingScheduler
 import org.openremote.agent.protocol.http.HTTPProtocol
 import org.openremote.container.web.OAuthServerResponse
 import org.openremote.manager.agent.AgentService
@@ -72,6 +73,9 @@ class HttpClientProtocolTest extends Specification implements ManagerContainerTr
         private int successCount = 0
         private int failureCount = 0
         private String dynamicPathParam = ""
+        private String conditionalVersion = "version1"
+        private Date conditionalLastModified = new Date()
+        private List<List<Object>> conditionalRequests = Collections.synchronizedList([])
 
         @Override
         void filter(ClientRequestContext requestContext) throws IOException {
@@ -91,6 +95,24 @@ class HttpClientProtocolTest extends Specification implements ManagerContainerTr
                         }
                     }
                     break
+                case "https://mockapi/get_poll_conditional":
+                    // Record the conditional request headers and respond with not modified if the entity tag matches
+                    def ifNoneMatch = requestContext.getHeaderString(HttpHeaders.IF_NONE_MATCH)
+                    def notModified = ifNoneMatch != null && ifNoneMatch.contains(conditionalVersion)
+                    conditionalRequests.add([
+                        System.currentTimeMillis(),
+                        ifNoneMatch,
+                        requestContext.getHeaderString(HttpHeaders.IF_MODIFIED_SINCE),
+                        notModified
+                    ])
+                    requestContext.abortWith(notModified
+                        ? Response.notModified(new EntityTag(conditionalVersion)).build()
+                        : Response.ok(conditionalVersion, MediaType.TEXT_PLAIN)
+                            .tag(new EntityTag(conditionalVersion))
+                            .lastModified(conditionalLastModified)
+                            .build()
+                    )
+                    return
                 case "https://mockapi/token":
                     // OAuth token request extract the grant info
                     def grant = ((Form) requestContext.getEntity()).asMap()
@@ -230,6 +252,8 @@ class HttpClientProtocolTest extends Specification implements ManagerContainerTr
         mockServer.successCount = 0
         mockServer.failureCount = 0
         mockServer.putRequestWithHeadersCalled = false
+        mockServer.conditionalVersion = "version1"
+        mockServer.conditionalRequests.clear()
     }
 
     def "Check HTTP client protocol and linked attribute deployment"() {
@@ -366,6 +390,44 @@ class HttpClientProtocolTest extends Specification implements ManagerContainerTr
             assert asset.getAttribute("getPollFast").flatMap({it.value}).orElse(null) == 60
         }
 
+        and: "each polling request should be executed by its own poll"
+        assert HTTPProtocol.pollingScheduler.getPollCount() == 2
+
+        when: "another asset is created with an attribute that polls the same request"
+        def sharedPollAsset = new ThingAsset("Test Shared Poll Asset")
+            .setParent(agent)
+            .addOrReplaceAttributes(
+                new Attribute<>("getPollSlowShared", INTEGER)
+                    .addMeta(
+                        new MetaItem<>(AGENT_LINK, new HTTPAgentLink(agent.id)
+                            .setPath("get_poll_slow")
+                            .setPollingMillis(50)
+                            .setValueFilters(
+                                [
+                                    new RegexValueFilter(Pattern.compile("\\d+"))
+                                ] as ValueFilter[]
+                            )
+                        )
+                    )
+            )
+        sharedPollAsset = assetStorageService.merge(sharedPollAsset)
+
+        then: "the attribute should receive the responses of the existing poll"
+        conditions.eventually {
+            assert ((HTTPProtocol)agentService.getProtocolInstance(agent.id)).requestMap.size() == 5
+            sharedPollAsset = assetStorageService.find(sharedPollAsset.getId(), true)
+            assert sharedPollAsset.getAttribute("getPollSlowShared").flatMap({it.value}).orElse(null) == 100
+            assert HTTPProtocol.pollingScheduler.getPollCount() == 2
+        }
+
+        when: "the shared poll asset is deleted"
+        assetStorageService.delete([sharedPollAsset.id])
+
+        then: "the attribute should be unlinked"
+        conditions.eventually {
+            assert ((HTTPProtocol)agentService.getProtocolInstance(agent.id)).requestMap.size() == 4
+        }
+
         when: "a linked attribute value is updated"
         def attributeEvent = new AttributeEvent(asset.id,
             "putRequestWithHeaders",
@@ -497,4 +559,98 @@ class HttpClientProtocolTest extends Specification implements ManagerContainerTr
             assert mockServer.successCount == 1
         }
     }
+
+    def "Check HTTP client protocol conditional polling requests"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 15, initialDelay: 1)
+        def pollingMillis = 500
+
+        and: "the HTTP client protocol min times are adjusted for testing"
+        HTTPProtocol.MIN_POLLING_MILLIS = 10
+
+        expect: "the first execution of a poll to only be delayed by a small jitter"
+        (1..100).every {
+            HTTPProtocol.pollingScheduler.getInitialDelayMillis(pollingMillis) <= pollingMillis * HTTPPollingScheduler.JITTER_FACTOR &&
+                HTTPProtocol.pollingScheduler.getInitialDelayMillis(3600000) < HTTPPollingScheduler.MAX_INITIAL_DELAY_MILLIS
+        }
+
+        when: "the container starts"
+        def container = startContainer(defaultConfig(), defaultServices())
+        def assetStorageService = container.getService(AssetStorageService.class)
+
+        and: "the web target builder is configured to use the mock server"
+        if (!HTTPProtocol.client.configuration.isRegistered(mockServer)) {
+            HTTPProtocol.client.register(mockServer, Integer.MAX_VALUE)
+        }
+
+        and: "a HTTP client agent is created"
+        HTTPAgent agent = new HTTPAgent("Test conditional agent")
+            .setRealm(Constants.MASTER_REALM)
+            .setBaseURI("https://mockapi")
+        agent = assetStorageService.merge(agent)
+
+        then: "the connection status should become CONNECTED"
+        conditions.eventually {
+            agent = assetStorageService.find(agent.id, HTTPAgent.class)
+            assert agent.getAgentStatus().orElse(ConnectionStatus.DISCONNECTED) == ConnectionStatus.CONNECTED
+        }
+
+        when: "an asset is created with an attribute that polls the server"
+        def asset = new ThingAsset("Test Conditional Poll Asset")
+            .setParent(agent)
+            .addOrReplaceAttributes(
+                new Attribute<>("conditionalPoll", TEXT)
+                    .addMeta(
+                        new MetaItem<>(AGENT_LINK, new HTTPAgentLink(agent.id)
+                            .setPath("get_poll_conditional")
+                            .setPollingMillis(pollingMillis)
+                        )
+                    )
+            )
+        asset = assetStorageService.merge(asset)
+
+        then: "the attribute should have the value of the first response"
+        conditions.eventually {
+            asset = assetStorageService.find(asset.getId(), true)
+            assert asset.getAttribute("conditionalPoll").flatMap({it.value}).orElse(null) == "version1"
+        }
+
+        and: "the following requests should be conditional requests that are not modified"
+        conditions.eventually {
+            assert mockServer.conditionalRequests.size() >= 2
+            def request = mockServer.conditionalRequests[1]
+            assert request[1].contains("version1")
+            assert request[2] != null
+            assert request[3]
+        }
+
+        and: "the polling interval should back off while the server responds with not modified"
+        conditions.eventually {
+            def requests = new ArrayList<>(mockServer.conditionalRequests)
+            assert requests.size() >= 5
+            assert requests[-1][0] - requests[-2][0] >= 3 * pollingMillis
+        }
+
+        when: "the response of the server changes"
+        mockServer.conditionalLastModified = new Date()
+        mockServer.conditionalVersion = "version2"
+
+        then: "the attribute should have the value of the changed response"
+        conditions.eventually {
+            asset = assetStorageService.find(asset.getId(), true)
+            assert asset.getAttribute("conditionalPoll").flatMap({it.value}).orElse(null) == "version2"
+        }
+
+        and: "the polling interval should be reset and the new entity tag should be sent"
+        conditions.eventually {
+            def requests = new ArrayList<>(mockServer.conditionalRequests)
+            def changedIndex = requests.findIndexOf { !it[3] && it[1] != null && it[1].contains("version1") }
+            assert changedIndex > 0
+            assert requests.size() > changedIndex + 1
+            assert requests[changedIndex + 1][0] - requests[changedIndex][0] < 2 * pollingMillis
+            assert requests[changedIndex + 1][1].contains("version2")
+            assert requests[changedIndex + 1][3]
+        }
+    }
 }
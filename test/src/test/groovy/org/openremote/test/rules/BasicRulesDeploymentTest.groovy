@@ -301,4 +301,80 @@ class BasicRulesDeploymentTest extends Specification implements ManagerContainer
 //            assert tenantCity.isRunning()
 //        }
     }
+
+    def "Check deployed rulesets are known while rules engines are updated"() {
+
+        given: "expected conditions"
+        def conditions = new PollingConditions(timeout: 10, delay: 0.2)
+
+        and: "the container is started"
+        def container = startContainer(defaultConfig(), defaultServices())
+        def managerTestSetup = container.getService(SetupService.class).getTaskOfType(ManagerTestSetup.class)
+        def keycloakTestSetup = container.getService(SetupService.class).getTaskOfType(KeycloakTestSetup.class)
+        def rulesService = container.getService(RulesService.class)
+        def rulesetStorageService = container.getService(RulesetStorageService.class)
+
+        and: "some test rulesets have been imported"
+        def rulesImport = new BasicRulesImport(rulesetStorageService, keycloakTestSetup, managerTestSetup)
+
+        expect: "the rules engines to be ready"
+        conditions.eventually {
+            rulesImport.assertEnginesReady(rulesService, keycloakTestSetup, managerTestSetup)
+        }
+
+        and: "deployed global, tenant and asset rulesets to be known"
+        def globalRuleset = rulesetStorageService.find(GlobalRuleset.class, rulesImport.globalRulesetId)
+        def tenantRuleset = rulesetStorageService.find(TenantRuleset.class, rulesImport.masterRulesetId)
+        def assetRuleset = rulesetStorageService.find(AssetRuleset.class, rulesImport.apartment2RulesetId)
+        assert rulesService.isRulesetKnown(globalRuleset)
+        assert rulesService.isRulesetKnown(tenantRuleset)
+        assert rulesService.isRulesetKnown(assetRuleset)
+
+        and: "rulesets with different rules or that are not deployed to be unknown"
+        assert !rulesService.isRulesetKnown(rulesetStorageService.find(GlobalRuleset.class, rulesImport.globalRulesetId).setRules("// Changed rules"))
+        assert !rulesService.isRulesetKnown(rulesetStorageService.find(TenantRuleset.class, rulesImport.tenantCityRulesetId))
+        assert !rulesService.isRulesetKnown(new GlobalRuleset("Unknown rules", GROOVY, "").setId(Long.MAX_VALUE))
+
+        when: "rulesets are checked while global rulesets are deployed and removed"
+        def checking = true
+        List<Throwable> errors = Collections.synchronizedList([])
+        def checkedKnown = 0
+        def checker = Thread.start {
+            while (checking) {
+                try {
+                    if (rulesService.isRulesetKnown(globalRuleset) && rulesService.isRulesetKnown(assetRuleset)) {
+                        checkedKnown++
+                    }
+                } catch (Throwable t) {
+                    errors.add(t)
+                }
+            }
+        }
+        List<Long> addedRulesetIds = (1..5).collect {
+            rulesetStorageService.merge(new GlobalRuleset(
+                "Some more global rules " + it, GROOVY,
+                getClass().getResource("/org/openremote/test/rules/BasicMatchAllAssetStates2.groovy").text
+            )).id
+        }
+        conditions.eventually {
+            addedRulesetIds.each { assert rulesService.isRulesetKnown(rulesetStorageService.find(GlobalRuleset.class, it)) }
+        }
+        List<GlobalRuleset> addedRulesets = addedRulesetIds.collect { rulesetStorageService.find(GlobalRuleset.class, it) }
+        addedRulesetIds.each { rulesetStorageService.delete(GlobalRuleset.class, it) }
+
+        then: "the removed rulesets should no longer be known"
+        conditions.eventually {
+            addedRulesets.each { assert !rulesService.isRulesetKnown(it) }
+        }
+
+        when: "checking stops"
+        checking = false
+        checker.join()
+
+        then: "the existing rulesets should have been known without any checks failing"
+        assert errors.isEmpty()
+        assert checkedKnown > 0
+        assert rulesService.isRulesetKnown(globalRuleset)
+        assert rulesService.isRulesetKnown(assetRuleset)
+    }
 }
@@ -5,14 +5,25 @@ import groovy.transform.ToString
 import org.openremote.container.Container
 import org.openremote.container.timer.TimerService
 import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.rules.AssetQueryPredicate
 import org.openremote.manager.rules.RulesClock
 import org.openremote.manager.rules.RulesEngine
 import org.openremote.manager.rules.RulesFacts
 import org.openremote.manager.rules.facade.AssetsFacade
+import org.openremote.model.asset.Asset
+import org.openremote.model.asset.impl.RoomAsset
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.query.AssetQuery
+import org.openremote.model.query.filter.TenantPredicate
+import org.openremote.model.rules.AssetState
 import spock.lang.Specification
 
 import java.util.stream.Collectors
 
+import static org.openremote.model.value.ValueType.NUMBER
+
 class BasicRulesFactsTest extends Specification {
 
     @ToString(includeNames = true)
@@ -41,6 +52,8 @@ class BasicRulesFactsTest extends Specification {
     }
 
     def assetsFacade
+    def timerService
+    def assetStorageService
     RulesFacts rulesFacts
 
     def setupSpec() {
@@ -51,8 +64,8 @@ class BasicRulesFactsTest extends Specification {
     def setup() {
         given: "some rule facts"
         assetsFacade = Mock(AssetsFacade)
-        def timerService = new TimerService()
-        def assetStorageService = new AssetStorageService()
+        timerService = new TimerService()
+        assetStorageService = new AssetStorageService()
         timerService.clock = TimerService.Clock.PSEUDO
         rulesFacts = new RulesFacts(timerService, assetStorageService, assetsFacade, this, RulesEngine.RULES_LOG)
 
@@ -398,4 +411,121 @@ class BasicRulesFactsTest extends Specification {
         assert !rulesFacts.hasTemporaryFacts()
         assert rulesFacts.match(AnonFact).count() == 0
     }
+
+    protected static AssetState<?> createAssetState(Asset<?> asset, String attributeName, Object value) {
+        return new AssetState<>(asset, new Attribute<>(attributeName, NUMBER, value as Double), AttributeEvent.Source.INTERNAL)
+    }
+
+    protected Set<AssetState<?>> matchAllAssetStates(AssetQuery query) {
+        return rulesFacts.matchAssetState(new AssetQueryPredicate(timerService, assetStorageService, query)).collect(Collectors.toSet())
+    }
+
+    def "Match asset states through indexes"() {
+
+        given: "asset states of thing and room assets in two realms with two parents"
+        List<Asset<?>> assets = (1..20).collect {
+            Asset<?> asset = it == 20 ? new RoomAsset("Asset " + it) : new ThingAsset("Asset " + it)
+            def parentId = it <= 10 ? "parent1" : "parent2"
+            asset.id = "asset" + it
+            asset.realm = it % 2 == 1 ? "realmA" : "realmB"
+            asset.parentId = parentId
+            asset.path = ["asset" + it, parentId] as String[]
+            asset
+        }
+        assets.eachWithIndex { asset, i ->
+            rulesFacts.putAssetState(createAssetState(asset, "temperature", i))
+            if (i % 5 == 0) {
+                rulesFacts.putAssetState(createAssetState(asset, "humidity", i))
+            }
+        }
+
+        expect: "queries using each index to match the same asset states as matching all asset states"
+        [
+            new AssetQuery().ids("asset3", "asset4").attributeName("temperature"),
+            new AssetQuery().attributeName("humidity"),
+            new AssetQuery().parents("parent2").tenant(new TenantPredicate("realmA")),
+            new AssetQuery().tenant(new TenantPredicate("realmB")).attributeName("temperature"),
+            new AssetQuery().types(RoomAsset.class),
+            new AssetQuery().ids("unknown")
+        ].each { query ->
+            def expected = matchAllAssetStates(query)
+            assert rulesFacts.matchAssetState(query).collect(Collectors.toSet()) == expected
+        }
+
+        and: "the matched asset states should be the expected ones"
+        rulesFacts.matchAssetState(new AssetQuery().ids("asset3", "asset4").attributeName("temperature")).count() == 2
+        rulesFacts.matchAssetState(new AssetQuery().attributeName("humidity")).count() == 4
+        rulesFacts.matchAssetState(new AssetQuery().parents("parent2").tenant(new TenantPredicate("realmA"))).count() == 6
+        rulesFacts.matchAssetState(new AssetQuery().types(RoomAsset.class)).count() == 1
+        rulesFacts.matchAssetState(new AssetQuery().ids("unknown")).count() == 0
+
+        when: "an asset state is replaced with a new value"
+        rulesFacts.putAssetState(createAssetState(assets[2], "temperature", 100))
+
+        then: "the new value should be matched"
+        rulesFacts.assetStates.size() == 24
+        rulesFacts.getAssetState("asset3", "temperature").flatMap{it.value}.orElse(null) == 100d
+        rulesFacts.matchAssetState(new AssetQuery().ids("asset3").attributeName("temperature")).collect(Collectors.toList())*.value*.orElse(null) == [100d]
+
+        when: "an asset state is removed"
+        rulesFacts.removeAssetState(createAssetState(assets[0], "humidity", 0))
+
+        then: "it should no longer be matched through any index"
+        rulesFacts.assetStates.size() == 23
+        rulesFacts.matchAssetState(new AssetQuery().attributeName("humidity")).count() == 3
+        rulesFacts.matchAssetState(new AssetQuery().ids("asset1")).count() == 1
+        rulesFacts.matchAssetState(new AssetQuery().tenant(new TenantPredicate("realmA"))).count() == 11
+
+        when: "a query instance is reused after it has been modified"
+        def query = new AssetQuery().ids("asset1")
+        def firstMatch = rulesFacts.matchAssetState(query).count()
+        query.ids("asset2")
+        def secondMatch = rulesFacts.matchAssetState(query).collect(Collectors.toList())
+
+        then: "the modified query should be used"
+        firstMatch == 1
+        secondMatch.size() == 1
+        secondMatch[0].id == "asset2"
+    }
+
+    def "Match asset states of a moved asset through indexes"() {
+
+        given: "asset states of an asset in a realm and parent"
+        def asset = new ThingAsset("Moving asset")
+        asset.id = "moving1"
+        asset.realm = "realmA"
+        asset.parentId = "parent1"
+        asset.path = ["moving1", "parent1"] as String[]
+        rulesFacts.putAssetState(createAssetState(asset, "temperature", 1))
+        rulesFacts.putAssetState(createAssetState(asset, "humidity", 1))
+
+        expect: "the asset states to be matched by the parent and realm"
+        rulesFacts.matchAssetState(new AssetQuery().parents("parent1")).count() == 2
+        rulesFacts.matchAssetState(new AssetQuery().tenant(new TenantPredicate("realmA"))).count() == 2
+
+        when: "the asset is moved to another parent and realm and its asset states are updated"
+        def movedAsset = new ThingAsset("Moving asset")
+        movedAsset.id = "moving1"
+        movedAsset.realm = "realmB"
+        movedAsset.parentId = "parent2"
+        movedAsset.path = ["moving1", "parent2"] as String[]
+        rulesFacts.putAssetState(createAssetState(movedAsset, "temperature", 2))
+        rulesFacts.putAssetState(createAssetState(movedAsset, "humidity", 2))
+
+        then: "the asset states should only be matched by the new parent and realm"
+        rulesFacts.assetStates.size() == 2
+        rulesFacts.matchAssetState(new AssetQuery().parents("parent1")).count() == 0
+        rulesFacts.matchAssetState(new AssetQuery().tenant(new TenantPredicate("realmA"))).count() == 0
+        rulesFacts.matchAssetState(new AssetQuery().parents("parent2")).collect(Collectors.toList())*.value*.orElse(null) == [2d, 2d]
+        rulesFacts.matchAssetState(new AssetQuery().tenant(new TenantPredicate("realmB"))).count() == 2
+
+        when: "an asset state is removed using a state with the old parent and realm"
+        rulesFacts.removeAssetState(createAssetState(asset, "humidity", 1))
+
+        then: "it should no longer be matched through any index"
+        rulesFacts.assetStates.size() == 1
+        rulesFacts.matchAssetState(new AssetQuery().parents("parent2")).count() == 1
+        rulesFacts.matchAssetState(new AssetQuery().tenant(new TenantPredicate("realmB"))).count() == 1
+        rulesFacts.matchAssetState(new AssetQuery().attributeName("humidity")).count() == 0
+    }
 }
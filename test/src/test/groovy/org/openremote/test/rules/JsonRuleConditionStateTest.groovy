@@ -0,0 +1,205 @@
+package org.openremote.test.rules
+
+import org.openremote.container.Container
+import org.openremote.container.timer.TimerService
+import org.openremote.manager.asset.AssetStorageService
+import org.openremote.manager.rules.RulesEngine
+import org.openremote.manager.rules.RulesFacts
+import org.openremote.manager.rules.facade.AssetsFacade
+import org.openremote.model.PersistenceEvent
+import org.openremote.model.asset.Asset
+import org.openremote.model.asset.impl.RoomAsset
+import org.openremote.model.asset.impl.ThingAsset
+import org.openremote.model.attribute.Attribute
+import org.openremote.model.attribute.AttributeEvent
+import org.openremote.model.query.AssetQuery
+import org.openremote.model.query.filter.AttributePredicate
+import org.openremote.model.query.filter.DateTimePredicate
+import org.openremote.model.query.filter.NumberPredicate
+import org.openremote.model.rules.AssetState
+import org.openremote.model.rules.json.RuleCondition
+import spock.lang.Specification
+
+import static java.util.concurrent.TimeUnit.SECONDS
+import static org.openremote.model.value.ValueType.NUMBER
+import static org.openremote.model.value.ValueType.TIMESTAMP
+
+class JsonRuleConditionStateTest extends Specification {
+
+    // The condition state class is internal to the JSON rules builder so it is accessed reflectively
+    static final Class<?> RULE_CONDITION_STATE_CLASS = Class.forName("org.openremote.manager.rules.JsonRulesBuilder\$RuleConditionState")
+
+    def timerService
+    RulesFacts rulesFacts
+    Asset<?> thing1
+    Asset<?> thing2
+    Asset<?> room
+
+    def setupSpec() {
+        // Init logging config
+        Container.LOG.info("Running test...")
+    }
+
+    def setup() {
+        given: "some rule facts"
+        timerService = new TimerService()
+        timerService.clock = TimerService.Clock.PSEUDO
+        rulesFacts = new RulesFacts(timerService, new AssetStorageService(), Mock(AssetsFacade), this, RulesEngine.RULES_LOG)
+
+        and: "some assets"
+        thing1 = new ThingAsset("Thing 1").setId("thing1").setRealm("master")
+        thing2 = new ThingAsset("Thing 2").setId("thing2").setRealm("master")
+        room = new RoomAsset("Room").setId("room").setRealm("master")
+    }
+
+    protected def createConditionState(AssetQuery query) {
+        RuleCondition ruleCondition = new RuleCondition()
+        ruleCondition.assets = query
+        def constructor = RULE_CONDITION_STATE_CLASS.getDeclaredConstructor(RuleCondition.class, boolean.class, TimerService.class)
+        constructor.accessible = true
+        return constructor.newInstance(ruleCondition, false, timerService)
+    }
+
+    protected AssetState<?> putAssetState(Asset<?> asset, String attributeName, Object value) {
+        AssetState<?> assetState = new AssetState<>(asset, new Attribute<>(attributeName, NUMBER, value as Double), AttributeEvent.Source.INTERNAL)
+        rulesFacts.putAssetState(assetState)
+        return assetState
+    }
+
+    def "Only re-evaluate a JSON rule condition when a relevant asset state changes"() {
+
+        given: "temperature asset states of two things and a room"
+        putAssetState(thing1, "temperature", 10)
+        putAssetState(thing2, "temperature", 15)
+        AssetState<?> roomState = putAssetState(room, "temperature", 50)
+
+        and: "a condition matching things with a temperature greater than 20"
+        def conditionState = createConditionState(
+            new AssetQuery()
+                .types(ThingAsset.class)
+                .attributes(new AttributePredicate("temperature", new NumberPredicate(20, AssetQuery.Operator.GREATER_THAN))))
+
+        expect: "the condition not to be time dependent"
+        assert !conditionState.timeDependent
+
+        when: "the condition state is initialised and updated"
+        conditionState.updateUnfilteredAssetStates(rulesFacts, null)
+        conditionState.update([:])
+        def firstResult = conditionState.lastEvaluationResult
+
+        then: "only the thing asset states should be tracked and nothing should match"
+        assert conditionState.unfilteredAssetStates.size() == 2
+        assert firstResult != null
+        assert !firstResult.matches
+
+        when: "the asset state of the room changes"
+        roomState = putAssetState(room, "temperature", 60)
+        conditionState.updateUnfilteredAssetStates(rulesFacts, new RulesEngine.AssetStateChangeEvent(PersistenceEvent.Cause.UPDATE, roomState))
+        conditionState.update([:])
+
+        then: "the previous result should be reused"
+        assert conditionState.lastEvaluationResult.is(firstResult)
+        assert conditionState.unfilteredAssetStates.size() == 2
+
+        when: "an asset state that is not covered by the query is created"
+        AssetState<?> roomHumidityState = putAssetState(room, "humidity", 70)
+        conditionState.updateUnfilteredAssetStates(rulesFacts, new RulesEngine.AssetStateChangeEvent(PersistenceEvent.Cause.CREATE, roomHumidityState))
+        conditionState.update([:])
+
+        then: "the previous result should still be reused"
+        assert conditionState.lastEvaluationResult.is(firstResult)
+
+        when: "the asset state of a thing changes so it matches"
+        AssetState<?> thing2State = putAssetState(thing2, "temperature", 25)
+        conditionState.updateUnfilteredAssetStates(rulesFacts, new RulesEngine.AssetStateChangeEvent(PersistenceEvent.Cause.UPDATE, thing2State))
+
+        then: "the previous result should be cleared"
+        assert conditionState.lastEvaluationResult == null
+
+        when: "the condition is updated"
+        conditionState.update([:])
+
+        then: "the thing should match"
+        assert conditionState.lastEvaluationResult.matches
+        assert conditionState.lastEvaluationResult.matchedAssetIds == ["thing2"]
+
+        when: "the matching asset is deleted"
+        conditionState.lastEvaluationResult = null
+        conditionState.updateUnfilteredAssetStates(rulesFacts, new RulesEngine.AssetStateChangeEvent(PersistenceEvent.Cause.DELETE, thing2State))
+        conditionState.update([:])
+
+        then: "nothing should match"
+        assert conditionState.unfilteredAssetStates.size() == 1
+        assert !conditionState.lastEvaluationResult.matches
+    }
+
+    def "Re-evaluate a JSON rule condition that depends on time or on an expired recurrence"() {
+
+        given: "asset states of two things"
+        putAssetState(thing1, "temperature", 25)
+        putAssetState(thing2, "temperature", 30)
+        rulesFacts.putAssetState(new AssetState<>(thing1, new Attribute<>("lastSeen", TIMESTAMP, timerService.currentTimeMillis), AttributeEvent.Source.INTERNAL))
+
+        expect: "date time predicates to be time dependent"
+        assert RULE_CONDITION_STATE_CLASS.isTimeDependent(new AttributePredicate("lastSeen", new DateTimePredicate(AssetQuery.Operator.LESS_THAN, "PT1H")))
+        assert !RULE_CONDITION_STATE_CLASS.isTimeDependent(new AttributePredicate("temperature", new NumberPredicate(20)))
+
+        when: "a time dependent condition is evaluated without a match"
+        def timeConditionState = createConditionState(
+            new AssetQuery()
+                .types(ThingAsset.class)
+                .attributes(new AttributePredicate("lastSeen", new DateTimePredicate(AssetQuery.Operator.GREATER_THAN, "P1D"))))
+        timeConditionState.updateUnfilteredAssetStates(rulesFacts, null)
+        timeConditionState.update([:])
+        def firstTimeResult = timeConditionState.lastEvaluationResult
+
+        then: "the condition should be time dependent and not match"
+        assert timeConditionState.timeDependent
+        assert !firstTimeResult.matches
+
+        when: "the condition is updated again without any asset state changes"
+        timeConditionState.update([:])
+
+        then: "the condition should have been evaluated again"
+        assert !timeConditionState.lastEvaluationResult.is(firstTimeResult)
+
+        when: "a condition is evaluated while both things have an active recurrence timer"
+        def conditionState = createConditionState(
+            new AssetQuery()
+                .types(ThingAsset.class)
+                .attributes(new AttributePredicate("temperature", new NumberPredicate(20, AssetQuery.Operator.GREATER_THAN))))
+        Map<String, Long> nextRecurAssetIdMap = [
+            thing1: timerService.currentTimeMillis + 60000L,
+            thing2: timerService.currentTimeMillis + 60000L
+        ]
+        conditionState.updateUnfilteredAssetStates(rulesFacts, null)
+        conditionState.update(nextRecurAssetIdMap)
+        def firstResult = conditionState.lastEvaluationResult
+
+        then: "nothing should match"
+        assert !firstResult.matches
+
+        when: "the condition is updated again before the recurrence timers expire"
+        conditionState.update(nextRecurAssetIdMap)
+
+        then: "the previous result should be reused"
+        assert conditionState.lastEvaluationResult.is(firstResult)
+
+        when: "the recurrence timers expire"
+        timerService.clock.advanceTime(61, SECONDS)
+        nextRecurAssetIdMap.clear()
+        conditionState.clearUnmatchedResult()
+        conditionState.update(nextRecurAssetIdMap)
+
+        then: "the condition should be evaluated again and both things should match"
+        assert conditionState.lastEvaluationResult.matches
+        assert conditionState.lastEvaluationResult.matchedAssetIds.toSet() == ["thing1", "thing2"].toSet()
+
+        when: "a matching result is cleared as unmatched"
+        def matchedResult = conditionState.lastEvaluationResult
+        conditionState.clearUnmatchedResult()
+
+        then: "the matching result should be kept"
+        assert conditionState.lastEvaluationResult.is(matchedResult)
+    }
+}